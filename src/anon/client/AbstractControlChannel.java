@@ -94,10 +94,10 @@ public abstract class AbstractControlChannel extends AbstractChannel
 			{
 				/* we also send empty packages (maybe this is necessary for interaction) */
 				MixPacket currentMixPacket = createEmptyMixPacket();
-				int currentPacketLength = Math.min(bytesToSend, currentMixPacket.getPayloadData().length);
+				int currentPacketLength = Math.min(bytesToSend, MixPacket.getPayloadSize());
 				currentMixPacket.setChannelFlags( (short) currentPacketLength);
-				System.arraycopy(a_message, a_message.length - bytesToSend, currentMixPacket.getPayloadData(),
-								 0, currentPacketLength);
+				System.arraycopy(a_message, a_message.length - bytesToSend, currentMixPacket.getRawPacket(),
+								 MixPacket.getPayloadOffset(), currentPacketLength);
 				sendPacket(currentMixPacket);
 				bytesToSend = bytesToSend - currentPacketLength;
 			}
@@ -113,7 +113,7 @@ public abstract class AbstractControlChannel extends AbstractChannel
 	public void processReceivedPacket(MixPacket a_mixPacket)
 	{
 		int packetDataLength = a_mixPacket.getChannelFlags();
-		if ( (packetDataLength > a_mixPacket.getPayloadData().length) || (packetDataLength < 0))
+		if ( (packetDataLength > MixPacket.getPayloadSize()) || (packetDataLength < 0))
 		{
 			/* something is wrong here -> ignore the packet */
 			LogHolder.log(LogLevel.ERR, LogType.NET,
@@ -122,7 +122,7 @@ public abstract class AbstractControlChannel extends AbstractChannel
 		else
 		{
 			byte[] packetData = new byte[packetDataLength];
-			System.arraycopy(a_mixPacket.getPayloadData(), 0, packetData, 0, packetDataLength);
+			System.arraycopy(a_mixPacket.getRawPacket(), MixPacket.getPayloadOffset(), packetData, 0, packetDataLength);
 			processPacketData(packetData);
 		}
 	}
@@ -42,6 +42,7 @@ import java.util.Vector;
 
 import anon.AnonChannel;
 import anon.TooMuchDataForPacketException;
+import anon.util.ThreadFactory;
 
 
 /**
@@ -309,7 +310,7 @@ public abstract class AbstractDataChain implements AnonChannel, Observer, Runnab
     m_outputStream = new DataChainOutputStreamImplementation();
     m_messageQueuesNotifications = new Vector();
     m_chainClosed = false;
-    m_downstreamThread = new Thread(this, "AbstractDataChain: Downstream-Organizer Thread");
+    m_downstreamThread = ThreadFactory.getInstance().createThread(this, "AbstractDataChain: Downstream-Organizer Thread");
     m_downstreamThread.setDaemon(true);
     m_downstreamThread.start();
   }
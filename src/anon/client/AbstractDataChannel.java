@@ -67,8 +67,12 @@ public abstract class AbstractDataChannel extends AbstractChannel {
   }
 
   public void processReceivedPacket(MixPacket a_mixPacket) {
+    /* the payload is handed over to the data chain, so it must not share the buffer of the
+     * packet
+     */
+    byte[] payloadData = a_mixPacket.getPayloadCopy();
     /* do decryption */
-    m_mixCipherChain.decryptPacket(a_mixPacket.getPayloadData());
+    m_mixCipherChain.decryptPacket(payloadData);
     /* catch all dummies (shouldn't be used any more in the future) */
     if ((a_mixPacket.getChannelFlags() & FLAG_CHANNEL_DUMMY) == FLAG_CHANNEL_DUMMY) {
       /* we haven't ordered any dummies -> normally we shouldn't receive any
@@ -77,7 +81,7 @@ public abstract class AbstractDataChannel extends AbstractChannel {
     }
     else {
       /* further handling is done by the channel-implementation */
-      handleReceivedPacket(a_mixPacket);
+      handleReceivedPacket(a_mixPacket, payloadData);
     }
   }
 
@@ -93,22 +97,23 @@ public abstract class AbstractDataChannel extends AbstractChannel {
   protected void createAndSendMixPacket(DataChainSendOrderStructure a_order, short a_channelFlags) {
     MixPacket packet = createEmptyMixPacket();
     packet.setChannelFlags(a_channelFlags);
+    int payloadLength = MixPacket.getPayloadSize();
     synchronized (m_mixCipherChain) {
-      a_order.setChannelCell(new byte[packet.getPayloadData().length - m_mixCipherChain.getNextPacketEncryptionOverhead()]);
+      a_order.setChannelCell(new byte[payloadLength - m_mixCipherChain.getNextPacketEncryptionOverhead()]);
       /* initalize the channel cell with payload from the mixpacket (payload
        * should be initialized with random bytes -> channel cell will be
        * initialized with random bytes) -> we take the payload from the end of
        * the mixpacket for initialization
        */
-      System.arraycopy(packet.getPayloadData(), packet.getPayloadData().length - a_order.getChannelCell().length, a_order.getChannelCell(), 0, a_order.getChannelCell().length);
+      System.arraycopy(packet.getRawPacket(), MixPacket.getPayloadOffset() + payloadLength - a_order.getChannelCell().length, a_order.getChannelCell(), 0, a_order.getChannelCell().length);
       if (a_order.getOrderData() != null) {
         /* messages without order-data are channel-internal and needs no interaction with
          * the parent chain
          */
         m_parentDataChain.createPacketPayload(a_order);
       }
-      byte[] encryptedPacketPayload = m_mixCipherChain.encryptPacket(a_order.getChannelCell(), packet.getPayloadData().length, packet.getSendCallbackHandlers());
-      System.arraycopy(encryptedPacketPayload, 0, packet.getPayloadData(), 0, packet.getPayloadData().length);
+      byte[] encryptedPacketPayload = m_mixCipherChain.encryptPacket(a_order.getChannelCell(), payloadLength, packet.getSendCallbackHandlers());
+      System.arraycopy(encryptedPacketPayload, 0, packet.getRawPacket(), MixPacket.getPayloadOffset(), payloadLength);
       try {
         sendPacket(packet);
       }
@@ -125,6 +130,11 @@ public abstract class AbstractDataChannel extends AbstractChannel {
   public abstract void organizeChannelClose() throws IOException;
 
 
-  protected abstract void handleReceivedPacket(MixPacket a_mixPacket);
+  /**
+   * Handles a received packet of this channel.
+   * @param a_mixPacket the received packet; it is released after this method returns
+   * @param a_payloadData the decrypted payload of the packet
+   */
+  protected abstract void handleReceivedPacket(MixPacket a_mixPacket, byte[] a_payloadData);
 
 }
@@ -351,6 +351,15 @@ public class AnonClient implements AnonService, Observer, DataChainErrorListener
 				m_socketHandler = null;
 			}
 		}
+		
+		PacketCounter packetCounter = m_packetCounter;
+		if (packetCounter != null)
+		{
+			/* report the packets processed since the last sample; no lock is held here as the
+			 * observers may need to synchronize with other threads
+			 */
+			packetCounter.stop();
+		}
 		synchronized (SYNC_SHUTDOWN)
 		{
 			if (m_threadInitialise != null)
@@ -374,10 +383,6 @@ public class AnonClient implements AnonService, Observer, DataChainErrorListener
 		}
 		synchronized (m_internalSynchronization)
 		{
-			if (m_multiplexer != null)
-			{
-				m_multiplexer.deleteObservers();
-			}
 			m_multiplexer = null;
 			m_connected = false;
 
@@ -812,15 +817,16 @@ public class AnonClient implements AnonService, Observer, DataChainErrorListener
 			if (m_packetCounter != null)
 			{
 				// there has been a previous connection
-				m_packetCounter = new PacketCounter(m_packetCounter.getProcessedPackets());
+				m_packetCounter = new PacketCounter(m_multiplexer.getPacketStatistics(),
+													m_packetCounter.getProcessedPackets());
 			}
 			else
 			{
-				m_packetCounter = new PacketCounter();
+				m_packetCounter = new PacketCounter(m_multiplexer.getPacketStatistics());
 			}
 
-			m_multiplexer.addObserver(m_packetCounter);
 			m_packetCounter.addObserver(this);
+			m_packetCounter.start();
 			synchronized (m_internalSynchronizationForDummyTraffic)
 			{
 				m_dummyTrafficControlChannel =
@@ -34,6 +34,9 @@ package anon.client;
 import java.security.SecureRandom;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
+
+import anon.util.IntObjectHashtable;
 
 import logging.LogHolder;
 import logging.LogLevel;
@@ -54,7 +57,46 @@ public class ChannelTable implements IDataChannelCreator {
   public static final int CONTROL_CHANNEL_ID_TEST = 255;
   
   
-  private static final int MAX_OPEN_DATACHANNELS = 50;
+  /**
+   * The number of data channels which may be open at the beginning (this was
+   * the fixed limit in former versions).
+   */
+  private static final int INITIAL_OPEN_DATACHANNELS = 50;
+  
+  /**
+   * The limit of open data channels is never decreased below this value.
+   */
+  private static final int MIN_OPEN_DATACHANNELS = 20;
+  
+  /**
+   * The default upper bound for the adaptive limit of open data channels.
+   */
+  private static final int DEFAULT_MAX_OPEN_DATACHANNELS = 100;
+  
+  /**
+   * If the smoothed round trip time of new channels exceeds the base round
+   * trip time by this factor, the cascade is considered as congested and the
+   * limit of open data channels is decreased.
+   */
+  private static final int CONGESTION_FACTOR = 3;
+  
+  /**
+   * Round trip times below this value (in milliseconds) are not considered
+   * as congestion.
+   */
+  private static final long MIN_CONGESTION_ROUND_TRIP = 100;
+  
+  /**
+   * The base round trip time is the minimum of the round trip times measured
+   * within the last two periods of this number of samples.
+   */
+  private static final int ROUND_TRIP_PERIOD_SAMPLES = 128;
+  
+  /**
+   * Every n-th free channel is given to a waiting bulk request even if there
+   * are interactive requests waiting (avoids starvation).
+   */
+  private static final int BULK_REQUEST_INTERVAL = 4;
   
   /**
    * The minimum Channel-ID in the reserved area for ControlChannels
@@ -72,11 +114,49 @@ public class ChannelTable implements IDataChannelCreator {
   private static final int MAX_RESERVED_CHANNEL_ID = 255;
   
   
+  private static int ms_maxOpenDataChannels = DEFAULT_MAX_OPEN_DATACHANNELS;
+  
+  
   private IDataChannelFactory m_dataChannelFactory;
   
-  private Hashtable m_channelTable;
+  /**
+   * Maps the channel-IDs to ChannelTableEntry instances. This is also the
+   * monitor for all other members of the table.
+   */
+  private IntObjectHashtable m_channelTable;
 
-  private volatile int m_availableDataChannels;
+  /**
+   * Stores the number of open data channels for every data chain.
+   */
+  private Hashtable m_openChannelsPerChain;
+  
+  private int m_openDataChannels;
+  
+  private int m_dataChannelLimit;
+  
+  private int m_maxDataChannelLimit;
+  
+  private Vector m_interactiveRequests;
+  
+  private Vector m_bulkRequests;
+  
+  private int m_grantsSinceBulkRequest;
+  
+  private long m_smoothedRoundTrip;
+  
+  private long m_baseRoundTrip;
+  
+  private long m_periodMinRoundTrip;
+  
+  private int m_periodSamples;
+  
+  private long m_lastLimitDecrease;
+  
+  private long m_queuedRequests;
+  
+  private long m_totalQueueWait;
+  
+  private long m_maxQueueWait;
   
   private SecureRandom m_channelIdGenerator;
   
@@ -85,31 +165,78 @@ public class ChannelTable implements IDataChannelCreator {
   
   public ChannelTable(IDataChannelFactory a_dataChannelFactory, SecureRandom a_channelIdGenerator) {
     m_dataChannelFactory = a_dataChannelFactory;
-    m_channelTable = new Hashtable();
-    m_availableDataChannels = MAX_OPEN_DATACHANNELS;
+    m_channelTable = new IntObjectHashtable();
+    m_openChannelsPerChain = new Hashtable();
+    m_maxDataChannelLimit = Math.max(MIN_OPEN_DATACHANNELS, ms_maxOpenDataChannels);
+    m_dataChannelLimit = Math.min(INITIAL_OPEN_DATACHANNELS, m_maxDataChannelLimit);
+    m_interactiveRequests = new Vector();
+    m_bulkRequests = new Vector();
     m_channelIdGenerator = a_channelIdGenerator;
     m_tableClosed = false;
   }
   
   
+  /**
+   * Sets the upper bound for the adaptive limit of open data channels of
+   * channel tables created after this call. Attention: The first mix may
+   * enforce an own limit.
+   * 
+   * @param a_maxOpenDataChannels The maximum number of open data channels per
+   *                              cascade connection.
+   */
+  public static void setMaximumOpenDataChannels(int a_maxOpenDataChannels) {
+    ms_maxOpenDataChannels = a_maxOpenDataChannels;
+  }
+  
+  public static int getMaximumOpenDataChannels() {
+    return ms_maxOpenDataChannels;
+  }
+  
+  
   public AbstractChannel getChannel(int a_channelId) {
-    AbstractChannel returnedChannel = null;
     synchronized (m_channelTable) {
-      returnedChannel = (AbstractChannel)(m_channelTable.get(new Integer(a_channelId)));      
+      ChannelTableEntry entry = (ChannelTableEntry)(m_channelTable.get(a_channelId));
+      if (entry != null) {
+        return entry.channel;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Returns the channel a received packet belongs to. The first packet
+   * received on a data channel is used for measuring the round trip time of
+   * the channel open, which controls the limit of open data channels.
+   * 
+   * @param a_channelId The channel-ID of the received packet.
+   * 
+   * @return The channel or null, if there is no channel with that ID.
+   */
+  public AbstractChannel getReceivingChannel(int a_channelId) {
+    synchronized (m_channelTable) {
+      ChannelTableEntry entry = (ChannelTableEntry)(m_channelTable.get(a_channelId));
+      if (entry == null) {
+        return null;
+      }
+      if (entry.openTime != 0) {
+        addRoundTripSample(System.currentTimeMillis() - entry.openTime);
+        entry.openTime = 0;
+      }
+      return entry.channel;
     }
-    return returnedChannel;
   }
   
   public void removeChannel(int a_channelId) {
     synchronized (m_channelTable) {
       if (!m_tableClosed) {
-        AbstractChannel removedChannel = (AbstractChannel)(m_channelTable.remove(new Integer(a_channelId)));
-        if (removedChannel instanceof AbstractDataChannel) {
-          m_availableDataChannels++;
-          /* notify waiting threads about the available channel */
-          m_channelTable.notifyAll();
-        }
-        if (removedChannel != null) {
+        ChannelTableEntry removedEntry = (ChannelTableEntry)(m_channelTable.remove(a_channelId));
+        if (removedEntry != null) {
+          if (removedEntry.channel instanceof AbstractDataChannel) {
+            m_openDataChannels--;
+            removeChainChannel(removedEntry.parentDataChain);
+            /* give the available channel to the waiting threads */
+            grantWaitingRequests();
+          }
           LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: removeChannel(): Removed channel with ID '" + Integer.toString(a_channelId) + "' from table.");
         }
       }
@@ -119,7 +246,7 @@ public class ChannelTable implements IDataChannelCreator {
   public void registerControlChannel(int a_channelId, AbstractControlChannel a_controlChannel) {
     synchronized (m_channelTable) {
       if (!m_tableClosed) {
-        m_channelTable.put(new Integer(a_channelId), a_controlChannel);
+        m_channelTable.put(a_channelId, new ChannelTableEntry(a_controlChannel, null, 0));
         LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: registerControlChannel(): Registered ControlChannel with ID '" + Integer.toString(a_channelId) + "'.");
       }
       else {
@@ -135,29 +262,37 @@ public class ChannelTable implements IDataChannelCreator {
     return ((a_channelId > 0) && (a_channelId <= MAX_RESERVED_CHANNEL_ID));
   }
   
+  /**
+   * Creates a new data channel. If the limit of open data channels is
+   * reached, the caller is queued until another data channel is closed. The
+   * first channel of a data chain (interactive request) is preferred to
+   * further channels of chains which have already open channels (bulk
+   * transfers).
+   * 
+   * @param a_parentDataChain The data chain the channel belongs to.
+   * 
+   * @return The created channel or null, if the calling thread was
+   *         interrupted while waiting.
+   */
   public AbstractDataChannel createDataChannel(AbstractDataChain a_parentDataChain) {
     AbstractDataChannel createdChannel = null;
     synchronized (m_channelTable) {
-      try {
-        while ((m_availableDataChannels <= 0) && (!m_tableClosed)) {
-          m_channelTable.wait();
-        }
-        if (!m_tableClosed) {
-          int channelId = getFreeChannelId();
-          createdChannel = m_dataChannelFactory.createDataChannel(channelId, a_parentDataChain);
-          m_channelTable.put(new Integer(channelId), createdChannel);
-          m_availableDataChannels--;
-          LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: createDataChannel(): Created DataChannel with ID '" + Integer.toString(channelId) + "'.");
-        }
-        else {
-          /* create a dummy-channel and call multiplexerClosed() immediately */
-          createdChannel = m_dataChannelFactory.createDataChannel(0, a_parentDataChain);
-          createdChannel.multiplexerClosed();
-        }
+      if ((!m_tableClosed) && (!acquireDataChannel(a_parentDataChain))) {
+        /* we were interrupted */
+        return null;
+      }
+      if (!m_tableClosed) {
+        int channelId = getFreeChannelId();
+        createdChannel = m_dataChannelFactory.createDataChannel(channelId, a_parentDataChain);
+        m_channelTable.put(channelId, new ChannelTableEntry(createdChannel, a_parentDataChain, System.currentTimeMillis()));
+        addChainChannel(a_parentDataChain);
+        LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: createDataChannel(): Created DataChannel with ID '" + Integer.toString(channelId) + "'.");
+      }
+      else {
+        /* create a dummy-channel and call multiplexerClosed() immediately */
+        createdChannel = m_dataChannelFactory.createDataChannel(0, a_parentDataChain);
+        createdChannel.multiplexerClosed();
       }
-      catch (InterruptedException e) {
-        /* do nothing */
-      }     
     }
     return createdChannel;
   }
@@ -167,19 +302,230 @@ public class ChannelTable implements IDataChannelCreator {
       m_tableClosed = true;
       Enumeration channels = m_channelTable.elements();
       while (channels.hasMoreElements()) {
-        AbstractChannel currentChannel = (AbstractChannel)(channels.nextElement());
+        AbstractChannel currentChannel = ((ChannelTableEntry)(channels.nextElement())).channel;
         currentChannel.multiplexerClosed();
       }
       m_channelTable.clear();
-      m_availableDataChannels = MAX_OPEN_DATACHANNELS;
+      m_openChannelsPerChain.clear();
+      m_openDataChannels = 0;
+      m_interactiveRequests.removeAllElements();
+      m_bulkRequests.removeAllElements();
       LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: closeChannelTable(): Removed all channels from table.");
       /* maybe there are some threads waiting because of the data-channel
        * limit -> notify them
        */
       m_channelTable.notifyAll();
     }
+    if (m_dataChannelFactory != null) {
+      m_dataChannelFactory.closeFactory();
+    }
+  }
+  
+  /**
+   * Returns the current (adaptive) limit of open data channels.
+   */
+  public int getDataChannelLimit() {
+    synchronized (m_channelTable) {
+      return m_dataChannelLimit;
+    }
+  }
+  
+  public int getOpenDataChannels() {
+    synchronized (m_channelTable) {
+      return m_openDataChannels;
+    }
+  }
+  
+  /**
+   * Returns the number of threads currently waiting for a data channel.
+   */
+  public int getWaitingRequests() {
+    synchronized (m_channelTable) {
+      return (m_interactiveRequests.size() + m_bulkRequests.size());
+    }
+  }
+  
+  /**
+   * Returns the number of channel requests which had to wait because the
+   * limit of open data channels was reached.
+   */
+  public long getQueuedRequests() {
+    synchronized (m_channelTable) {
+      return m_queuedRequests;
+    }
+  }
+  
+  /**
+   * Returns the average time (in milliseconds) a queued channel request had
+   * to wait for a free data channel.
+   */
+  public long getAverageQueueWait() {
+    synchronized (m_channelTable) {
+      if (m_queuedRequests == 0) {
+        return 0;
+      }
+      return (m_totalQueueWait / m_queuedRequests);
+    }
+  }
+  
+  /**
+   * Returns the maximum time (in milliseconds) a channel request had to wait
+   * for a free data channel.
+   */
+  public long getMaximumQueueWait() {
+    synchronized (m_channelTable) {
+      return m_maxQueueWait;
+    }
+  }
+  
+  /**
+   * Returns the smoothed round trip time (in milliseconds) between opening a
+   * data channel and receiving the first packet on it.
+   */
+  public long getSmoothedRoundTrip() {
+    synchronized (m_channelTable) {
+      return m_smoothedRoundTrip;
+    }
+  }
+  
+  
+  /**
+   * Reserves an open data channel for the caller. If the limit of open data
+   * channels is reached, the caller waits in the queue for its priority
+   * until a channel is granted. Synchronization with the channel-table has to
+   * be done by the caller.
+   * 
+   * @param a_parentDataChain The data chain which requests the channel.
+   * 
+   * @return True, if a channel was granted or the table was closed while
+   *         waiting, false if the calling thread was interrupted.
+   */
+  private boolean acquireDataChannel(AbstractDataChain a_parentDataChain) {
+    if ((m_openDataChannels < m_dataChannelLimit) && (m_interactiveRequests.size() == 0) && (m_bulkRequests.size() == 0)) {
+      m_openDataChannels++;
+      return true;
+    }
+    ChannelRequest request = new ChannelRequest();
+    Vector requestQueue = m_bulkRequests;
+    if ((a_parentDataChain == null) || (m_openChannelsPerChain.get(a_parentDataChain) == null)) {
+      requestQueue = m_interactiveRequests;
+    }
+    requestQueue.addElement(request);
+    long startTime = System.currentTimeMillis();
+    try {
+      while ((!request.granted) && (!m_tableClosed)) {
+        m_channelTable.wait();
+      }
+    }
+    catch (InterruptedException e) {
+      requestQueue.removeElement(request);
+      if (request.granted) {
+        /* give the granted channel to the next waiting thread */
+        m_openDataChannels--;
+        grantWaitingRequests();
+      }
+      return false;
+    }
+    long queueWait = System.currentTimeMillis() - startTime;
+    m_queuedRequests++;
+    m_totalQueueWait = m_totalQueueWait + queueWait;
+    m_maxQueueWait = Math.max(m_maxQueueWait, queueWait);
+    return true;
+  }
+  
+  /**
+   * Grants free data channels to the waiting requests. Synchronization with
+   * the channel-table has to be done by the caller.
+   */
+  private void grantWaitingRequests() {
+    boolean requestGranted = false;
+    while ((m_openDataChannels < m_dataChannelLimit) && ((m_interactiveRequests.size() > 0) || (m_bulkRequests.size() > 0))) {
+      Vector requestQueue = m_interactiveRequests;
+      if ((m_interactiveRequests.size() == 0) || ((m_bulkRequests.size() > 0) && (m_grantsSinceBulkRequest >= BULK_REQUEST_INTERVAL - 1))) {
+        requestQueue = m_bulkRequests;
+        m_grantsSinceBulkRequest = 0;
+      }
+      else {
+        m_grantsSinceBulkRequest++;
+      }
+      ChannelRequest request = (ChannelRequest)(requestQueue.firstElement());
+      requestQueue.removeElementAt(0);
+      request.granted = true;
+      m_openDataChannels++;
+      requestGranted = true;
+    }
+    if (requestGranted) {
+      m_channelTable.notifyAll();
+    }
   }
   
+  /**
+   * Adapts the limit of open data channels to a new round trip sample
+   * (additive increase, multiplicative decrease). The limit is only
+   * increased while requests are waiting and decreased at most once per
+   * round trip time if the round trip time rises significantly above the
+   * base round trip time. Synchronization with the channel-table has to be
+   * done by the caller.
+   * 
+   * @param a_roundTrip The measured round trip time in milliseconds.
+   */
+  private void addRoundTripSample(long a_roundTrip) {
+    if (m_smoothedRoundTrip == 0) {
+      m_smoothedRoundTrip = a_roundTrip;
+      m_baseRoundTrip = a_roundTrip;
+      m_periodMinRoundTrip = a_roundTrip;
+    }
+    else {
+      m_smoothedRoundTrip = (7 * m_smoothedRoundTrip + a_roundTrip) / 8;
+    }
+    /* the base round trip time follows changes of the route */
+    m_periodMinRoundTrip = Math.min(m_periodMinRoundTrip, a_roundTrip);
+    m_baseRoundTrip = Math.min(m_baseRoundTrip, a_roundTrip);
+    m_periodSamples++;
+    if (m_periodSamples >= ROUND_TRIP_PERIOD_SAMPLES) {
+      m_baseRoundTrip = m_periodMinRoundTrip;
+      m_periodMinRoundTrip = a_roundTrip;
+      m_periodSamples = 0;
+    }
+    long currentTime = System.currentTimeMillis();
+    if (m_smoothedRoundTrip > CONGESTION_FACTOR * Math.max(m_baseRoundTrip, MIN_CONGESTION_ROUND_TRIP)) {
+      if ((m_dataChannelLimit > MIN_OPEN_DATACHANNELS) && (currentTime - m_lastLimitDecrease > m_smoothedRoundTrip)) {
+        m_dataChannelLimit = Math.max(MIN_OPEN_DATACHANNELS, (m_dataChannelLimit * 3) / 4);
+        m_lastLimitDecrease = currentTime;
+        LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: addRoundTripSample(): Cascade seems to be congested (round trip " + Long.toString(m_smoothedRoundTrip) + " ms) - decreased limit of open data channels to " + Integer.toString(m_dataChannelLimit) + ".");
+      }
+    }
+    else if ((m_dataChannelLimit < m_maxDataChannelLimit) && ((m_interactiveRequests.size() > 0) || (m_bulkRequests.size() > 0))) {
+      m_dataChannelLimit++;
+      LogHolder.log(LogLevel.DEBUG, LogType.NET, "ChannelTable: addRoundTripSample(): Increased limit of open data channels to " + Integer.toString(m_dataChannelLimit) + ".");
+      grantWaitingRequests();
+    }
+  }
+  
+  private void addChainChannel(AbstractDataChain a_parentDataChain) {
+    if (a_parentDataChain == null) {
+      return;
+    }
+    int[] openChannels = (int[])(m_openChannelsPerChain.get(a_parentDataChain));
+    if (openChannels == null) {
+      openChannels = new int[1];
+      m_openChannelsPerChain.put(a_parentDataChain, openChannels);
+    }
+    openChannels[0]++;
+  }
+  
+  private void removeChainChannel(AbstractDataChain a_parentDataChain) {
+    if (a_parentDataChain == null) {
+      return;
+    }
+    int[] openChannels = (int[])(m_openChannelsPerChain.get(a_parentDataChain));
+    if (openChannels != null) {
+      openChannels[0]--;
+      if (openChannels[0] <= 0) {
+        m_openChannelsPerChain.remove(a_parentDataChain);
+      }
+    }
+  }
   
   /**
    * Returns an available DataChannel-ID. The returned value is an ID which is
@@ -194,11 +540,39 @@ public class ChannelTable implements IDataChannelCreator {
     int channelId = 0;
     do {
       channelId = m_channelIdGenerator.nextInt();
-    } while (((channelId >= MIN_RESERVED_CHANNEL_ID) && (channelId <= MAX_RESERVED_CHANNEL_ID)) || (getChannel(channelId) != null));
+    } while (((channelId >= MIN_RESERVED_CHANNEL_ID) && (channelId <= MAX_RESERVED_CHANNEL_ID)) || (m_channelTable.containsKey(channelId)));
     /* now the Channel-ID is not in the reserved area and also not already in
      * the channel-table
      */
     return channelId;
   }
   
+  
+  private static class ChannelTableEntry {
+    
+    public AbstractChannel channel;
+    
+    public AbstractDataChain parentDataChain;
+    
+    /**
+     * The time the channel was opened or 0, if the round trip of the channel
+     * was already measured.
+     */
+    public long openTime;
+    
+    public ChannelTableEntry(AbstractChannel a_channel, AbstractDataChain a_parentDataChain, long a_openTime) {
+      channel = a_channel;
+      parentDataChain = a_parentDataChain;
+      openTime = a_openTime;
+    }
+    
+  }
+  
+  
+  private static class ChannelRequest {
+    
+    public boolean granted = false;
+    
+  }
+  
 }
@@ -31,10 +31,10 @@
  */
 package anon.client;
 
+import anon.client.crypto.ChannelCipherPipeline;
 import anon.client.crypto.DefaultMixCipher;
 import anon.client.crypto.FirstMixCipher;
 import anon.client.crypto.IMixCipher;
-import anon.client.crypto.KeyPool;
 import anon.client.crypto.MixCipherChain;
 import anon.client.crypto.SymCipher;
 
@@ -44,77 +44,38 @@ import anon.client.crypto.SymCipher;
  */
 public class DefaultDataChannelFactory implements IDataChannelFactory {
 
-  private static final int SYMMETRIC_CIPHER_KEY_LENGTH = 16;
-  
-  private static final int SYMMETRIC_CIPHER_BLOCK_LENGTH = 16;
-  
-  
   private KeyExchangeManager m_keyExchangeManager;
   
   private Multiplexer m_multiplexer;
   
+  private ChannelCipherPipeline m_cipherPipeline;
+  
   
   public DefaultDataChannelFactory(KeyExchangeManager a_keyExchangeManager, Multiplexer a_multiplexer) {
     m_keyExchangeManager = a_keyExchangeManager;
     m_multiplexer = a_multiplexer;
+    m_cipherPipeline = new ChannelCipherPipeline(m_keyExchangeManager.getMixParameters().length, (m_keyExchangeManager.getFirstMixSymmetricCipher() != null), m_keyExchangeManager.isProtocolWithEnhancedChannelEncryption());
   }
   
   public AbstractDataChannel createDataChannel(int a_channelId, AbstractDataChain a_parentDataChain) {
-    IMixCipher[] mixCiphers = new IMixCipher[m_keyExchangeManager.getMixParameters().length];
+    SymCipher[] channelCiphers = m_cipherPipeline.getChannelCiphers();
+    IMixCipher[] mixCiphers = new IMixCipher[channelCiphers.length];
     for (int i = 0; i < mixCiphers.length; i++) {
       if ((i == 0) && (m_keyExchangeManager.getFirstMixSymmetricCipher() != null)) {
-        /* first mix is using symmetric cipher */
-        SymCipher channelCipher = new SymCipher();
-        byte[] channelKeys;
-        if(m_keyExchangeManager.isProtocolWithEnhancedChannelEncryption())
-        			{
-        				channelKeys= new byte[SYMMETRIC_CIPHER_KEY_LENGTH*2];
-    	   				//KeyPool.getKey(channelKeys);
-    	   				//KeyPool.getKey(channelKeys,SYMMETRIC_CIPHER_KEY_LENGTH);
-        			}
-    	     else
-    	    	 {
-        	channelKeys= new byte[SYMMETRIC_CIPHER_KEY_LENGTH];
-    	   KeyPool.getKey(channelKeys);
-    	    	 }
-        channelCipher.setEncryptionKeysAES(channelKeys);
-        /* initialize the internal buffer of the cipher with a non-standard
-         * value
-         * Attention: The encryption key must not be modified after this
-         *            point because in the default SymCipher-implementation
-         *            a change of the encryption key would also reset the
-         *            initialization of the internal buffer.
+        /* first mix is using symmetric cipher, the channel cipher is already
+         * initialized with the non-standard internal buffer
          */
-        byte[] iv2Buffer = new byte[SYMMETRIC_CIPHER_BLOCK_LENGTH];
-        for (int j = 0; j < iv2Buffer.length; j++) {
-          iv2Buffer[j] = (byte)0xff;
-        }
-        channelCipher.setIV2(iv2Buffer);
-        mixCiphers[i] = new FirstMixCipher(m_keyExchangeManager.getFirstMixSymmetricCipher(), channelCipher);
+        mixCiphers[i] = new FirstMixCipher(m_keyExchangeManager.getFirstMixSymmetricCipher(), channelCiphers[i]);
       }
       else {
         /* current mix is using asymmetric cipher */
-        SymCipher channelCipher = new SymCipher();
-        byte[] channelKeys;
-        if(m_keyExchangeManager.isProtocolWithEnhancedChannelEncryption())
-        			{
-        				channelKeys= new byte[SYMMETRIC_CIPHER_KEY_LENGTH*2];
-    	   				//KeyPool.getKey(channelKeys);
-    	   				//KeyPool.getKey(channelKeys,SYMMETRIC_CIPHER_KEY_LENGTH);
-        			}
-    	     else
-    	    	 {
-        	channelKeys= new byte[SYMMETRIC_CIPHER_KEY_LENGTH];
-    	   KeyPool.getKey(channelKeys);
-    	    	 }
-        channelCipher.setEncryptionKeysAES(channelKeys);
-      /* Attention: Maybe the key is modified again by the MixCipher
+        /* Attention: Maybe the key is modified again by the MixCipher
          * implementation because of necessary adaption to RSA (m < n -> key
          * shouldn't start with a 1) and the current timestamp (can only be
          * done when the first packet is sent). But this is no problem because
          * here no internal buffer needs initialization.
          */
-        mixCiphers[i] = new DefaultMixCipher(m_keyExchangeManager.getMixParameters()[i], channelCipher);        
+        mixCiphers[i] = new DefaultMixCipher(m_keyExchangeManager.getMixParameters()[i], channelCiphers[i]);        
       }
     }
     FixedRatioChannelsDescription channelsDescription = m_keyExchangeManager.getFixedRatioChannelsDescription();
@@ -124,4 +85,12 @@ public class DefaultDataChannelFactory implements IDataChannelFactory {
     }
     return (new SimulatedLimitedDataChannel(a_channelId, m_multiplexer, a_parentDataChain, new MixCipherChain(mixCiphers), channelsDescription.getChannelDownstreamPackets(), channelsDescription.getChannelTimeout()));
   }
+  
+  public void closeFactory() {
+    m_cipherPipeline.stop();
+  }
+  
+  public ChannelCipherPipeline getCipherPipeline() {
+    return m_cipherPipeline;
+  }
 }
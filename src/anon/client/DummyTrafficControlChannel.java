@@ -31,9 +31,6 @@
  */
 package anon.client;
 
-import java.util.Observable;
-import java.util.Observer;
-
 import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
@@ -42,13 +39,13 @@ import anon.IServiceContainer;
 /**
  * This is the implementation for the dummy traffic interval timeout.
  */
-public class DummyTrafficControlChannel extends AbstractControlChannel implements Runnable, Observer
+public class DummyTrafficControlChannel extends AbstractControlChannel implements Runnable
 {
 	public static final int DT_MIN_INTERVAL_MS = 500;
 	public static final int DT_MAX_INTERVAL_MS = 30000;
 	public static final int DT_DISABLE = Integer.MAX_VALUE;
 	
-	private Observable m_observedMultiplexer;
+	private PacketStatistics m_packetStatistics;
 
   /**
    * Stores whether the internal thread shall work (true) or come to the end
@@ -83,12 +80,15 @@ public class DummyTrafficControlChannel extends AbstractControlChannel implement
     m_bRun = false;
     m_threadRunLoop = null;
     m_interval = -1;
-    m_observedMultiplexer = a_multiplexer;
+    m_packetStatistics = a_multiplexer.getPacketStatistics();
   }
 
 
   /**
-   * This is the implementation for the dummy traffic thread.
+   * This is the implementation for the dummy traffic thread. It sleeps until
+   * the dummy traffic interval has passed since the last packet sent or
+   * received on the connection. If no packet has been processed in the
+   * meantime, a dummy packet is sent.
    */
   public void run() 
   {
@@ -97,18 +97,24 @@ public class DummyTrafficControlChannel extends AbstractControlChannel implement
 	  {
 		  try 
 		  {
-			  Thread.sleep(m_interval);
-			  if (m_bRun)
+			  long idleTime = System.currentTimeMillis() - m_packetStatistics.getLastPacketTime();
+			  if (idleTime < m_interval)
+			  {
+				  /* there has been traffic in the meantime, wait for the rest of the interval */
+				  Thread.sleep(m_interval - idleTime);
+			  }
+			  else if (m_bRun)
 			  {
-				  /* if we reach the timeout without interruption, we have to send a dummy */
+				  /* we reached the timeout without any traffic, we have to send a dummy */
 				  LogHolder.log(LogLevel.INFO, LogType.NET, "Sending Dummy!");
 				  sendRawMessage(new byte[0]);
+				  /* the dummy is counted as soon as the send thread has written it */
+				  Thread.sleep(m_interval);
 			  }
 	      }	     
 		  catch (InterruptedException e) 
 		  {
 			  //LogHolder.log(LogLevel.WARNING, LogType.NET, "Dummy thread interrupted!");
-			  /* if we got an interruption within the timeout, everything is ok */
 		  }
       }
   }
@@ -124,7 +130,6 @@ public class DummyTrafficControlChannel extends AbstractControlChannel implement
 	    synchronized (m_internalSynchronization) 
 	    {
 	    	m_bRun = false;
-	    	m_observedMultiplexer.deleteObserver(this);
 	    	
 	    	if (m_threadRunLoop != null) 
 	    	{
@@ -147,24 +152,6 @@ public class DummyTrafficControlChannel extends AbstractControlChannel implement
 	    }
   	}
 
-  /**
-   * This is the Observer implementation. If a packet is sent or received on
-   * the connection, we get a notification from the multiplexer. When we get
-   * that notification the dummy traffic timer can be reset. The next dummy
-   * traffic packet is generated after the next timeout of the dummy traffic
-   * timer if we don't get another notification in the meantime.
-   *
-   * @param a_observer The observed object (Multiplexer).
-   * @param a_argument The notification (PacketProcessedEvent).
-   */
-  public void update(Observable a_observer, Object a_argument) {
-    synchronized (m_internalSynchronization) {
-      if (m_threadRunLoop != null) {
-        m_threadRunLoop.interrupt();
-      }
-    }
-  }
-
   /**
    * Changes the dummy traffic interval.
    *
@@ -229,7 +216,6 @@ public class DummyTrafficControlChannel extends AbstractControlChannel implement
         m_bRun = true;
         m_threadRunLoop = new Thread(this, "JAP - Dummy Traffic");
         m_threadRunLoop.setDaemon(true);
-        m_observedMultiplexer.addObserver(this);
         m_threadRunLoop.start();
       }
     }
@@ -39,4 +39,10 @@ public interface IDataChannelFactory {
 
   public AbstractDataChannel createDataChannel(int a_channelId, AbstractDataChain a_parentDataChain);
   
+  /**
+   * Called when the channel table is closed. Releases all resources the
+   * factory holds for creating new channels.
+   */
+  public void closeFactory();
+  
 }
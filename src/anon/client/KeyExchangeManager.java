@@ -568,16 +568,18 @@ public class KeyExchangeManager {
 			   */
 			  MixPacket keyPacket = new MixPacket(0);
 			  byte[] keyPacketIdentifier = "KEYPACKET".getBytes();
-			  System.arraycopy(keyPacketIdentifier, 0, keyPacket.getPayloadData(), 0,
+			  int payloadOffset = MixPacket.getPayloadOffset();
+			  System.arraycopy(keyPacketIdentifier, 0, keyPacket.getRawPacket(), payloadOffset,
 							   keyPacketIdentifier.length);
 			  byte[] keyBuffer = new byte[32];
 			  KeyPool.getKey(keyBuffer, 0);
 			  KeyPool.getKey(keyBuffer, 16);
-			  System.arraycopy(keyBuffer, 0, keyPacket.getPayloadData(), keyPacketIdentifier.length,
-							   keyBuffer.length);
-			  m_mixParameters[0].getMixCipher().encrypt(keyPacket.getPayloadData(), 0,
-				  keyPacket.getPayloadData(), 0);
+			  System.arraycopy(keyBuffer, 0, keyPacket.getRawPacket(),
+							   payloadOffset + keyPacketIdentifier.length, keyBuffer.length);
+			  m_mixParameters[0].getMixCipher().encrypt(keyPacket.getRawPacket(), payloadOffset,
+				  keyPacket.getRawPacket(), payloadOffset);
 			  a_outputStream.write(keyPacket.getRawPacket());
+			  keyPacket.release();
 			  m_multiplexerInputStreamCipher.setEncryptionKeyAES(keyBuffer, 0, 16);
 			  m_multiplexerOutputStreamCipher.setEncryptionKeyAES(keyBuffer, 16, 16);
 		  }
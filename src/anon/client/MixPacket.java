@@ -31,10 +31,6 @@
  */
 package anon.client;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
@@ -46,9 +42,14 @@ import logging.LogLevel;
 import logging.LogType;
 
 import anon.client.crypto.SymCipher;
+import anon.util.ByteArrayPool;
 
 
 /** 
+ * A packet of the mix protocol. The whole packet (channel id, channel flags and payload) is
+ * kept in one buffer which is taken from a pool and should be given back with release() as
+ * soon as the packet is not needed any more. The header fields are read and written directly
+ * in that buffer.
  * @author Stefan Lieske
  */
 public class MixPacket {
@@ -56,14 +57,17 @@ public class MixPacket {
   private static final int PACKET_SIZE = 998;
   private static final int NON_DATA_LENGTH = 4 + 2; // length of channel id + channel flags
   
-  private static SecureRandom ms_secureRandom;
+  /**
+   * The maximum number of unused packet buffers kept for reuse.
+   */
+  private static final int MAX_POOLED_BUFFERS = 256;
   
-    
-  private int m_channelId;
+  private static SecureRandom ms_secureRandom;
   
-  private short m_channelFlags;
+  private static ByteArrayPool ms_bufferPool;
   
-  private byte[] m_payloadData;
+    
+  private byte[] m_rawPacket;
   
   private Vector m_sendCallbackHandlers;
   
@@ -76,24 +80,31 @@ public class MixPacket {
     return PACKET_SIZE - NON_DATA_LENGTH;
   }
 
+  /**
+   * Returns the position of the payload in the buffer returned by getRawPacket().
+   */
+  public static int getPayloadOffset() {
+    return NON_DATA_LENGTH;
+  }
+
   
   static {
     /* initialize the random-bytes generator */
     ms_secureRandom = new SecureRandom();
+    ms_bufferPool = new ByteArrayPool(PACKET_SIZE, MAX_POOLED_BUFFERS);
   }
   
   
   public MixPacket(InputStream a_inputStream, SymCipher a_inputStreamCipher) throws IOException {
-    m_sendCallbackHandlers = new Vector();
+    m_rawPacket = ms_bufferPool.acquire();
     /* read the packet from the origin stream */    
-    byte[] rawPacket = new byte[PACKET_SIZE];
-    DataInputStream sourceStream = new DataInputStream(a_inputStream);
     try 
     {
-    	sourceStream.readFully(rawPacket);
+      readFully(a_inputStream, m_rawPacket);
     }
     catch(EOFException eofe)
     {
+    	release();
     	LogHolder.log(LogLevel.WARNING, LogType.NET, Thread.currentThread().getName()+": received a truncated packet from a mix: ", eofe);
     	throw eofe;
     }
@@ -105,7 +116,7 @@ public class MixPacket {
 			if (classSocketTimeoutException.isAssignableFrom(a_e.getClass()))
 			{
 				// make another try to evade timeout
-				sourceStream.readFully(rawPacket);
+				readFully(a_inputStream, m_rawPacket);
 			}
 			else
 			{
@@ -114,70 +125,95 @@ public class MixPacket {
 		}
 		catch (ClassNotFoundException e)
 		{
-			// TODO Automatisch erstellter Catch-Block
+			release();
 			throw a_e;
 		}
+		catch (IOException e)
+		{
+			release();
+			throw e;
+		}
     	//java.net.SocketTimeoutException
     }
     	/* do stream-decryption */
     if (a_inputStreamCipher != null) {
-      a_inputStreamCipher.encryptAES1(rawPacket, 0, rawPacket, 0, 16);
+      a_inputStreamCipher.encryptAES1(m_rawPacket, 0, m_rawPacket, 0, 16);
     }
-    /* read channel-id and channel-flags from the packet */
-    DataInputStream packetDataStream = new DataInputStream(new ByteArrayInputStream(rawPacket, 0, NON_DATA_LENGTH));
-    m_channelId = packetDataStream.readInt();
-    m_channelFlags = packetDataStream.readShort();
-    m_payloadData = new byte[rawPacket.length - NON_DATA_LENGTH];
-    System.arraycopy(rawPacket, NON_DATA_LENGTH, m_payloadData, 0, rawPacket.length - NON_DATA_LENGTH);
   }
   
 
   public MixPacket(int a_channelId) {
-    m_sendCallbackHandlers = new Vector();
-    m_channelId = a_channelId;
-    m_channelFlags = 0;
-    m_payloadData = new byte[PACKET_SIZE - NON_DATA_LENGTH];
-    /* initialize payload with random bytes */
-    ms_secureRandom.nextBytes(m_payloadData);
+    m_rawPacket = ms_bufferPool.acquire();
+    /* initialize payload with random bytes (the header is overwritten afterwards) */
+    ms_secureRandom.nextBytes(m_rawPacket);
+    m_rawPacket[0] = (byte) (a_channelId >>> 24);
+    m_rawPacket[1] = (byte) (a_channelId >>> 16);
+    m_rawPacket[2] = (byte) (a_channelId >>> 8);
+    m_rawPacket[3] = (byte) a_channelId;
+    setChannelFlags((short) 0);
   }
   
   
   public int getChannelId() {
-    return m_channelId;
+    return ((m_rawPacket[0] & 0xFF) << 24) | ((m_rawPacket[1] & 0xFF) << 16) |
+      ((m_rawPacket[2] & 0xFF) << 8) | (m_rawPacket[3] & 0xFF);
   }
   
   public short getChannelFlags() {
-    return m_channelFlags;
+    return (short) (((m_rawPacket[4] & 0xFF) << 8) | (m_rawPacket[5] & 0xFF));
   }
   
   public void setChannelFlags(short a_channelFlags) {
-    m_channelFlags = a_channelFlags;
+    m_rawPacket[4] = (byte) (a_channelFlags >>> 8);
+    m_rawPacket[5] = (byte) a_channelFlags;
   }
   
-  public byte[] getPayloadData() {
-    return m_payloadData;
+  /**
+   * Returns a copy of the payload. This is useful if the payload is handed over to other
+   * threads and must outlive the packet.
+   * @return a new array with the payload of this packet
+   */
+  public byte[] getPayloadCopy() {
+    byte[] payload = new byte[PACKET_SIZE - NON_DATA_LENGTH];
+    System.arraycopy(m_rawPacket, NON_DATA_LENGTH, payload, 0, payload.length);
+    return payload;
   }
   
+  /**
+   * Returns the buffer of this packet. It is not copied, so all changes are written directly
+   * to the packet. The payload starts at getPayloadOffset().
+   * @return the whole packet as it is sent to the mix
+   */
   public byte[] getRawPacket() {
-    ByteArrayOutputStream packetHeaderStream = new ByteArrayOutputStream();
-    DataOutputStream packetHeaderDataStream = new DataOutputStream(packetHeaderStream);
-    try {
-      packetHeaderDataStream.writeInt(m_channelId);
-      packetHeaderDataStream.writeShort(m_channelFlags);
-      packetHeaderDataStream.flush();
-    }
-    catch (IOException e) {
-      /* cannot occur */
-    }
-    byte[] rawPacket = new byte[PACKET_SIZE];
-    byte[] packetHeader = packetHeaderStream.toByteArray();
-    System.arraycopy(packetHeader, 0, rawPacket, 0, packetHeader.length);
-    System.arraycopy(m_payloadData, 0, rawPacket, packetHeader.length, m_payloadData.length);
-    return rawPacket;
+    return m_rawPacket;
   }
   
   public Vector getSendCallbackHandlers() {
+    if (m_sendCallbackHandlers == null) {
+      m_sendCallbackHandlers = new Vector();
+    }
     return m_sendCallbackHandlers;
   }
   
+  /**
+   * Gives the buffer of this packet back to the pool. The packet must not be used afterwards.
+   */
+  public void release() {
+    byte[] rawPacket = m_rawPacket;
+    m_rawPacket = null;
+    m_sendCallbackHandlers = null;
+    ms_bufferPool.release(rawPacket);
+  }
+  
+  private static void readFully(InputStream a_inputStream, byte[] a_buffer) throws IOException {
+    int bytesRead = 0;
+    while (bytesRead < a_buffer.length) {
+      int count = a_inputStream.read(a_buffer, bytesRead, a_buffer.length - bytesRead);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      bytesRead += count;
+    }
+  }
+  
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A bounded queue for finished MixPackets which are waiting for the send thread of the
+ * Multiplexer. Packets of control channels are always taken before packets of data channels,
+ * so cost confirmations can be delivered on time in case of data congestion. Both priority
+ * classes are stored in ring buffers of a fixed size, so no objects are created while packets
+ * are queued. Every packet gets a ticket number within its priority class, which a sender may
+ * use to wait until the send thread has written the packet.
+ */
+public class MixPacketQueue
+{
+	private MixPacket[] m_controlPackets;
+	private int m_controlHead;
+	private int m_controlSize;
+
+	private MixPacket[] m_dataPackets;
+	private int m_dataHead;
+	private int m_dataSize;
+
+	/* the number of packets of each priority class that have been queued and written */
+	private long m_controlPacketsQueued;
+	private long m_controlPacketsWritten;
+	private long m_dataPacketsQueued;
+	private long m_dataPacketsWritten;
+
+	private boolean m_bConsumerWaiting;
+	private boolean m_bClosed;
+	private IOException m_closeReason;
+
+	/**
+	 * Creates a new queue.
+	 * @param a_controlCapacity the maximum number of queued control channel packets
+	 * @param a_dataCapacity the maximum number of queued data channel packets
+	 */
+	public MixPacketQueue(int a_controlCapacity, int a_dataCapacity)
+	{
+		if (a_controlCapacity <= 0 || a_dataCapacity <= 0)
+		{
+			throw new IllegalArgumentException("Queue capacity must be positive!");
+		}
+		m_controlPackets = new MixPacket[a_controlCapacity];
+		m_dataPackets = new MixPacket[a_dataCapacity];
+		m_bClosed = false;
+	}
+
+	/**
+	 * Adds a packet to the queue. If there is no free slot for the packet's priority class, the
+	 * calling thread waits until the send thread has taken some packets.
+	 * @param a_packet a finished MixPacket
+	 * @param a_bControlPacket true if the packet belongs to a control channel; false otherwise
+	 * @return the ticket of the packet for waitUntilWritten()
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting
+	 * @throws IOException if the queue has been closed
+	 */
+	public synchronized long put(MixPacket a_packet, boolean a_bControlPacket) throws IOException
+	{
+		try
+		{
+			if (a_bControlPacket)
+			{
+				while (!m_bClosed && m_controlSize == m_controlPackets.length)
+				{
+					wait();
+				}
+			}
+			else
+			{
+				while (!m_bClosed && m_dataSize == m_dataPackets.length)
+				{
+					wait();
+				}
+			}
+		}
+		catch (InterruptedException a_e)
+		{
+			throw new InterruptedIOException(a_e.toString());
+		}
+		if (m_bClosed)
+		{
+			throw getCloseException();
+		}
+
+		long ticket;
+		if (a_bControlPacket)
+		{
+			m_controlPackets[(m_controlHead + m_controlSize) % m_controlPackets.length] = a_packet;
+			m_controlSize++;
+			ticket = ++m_controlPacketsQueued;
+		}
+		else
+		{
+			m_dataPackets[(m_dataHead + m_dataSize) % m_dataPackets.length] = a_packet;
+			m_dataSize++;
+			ticket = ++m_dataPacketsQueued;
+		}
+		if (m_bConsumerWaiting)
+		{
+			/* the queue was empty, so only the send thread may be waiting */
+			m_bConsumerWaiting = false;
+			notifyAll();
+		}
+		return ticket;
+	}
+
+	/**
+	 * Waits until the send thread has written the packet with the given ticket.
+	 * @param a_ticket the ticket returned by put()
+	 * @param a_bControlPacket the priority class the packet was put into
+	 * @throws InterruptedIOException if the calling thread is interrupted while waiting
+	 * @throws IOException if the queue has been closed before the packet was written
+	 */
+	public synchronized void waitUntilWritten(long a_ticket, boolean a_bControlPacket) throws
+		IOException
+	{
+		try
+		{
+			while (getPacketsWritten(a_bControlPacket) < a_ticket)
+			{
+				if (m_bClosed)
+				{
+					throw getCloseException();
+				}
+				wait();
+			}
+		}
+		catch (InterruptedException a_e)
+		{
+			throw new InterruptedIOException(a_e.toString());
+		}
+	}
+
+	/**
+	 * Called by the send thread after it has written the packets it took from the queue.
+	 * @param a_controlPackets the number of written control channel packets
+	 * @param a_dataPackets the number of written data channel packets
+	 */
+	public synchronized void packetsWritten(int a_controlPackets, int a_dataPackets)
+	{
+		m_controlPacketsWritten += a_controlPackets;
+		m_dataPacketsWritten += a_dataPackets;
+		notifyAll();
+	}
+
+	/**
+	 * Takes as many packets as possible from the queue, but at least one. Control channel
+	 * packets are returned before data channel packets. The calling thread waits until a packet
+	 * is available.
+	 * @param a_batch the array that is filled with the packets; it is filled from index 0
+	 * @return the number of packets written to the array or -1 if the queue is closed
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public synchronized int take(MixPacket[] a_batch) throws InterruptedException
+	{
+		while (!m_bClosed && m_controlSize == 0 && m_dataSize == 0)
+		{
+			m_bConsumerWaiting = true;
+			wait();
+		}
+		m_bConsumerWaiting = false;
+		if (m_bClosed)
+		{
+			return -1;
+		}
+
+		int count = 0;
+		while (count < a_batch.length && m_controlSize > 0)
+		{
+			a_batch[count] = m_controlPackets[m_controlHead];
+			m_controlPackets[m_controlHead] = null;
+			m_controlHead = (m_controlHead + 1) % m_controlPackets.length;
+			m_controlSize--;
+			count++;
+		}
+		while (count < a_batch.length && m_dataSize > 0)
+		{
+			a_batch[count] = m_dataPackets[m_dataHead];
+			m_dataPackets[m_dataHead] = null;
+			m_dataHead = (m_dataHead + 1) % m_dataPackets.length;
+			m_dataSize--;
+			count++;
+		}
+		/* wake up the threads waiting for free slots */
+		notifyAll();
+		return count;
+	}
+
+	/**
+	 * Closes the queue. All queued packets are dropped and all threads waiting on the queue are
+	 * released. Threads waiting for a dropped packet get an exception.
+	 * @param a_reason the reason why the queue was closed; it is given to threads that try to
+	 * put packets into the closed queue (may be null)
+	 */
+	public synchronized void close(IOException a_reason)
+	{
+		if (!m_bClosed)
+		{
+			m_bClosed = true;
+			m_closeReason = a_reason;
+			for (int i = 0; i < m_controlPackets.length; i++)
+			{
+				m_controlPackets[i] = null;
+			}
+			for (int i = 0; i < m_dataPackets.length; i++)
+			{
+				m_dataPackets[i] = null;
+			}
+			m_controlSize = 0;
+			m_dataSize = 0;
+			notifyAll();
+		}
+	}
+
+	public synchronized boolean isClosed()
+	{
+		return m_bClosed;
+	}
+
+	public synchronized int size()
+	{
+		return m_controlSize + m_dataSize;
+	}
+
+	private long getPacketsWritten(boolean a_bControlPacket)
+	{
+		return a_bControlPacket ? m_controlPacketsWritten : m_dataPacketsWritten;
+	}
+
+	private IOException getCloseException()
+	{
+		if (m_closeReason == null)
+		{
+			return new IOException("MixPacketQueue: The queue is already closed.");
+		}
+		return new IOException("MixPacketQueue: The queue is already closed: " + m_closeReason.getMessage());
+	}
+}
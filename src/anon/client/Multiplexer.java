@@ -36,12 +36,11 @@ import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.SecureRandom;
-import java.util.Enumeration;
-import java.util.Observable;
 import java.util.Vector;
 
 import anon.client.crypto.ControlChannelCipher;
 import anon.client.crypto.SymCipher;
+import anon.util.ThreadFactory;
 import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
@@ -49,13 +48,26 @@ import logging.LogType;
 /**
  * @author Stefan Lieske
  */
-public class Multiplexer extends Observable implements Runnable
+public class Multiplexer implements Runnable
 {
-	private Vector m_sendJobQueue;
-	private Vector m_controlMessageQueue;
+	/**
+	 * The maximum number of control channel packets waiting for the send thread.
+	 */
+	private static final int MAX_QUEUED_CONTROL_PACKETS = 64;
+
+	/**
+	 * The maximum number of data channel packets waiting for the send thread. Threads that want
+	 * to send more packets are blocked until there is space in the queue again.
+	 */
+	private static final int MAX_QUEUED_DATA_PACKETS = 128;
+
+	/**
+	 * The maximum number of packets the send thread writes before flushing the stream.
+	 */
+	private static final int MAX_SEND_BATCH_SIZE = 32;
+
+	private MixPacketQueue m_sendQueue;
 
-	private Object m_waitQueueObject;
-	
 	private ChannelTable m_channelTable;
 
 	private InputStream m_inputStream;
@@ -68,183 +80,168 @@ public class Multiplexer extends Observable implements Runnable
 	
 	private ControlChannelCipher m_controlchannelCiper;
 
-	private Object m_internalEventSynchronization;
+	private final PacketStatistics m_packetStatistics = new PacketStatistics();
 	
-	private boolean m_bClosed = false;
+	private volatile boolean m_bClosed = false;
 
 	public Multiplexer(InputStream a_inputStream, OutputStream a_outputStream,
 					   KeyExchangeManager a_keyExchangeManager, SecureRandom a_channelIdGenerator)
 	{
-		m_internalEventSynchronization = new Object();
-		m_sendJobQueue = new Vector();
-		m_controlMessageQueue = new Vector();
-		m_waitQueueObject = new Object();
-		
+		this(a_inputStream, a_outputStream, a_keyExchangeManager.getMultiplexerInputStreamCipher(),
+			 a_keyExchangeManager.getMultiplexerOutputStreamCipher(),
+			 a_keyExchangeManager.getControlChannelCipher());
 		m_channelTable = new ChannelTable(new DefaultDataChannelFactory(a_keyExchangeManager, this),
 										  a_channelIdGenerator);
+		startThreads();
+	}
+
+	/**
+	 * Creates a multiplexer with an explicitly given data channel factory. This is used for
+	 * connections to stand-in mixes, e.g. in tests.
+	 */
+	Multiplexer(InputStream a_inputStream, OutputStream a_outputStream,
+				SymCipher a_inputStreamCipher, SymCipher a_outputStreamCipher,
+				IDataChannelFactory a_dataChannelFactory, SecureRandom a_channelIdGenerator)
+	{
+		this(a_inputStream, a_outputStream, a_inputStreamCipher, a_outputStreamCipher, null);
+		m_channelTable = new ChannelTable(a_dataChannelFactory, a_channelIdGenerator);
+		startThreads();
+	}
+
+	private Multiplexer(InputStream a_inputStream, OutputStream a_outputStream,
+						SymCipher a_inputStreamCipher, SymCipher a_outputStreamCipher,
+						ControlChannelCipher a_controlChannelCipher)
+	{
+		m_sendQueue = new MixPacketQueue(MAX_QUEUED_CONTROL_PACKETS, MAX_QUEUED_DATA_PACKETS);
 		m_inputStream = a_inputStream;
-		m_inputStreamCipher = a_keyExchangeManager.getMultiplexerInputStreamCipher();
+		m_inputStreamCipher = a_inputStreamCipher;
 		m_outputStream = a_outputStream;
-		m_outputStreamCipher = a_keyExchangeManager.getMultiplexerOutputStreamCipher();
-		m_controlchannelCiper=a_keyExchangeManager.getControlChannelCipher();
-		Thread downstreamThread = new Thread(this, "Multiplexer: Receive-Thread");
+		m_outputStreamCipher = a_outputStreamCipher;
+		m_controlchannelCiper = a_controlChannelCipher;
+	}
+
+	private void startThreads()
+	{
+		Thread upstreamThread =
+			ThreadFactory.getInstance().createThread(new PacketWriter(), "Multiplexer: Send-Thread");
+		upstreamThread.setDaemon(true);
+		upstreamThread.start();
+		Thread downstreamThread =
+			ThreadFactory.getInstance().createThread(this, "Multiplexer: Receive-Thread");
 		downstreamThread.setDaemon(true);
 		downstreamThread.start();
 	}
 
+	/**
+	 * Hands a finished packet over to the send thread and waits until it has been written.
+	 * Packets of control channels overtake all queued data channel packets. The send thread
+	 * writes the packets of all waiting senders in one batch.
+	 * The caller has to wait, because AbstractChannel only keeps the channel ID reserved while
+	 * sendPacket() runs: a packet that is still queued after its channel has been closed could
+	 * otherwise be sent on a new channel that got the same ID.
+	 * @param a_mixPacket the packet to send
+	 * @throws IOException if the connection to the mix is broken or has been closed before the
+	 * packet was written
+	 */
 	public void sendPacket(MixPacket a_mixPacket) throws IOException
 	{
-		Object ownSynchronizationObject = new Object();
-		boolean coChPacket = m_channelTable.isControlChannelId(a_mixPacket.getChannelId());
-		Vector waitQueue = coChPacket ? m_controlMessageQueue : m_sendJobQueue;
-		
-		synchronized (ownSynchronizationObject)
+		boolean bControlPacket = m_channelTable.isControlChannelId(a_mixPacket.getChannelId());
+		long ticket = m_sendQueue.put(a_mixPacket, bControlPacket);
+		m_sendQueue.waitUntilWritten(ticket, bControlPacket);
+	}
+
+	/**
+	 * The send thread. It takes the queued packets in batches, finalizes and encrypts them and
+	 * writes them to the mix. The stream is flushed once per batch.
+	 */
+	private class PacketWriter implements Runnable
+	{
+		public void run()
 		{
-			boolean waitForAccess = false;
-						
-			synchronized (m_waitQueueObject)
-			{								
-				if(!coChPacket)
-				{
-					if((m_controlMessageQueue.size() > 0) || (m_sendJobQueue.size() > 0))
-					{
-						/* data channel packets have to wait until 
-						 * control channel packets are processed
-						 */
-						waitForAccess = true;
-					}
-				}
-				else
-				{
-					if (m_controlMessageQueue.size() > 0)
-					{
-						/* control channel packets have higher priority and are processed 
-						 * before any data traffic can be transmitted so cost confirmations 
-						 * can be delivered on time in case of data congestion.
-						 */
-						waitForAccess = true;
-						LogHolder.log(LogLevel.WARNING, LogType.NET, "Control channel congestion");
-					}
-				}
-				waitQueue.addElement(ownSynchronizationObject);
-			}
-			if (waitForAccess)
+			MixPacket[] batch = new MixPacket[MAX_SEND_BATCH_SIZE];
+			boolean[] controlPackets = new boolean[MAX_SEND_BATCH_SIZE];
+			int batchSize;
+
+			try
 			{
-				try
+				while ((batchSize = m_sendQueue.take(batch)) > 0)
 				{
-					ownSynchronizationObject.wait();
-				}
-				catch (InterruptedException e)
-				{
-					/* stop waiting, if we get interrupted and remove ourself from the send-queue */
-					Object nextLockObject = null;
-					synchronized (m_waitQueueObject)
+					for (int i = 0; i < batchSize; i++)
 					{
-						waitQueue.removeElement(ownSynchronizationObject);
-						
-						/* just in this moment we should get notified -> notify the next waiting
-						 * thread, if there is one
-						 */
-						/*control channel messages have higher priority */
-						if (m_controlMessageQueue.size() > 0)										 
-						{
-							/* first wake up control channel packets */
-							nextLockObject = m_controlMessageQueue.firstElement();
-						}
-						else if (m_sendJobQueue.size() > 0)
-						{									
-							/* there are more threads waiting to send packets */
-							nextLockObject = m_sendJobQueue.firstElement();
-						}				
+						controlPackets[i] = m_channelTable.isControlChannelId(batch[i].getChannelId());
+						writePacket(batch[i]);
+						batch[i] = null;
 					}
-					if (nextLockObject != null)
+					m_outputStream.flush();
+
+					int controlPacketsSent = 0;
+					for (int i = 0; i < batchSize; i++)
 					{
-						synchronized (nextLockObject)
+						if (controlPackets[i])
 						{
-							/* wake up the next of the waiting threads */
-							nextLockObject.notify();
+							controlPacketsSent++;
 						}
 					}
-					/* now we have cleaned up everything -> throw the origin InterruptedException
-					 * as an InterruptedIOException
-					 */
-					throw (new InterruptedIOException(e.toString()));
+					m_packetStatistics.packetsSent(controlPacketsSent, batchSize - controlPacketsSent);
+					m_sendQueue.packetsWritten(controlPacketsSent, batchSize - controlPacketsSent);
 				}
 			}
-		}
-		
-		/* first call all SendCallbackHandlers to finalize the packet */
-		Enumeration sendCallbackHandlers = a_mixPacket.getSendCallbackHandlers().elements();
-		while (sendCallbackHandlers.hasMoreElements())
-		{
-			( (ISendCallbackHandler) (sendCallbackHandlers.nextElement())).finalizePacket(a_mixPacket);
-		}
-		byte[] packetData = a_mixPacket.getRawPacket();
-		/* do stream-encoding */
-		if (m_outputStreamCipher != null)
-		{
-			m_outputStreamCipher.encryptAES1(packetData, 0, packetData, 0, 16);
-		}
-		/* now we can send the packet */
-		try
-		{
-			m_outputStream.write(packetData);
-			m_outputStream.flush();
-
-			synchronized (m_internalEventSynchronization)
+			catch (InterruptedException e)
+			{
+				m_sendQueue.close(new InterruptedIOException(e.toString()));
+			}
+			catch (IOException e)
 			{
-				setChanged();
-				if (coChPacket)
+				/* all threads that want to send packets get an exception from now on */
+				m_sendQueue.close(e);
+				if (m_bClosed)
 				{
-					/* we've sent a packet on a control channel */
-					notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.CODE_CONTROL_PACKET_SENT));
+					LogHolder.log(LogLevel.NOTICE, LogType.NET, Thread.currentThread().getName() + ": terminated!", e);
 				}
 				else
 				{
-					/* we've sent a packet on a data channel */
-					notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.CODE_DATA_PACKET_SENT));
+					LogHolder.log(LogLevel.EXCEPTION, LogType.NET, Thread.currentThread().getName() + ": terminated!", e);
 				}
 			}
+			catch (Throwable t)
+			{
+				/* a failing callback or cipher must not leave the senders waiting forever */
+				m_sendQueue.close(new IOException(Thread.currentThread().getName() + ": terminated: " + t));
+				LogHolder.log(LogLevel.EXCEPTION, LogType.NET, Thread.currentThread().getName() + ": terminated!", t);
+			}
 		}
-		finally
+
+		private void writePacket(MixPacket a_mixPacket) throws IOException
 		{
-			/* always wake up the next waiting thread */
-			Object nextLockObject = null;
-			
-			synchronized (m_waitQueueObject)
+			/* first call all SendCallbackHandlers to finalize the packet; this has to be done
+			 * in the order of transmission as it depends on the position of the packet in the
+			 * mix-data-stream
+			 */
+			Vector sendCallbackHandlers = a_mixPacket.getSendCallbackHandlers();
+			for (int i = 0; i < sendCallbackHandlers.size(); i++)
 			{
-				/* remove our lock-object from the job-queue */
-				waitQueue.removeElement(ownSynchronizationObject);
-				
-				/* first handle control channel packets that have higher priority */
-				if (m_controlMessageQueue.size() > 0)
-				{
-					/* there are more threads waiting to send packets */
-					nextLockObject = m_controlMessageQueue.firstElement();
-				}
-				else if (m_sendJobQueue.size() > 0)
-				{
-					/* if there no control channel packets to be processed wake
-					 * up other Threads for data transmission
-					 */
-					nextLockObject = m_sendJobQueue.firstElement();
-				}
-				else
-				{
-					m_waitQueueObject.notify();
-				}
+				( (ISendCallbackHandler) (sendCallbackHandlers.elementAt(i))).finalizePacket(a_mixPacket);
 			}
-			if (nextLockObject != null)
+			/* the packet is encrypted in place, it isn't used any more after sending */
+			byte[] packetData = a_mixPacket.getRawPacket();
+			/* do stream-encoding */
+			if (m_outputStreamCipher != null)
 			{
-				synchronized (nextLockObject)
-				{
-					/* wake up the next of the waiting threads */
-					nextLockObject.notify();
-				}
+				m_outputStreamCipher.encryptAES1(packetData, 0, packetData, 0, 16);
 			}
+			m_outputStream.write(packetData);
+			a_mixPacket.release();
 		}
 	}
 	
+	/**
+	 * @return the counters of the packets sent and received by this multiplexer
+	 */
+	public PacketStatistics getPacketStatistics()
+	{
+		return m_packetStatistics;
+	}
+
 	protected void close()
 	{
 		m_bClosed = true;
@@ -258,26 +255,12 @@ public class Multiplexer extends Observable implements Runnable
 			{
 				/* read packet from stream */
 				MixPacket receivedPacket = new MixPacket(m_inputStream, m_inputStreamCipher);
-				AbstractChannel channel = m_channelTable.getChannel(receivedPacket.getChannelId());
+				AbstractChannel channel = m_channelTable.getReceivingChannel(receivedPacket.getChannelId());
 				
 				if (channel != null)
 				{
-					synchronized (m_internalEventSynchronization)
-					{
-						setChanged();
-						if (m_channelTable.isControlChannelId(receivedPacket.getChannelId()))
-						{
-							/* we've received a packet on a control channel */
-							notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.
-								CODE_CONTROL_PACKET_RECEIVED));
-						}
-						else
-						{
-							/* we've received a packet on a data channel */
-							notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.
-								CODE_DATA_PACKET_RECEIVED));
-						}
-					}
+					m_packetStatistics.packetReceived(
+						m_channelTable.isControlChannelId(receivedPacket.getChannelId()));
 					channel.processReceivedPacket(receivedPacket);
 				}
 				else
@@ -289,42 +272,13 @@ public class Multiplexer extends Observable implements Runnable
 								"Received a packet for unknown channel '" +
 								Integer.toString(receivedPacket.getChannelId()) + "'.");
 					}
-					synchronized (m_internalEventSynchronization)
-					{
-						setChanged();
-						if (m_channelTable.isControlChannelId(receivedPacket.getChannelId()))
-						{
-							/* we've discarded a control channel packet */
-							notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.
-								CODE_CONTROL_PACKET_DISCARDED));
-						}
-						else
-						{
-							/* we've discarded a data channel packet */
-							notifyObservers(new PacketProcessedEvent(PacketProcessedEvent.
-								CODE_DATA_PACKET_DISCARDED));
-						}
-					}
+					m_packetStatistics.packetDiscarded(
+						m_channelTable.isControlChannelId(receivedPacket.getChannelId()));
 				}
 
+				/* the channels have copied everything they need from the packet */
+				receivedPacket.release();
 				Thread.yield();
-				/** @todo this should shortly pause downloads when new requests are sent; check if needed or harmful! */
-				/*
-				synchronized (m_waitQueueObject)
-				{
-					if (m_controlMessageQueue.size() > 0 || m_sendJobQueue.size() > 0)
-					{
-						try
-						{
-							// wait until requests are sent
-							m_waitQueueObject.wait(100);
-						}
-						catch (InterruptedException e)
-						{
-							throw new InterruptedIOException(e.getMessage());
-						}
-					}
-				}*/
 			}
 		}
 		catch (IOException e)
@@ -343,7 +297,8 @@ public class Multiplexer extends Observable implements Runnable
 			}
 		}
 	
-		/* close the channel-table (notifies also all open channels) */
+		/* stop the send thread and close the channel-table (notifies also all open channels) */
+		m_sendQueue.close(new IOException("Connection to the mix is closed."));
 		m_channelTable.closeChannelTable();
 	}
 
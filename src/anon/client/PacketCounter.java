@@ -32,87 +32,169 @@
 package anon.client;
 
 import java.util.Observable;
-import java.util.Observer;
 
 
 /**
+ * Counts the data packets of a connection, which are the packets that have to be paid. The
+ * packets are counted by the PacketStatistics of the multiplexer. The observers of this class
+ * are not notified per packet but by a sampler thread that checks the statistics at most once
+ * per SAMPLE_INTERVAL, and only if the count has changed in the meantime.
  * @author Stefan Lieske
  */
-public class PacketCounter extends Observable implements Observer {
+public class PacketCounter extends Observable implements Runnable {
 
   /**
-   * This counts the data-packets for the observers of this class.
+   * The interval in milliseconds in which the observers are notified about new packets.
    */
-  private volatile long m_processedDataPackets;
+  public static final long SAMPLE_INTERVAL = 500;
+
+  private PacketStatistics m_statistics;
+
+  /**
+   * The number of data packets processed by previous connections.
+   */
+  private long m_initialPackets;
 
   /**
-   * This counts the packets which have to be paid.
+   * The number of data packets that have already been reported for payment.
    */
-  private volatile long m_payPacketCounter;
+  private long m_paidPackets;
+
+  /**
+   * The number of data packets at the last notification of the observers.
+   */
+  private long m_sampledPackets;
+
+  private Thread m_samplerThread;
 
   private Object m_internalSynchronization;
 
-  public PacketCounter(long a_processedPackets) {
+  public PacketCounter(PacketStatistics a_statistics, long a_processedPackets) {
+	  if (a_statistics == null)
+	  {
+		  throw new IllegalArgumentException("No packet statistics given!");
+	  }
+	  m_statistics = a_statistics;
 	  if(a_processedPackets > 0)
 	  {
-		  m_processedDataPackets = a_processedPackets;
+		  m_initialPackets = a_processedPackets;
 	  }
 	  else
 	  {
-		  m_processedDataPackets = 0;
+		  m_initialPackets = 0;
 	  }
-	  m_payPacketCounter = 0;
+	  m_paidPackets = 0;
+	  m_sampledPackets = m_initialPackets;
 	  m_internalSynchronization = new Object();
+  }
 
+  public PacketCounter(PacketStatistics a_statistics)
+  {
+	  this(a_statistics, 0);
   }
-  public PacketCounter()
+
+  public long getProcessedPackets()
   {
-	  this(0);
+	  return m_initialPackets + m_statistics.getDataPackets();
+  }
+
+  public long getAndResetBytesForPayment() {
+    long paymentPackets;
+    synchronized (m_internalSynchronization) {
+      long dataPackets = m_statistics.getDataPackets();
+      paymentPackets = dataPackets - m_paidPackets;
+      m_paidPackets = dataPackets;
+    }
+    return paymentPackets * (long)(MixPacket.getPacketSize());
   }
 
-  public void update(Observable a_object, Object a_argument)
+  /**
+   * Notifies the observers if packets have been processed since the last notification.
+   */
+  public void sample()
   {
-	  if (a_argument instanceof PacketProcessedEvent)
+	  synchronized (m_internalSynchronization)
 	  {
-		  int code = ( (PacketProcessedEvent) a_argument).getCode();
-		  synchronized (m_internalSynchronization)
+		  long processedPackets = getProcessedPackets();
+		  if (processedPackets != m_sampledPackets)
 		  {
-			  switch (code)
-			  {
-				  case PacketProcessedEvent.CODE_DATA_PACKET_SENT:
-				  case PacketProcessedEvent.CODE_DATA_PACKET_RECEIVED:
-				  case PacketProcessedEvent.CODE_DATA_PACKET_DISCARDED:
-				  {
-					  m_processedDataPackets++;
-					  m_payPacketCounter++;
-					  //System.out.println(m_processedDataPackets * MixPacket.getPacketSize());
-					  setChanged();
-					  break;
-				  }
-				  default:
-					  break;
-			  }
-			  /* oberservers will get only a notification if setChanged() was
-			   * called
-			   */
-			  notifyObservers();
+			  m_sampledPackets = processedPackets;
+			  setChanged();
 		  }
 	  }
+	  /* oberservers will get only a notification if setChanged() was called */
+	  notifyObservers();
   }
 
-  public long getProcessedPackets()
+  /**
+   * Starts the sampler thread, if it is not already running.
+   */
+  public void start()
   {
-	  return m_processedDataPackets;
+	  synchronized (m_internalSynchronization)
+	  {
+		  if (m_samplerThread == null)
+		  {
+			  m_samplerThread = new Thread(this, "JAP - Packet Counter");
+			  m_samplerThread.setDaemon(true);
+			  m_samplerThread.start();
+		  }
+	  }
   }
 
-  public long getAndResetBytesForPayment() {
-    long paymentBytes = 0;
-    synchronized (m_internalSynchronization) {
-      paymentBytes = m_payPacketCounter * (long)(MixPacket.getPacketSize());
-      m_payPacketCounter = 0;
-    }
-    return paymentBytes;
+  /**
+   * Stops the sampler thread and notifies the observers about the packets processed since
+   * the last sample. This method blocks until the sampler thread has come to the end.
+   */
+  public void stop()
+  {
+	  Thread samplerThread;
+	  synchronized (m_internalSynchronization)
+	  {
+		  samplerThread = m_samplerThread;
+		  m_samplerThread = null;
+		  m_internalSynchronization.notifyAll();
+	  }
+	  if (samplerThread != null && samplerThread != Thread.currentThread())
+	  {
+		  try
+		  {
+			  samplerThread.join();
+		  }
+		  catch (InterruptedException e)
+		  {
+		  }
+	  }
+	  sample();
   }
 
-
+  /**
+   * This is the implementation for the sampler thread.
+   */
+  public void run()
+  {
+	  while (true)
+	  {
+		  synchronized (m_internalSynchronization)
+		  {
+			  if (m_samplerThread != Thread.currentThread())
+			  {
+				  return;
+			  }
+			  try
+			  {
+				  m_internalSynchronization.wait(SAMPLE_INTERVAL);
+			  }
+			  catch (InterruptedException e)
+			  {
+				  return;
+			  }
+			  if (m_samplerThread != Thread.currentThread())
+			  {
+				  return;
+			  }
+		  }
+		  sample();
+	  }
+  }
 }
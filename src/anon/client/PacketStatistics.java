@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+/**
+ * Counts the packets of a connection to a mix cascade, separated by control and data channels
+ * and by sent, received and discarded packets. The counters are split by the thread that
+ * changes them: the sent packets are only counted by the send thread of the Multiplexer, the
+ * received and discarded packets only by its receive thread. As every counter has a single
+ * writer, counting needs neither a lock nor an object allocation, and other threads may read
+ * the counters at any time.
+ * @see PacketCounter
+ */
+public final class PacketStatistics
+{
+	/* changed by the send thread only */
+	private volatile long m_controlPacketsSent = 0;
+	private volatile long m_dataPacketsSent = 0;
+
+	/* changed by the receive thread only */
+	private volatile long m_controlPacketsReceived = 0;
+	private volatile long m_dataPacketsReceived = 0;
+	private volatile long m_controlPacketsDiscarded = 0;
+	private volatile long m_dataPacketsDiscarded = 0;
+
+	private volatile long m_lastPacketTime = System.currentTimeMillis();
+
+	/**
+	 * Counts packets that have been sent. Must only be called by the send thread.
+	 * @param a_controlPackets the number of sent control channel packets
+	 * @param a_dataPackets the number of sent data channel packets
+	 */
+	void packetsSent(int a_controlPackets, int a_dataPackets)
+	{
+		m_controlPacketsSent += a_controlPackets;
+		m_dataPacketsSent += a_dataPackets;
+		m_lastPacketTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Counts a packet that has been received for an open channel. Must only be called by the
+	 * receive thread.
+	 * @param a_bControlPacket true if it is a control channel packet
+	 */
+	void packetReceived(boolean a_bControlPacket)
+	{
+		if (a_bControlPacket)
+		{
+			m_controlPacketsReceived++;
+		}
+		else
+		{
+			m_dataPacketsReceived++;
+		}
+		m_lastPacketTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Counts a packet that has been received for an unknown channel. Must only be called by
+	 * the receive thread.
+	 * @param a_bControlPacket true if it is a control channel packet
+	 */
+	void packetDiscarded(boolean a_bControlPacket)
+	{
+		if (a_bControlPacket)
+		{
+			m_controlPacketsDiscarded++;
+		}
+		else
+		{
+			m_dataPacketsDiscarded++;
+		}
+		m_lastPacketTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param a_code one of the codes of PacketProcessedEvent
+	 * @return the number of packets of the given kind
+	 */
+	public long getPackets(int a_code)
+	{
+		switch (a_code)
+		{
+			case PacketProcessedEvent.CODE_CONTROL_PACKET_SENT:
+				return m_controlPacketsSent;
+			case PacketProcessedEvent.CODE_DATA_PACKET_SENT:
+				return m_dataPacketsSent;
+			case PacketProcessedEvent.CODE_CONTROL_PACKET_RECEIVED:
+				return m_controlPacketsReceived;
+			case PacketProcessedEvent.CODE_DATA_PACKET_RECEIVED:
+				return m_dataPacketsReceived;
+			case PacketProcessedEvent.CODE_CONTROL_PACKET_DISCARDED:
+				return m_controlPacketsDiscarded;
+			case PacketProcessedEvent.CODE_DATA_PACKET_DISCARDED:
+				return m_dataPacketsDiscarded;
+			default:
+				throw new IllegalArgumentException("Unknown packet code: " + a_code);
+		}
+	}
+
+	/**
+	 * @return the number of sent, received and discarded data channel packets, which are the
+	 * packets that have to be paid
+	 */
+	public long getDataPackets()
+	{
+		return m_dataPacketsSent + m_dataPacketsReceived + m_dataPacketsDiscarded;
+	}
+
+	/**
+	 * @return the time in milliseconds when the last packet has been sent or received, or the
+	 * creation time if there has been no packet yet
+	 */
+	public long getLastPacketTime()
+	{
+		return m_lastPacketTime;
+	}
+}
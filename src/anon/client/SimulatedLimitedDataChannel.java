@@ -126,7 +126,7 @@ public class SimulatedLimitedDataChannel extends AbstractDataChannel implements
   }
 
 
-  protected void handleReceivedPacket(MixPacket a_mixPacket) {
+  protected void handleReceivedPacket(MixPacket a_mixPacket, byte[] a_payloadData) {
     m_receivedPackets++;
     synchronized (m_timeoutSynchronization) {
       if (!m_channelClosed) {
@@ -156,7 +156,7 @@ public class SimulatedLimitedDataChannel extends AbstractDataChannel implements
             m_timeoutSynchronization.notify();
           }
           else {
-            getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_PACKET_RECEIVED, a_mixPacket.getPayloadData()));
+            getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_PACKET_RECEIVED, a_payloadData));
           }
         }
       }
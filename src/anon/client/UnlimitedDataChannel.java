@@ -108,16 +108,16 @@ public class UnlimitedDataChannel extends AbstractDataChannel {
   }
 
 
-  protected void handleReceivedPacket(MixPacket a_mixPacket) {
+  protected void handleReceivedPacket(MixPacket a_mixPacket, byte[] a_payloadData) {
     if ((a_mixPacket.getChannelFlags() & FLAG_CHANNEL_CLOSE) == FLAG_CHANNEL_CLOSE) {
       /* send a close-channel message via the message-queue */
-      getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_CHANNEL_CLOSED, a_mixPacket.getPayloadData()));
+      getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_CHANNEL_CLOSED, a_payloadData));
       /* if close bit is set -> close the channel */
       deleteChannel();
     }
     else {
       /* it's a data-message */
-      getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_PACKET_RECEIVED, a_mixPacket.getPayloadData()));
+      getChannelMessageQueue().addChannelMessage(new InternalChannelMessage(InternalChannelMessage.CODE_PACKET_RECEIVED, a_payloadData));
     }
   }
 
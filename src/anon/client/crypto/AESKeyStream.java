@@ -0,0 +1,173 @@
+/*
+ Copyright (c) 2000, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+ - Redistributions of source code must retain the above copyright notice,
+ this list of conditions and the following disclaimer.
+
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation and/or
+ other materials provided with the distribution.
+
+ - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+ may be used to endorse or promote products derived from this software without specific
+ prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package anon.client.crypto;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * Generates the AES output feedback key stream used by SymCipher. Each block of the key stream
+ * is the encryption of the previous block, the first block is the encryption of the IV.
+ * If the JCE of the running VM uses hardware accelerated AES, its provider is used to generate
+ * the key stream; otherwise BouncyCastle's AESFastEngine is used.
+ */
+abstract class AESKeyStream
+{
+	private static final String JCE_KEY_STREAM_CLASS = "anon.client.crypto.JCEAESKeyStream";
+
+	private static boolean ms_bJCEChecked = false;
+	private static boolean ms_bUseJCE = false;
+
+	/**
+	 * Sets a new AES key.
+	 * @param a_key the array containing the key
+	 * @param a_offset the position of the 16 byte key in the array
+	 * @throws Exception if the key could not be set
+	 */
+	public abstract void init(byte[] a_key, int a_offset) throws Exception;
+
+	/**
+	 * Writes the next blocks of the key stream to the given array.
+	 * @param a_iv the current feedback block; it is replaced by the last generated block
+	 * @param a_keyStream the array for the key stream; it must hold at least 16 * a_blocks bytes
+	 * @param a_blocks the number of blocks to generate
+	 */
+	public abstract void nextBlocks(byte[] a_iv, byte[] a_keyStream, int a_blocks);
+
+	/**
+	 * Returns if this implementation should be used instead of the BouncyCastle fallback.
+	 */
+	protected boolean isPreferred()
+	{
+		return true;
+	}
+
+	/**
+	 * Creates a key stream generator without key. The JCE is used only if it produces the same
+	 * key stream as the BouncyCastle implementation.
+	 */
+	public static AESKeyStream create()
+	{
+		if (isJCEUsable())
+		{
+			try
+			{
+				return (AESKeyStream) Class.forName(JCE_KEY_STREAM_CLASS).newInstance();
+			}
+			catch (Throwable a_e)
+			{
+				/* fall through to the default implementation */
+			}
+		}
+		return new BouncyCastleAESKeyStream();
+	}
+
+	private static synchronized boolean isJCEUsable()
+	{
+		if (!ms_bJCEChecked)
+		{
+			ms_bJCEChecked = true;
+			try
+			{
+				AESKeyStream jceKeyStream = (AESKeyStream) Class.forName(JCE_KEY_STREAM_CLASS).newInstance();
+				if (jceKeyStream.isPreferred())
+				{
+					/* compare the key streams of both implementations */
+					AESKeyStream bcKeyStream = new BouncyCastleAESKeyStream();
+					SecureRandom random = new SecureRandom();
+					byte[] key = new byte[16];
+					byte[] jceIV = new byte[16];
+					byte[] jceBlocks = new byte[16 * 5];
+					byte[] bcBlocks = new byte[jceBlocks.length];
+					random.nextBytes(key);
+					random.nextBytes(jceIV);
+					byte[] bcIV = (byte[]) jceIV.clone();
+					jceKeyStream.init(key, 0);
+					bcKeyStream.init(key, 0);
+					jceKeyStream.nextBlocks(jceIV, jceBlocks, 2);
+					jceKeyStream.nextBlocks(jceIV, jceBlocks, 5);
+					bcKeyStream.nextBlocks(bcIV, bcBlocks, 2);
+					bcKeyStream.nextBlocks(bcIV, bcBlocks, 5);
+					ms_bUseJCE = true;
+					for (int i = 0; i < jceBlocks.length; i++)
+					{
+						if (jceBlocks[i] != bcBlocks[i] || (i < 16 && jceIV[i] != bcIV[i]))
+						{
+							ms_bUseJCE = false;
+							LogHolder.log(LogLevel.WARNING, LogType.CRYPTO,
+										  "JCE AES key stream differs from BouncyCastle, JCE is not used!");
+							break;
+						}
+					}
+				}
+			}
+			catch (Throwable a_e)
+			{
+				/* no usable JCE in this VM */
+				ms_bUseJCE = false;
+			}
+			LogHolder.log(LogLevel.INFO, LogType.CRYPTO, "Using " + (ms_bUseJCE ? "JCE" : "BouncyCastle") +
+						  " for the AES key stream.");
+		}
+		return ms_bUseJCE;
+	}
+
+	/**
+	 * The default key stream implementation based on BouncyCastle.
+	 */
+	static class BouncyCastleAESKeyStream extends AESKeyStream
+	{
+		private AESFastEngine m_aesEngine = new AESFastEngine();
+
+		public void init(byte[] a_key, int a_offset) throws Exception
+		{
+			m_aesEngine.init(true, new KeyParameter(a_key, a_offset, 16));
+		}
+
+		public void nextBlocks(byte[] a_iv, byte[] a_keyStream, int a_blocks)
+		{
+			if (a_blocks <= 0)
+			{
+				return;
+			}
+			m_aesEngine.processBlock(a_iv, 0, a_keyStream, 0);
+			int end = a_blocks * 16;
+			for (int i = 16; i < end; i += 16)
+			{
+				m_aesEngine.processBlock(a_keyStream, i - 16, a_keyStream, i);
+			}
+			System.arraycopy(a_keyStream, end - 16, a_iv, 0, 16);
+		}
+	}
+}
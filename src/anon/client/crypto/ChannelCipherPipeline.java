@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client.crypto;
+
+import java.util.Vector;
+
+import anon.util.ThreadFactory;
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * Prepares the symmetric channel ciphers for new data channels in the
+ * background. Creating the ciphers of a channel needs fresh random keys and
+ * an AES key setup per mix, which was done by the thread opening the channel
+ * while the channel table was locked. The pipeline keeps up to a fixed number
+ * of ready cipher sets, so opening a channel only has to take one of them.
+ * If the pipeline runs empty, the ciphers are created by the calling thread.
+ * Only the symmetric part can be prepared: the asymmetric encryption of the
+ * channel open packet covers the replay timestamp and the first payload
+ * bytes and is therefore still done when the first packet is sent.
+ * The keys are taken from the KeyPool, which has to be started before.
+ */
+public class ChannelCipherPipeline implements Runnable
+{
+	public static final int DEFAULT_DEPTH = 16;
+
+	public static final int DEFAULT_THREADS = 1;
+
+	private static final int SYMMETRIC_CIPHER_KEY_LENGTH = 16;
+
+	private static final int SYMMETRIC_CIPHER_BLOCK_LENGTH = 16;
+
+	private int m_mixes;
+
+	private boolean m_bFirstMixSymmetric;
+
+	private boolean m_bEnhancedChannelEncryption;
+
+	private int m_depth;
+
+	private Vector m_preparedCiphers;
+
+	private int m_cipherSetsInPreparation;
+
+	private boolean m_bStopped;
+
+	private long m_hits;
+
+	private long m_misses;
+
+	/**
+	 * Creates the pipeline with the default depth and number of worker
+	 * threads and starts the worker threads.
+	 *
+	 * @param a_mixes The number of mixes in the cascade.
+	 * @param a_bFirstMixSymmetric True, if the first mix uses a symmetric
+	 *                             cipher for the channel open packets.
+	 * @param a_bEnhancedChannelEncryption True, if the cascade uses the
+	 *                                     protocol with enhanced channel
+	 *                                     encryption.
+	 */
+	public ChannelCipherPipeline(int a_mixes, boolean a_bFirstMixSymmetric,
+								 boolean a_bEnhancedChannelEncryption)
+	{
+		this(a_mixes, a_bFirstMixSymmetric, a_bEnhancedChannelEncryption, DEFAULT_DEPTH,
+			 DEFAULT_THREADS);
+	}
+
+	/**
+	 * Creates the pipeline and starts the worker threads.
+	 *
+	 * @param a_mixes The number of mixes in the cascade.
+	 * @param a_bFirstMixSymmetric True, if the first mix uses a symmetric
+	 *                             cipher for the channel open packets.
+	 * @param a_bEnhancedChannelEncryption True, if the cascade uses the
+	 *                                     protocol with enhanced channel
+	 *                                     encryption.
+	 * @param a_depth The number of prepared cipher sets. A depth of 0
+	 *                disables the background preparation.
+	 * @param a_threads The number of worker threads (at least 1).
+	 */
+	public ChannelCipherPipeline(int a_mixes, boolean a_bFirstMixSymmetric,
+								 boolean a_bEnhancedChannelEncryption, int a_depth, int a_threads)
+	{
+		m_mixes = a_mixes;
+		m_bFirstMixSymmetric = a_bFirstMixSymmetric;
+		m_bEnhancedChannelEncryption = a_bEnhancedChannelEncryption;
+		m_depth = Math.max(0, a_depth);
+		m_preparedCiphers = new Vector(m_depth);
+		m_cipherSetsInPreparation = 0;
+		m_bStopped = false;
+		if (m_depth > 0)
+		{
+			int threads = Math.max(1, a_threads);
+			for (int i = 0; i < threads; i++)
+			{
+				Thread workerThread = ThreadFactory.getInstance().createThread(this,
+					"ChannelCipherPipeline: Worker " + i);
+				workerThread.setDaemon(true);
+				workerThread.setPriority(Thread.MIN_PRIORITY);
+				workerThread.start();
+			}
+		}
+	}
+
+	/**
+	 * Returns the channel ciphers for one new data channel, one cipher per
+	 * mix. The cipher of the first mix is already initialized with the
+	 * non-standard internal buffer if the first mix uses a symmetric cipher,
+	 * so its key must not be modified afterwards.
+	 *
+	 * @return The channel ciphers for a new data channel.
+	 */
+	public SymCipher[] getChannelCiphers()
+	{
+		synchronized (m_preparedCiphers)
+		{
+			if (m_preparedCiphers.size() > 0)
+			{
+				SymCipher[] channelCiphers = (SymCipher[]) (m_preparedCiphers.firstElement());
+				m_preparedCiphers.removeElementAt(0);
+				m_hits++;
+				/* wake up a worker to refill the pipeline */
+				m_preparedCiphers.notify();
+				return channelCiphers;
+			}
+			m_misses++;
+		}
+		/* pipeline is empty -> create the ciphers on our own */
+		return createChannelCiphers();
+	}
+
+	/**
+	 * Stops the worker threads and drops all prepared cipher sets. Ciphers
+	 * requested after this call are created by the calling thread.
+	 */
+	public void stop()
+	{
+		synchronized (m_preparedCiphers)
+		{
+			m_bStopped = true;
+			m_preparedCiphers.removeAllElements();
+			m_preparedCiphers.notifyAll();
+			LogHolder.log(LogLevel.DEBUG, LogType.CRYPTO,
+						  "ChannelCipherPipeline: stop(): Prepared cipher sets used: " + m_hits +
+						  ", created on demand: " + m_misses + ".");
+		}
+	}
+
+	/**
+	 * Returns the number of channels which got a prepared cipher set.
+	 */
+	public long getHits()
+	{
+		synchronized (m_preparedCiphers)
+		{
+			return m_hits;
+		}
+	}
+
+	/**
+	 * Returns the number of channels which had to create their ciphers
+	 * because the pipeline was empty.
+	 */
+	public long getMisses()
+	{
+		synchronized (m_preparedCiphers)
+		{
+			return m_misses;
+		}
+	}
+
+	/**
+	 * Returns the number of cipher sets which are currently ready.
+	 */
+	public int getPreparedCipherSets()
+	{
+		return m_preparedCiphers.size();
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			synchronized (m_preparedCiphers)
+			{
+				try
+				{
+					while ((!m_bStopped) &&
+						   (m_preparedCiphers.size() + m_cipherSetsInPreparation >= m_depth))
+					{
+						m_preparedCiphers.wait();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					m_bStopped = true;
+				}
+				if (m_bStopped)
+				{
+					return;
+				}
+				m_cipherSetsInPreparation++;
+			}
+			/* do the expensive work without holding the lock */
+			SymCipher[] channelCiphers = createChannelCiphers();
+			synchronized (m_preparedCiphers)
+			{
+				m_cipherSetsInPreparation--;
+				if (m_bStopped)
+				{
+					return;
+				}
+				m_preparedCiphers.addElement(channelCiphers);
+			}
+		}
+	}
+
+	private SymCipher[] createChannelCiphers()
+	{
+		SymCipher[] channelCiphers = new SymCipher[m_mixes];
+		for (int i = 0; i < channelCiphers.length; i++)
+		{
+			SymCipher channelCipher = new SymCipher();
+			byte[] channelKeys;
+			if (m_bEnhancedChannelEncryption)
+			{
+				channelKeys = new byte[SYMMETRIC_CIPHER_KEY_LENGTH * 2];
+			}
+			else
+			{
+				channelKeys = new byte[SYMMETRIC_CIPHER_KEY_LENGTH];
+				KeyPool.getKey(channelKeys);
+			}
+			channelCipher.setEncryptionKeysAES(channelKeys);
+			if ((i == 0) && m_bFirstMixSymmetric)
+			{
+				/* initialize the internal buffer of the cipher with a non-standard
+				 * value
+				 * Attention: The encryption key must not be modified after this
+				 *            point because in the default SymCipher-implementation
+				 *            a change of the encryption key would also reset the
+				 *            initialization of the internal buffer.
+				 */
+				byte[] iv2Buffer = new byte[SYMMETRIC_CIPHER_BLOCK_LENGTH];
+				for (int j = 0; j < iv2Buffer.length; j++)
+				{
+					iv2Buffer[j] = (byte) 0xff;
+				}
+				channelCipher.setIV2(iv2Buffer);
+			}
+			channelCiphers[i] = channelCipher;
+		}
+		return channelCiphers;
+	}
+}
@@ -64,7 +64,7 @@ public class FirstMixCipher implements IMixCipher {
       /* it's a little bit nasty because we have to know the position to encrypt in the
        * MixPacket (currently the first bytes of the payload data)
        */
-      m_mixStreamCipher.encryptAES1(a_mixPacket.getPayloadData(), 0, a_mixPacket.getPayloadData(), 0, m_bytesToEncrypt);
+      m_mixStreamCipher.encryptAES1(a_mixPacket.getRawPacket(), MixPacket.getPayloadOffset(), a_mixPacket.getRawPacket(), MixPacket.getPayloadOffset(), m_bytesToEncrypt);
     }
   }
   
@@ -0,0 +1,147 @@
+/*
+ Copyright (c) 2000, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+ - Redistributions of source code must retain the above copyright notice,
+ this list of conditions and the following disclaimer.
+
+ - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation and/or
+ other materials provided with the distribution.
+
+ - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+ may be used to endorse or promote products derived from this software without specific
+ prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package anon.client.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generates the AES key stream with the OFB mode of the JCE. This class is only loaded by
+ * reflection, as the JCE is not available on all supported VMs.
+ */
+class JCEAESKeyStream extends AESKeyStream
+{
+	/** The VMs on these architectures use the AES instructions of the CPU since Java 1.8. */
+	private static final String[] AES_INSTRUCTIONS_ARCHITECTURES = {"amd64", "x86_64", "aarch64"};
+
+	private Cipher m_cipher;
+	private SecretKeySpec m_key;
+	private byte[] m_zeroBlocks;
+	/* the last block of the key stream, which is the feedback block of the running cipher; the
+	 * cipher is only initialized again if the caller continues with another block
+	 */
+	private byte[] m_feedbackBlock;
+	private boolean m_bCipherInitialized;
+
+	public JCEAESKeyStream() throws Exception
+	{
+		m_cipher = Cipher.getInstance("AES/OFB/NoPadding");
+		m_zeroBlocks = new byte[0];
+		m_feedbackBlock = new byte[16];
+		m_bCipherInitialized = false;
+	}
+
+	public void init(byte[] a_key, int a_offset) throws Exception
+	{
+		m_key = new SecretKeySpec(a_key, a_offset, 16, "AES");
+		m_bCipherInitialized = false;
+	}
+
+	public void nextBlocks(byte[] a_iv, byte[] a_keyStream, int a_blocks)
+	{
+		if (a_blocks <= 0)
+		{
+			return;
+		}
+		int length = a_blocks * 16;
+		if (m_zeroBlocks.length < length)
+		{
+			m_zeroBlocks = new byte[length];
+		}
+		try
+		{
+			/* the cipher only generates whole blocks, so it continues exactly where the last call
+			 * ended as long as the caller did not set a new IV; encrypting zeros returns the key
+			 * stream itself
+			 */
+			if (!m_bCipherInitialized || !isFeedbackBlock(a_iv))
+			{
+				m_cipher.init(Cipher.ENCRYPT_MODE, m_key, new IvParameterSpec(a_iv));
+				m_bCipherInitialized = true;
+			}
+			m_cipher.update(m_zeroBlocks, 0, length, a_keyStream, 0);
+		}
+		catch (Exception a_e)
+		{
+			/* cannot happen with a valid key and a large enough output array */
+			m_bCipherInitialized = false;
+			throw new IllegalStateException(a_e.toString());
+		}
+		System.arraycopy(a_keyStream, length - 16, a_iv, 0, 16);
+		System.arraycopy(a_keyStream, length - 16, m_feedbackBlock, 0, 16);
+	}
+
+	private boolean isFeedbackBlock(byte[] a_iv)
+	{
+		for (int i = 0; i < 16; i++)
+		{
+			if (a_iv[i] != m_feedbackBlock[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The JCE is only faster than BouncyCastle if the VM uses the AES instructions of the CPU.
+	 * This is assumed for Java 1.8 and later on the architectures that support them.
+	 */
+	protected boolean isPreferred()
+	{
+		try
+		{
+			String version = System.getProperty("java.specification.version", "");
+			if (version.startsWith("1."))
+			{
+				if (Integer.parseInt(version.substring(2)) < 8)
+				{
+					return false;
+				}
+			}
+			else if (Integer.parseInt(version) < 8)
+			{
+				return false;
+			}
+			String architecture = System.getProperty("os.arch", "");
+			for (int i = 0; i < AES_INSTRUCTIONS_ARCHITECTURES.length; i++)
+			{
+				if (AES_INSTRUCTIONS_ARCHITECTURES[i].equals(architecture))
+				{
+					return true;
+				}
+			}
+		}
+		catch (Throwable a_e)
+		{
+			/* unknown version format or no access to the system properties */
+		}
+		return false;
+	}
+}
@@ -27,13 +27,16 @@
  */
 package anon.client.crypto;
 
-import org.bouncycastle.crypto.engines.AESFastEngine;
-import org.bouncycastle.crypto.params.KeyParameter;
-
+/**
+ * The symmetric stream cipher (AES in output feedback mode) used between JonDo and the mixes.
+ * There are two independent streams; the first one is used by encryptAES1(), the second one by
+ * encryptAES2(). The key stream for a whole call is generated at once, so the internal state is
+ * locked only once per call.
+ */
 public class SymCipher
 {
-	AESFastEngine m_aesEngine1;
-	AESFastEngine m_aesEngine2;
+	AESKeyStream m_aesEngine1;
+	AESKeyStream m_aesEngine2;
 
 	byte[] m_iv1 = null;
 
@@ -41,10 +44,14 @@ public class SymCipher
 
 	byte[] m_aesKeys;
 
+	private byte[] m_keyStream1;
+
+	private byte[] m_keyStream2;
+
 	public SymCipher()
 	{
-		m_aesEngine1 = new AESFastEngine();
-		m_aesEngine2 = new AESFastEngine();
+		m_aesEngine1 = AESKeyStream.create();
+		m_aesEngine2 = AESKeyStream.create();
 		m_aesKeys = null;
 		m_iv1 = new byte[16];
 		for (int i = 0; i < 16; i++)
@@ -56,6 +63,8 @@ public class SymCipher
 		{
 			m_iv2[i] = 0;
 		}
+		m_keyStream1 = new byte[0];
+		m_keyStream2 = new byte[0];
 	}
 
 	synchronized public int setEncryptionKeyAES(byte[] key)
@@ -79,8 +88,8 @@ public class SymCipher
 		{
 			m_aesKeys = new byte[16];
 			System.arraycopy(key, offset, m_aesKeys, 0, 16);
-			m_aesEngine1.init(true, new KeyParameter(m_aesKeys));
-			m_aesEngine2.init(true, new KeyParameter(m_aesKeys));
+			m_aesEngine1.init(m_aesKeys, 0);
+			m_aesEngine2.init(m_aesKeys, 0);
 			if (len == 16)
 			{
 				for (int i = 0; i < 16; i++)
@@ -126,8 +135,8 @@ public class SymCipher
 				{
 			m_aesKeys = new byte[32];
 			System.arraycopy(keys, 0, m_aesKeys, 0, 32);
-			m_aesEngine1.init(true, new KeyParameter(m_aesKeys,0,16));
-			m_aesEngine2.init(true, new KeyParameter(m_aesKeys,16,16));
+			m_aesEngine1.init(m_aesKeys, 0);
+			m_aesEngine2.init(m_aesKeys, 16);
 			for (int i = 0; i < 16; i++)
 			{
 				m_iv1[i] = 0;
@@ -165,40 +174,25 @@ public class SymCipher
 
 	public int encryptAES1(byte[] from, int ifrom, byte[] to, int ito, int len)
 	{
-		len = ifrom + len;
-		while (ifrom < len - 15)
+		if (len <= 0)
 		{
-			synchronized (m_aesEngine1)
-			{
-				m_aesEngine1.processBlock(m_iv1, 0, m_iv1, 0);
-			}
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[0]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[1]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[2]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[3]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[4]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[5]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[6]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[7]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[8]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[9]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[10]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[11]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[12]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[13]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[14]);
-			to[ito++] = (byte) (from[ifrom++] ^ m_iv1[15]);
+			return 0;
 		}
-		if (ifrom < len)
+		synchronized (m_aesEngine1)
 		{
-			synchronized (m_aesEngine1)
+			/* a partly used block of the key stream is dropped, so the next call starts with a
+			 * new block
+			 */
+			int blocks = (len + 15) / 16;
+			if (m_keyStream1.length < blocks * 16)
 			{
-				m_aesEngine1.processBlock(m_iv1, 0, m_iv1, 0);
+				m_keyStream1 = new byte[blocks * 16];
 			}
-			len -= ifrom;
+			m_aesEngine1.nextBlocks(m_iv1, m_keyStream1, blocks);
+			byte[] keyStream = m_keyStream1;
 			for (int k = 0; k < len; k++)
 			{
-				to[ito++] = (byte) (from[ifrom++] ^ m_iv1[k]);
+				to[ito++] = (byte) (from[ifrom++] ^ keyStream[k]);
 			}
 		}
 		return 0;
@@ -206,41 +200,23 @@ public class SymCipher
 
 	public int encryptAES2(byte[] buff)
 	{
-		int i = 0;
 		int len = buff.length;
-		while (i < len - 15)
+		if (len == 0)
 		{
-			synchronized (m_aesEngine2)
-			{
-				m_aesEngine2.processBlock(m_iv2, 0, m_iv2, 0);
-			}
-			buff[i++] ^= m_iv2[0];
-			buff[i++] ^= m_iv2[1];
-			buff[i++] ^= m_iv2[2];
-			buff[i++] ^= m_iv2[3];
-			buff[i++] ^= m_iv2[4];
-			buff[i++] ^= m_iv2[5];
-			buff[i++] ^= m_iv2[6];
-			buff[i++] ^= m_iv2[7];
-			buff[i++] ^= m_iv2[8];
-			buff[i++] ^= m_iv2[9];
-			buff[i++] ^= m_iv2[10];
-			buff[i++] ^= m_iv2[11];
-			buff[i++] ^= m_iv2[12];
-			buff[i++] ^= m_iv2[13];
-			buff[i++] ^= m_iv2[14];
-			buff[i++] ^= m_iv2[15];
+			return 0;
 		}
-		if (i < len)
+		synchronized (m_aesEngine2)
 		{
-			synchronized (m_aesEngine2)
+			int blocks = (len + 15) / 16;
+			if (m_keyStream2.length < blocks * 16)
 			{
-				m_aesEngine2.processBlock(m_iv2, 0, m_iv2, 0);
+				m_keyStream2 = new byte[blocks * 16];
 			}
-			len -= i;
+			m_aesEngine2.nextBlocks(m_iv2, m_keyStream2, blocks);
+			byte[] keyStream = m_keyStream2;
 			for (int k = 0; k < len; k++)
 			{
-				buff[i++] ^= m_iv2[k];
+				buff[k] ^= keyStream[k];
 			}
 		}
 		return 0;
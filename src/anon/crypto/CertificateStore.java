@@ -59,6 +59,19 @@ public class CertificateStore extends Observable implements IXMLEncodable
 
 	private Hashtable m_trustedCertificates;
 
+	/**
+	 * The certification paths of all available certificates as Vectors mapped by the certificate
+	 * type (Integer), or null if the store has been changed since they were collected. The table
+	 * is never modified after it has been published. Every change of m_trustedCertificates must
+	 * reset it.
+	 */
+	private volatile Hashtable m_availableCertPaths;
+
+	/**
+	 * Is incremented with every change of the store.
+	 */
+	private volatile int m_changeCount;
+
 	private Hashtable m_lockTable;
 
 	private int m_lockIdPointer;
@@ -169,6 +182,65 @@ public class CertificateStore extends Observable implements IXMLEncodable
 		return returnedCertificates;
 	}
 
+	/**
+	 * Returns a number that changes with every change of this store. Caches that depend on the
+	 * trusted certificates may compare it with an earlier value to see if they are outdated.
+	 *
+	 * @return the number of changes of this store
+	 */
+	public int getChangeCount()
+	{
+		return m_changeCount;
+	}
+
+	/**
+	 * Returns the certification paths of all available (enabled and verified) certificates of the
+	 * given type. The paths are collected only once after every change of the store, so this
+	 * method is cheap enough to be called for every signature verification.
+	 *
+	 * @param a_certificateType the type of the certificates
+	 * @return a new Vector with the CertPath of every available certificate of the given type
+	 */
+	public Vector getAvailableCertPathsByType(int a_certificateType)
+	{
+		Hashtable availableCertPaths = m_availableCertPaths;
+		if (availableCertPaths == null)
+		{
+			synchronized (m_trustedCertificates)
+			{
+				availableCertPaths = m_availableCertPaths;
+				if (availableCertPaths == null)
+				{
+					availableCertPaths = new Hashtable();
+					Enumeration allCertificates = m_trustedCertificates.elements();
+					while (allCertificates.hasMoreElements())
+					{
+						CertificateContainer currentCertificateContainer =
+							(CertificateContainer) (allCertificates.nextElement());
+						if (currentCertificateContainer.isAvailable())
+						{
+							Integer type = new Integer(currentCertificateContainer.getCertificateType());
+							Vector certPaths = (Vector) availableCertPaths.get(type);
+							if (certPaths == null)
+							{
+								certPaths = new Vector();
+								availableCertPaths.put(type, certPaths);
+							}
+							certPaths.addElement(currentCertificateContainer.getCertPath());
+						}
+					}
+					m_availableCertPaths = availableCertPaths;
+				}
+			}
+		}
+		Vector certPaths = (Vector) availableCertPaths.get(new Integer(a_certificateType));
+		if (certPaths == null)
+		{
+			return new Vector();
+		}
+		return (Vector) certPaths.clone();
+	}
+
 	public int addCertificateWithVerification(CertPath a_certificate, int a_certificateType,
 											  boolean a_onlyHardRemovable)
 	{
@@ -189,6 +261,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 					a_certificateType)))
 				{
 					/* the certificate isn't already in this certificate store */
+					storeChanged();
 					CertificateContainer certificateContainer =
 						new CertificateContainer(a_certificate, a_certificateType, true);
 					m_trustedCertificates.put(getCertificateId(a_certificate.getFirstCertificate(),
@@ -260,6 +333,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 		}
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			if (!m_trustedCertificates.containsKey(getCertificateId(a_certPath.getFirstCertificate(),
 				a_certificateType)))
 			{
@@ -317,6 +391,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 	{
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			CertificateContainer lockedCertificate = null;
 			try
 			{
@@ -356,6 +431,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 		CertificateContainer certificateToRemove = null;
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			certificateToRemove = (CertificateContainer) (m_trustedCertificates.get(
 				getCertificateId(a_certificateStructure.getCertificate(),
 								 a_certificateStructure.getCertificateType())));
@@ -393,6 +469,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 	{
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			/* mark all active locks as invalid (set the value to an empty string) */
 			Enumeration activeLocks = m_lockTable.keys();
 			while (activeLocks.hasMoreElements())
@@ -424,6 +501,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 	{
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			CertificateContainer container;
 			Enumeration certs = m_trustedCertificates.elements();
 			while (certs.hasMoreElements())
@@ -438,6 +516,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 	{
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			CertificateContainer specifiedCertificate = (CertificateContainer) (m_trustedCertificates.get(
 				getCertificateId(a_certificateStructure.getCertificate(),
 								 a_certificateStructure.getCertificateType())));
@@ -495,6 +574,7 @@ public class CertificateStore extends Observable implements IXMLEncodable
 	{
 		synchronized (m_trustedCertificates)
 		{
+			storeChanged();
 			/* first remove all already stored certificates */
 			removeAllCertificates();
 			/* load the settings from the XML description */
@@ -590,6 +670,16 @@ public class CertificateStore extends Observable implements IXMLEncodable
 		}
 	}
 
+	/**
+	 * Must be called while holding the lock on m_trustedCertificates before the certificates are
+	 * changed.
+	 */
+	private void storeChanged()
+	{
+		m_availableCertPaths = null;
+		m_changeCount++;
+	}
+
 	private int getNextAvailableLockId()
 	{
 		while (m_lockTable.containsKey(new Integer(m_lockIdPointer)) || (m_lockIdPointer == -1))
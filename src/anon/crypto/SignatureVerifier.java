@@ -36,6 +36,8 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import anon.util.IXMLEncodable;
+import anon.util.Scheduler;
+import anon.util.XMLParseException;
 import anon.util.XMLUtil;
 
 /**
@@ -277,66 +279,121 @@ public class SignatureVerifier implements IXMLEncodable
         public XMLSignature getVerifiedXml(final Element a_rootNode, final int a_documentClass)
 		{
 			XMLSignature signature = null;
-			synchronized (m_trustedCertificates)
+			/* get the direct useable certificates depending on the document type; the certificate
+			 * store returns a snapshot of them, so no lock is held during the verification and
+			 * several signatures may be verified at the same time
+			 */
+			Vector additionalCertPaths = new Vector();
+			switch (a_documentClass)
 			{
-				/* get the direct useable certificates depending on the document type */
-				Vector additionalCertificateInfoStructures = new Vector();
-				switch (a_documentClass)
+				case DOCUMENT_CLASS_MIX:
 				{
-					case DOCUMENT_CLASS_MIX:
-					{
-						additionalCertificateInfoStructures = m_trustedCertificates.
-							getAvailableCertificatesByType(JAPCertificate.CERTIFICATE_TYPE_MIX);
-						break;
-					}
-					case DOCUMENT_CLASS_INFOSERVICE:
-					{
-						additionalCertificateInfoStructures = m_trustedCertificates.
-							getAvailableCertificatesByType(JAPCertificate.CERTIFICATE_TYPE_INFOSERVICE);
-						break;
-					}
-					case DOCUMENT_CLASS_UPDATE:
-					{
-						additionalCertificateInfoStructures = m_trustedCertificates.
-							getAvailableCertificatesByType(JAPCertificate.CERTIFICATE_TYPE_UPDATE);
-						break;
-					}
-					case DOCUMENT_CLASS_PAYMENT:
+					additionalCertPaths = m_trustedCertificates.
+						getAvailableCertPathsByType(JAPCertificate.CERTIFICATE_TYPE_MIX);
+					break;
+				}
+				case DOCUMENT_CLASS_INFOSERVICE:
+				{
+					additionalCertPaths = m_trustedCertificates.
+						getAvailableCertPathsByType(JAPCertificate.CERTIFICATE_TYPE_INFOSERVICE);
+					break;
+				}
+				case DOCUMENT_CLASS_UPDATE:
+				{
+					additionalCertPaths = m_trustedCertificates.
+						getAvailableCertPathsByType(JAPCertificate.CERTIFICATE_TYPE_UPDATE);
+					break;
+				}
+				case DOCUMENT_CLASS_PAYMENT:
+				{
+					additionalCertPaths = m_trustedCertificates.
+						getAvailableCertPathsByType(JAPCertificate.CERTIFICATE_TYPE_PAYMENT);
+					break;
+				}
+				case DOCUMENT_CLASS_TERMS:
+				{
+					additionalCertPaths = m_trustedCertificates.
+						getAvailableCertPathsByType(JAPCertificate.CERTIFICATE_TYPE_TERMS_AND_CONDITIONS);
+					break;
+				}
+			}
+
+			/* now we have everything -> verify the signature */
+			try
+			{
+				signature = XMLSignature.getVerified(a_rootNode, a_documentClass, additionalCertPaths);
+			}
+			catch (Exception e)
+			{
+				/* this should only happen, if there is no signature child node */
+			}
+			return signature;
+		}
+
+		/**
+		 * Verifies the signatures of several XML documents against the store of trusted
+		 * certificates. The signatures are verified in parallel by the CPU pool of the Scheduler.
+		 * As a DOM tree must not be read by several threads at once, every element is copied into
+		 * a document of its own before, so the elements may belong to the same document.
+		 *
+		 * @param a_rootNodes the root nodes (Element) of the documents
+		 * @param a_documentClass The class of the documents. See the constants in this class.
+		 *
+		 * @return the XMLSignature of every document in the order of the given nodes; an entry
+		 *         is null if the document has no valid signature node. Call isVerified() on the
+		 *         returned XMLSignature objects to get the results of the verification.
+		 */
+		public XMLSignature[] getVerifiedXml(Vector a_rootNodes, final int a_documentClass)
+		{
+			final Element[] rootNodes = new Element[a_rootNodes.size()];
+			final XMLSignature[] signatures = new XMLSignature[rootNodes.length];
+			int threadCount = Math.min(Scheduler.getNumberOfProcessors(), rootNodes.length);
+
+			for (int i = 0; i < rootNodes.length; i++)
+			{
+				rootNodes[i] = (Element) a_rootNodes.elementAt(i);
+				if (threadCount > 1 && rootNodes[i] != null)
+				{
+					try
 					{
-						additionalCertificateInfoStructures = m_trustedCertificates.
-							getAvailableCertificatesByType(JAPCertificate.CERTIFICATE_TYPE_PAYMENT);
-						break;
+						rootNodes[i] = XMLUtil.createDocumentFromElement(rootNodes[i]).getDocumentElement();
 					}
-					case DOCUMENT_CLASS_TERMS:
+					catch (XMLParseException a_e)
 					{
-						additionalCertificateInfoStructures = m_trustedCertificates.
-							getAvailableCertificatesByType(JAPCertificate.CERTIFICATE_TYPE_TERMS_AND_CONDITIONS);
-						break;
+						rootNodes[i] = null;
 					}
 				}
-				Vector additionalCertPaths = new Vector();
-				Enumeration additionalCertificatesEnumerator = additionalCertificateInfoStructures.elements();
-				CertificateInfoStructure certStructure;
-				while (additionalCertificatesEnumerator.hasMoreElements())
+			}
+
+			Runnable[] verifiers = new Runnable[rootNodes.length];
+			for (int i = 0; i < rootNodes.length; i++)
+			{
+				final int index = i;
+				verifiers[i] = new Runnable()
 				{
-					certStructure = (CertificateInfoStructure) additionalCertificatesEnumerator.nextElement();
-					if (certStructure.isAvailable())
+					public void run()
 					{
-						additionalCertPaths.addElement(certStructure.getCertPath());
+						if (rootNodes[index] != null)
+						{
+							signatures[index] = getVerifiedXml(rootNodes[index], a_documentClass);
+						}
 					}
-				}
+				};
+			}
 
-				/* now we have everything -> verify the signature */
-				try
-				{
-					signature = XMLSignature.getVerified(a_rootNode, a_documentClass, additionalCertPaths);
-				}
-				catch (Exception e)
+			if (threadCount > 1)
+			{
+				/* the current thread verifies signatures, too */
+				Scheduler.getCpuPool().invokeAll(verifiers);
+			}
+			else
+			{
+				for (int i = 0; i < verifiers.length; i++)
 				{
-					/* this should only happen, if there is no signature child node */
+					verifiers[i].run();
 				}
 			}
-			return signature;
+			return signatures;
 		}
 
 
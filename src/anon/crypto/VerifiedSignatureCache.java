@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.crypto;
+
+import java.util.Hashtable;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+
+/**
+ * Remembers signatures that have been verified successfully, so that unchanged documents that
+ * are fetched again and again need no further public key operation. A signature is identified
+ * by a digest over the canonical SignedInfo element (which contains the digest of the signed
+ * document), the signature value and the public key. The cache holds a limited number of
+ * signatures and forgets the least recently used ones first. All signatures are forgotten if the
+ * store of trusted certificates changes, and a single signature is forgotten after the validity
+ * of the verifying certificate has ended.
+ */
+public final class VerifiedSignatureCache
+{
+	public static final int DEFAULT_CAPACITY = 2000;
+
+	private static VerifiedSignatureCache ms_instance;
+
+	/**
+	 * The cached signatures as Entry objects, mapped by their keys.
+	 */
+	private Hashtable m_entries;
+
+	/**
+	 * The most recently used signature; the entries form a doubly linked list from here.
+	 */
+	private Entry m_head;
+
+	/**
+	 * The least recently used signature.
+	 */
+	private Entry m_tail;
+
+	private int m_capacity;
+
+	private int m_certificateStoreChangeCount;
+
+	private long m_hits;
+
+	private long m_misses;
+
+	/**
+	 * The time needed for all public key operations that have been done because of misses.
+	 */
+	private long m_verificationTime;
+
+	private VerifiedSignatureCache(int a_capacity)
+	{
+		m_entries = new Hashtable(a_capacity);
+		m_capacity = a_capacity;
+	}
+
+	public static VerifiedSignatureCache getInstance()
+	{
+		synchronized (VerifiedSignatureCache.class)
+		{
+			if (ms_instance == null)
+			{
+				ms_instance = new VerifiedSignatureCache(DEFAULT_CAPACITY);
+			}
+		}
+		return ms_instance;
+	}
+
+	/**
+	 * Creates the key that identifies a signature in the cache.
+	 *
+	 * @param a_signedData the signed data, for XML signatures the canonical SignedInfo element
+	 * @param a_signature the signature value
+	 * @param a_publicKey the public key that verifies the signature
+	 * @return the key of the signature or null if the public key cannot be encoded
+	 */
+	public static String createKey(byte[] a_signedData, byte[] a_signature, IMyPublicKey a_publicKey)
+	{
+		byte[] encodedKey = a_publicKey.getEncoded();
+		if (a_signedData == null || a_signature == null || encodedKey == null)
+		{
+			return null;
+		}
+		SHA1Digest sha1 = new SHA1Digest();
+		byte[] digest = new byte[sha1.getDigestSize()];
+		update(sha1, a_signedData);
+		update(sha1, a_signature);
+		update(sha1, encodedKey);
+		sha1.doFinal(digest, 0);
+		return ByteSignature.toHexString(digest, "");
+	}
+
+	/**
+	 * Tells if the signature with the given key has been verified successfully before. This
+	 * counts as a hit or a miss.
+	 *
+	 * @param a_key the key of a signature as created by createKey()
+	 * @return true if the signature is known to be valid; false if it must be verified
+	 */
+	public synchronized boolean isVerified(String a_key)
+	{
+		checkCertificateStore();
+		Entry entry = (Entry) m_entries.get(a_key);
+		if (entry != null && entry.m_validTo < System.currentTimeMillis())
+		{
+			/* the certificate is not valid any more */
+			remove(entry);
+			entry = null;
+		}
+		if (entry == null)
+		{
+			m_misses++;
+			return false;
+		}
+		m_hits++;
+		/* this is now the most recently used signature */
+		unlink(entry);
+		linkFirst(entry);
+		return true;
+	}
+
+	/**
+	 * Adds a signature that has been verified successfully.
+	 *
+	 * @param a_key the key of the signature as created by createKey()
+	 * @param a_validTo the time when the validity of the verifying certificate ends
+	 * @param a_verificationTime the time in milliseconds the verification has taken
+	 */
+	public synchronized void addVerified(String a_key, long a_validTo, long a_verificationTime)
+	{
+		checkCertificateStore();
+		m_verificationTime += a_verificationTime;
+		if (m_capacity <= 0)
+		{
+			return;
+		}
+		Entry entry = (Entry) m_entries.get(a_key);
+		if (entry != null)
+		{
+			unlink(entry);
+		}
+		else
+		{
+			entry = new Entry(a_key);
+			m_entries.put(a_key, entry);
+		}
+		entry.m_validTo = a_validTo;
+		linkFirst(entry);
+		while (m_entries.size() > m_capacity)
+		{
+			remove(m_tail);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of signatures in the cache. 0 disables the cache.
+	 *
+	 * @param a_capacity the maximum number of signatures in the cache
+	 */
+	public synchronized void setCapacity(int a_capacity)
+	{
+		m_capacity = Math.max(a_capacity, 0);
+		while (m_entries.size() > m_capacity)
+		{
+			remove(m_tail);
+		}
+	}
+
+	public synchronized void clear()
+	{
+		m_entries.clear();
+		m_head = null;
+		m_tail = null;
+	}
+
+	public synchronized int getSize()
+	{
+		return m_entries.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return m_hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return m_misses;
+	}
+
+	/**
+	 * Returns the percentage of the lookups that have found a verified signature.
+	 *
+	 * @return the hit rate in percent
+	 */
+	public synchronized int getHitRate()
+	{
+		if (m_hits + m_misses == 0)
+		{
+			return 0;
+		}
+		return (int) (m_hits * 100 / (m_hits + m_misses));
+	}
+
+	/**
+	 * Estimates the time that has been saved by the cache. Every hit is assumed to have saved the
+	 * average time of the public key operations that were needed for the misses.
+	 *
+	 * @return the saved verification time in milliseconds
+	 */
+	public synchronized long getSavedVerificationTime()
+	{
+		long verifications = m_misses;
+		if (verifications == 0)
+		{
+			return 0;
+		}
+		return m_hits * m_verificationTime / verifications;
+	}
+
+	/**
+	 * Clears the cache if the trusted certificates have changed since the last call.
+	 */
+	private void checkCertificateStore()
+	{
+		int changeCount =
+			SignatureVerifier.getInstance().getVerificationCertificateStore().getChangeCount();
+		if (changeCount != m_certificateStoreChangeCount)
+		{
+			m_certificateStoreChangeCount = changeCount;
+			clear();
+		}
+	}
+
+	private void remove(Entry a_entry)
+	{
+		unlink(a_entry);
+		m_entries.remove(a_entry.m_key);
+	}
+
+	private void linkFirst(Entry a_entry)
+	{
+		a_entry.m_previous = null;
+		a_entry.m_next = m_head;
+		if (m_head != null)
+		{
+			m_head.m_previous = a_entry;
+		}
+		m_head = a_entry;
+		if (m_tail == null)
+		{
+			m_tail = a_entry;
+		}
+	}
+
+	private void unlink(Entry a_entry)
+	{
+		if (a_entry.m_previous != null)
+		{
+			a_entry.m_previous.m_next = a_entry.m_next;
+		}
+		else
+		{
+			m_head = a_entry.m_next;
+		}
+		if (a_entry.m_next != null)
+		{
+			a_entry.m_next.m_previous = a_entry.m_previous;
+		}
+		else
+		{
+			m_tail = a_entry.m_previous;
+		}
+		a_entry.m_previous = null;
+		a_entry.m_next = null;
+	}
+
+	private static void update(SHA1Digest a_digest, byte[] a_data)
+	{
+		/* the length separates the parts, so that they cannot be shifted against each other */
+		a_digest.update((byte) (a_data.length >> 24));
+		a_digest.update((byte) (a_data.length >> 16));
+		a_digest.update((byte) (a_data.length >> 8));
+		a_digest.update((byte) a_data.length);
+		a_digest.update(a_data, 0, a_data.length);
+	}
+
+	private static final class Entry
+	{
+		private final String m_key;
+		private long m_validTo;
+		private Entry m_previous;
+		private Entry m_next;
+
+		private Entry(String a_key)
+		{
+			m_key = a_key;
+		}
+	}
+}
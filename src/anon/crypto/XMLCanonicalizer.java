@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Vector;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import anon.util.Util;
+import anon.util.XMLParseException;
+import anon.util.XMLUtil;
+
+/**
+ * Creates the canonical byte representation of XML data that is used for signing and verifying
+ * XMLSignatures. The bytes are UTF-8 encoded in a single pass over the data and written into an
+ * internal buffer that is passed on to a digest or an output stream whenever it is full, so
+ * that no intermediate strings or byte arrays are created for a complete document. If neither a
+ * digest nor a stream is given, the buffer grows and holds the complete result. The output is
+ * the same as before for all nodes, regardless of whether the data is taken from a DOM tree or
+ * from a stream of SAX events.
+ * An instance may be used for any number of canonicalizations, but not concurrently.
+ */
+public final class XMLCanonicalizer
+{
+	private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	private static final String SAX_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	private byte[] m_buffer;
+	private int m_count;
+
+	private Digest m_digest;
+	private OutputStream m_out;
+
+	private Vector m_excludedNodes;
+	private boolean m_bKeepSpaces;
+
+	/**
+	 * Creates a canonicalizer that collects the canonical data in its buffer.
+	 * @see #toByteArray()
+	 */
+	public XMLCanonicalizer()
+	{
+		m_buffer = new byte[DEFAULT_BUFFER_SIZE];
+	}
+
+	/**
+	 * Creates a canonicalizer that passes the canonical data directly to a digest.
+	 * @param a_digest a digest
+	 */
+	public XMLCanonicalizer(Digest a_digest)
+	{
+		this();
+		m_digest = a_digest;
+	}
+
+	/**
+	 * Creates a canonicalizer that writes the canonical data directly to a stream.
+	 * @param a_out an OutputStream
+	 */
+	public XMLCanonicalizer(OutputStream a_out)
+	{
+		this();
+		m_out = a_out;
+	}
+
+	/**
+	 * Calculates the SHA-1 digest of the canonical representation of a node.
+	 * @param a_node an XML node
+	 * @param a_excludedNodes nodes that are not part of the canonical data; may be null
+	 * @return the SHA-1 digest of the canonical node
+	 * @throws XMLParseException if the node could not be made canonical
+	 */
+	public static byte[] createSHA1Digest(Node a_node, Vector a_excludedNodes) throws XMLParseException
+	{
+		SHA1Digest sha1 = new SHA1Digest();
+		byte[] digest = new byte[sha1.getDigestSize()];
+
+		new XMLCanonicalizer(sha1).canonicalize(a_node, a_excludedNodes, false);
+		sha1.doFinal(digest, 0);
+		return digest;
+	}
+
+	/**
+	 * Returns the canonical data collected so far. Only useful if there is no digest and no
+	 * stream this canonicalizer writes to.
+	 * @return the canonical data collected so far
+	 */
+	public byte[] toByteArray()
+	{
+		byte[] result = new byte[m_count];
+		System.arraycopy(m_buffer, 0, result, 0, m_count);
+		return result;
+	}
+
+	/**
+	 * Forgets the collected data, but keeps the buffer for the next canonicalization.
+	 */
+	public void reset()
+	{
+		m_count = 0;
+	}
+
+	/**
+	 * Writes the canonical representation of a node. If the node is an element, its siblings
+	 * are not included.
+	 * @param a_node an XML node; if it is a Document, its document element is used
+	 * @param a_excludedNodes nodes that are not part of the canonical data; may be null
+	 * @param a_bKeepSpaces if true, text is not trimmed and comments are kept; the XML header
+	 * is written for documents
+	 * @throws XMLParseException if the node contains data that cannot be made canonical
+	 */
+	public void canonicalize(Node a_node, Vector a_excludedNodes, boolean a_bKeepSpaces)
+		throws XMLParseException
+	{
+		boolean bSuccess = true;
+		Node node = a_node;
+
+		m_excludedNodes = a_excludedNodes;
+		m_bKeepSpaces = a_bKeepSpaces;
+		try
+		{
+			if (node instanceof Document)
+			{
+				if (a_bKeepSpaces)
+				{
+					write(XMLUtil.createDocumentStructure());
+					write('\n');
+				}
+				node = ( (Document) node).getDocumentElement();
+			}
+			if (node != null && !isExcluded(node))
+			{
+				if (node.getNodeType() == Node.ELEMENT_NODE)
+				{
+					bSuccess = writeElement( (Element) node);
+				}
+				else
+				{
+					// text and comments have always been written together with their siblings
+					bSuccess = writeSiblings(node);
+				}
+			}
+			flush();
+		}
+		catch (IOException a_e)
+		{
+			LogHolder.log(LogLevel.EXCEPTION, LogType.MISC, "Error while making canonical XML", a_e);
+			bSuccess = false;
+		}
+		finally
+		{
+			m_excludedNodes = null;
+		}
+
+		if (!bSuccess)
+		{
+			throw new XMLParseException(a_node == null ? XMLParseException.NODE_NULL_TAG :
+										a_node.getNodeName(), "Could not make the node canonical!");
+		}
+	}
+
+	/**
+	 * Parses XML data and writes its canonical representation, without building a DOM tree.
+	 * The result is the same as for the document element of the parsed document.
+	 * @param a_source the XML data
+	 * @param a_bKeepSpaces if true, text is not trimmed and comments are kept; the XML header
+	 * is written, too
+	 * @throws XMLParseException if the data could not be parsed
+	 */
+	public void canonicalize(InputSource a_source, boolean a_bKeepSpaces) throws XMLParseException
+	{
+		SAXHandler handler = createSAXHandler(a_bKeepSpaces);
+		SAXParser parser;
+
+		try
+		{
+			parser = SAXParserFactory.newInstance().newSAXParser();
+			try
+			{
+				parser.setProperty(SAX_LEXICAL_HANDLER, handler);
+			}
+			catch (SAXException a_e)
+			{
+				// comments are not reported by this parser
+			}
+			parser.parse(a_source, handler);
+		}
+		catch (Exception a_e)
+		{
+			throw new XMLParseException(XMLParseException.ROOT_TAG, a_e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a handler that writes the canonical representation of the SAX events it receives.
+	 * It should be registered as lexical handler, too, so that it sees the comments.
+	 * @param a_bKeepSpaces if true, text is not trimmed and comments are kept; the XML header
+	 * is written, too
+	 * @return a handler for SAX events
+	 */
+	public SAXHandler createSAXHandler(boolean a_bKeepSpaces)
+	{
+		return new SAXHandler(a_bKeepSpaces);
+	}
+
+	private boolean isExcluded(Node a_node)
+	{
+		return m_excludedNodes != null && m_excludedNodes.contains(a_node);
+	}
+
+	/**
+	 * Writes a node and its following siblings.
+	 * @param a_node the first node
+	 * @return false if one of the nodes cannot be made canonical
+	 */
+	private boolean writeSiblings(Node a_node) throws IOException
+	{
+		for (Node node = a_node; node != null; node = node.getNextSibling())
+		{
+			if (isExcluded(node))
+			{
+				// for compatibility, an excluded node ends the list of siblings
+				return true;
+			}
+			switch (node.getNodeType())
+			{
+				case Node.ELEMENT_NODE:
+					if (!writeElement( (Element) node))
+					{
+						return false;
+					}
+					break;
+				case Node.TEXT_NODE:
+					writeText(node.getNodeValue());
+					break;
+				case Node.COMMENT_NODE:
+					if (m_bKeepSpaces)
+					{
+						writeComment(node.getNodeValue());
+					}
+					break;
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean writeElement(Element a_element) throws IOException
+	{
+		NamedNodeMap attributes = a_element.getAttributes();
+		int length = attributes.getLength();
+		String[] names = new String[length];
+		String[] values = new String[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			names[i] = attributes.item(i).getNodeName();
+			values[i] = attributes.item(i).getNodeValue();
+		}
+		writeStartTag(a_element.getNodeName(), names, values);
+		if (a_element.hasChildNodes() && !writeSiblings(a_element.getFirstChild()))
+		{
+			return false;
+		}
+		writeEndTag(a_element.getNodeName());
+		return true;
+	}
+
+	private void writeStartTag(String a_name, String[] a_attributeNames, String[] a_attributeValues)
+		throws IOException
+	{
+		write('<');
+		write(a_name, 0, a_name.length(), false);
+		if (a_attributeNames.length > 1)
+		{
+			Util.sort(a_attributeNames, a_attributeValues);
+		}
+		for (int i = 0; i < a_attributeNames.length; i++)
+		{
+			write(' ');
+			write(a_attributeNames[i], 0, a_attributeNames[i].length(), false);
+			write('=');
+			write('\"');
+			write(a_attributeValues[i], 0, a_attributeValues[i].length(), false);
+			write('\"');
+		}
+		write('>');
+	}
+
+	private void writeEndTag(String a_name) throws IOException
+	{
+		write('<');
+		write('/');
+		write(a_name, 0, a_name.length(), false);
+		write('>');
+	}
+
+	private void writeText(String a_text) throws IOException
+	{
+		int start = 0;
+		int end = a_text.length();
+
+		if (!m_bKeepSpaces)
+		{
+			// same as String.trim()
+			while (start < end && a_text.charAt(start) <= ' ')
+			{
+				start++;
+			}
+			while (start < end && a_text.charAt(end - 1) <= ' ')
+			{
+				end--;
+			}
+		}
+		write(a_text, start, end, true);
+	}
+
+	private void writeComment(String a_comment) throws IOException
+	{
+		write('<');
+		write('!');
+		write('-');
+		write('-');
+		write(a_comment, 0, a_comment.length(), false);
+		write('-');
+		write('-');
+		write('>');
+		write('\n');
+	}
+
+	/**
+	 * Writes a part of a string in UTF-8 encoding, exactly like String.getBytes("UTF8") does.
+	 * @param a_string a String
+	 * @param a_start the first character to write
+	 * @param a_end the index after the last character to write
+	 * @param a_bEscape if true, the special characters are replaced by their entities; an
+	 * ampersand is kept if it already starts an entity
+	 */
+	private void write(String a_string, int a_start, int a_end, boolean a_bEscape) throws IOException
+	{
+		char c;
+
+		for (int i = a_start; i < a_end; i++)
+		{
+			c = a_string.charAt(i);
+			if (c < 0x80)
+			{
+				if (a_bEscape && (c == '&' || c == '<' || c == '>'))
+				{
+					writeEntity(a_string, i, a_end, c);
+				}
+				else
+				{
+					write(c);
+				}
+			}
+			else if (c < 0x800)
+			{
+				write(0xC0 | (c >> 6));
+				write(0x80 | (c & 0x3F));
+			}
+			else if (c >= 0xD800 && c <= 0xDFFF)
+			{
+				if (c <= 0xDBFF && i + 1 < a_end && a_string.charAt(i + 1) >= 0xDC00 &&
+					a_string.charAt(i + 1) <= 0xDFFF)
+				{
+					int codePoint = 0x10000 + ( (c - 0xD800) << 10) + (a_string.charAt(i + 1) - 0xDC00);
+					i++;
+					write(0xF0 | (codePoint >> 18));
+					write(0x80 | ( (codePoint >> 12) & 0x3F));
+					write(0x80 | ( (codePoint >> 6) & 0x3F));
+					write(0x80 | (codePoint & 0x3F));
+				}
+				else
+				{
+					// malformed surrogate
+					write('?');
+				}
+			}
+			else
+			{
+				write(0xE0 | (c >> 12));
+				write(0x80 | ( (c >> 6) & 0x3F));
+				write(0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void writeEntity(String a_string, int a_index, int a_end, char a_char) throws IOException
+	{
+		String entity = null;
+
+		for (int i = 0; i < XMLUtil.SPECIAL_CHARS.length; i++)
+		{
+			if (XMLUtil.SPECIAL_CHARS[i].charAt(0) == a_char)
+			{
+				entity = XMLUtil.ENTITIES[i];
+				break;
+			}
+		}
+		if (a_char == '&')
+		{
+			for (int i = 0; i < XMLUtil.ENTITIES.length; i++)
+			{
+				if (a_index + XMLUtil.ENTITIES[i].length() <= a_end &&
+					a_string.regionMatches(a_index, XMLUtil.ENTITIES[i], 0, XMLUtil.ENTITIES[i].length()))
+				{
+					// this is already an entity
+					entity = null;
+					break;
+				}
+			}
+		}
+		if (entity == null)
+		{
+			write(a_char);
+		}
+		else
+		{
+			for (int i = 0; i < entity.length(); i++)
+			{
+				write(entity.charAt(i));
+			}
+		}
+	}
+
+	private void write(byte[] a_bytes) throws IOException
+	{
+		for (int i = 0; i < a_bytes.length; i++)
+		{
+			write(a_bytes[i]);
+		}
+	}
+
+	private void write(int a_byte) throws IOException
+	{
+		if (m_count == m_buffer.length)
+		{
+			if (m_digest == null && m_out == null)
+			{
+				byte[] buffer = new byte[m_buffer.length * 2];
+				System.arraycopy(m_buffer, 0, buffer, 0, m_count);
+				m_buffer = buffer;
+			}
+			else
+			{
+				flush();
+			}
+		}
+		m_buffer[m_count++] = (byte) a_byte;
+	}
+
+	private void flush() throws IOException
+	{
+		if (m_digest != null)
+		{
+			m_digest.update(m_buffer, 0, m_count);
+			m_count = 0;
+		}
+		else if (m_out != null)
+		{
+			m_out.write(m_buffer, 0, m_count);
+			m_out.flush();
+			m_count = 0;
+		}
+	}
+
+	/**
+	 * Writes the canonical representation of the SAX events it receives. Text is collected
+	 * until the next tag or comment, as the DOM parser would create a single text node from it.
+	 * Comments outside the document element are ignored like in DOM canonicalization.
+	 */
+	public final class SAXHandler extends DefaultHandler implements LexicalHandler
+	{
+		private boolean m_bSAXKeepSpaces;
+		private StringBuffer m_text = new StringBuffer();
+		private int m_depth;
+
+		private SAXHandler(boolean a_bKeepSpaces)
+		{
+			m_bSAXKeepSpaces = a_bKeepSpaces;
+		}
+
+		public void startDocument() throws SAXException
+		{
+			m_bKeepSpaces = m_bSAXKeepSpaces;
+			m_depth = 0;
+			m_text.setLength(0);
+			if (m_bKeepSpaces)
+			{
+				try
+				{
+					write(XMLUtil.createDocumentStructure());
+					write('\n');
+				}
+				catch (IOException a_e)
+				{
+					throw new SAXException(a_e);
+				}
+			}
+		}
+
+		public void endDocument() throws SAXException
+		{
+			try
+			{
+				flush();
+			}
+			catch (IOException a_e)
+			{
+				throw new SAXException(a_e);
+			}
+		}
+
+		public void startElement(String a_uri, String a_localName, String a_qName, Attributes a_attributes)
+			throws SAXException
+		{
+			int length = a_attributes.getLength();
+			String[] names = new String[length];
+			String[] values = new String[length];
+
+			for (int i = 0; i < length; i++)
+			{
+				names[i] = a_attributes.getQName(i);
+				values[i] = a_attributes.getValue(i);
+			}
+			try
+			{
+				writeCollectedText();
+				writeStartTag(a_qName, names, values);
+			}
+			catch (IOException a_e)
+			{
+				throw new SAXException(a_e);
+			}
+			m_depth++;
+		}
+
+		public void endElement(String a_uri, String a_localName, String a_qName) throws SAXException
+		{
+			m_depth--;
+			try
+			{
+				writeCollectedText();
+				writeEndTag(a_qName);
+			}
+			catch (IOException a_e)
+			{
+				throw new SAXException(a_e);
+			}
+		}
+
+		public void characters(char[] a_chars, int a_start, int a_length)
+		{
+			if (m_depth > 0)
+			{
+				m_text.append(a_chars, a_start, a_length);
+			}
+		}
+
+		public void ignorableWhitespace(char[] a_chars, int a_start, int a_length)
+		{
+			characters(a_chars, a_start, a_length);
+		}
+
+		public void comment(char[] a_chars, int a_start, int a_length) throws SAXException
+		{
+			if (m_depth == 0)
+			{
+				return;
+			}
+			try
+			{
+				writeCollectedText();
+				if (m_bKeepSpaces)
+				{
+					writeComment(new String(a_chars, a_start, a_length));
+				}
+			}
+			catch (IOException a_e)
+			{
+				throw new SAXException(a_e);
+			}
+		}
+
+		public void startDTD(String a_name, String a_publicId, String a_systemId)
+		{
+		}
+
+		public void endDTD()
+		{
+		}
+
+		public void startEntity(String a_name)
+		{
+		}
+
+		public void endEntity(String a_name)
+		{
+		}
+
+		public void startCDATA()
+		{
+		}
+
+		public void endCDATA()
+		{
+		}
+
+		private void writeCollectedText() throws IOException
+		{
+			if (m_text.length() > 0)
+			{
+				writeText(m_text.toString());
+				m_text.setLength(0);
+			}
+		}
+	}
+}
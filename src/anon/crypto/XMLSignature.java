@@ -30,8 +30,6 @@ package anon.crypto;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.security.MessageDigest;
 import java.security.SignatureException;
 import java.util.Enumeration;
 import java.util.Vector;
@@ -40,10 +38,8 @@ import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
 
-import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import anon.util.Base64;
@@ -257,7 +253,7 @@ public final class XMLSignature
 		byte[] digestValue = null;
 		try
 		{
-			digestValue = MessageDigest.getInstance("SHA-1").digest(toCanonical(nodeToHash));
+			digestValue = XMLCanonicalizer.createSHA1Digest(nodeToHash, null);
 		}
 		catch (Exception ex)
 		{
@@ -296,7 +292,6 @@ public final class XMLSignature
 		XMLParseException
 	{
 		byte[] digestValue;
-		byte[] canonicalBuff;
 		Element elementToSign;
 		XMLSignature xmlSignature;
 		Vector oldSignatureNodes;
@@ -327,12 +322,7 @@ public final class XMLSignature
 		oldSignatureNodes = removeSignatureFromInternal(elementToSign);
 
 		/* calculate a message digest for the node; this digest is signed later on */
-		canonicalBuff = toCanonical(elementToSign);
-		
-		SHA1Digest digest =  new SHA1Digest();
-		digest.update(canonicalBuff, 0, canonicalBuff.length);
-		digestValue = new byte[digest.getDigestSize()];
-		digest.doFinal(digestValue, 0);
+		digestValue = XMLCanonicalizer.createSHA1Digest(elementToSign, null);
 		
 		// create a signature with each provided private Key
 		Enumeration keys = a_privateKeys.elements();
@@ -731,23 +721,9 @@ public final class XMLSignature
 	
 	public static byte[] toCanonical(Node a_inputNode, Vector a_excludedNodes) throws XMLParseException
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		if (makeCanonical(a_inputNode, out, false, a_excludedNodes, false, "UTF8") == -1)
-		{
-			throw new XMLParseException(a_inputNode.getNodeName(),
-										"Could not make the node canonical!");
-		}
-
-		try
-		{
-			out.flush();
-		}
-		catch (IOException a_e)
-		{
-		}
-
-		return out.toByteArray();
-
+		XMLCanonicalizer canonicalizer = new XMLCanonicalizer();
+		canonicalizer.canonicalize(a_inputNode, a_excludedNodes, false);
+		return canonicalizer.toByteArray();
 	}
 
 	/**
@@ -802,21 +778,9 @@ public final class XMLSignature
 	 */
 	public static byte[] toCanonical(Node inputNode, boolean a_bKeepSpaces) throws XMLParseException
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		if (makeCanonical(inputNode, out, false, null, a_bKeepSpaces) == -1)
-		{
-			throw new XMLParseException(inputNode.getNodeName(), "Could not make the node canonical!");
-		}
-
-		try
-		{
-			out.flush();
-		}
-		catch (IOException a_e)
-		{
-		}
-		return out.toByteArray();
-
+		XMLCanonicalizer canonicalizer = new XMLCanonicalizer();
+		canonicalizer.canonicalize(inputNode, null, a_bKeepSpaces);
+		return canonicalizer.toByteArray();
 	}
 	/**
 	 * same as toCanonical(Node):byte[], except returning a String
@@ -839,204 +803,6 @@ public final class XMLSignature
 		}
 	}
 
-	private static int makeCanonical(Node node, OutputStream o, boolean bSiblings, Node excludeNode)
-	{
-		return makeCanonical(node, o, bSiblings, excludeNode, false);
-	}
-
-	/**
-	 * @todo find a better way to get the data of the node as a bytestream, for
-	 *       compatibility reasons we use this now; it cannot be verifed that this canonicalization
-	 *       method is compatible to one of the methods defined by w3c
-	 * @param node Node
-	 * @param o OutputStream
-	 * @param bSiblings boolean
-	 * @param excludeNode Node
-	 * @return int
-	 * @see http://www.w3.org/TR/xmldsig-core/#sec-CanonicalizationMethod
-	 * @see http://www.w3.org/TR/xml-c14n
-	 */
-	private static int makeCanonical
-		(Node node, OutputStream o, boolean bSiblings, Node excludeNode, boolean a_bKeepSpaces)
-	{
-		return makeCanonical(node, o, bSiblings, Util.toVector(excludeNode), a_bKeepSpaces, "UTF8");
-	}
-
-	/**
-	 * @todo find a better way to get the data of the node as a bytestream, for
-	 *       compatibility reasons we use this now; it cannot be verifed that this canonicalization
-	 *       method is compatible to one of the methods defined by w3c
-	 * @param node Node
-	 * @param o OutputStream
-	 * @param bSiblings boolean
-	 * @param excludeNode Node
-	 * @return int
-	 * @see http://www.w3.org/TR/xmldsig-core/#sec-CanonicalizationMethod
-	 * @see http://www.w3.org/TR/xml-c14n
-	 */
-	private static int makeCanonical
-		(Node node, OutputStream o, boolean bSiblings, Vector excludedNodes, boolean a_bKeepSpaces, String charsetName)
-	{
-		try
-		{
-			if (node == null)
-			{
-				return 0;
-			}
-			if (node instanceof Document)
-			{
-				if (a_bKeepSpaces)
-				{
-					o.write(XMLUtil.createDocumentStructure());
-					o.write('\n');
-				}
-				node = ( (Document) node).getDocumentElement();
-			}
-			//for MultiSign threre can be more than one excluded node so we use a vector
-			if (excludedNodes != null && excludedNodes.contains(node))
-			{
-				return 0;
-			}
-			if (node.getNodeType() == Node.ELEMENT_NODE)
-			{
-				Element elem = (Element) node;
-				o.write('<');
-				if(charsetName != null)
-				{
-					o.write(elem.getNodeName().getBytes(charsetName));
-				}
-				else
-				{
-					o.write(elem.getNodeName().getBytes());
-				}
-				NamedNodeMap attr = elem.getAttributes();
-				if (attr.getLength() > 0)
-				{
-					// sort attributes by name
-					String[] nodeNames = new String[attr.getLength()];
-					String[] nodeValues = new String[attr.getLength()];
-					for (int i = 0; i < attr.getLength(); i++)
-					{
-						nodeNames[i] = attr.item(i).getNodeName();
-						nodeValues[i] = attr.item(i).getNodeValue();
-					}
-					Util.sort(nodeNames, nodeValues);
-
-					for (int i = 0; i < attr.getLength(); i++)
-					{
-						o.write(' ');
-						if(charsetName != null)
-						{
-							o.write(nodeNames[i].getBytes(charsetName));
-						}
-						else
-						{
-							o.write(nodeNames[i].getBytes());
-						}
-						o.write('=');
-						o.write('\"');
-						if(charsetName != null)
-						{
-							o.write(nodeValues[i].getBytes(charsetName));
-						}
-						else
-						{
-							o.write(nodeValues[i].getBytes());
-						}
-						o.write('\"');
-					}
-				}
-				o.write('>');
-				if (elem.hasChildNodes())
-				{
-					if (makeCanonical(elem.getFirstChild(), o, true, excludedNodes, a_bKeepSpaces, charsetName) == -1)
-					{
-						return -1;
-					}
-				}
-				o.write('<');
-				o.write('/');
-				if(charsetName != null)
-				{
-					o.write(elem.getNodeName().getBytes(charsetName));
-				}
-				else
-				{
-					o.write(elem.getNodeName().getBytes());
-				}
-				o.write('>');
-				if (bSiblings && 
-					makeCanonical(elem.getNextSibling(), o, true, excludedNodes, a_bKeepSpaces, charsetName) == -1)
-				{
-					return -1;
-				}
-			}
-			else if (node.getNodeType() == Node.TEXT_NODE)
-			{
-				String textNode = node.getNodeValue();
-				if (!a_bKeepSpaces)
-				{
-					textNode = textNode.trim();
-				}
-				
-				//encode special characters in entities
-				for (int i = 0; i < XMLUtil.SPECIAL_CHARS.length; i++) 
-				{
-					//if the special character "&" is to be replaced, specify the entities for not being replaced.
-					textNode = Util.replaceAll(textNode, XMLUtil.SPECIAL_CHARS[i], XMLUtil.ENTITIES[i], 
-							(XMLUtil.SPECIAL_CHARS[i].equals("&") ? XMLUtil.ENTITIES : null));
-				}
-				
-				if(charsetName != null)
-				{
-					o.write(textNode.getBytes(charsetName));
-				}
-				else
-				{
-					o.write(textNode.getBytes());
-				}
-				if (makeCanonical(node.getNextSibling(), o, true, excludedNodes, a_bKeepSpaces, charsetName) == -1)
-				{
-					return -1;
-				}
-				return 0;
-			}
-			else if (node.getNodeType() == Node.COMMENT_NODE)
-			{
-				if (a_bKeepSpaces)
-				{
-					if(charsetName != null)
-					{
-						o.write("<!--".getBytes(charsetName));
-						o.write(node.getNodeValue().getBytes(charsetName));
-						o.write("-->\n".getBytes(charsetName));
-					}
-					else
-					{
-						o.write("<!--".getBytes());
-						o.write(node.getNodeValue().getBytes());
-						o.write("-->\n".getBytes());
-					}
-				}
-				if (makeCanonical(node.getNextSibling(), o, true, excludedNodes, a_bKeepSpaces, charsetName) == -1)
-				{
-					return -1;
-				}
-				return 0;
-			}
-			else
-			{
-				return -1;
-			}
-			return 0;
-		}
-		catch (Exception e)
-		{
-			LogHolder.log(LogLevel.EXCEPTION, LogType.MISC, "Error while making canonical XML", e);
-			return -1;
-		}
-	}
-	
 	/**
 	 * Returns all <Signature>-Elements of this XMLSignature
 	 * @param a_doc
@@ -3,7 +3,6 @@
 import java.util.Enumeration;
 import java.util.Vector;
 
-import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -242,7 +241,7 @@ public class XMLSignatureElement implements IXMLEncodable
 	
 	public boolean verifyFast(Node a_node, IMyPublicKey a_publicKey) throws XMLParseException
 	{
-		boolean bResult = verify(a_node, a_publicKey);
+		boolean bResult = verify(a_node, a_publicKey, Long.MAX_VALUE);
 		if (XMLUtil.getStorageMode() == XMLUtil.STORAGE_MODE_AGRESSIVE)
 		{
 			m_elemSignature = null;
@@ -271,7 +270,7 @@ public class XMLSignatureElement implements IXMLEncodable
 			while (certificates.hasMoreElements())
 			{
 				JAPCertificate currentCertificate = (JAPCertificate) certificates.nextElement();
-				if (verify(a_node, currentCertificate.getPublicKey()))
+				if (verify(a_node, currentCertificate))
 				{
 					Vector appendedCertificates = (Vector)this.getCertificates().clone();
 					appendedCertificates.removeElement(currentCertificate);
@@ -293,7 +292,7 @@ public class XMLSignatureElement implements IXMLEncodable
 			{
 				CertPath currentPath = (CertPath) certificates.nextElement();
 				
-				if (verify(a_node, currentPath.getFirstCertificate().getPublicKey()))
+				if (verify(a_node, currentPath.getFirstCertificate()))
 				{
 					m_certPath = currentPath;
 					if (XMLUtil.getStorageMode() == XMLUtil.STORAGE_MODE_AGRESSIVE)
@@ -316,13 +315,28 @@ public class XMLSignatureElement implements IXMLEncodable
 	/**
 	 * This method is used to verify a node with a previously created XMLSignature.
 	 * @param a_node an XML node
-	 * @param a_signature an XMLSignature
+	 * @param a_certificate the certificate with the public key
+	 * @exception XMLParseException if a signature element exists, but the element
+	 *                              has an invalid structure
+	 * @return true if the node could be verified with this signature; false otherwise
+	 */
+	private boolean verify(Node a_node, JAPCertificate a_certificate) throws XMLParseException
+	{
+		return verify(a_node, a_certificate.getPublicKey(),
+					  a_certificate.getValidity().getValidTo().getTime());
+	}
+
+	/**
+	 * This method is used to verify a node with a previously created XMLSignature.
+	 * @param a_node an XML node
 	 * @param a_publicKey a public key
+	 * @param a_validTo the time until a successful verification with this key may be cached
 	 * @exception XMLParseException if a signature element exists, but the element
 	 *                              has an invalid structure
 	 * @return true if the node could be verified with this signature; false otherwise
 	 */
-	private boolean verify(Node a_node, IMyPublicKey a_publicKey) throws XMLParseException
+	private boolean verify(Node a_node, IMyPublicKey a_publicKey, long a_validTo)
+		throws XMLParseException
 	{
 
 		if (a_publicKey == null || a_node == null)
@@ -335,7 +349,7 @@ public class XMLSignatureElement implements IXMLEncodable
 			return false;
 		}
 
-		if (!checkSignature(a_publicKey))
+		if (!checkSignature(a_publicKey, a_validTo))
 		{	
 			return false;
 		}
@@ -344,13 +358,18 @@ public class XMLSignatureElement implements IXMLEncodable
 	}
 
 	/**
-	 * Checks if the signature of the XMLSignatureElement's SIGNED_INFO is valid.
+	 * Checks if the signature of the XMLSignatureElement's SIGNED_INFO is valid. As the
+	 * SIGNED_INFO contains the digest of the signed node, a signature that has been verified
+	 * before with the same key is looked up in the VerifiedSignatureCache instead.
 	 * @param a_publicKey a public key
+	 * @param a_validTo the time until a successful verification with this key may be cached
 	 * @return true if the signature of the XMLSignature`s SIGNED_INFO is valid; false otherwise
 	 */
-	private boolean checkSignature(IMyPublicKey a_publicKey)
+	private boolean checkSignature(IMyPublicKey a_publicKey, long a_validTo)
 	{
 		byte[] buff;
+		String cacheKey;
+		long startTime;
 
 		buff = Base64.decode(m_signatureValue);
 		buff = a_publicKey.getSignatureAlgorithm().decodeForXMLSignature(buff);
@@ -360,8 +379,24 @@ public class XMLSignatureElement implements IXMLEncodable
 			return false;
 		}
 
+		cacheKey = VerifiedSignatureCache.createKey(m_signedInfoCanonical, buff, a_publicKey);
+		if (cacheKey != null && VerifiedSignatureCache.getInstance().isVerified(cacheKey))
+		{
+			return true;
+		}
+
 		//testing Signature....
-		return ByteSignature.verify(m_signedInfoCanonical, buff, a_publicKey);
+		startTime = System.currentTimeMillis();
+		if (!ByteSignature.verify(m_signedInfoCanonical, buff, a_publicKey))
+		{
+			return false;
+		}
+		if (cacheKey != null)
+		{
+			VerifiedSignatureCache.getInstance().addVerified(
+				cacheKey, a_validTo, System.currentTimeMillis() - startTime);
+		}
+		return true;
 	}
 	
 	/**
@@ -373,7 +408,6 @@ public class XMLSignatureElement implements IXMLEncodable
 	 */
 	private boolean checkMessageDigest(Node a_node) throws XMLParseException
 	{
-		SHA1Digest sha1;
 		byte[] digest;
 
 		if (m_digestMethod == null)
@@ -382,11 +416,7 @@ public class XMLSignatureElement implements IXMLEncodable
 			return true;
 		}
 		
-		sha1 = new SHA1Digest();
-		digest = new byte[sha1.getDigestSize()];
-		byte[] buff = XMLSignature.toCanonical(a_node, m_parent.getSignatureElements());
-		sha1.update(buff, 0, buff.length);
-		sha1.doFinal(digest, 0);
+		digest = XMLCanonicalizer.createSHA1Digest(a_node, m_parent.getSignatureElements());
 		
 		return Util.arraysEqual(Base64.decode(m_digestValue), digest);
 	}
@@ -548,7 +578,8 @@ public class XMLSignatureElement implements IXMLEncodable
 		 * if the certificate is suitable to verify the signature
 		 */
 		if (m_appendedCerts.contains(a_certificate) ||
-			!checkSignature(a_certificate.getPublicKey()))
+			!checkSignature(a_certificate.getPublicKey(),
+							a_certificate.getValidity().getValidTo().getTime()))
 		{
 			return false;
 		}
@@ -47,6 +47,7 @@ import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
 import anon.crypto.MyRandom;
+import anon.util.ExpiryIndex;
 import anon.util.Util;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -69,6 +70,20 @@ public final class Database extends Observable implements IXMLEncodable
 {
 	
 	private static String XML_ALL_DB_NAME = "InfoServiceDB";
+
+	/**
+	 * The maximum number of removed entries that are remembered for database deltas. If more
+	 * entries are removed, clients with older change sequence numbers get the complete database.
+	 */
+	private static final int MAX_REMEMBERED_REMOVALS = 1000;
+
+	/**
+	 * The maximum number of messages that wait for their delivery to the observers. If there are
+	 * more, the threads that change the databases are slowed down until the observers have caught
+	 * up.
+	 */
+	private static final int MAX_QUEUED_MESSAGES = 1000;
+
 	/**
 	 * The registered databases.
 	 */
@@ -79,7 +94,18 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	private static IDistributor ms_distributor;
 
-	private static boolean ms_bShutdown = false;
+	/** read by the timer and notifier threads without holding a lock */
+	private static volatile boolean ms_bShutdown = false;
+
+	/**
+	 * Removes the expired entries of all databases.
+	 */
+	private static final ExpiryTimer ms_expiryTimer = new ExpiryTimer();
+
+	/**
+	 * Delivers the messages of all databases to their observers.
+	 */
+	private static final ObserverNotifier ms_observerNotifier = new ObserverNotifier();
 
 	/**
 	 * The DatabaseEntry class for that this Database is registered.
@@ -87,20 +113,62 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	private Class m_DatabaseEntryClass;
 
-	private Thread m_dbThread;
-	private final Object SYNC_THREAD = new Object();
-
 	/**
-	 * Stores services we know.
+	 * Stores services we know. It is only changed while holding SYNC_WRITE, so all changes of
+	 * a database are done one after another. Readers do not need SYNC_WRITE.
 	 */
 	private Hashtable m_serviceDatabase;
 
+	private final Object SYNC_WRITE = new Object();
+
 	/**
-	 * Chronological order (in relation to timeouts) of all objects in the database.
+	 * All entries of the database. Every change publishes a new array while holding SYNC_WRITE;
+	 * an array is never modified, so readers may use it without any lock.
 	 */
-	private Vector m_timeoutList;
-	
-	private volatile boolean m_bStopThread = false;
+	private volatile AbstractDatabaseEntry[] m_snapshot = new AbstractDatabaseEntry[0];
+
+	/**
+	 * The observers of this database. The array is replaced on every change, so a message can
+	 * remember the observers at the time it was sent. Guarded by SYNC_WRITE.
+	 */
+	private Observer[] m_observers = new Observer[0];
+
+	/**
+	 * Orders the IDs of all entries in the database by their expire times. Guarded by
+	 * SYNC_WRITE.
+	 */
+	private ExpiryIndex m_expiryIndex;
+
+	/**
+	 * Identifies this instance of the database, as the change sequence numbers start anew with
+	 * every instance.
+	 */
+	private final long m_epoch = System.currentTimeMillis();
+
+	/**
+	 * Is incremented with every change of the database. Guarded by SYNC_WRITE.
+	 */
+	private long m_changeSequence = 0;
+
+	/**
+	 * All changes after this sequence number are known.
+	 */
+	private long m_firstDeltaSequence = 0;
+
+	/**
+	 * The change sequence numbers (Long) of the entries in the database, mapped by entry ID.
+	 */
+	private Hashtable m_entrySequences = new Hashtable();
+
+	/**
+	 * The change sequence numbers (Long) of removed entries, mapped by entry ID.
+	 */
+	private Hashtable m_removedEntrySequences = new Hashtable();
+
+	/**
+	 * The IDs of the removed entries in the order of their removal.
+	 */
+	private Vector m_removedEntryIds = new Vector();
 
 	/**
 	 * Registers a distributor that forwards new database entries.
@@ -273,16 +341,8 @@ public final class Database extends Observable implements IXMLEncodable
 		synchronized (Database.class)
 		{
 			ms_bShutdown = true;
-			Enumeration databases = ms_databases.elements();
-			Database currentDB;
-			while (databases.hasMoreElements())
-			{
-				currentDB = (Database) databases.nextElement();
-				synchronized (currentDB.SYNC_THREAD)
-				{
-					currentDB.stopThread();
-				}
-			}
+			ms_expiryTimer.cancelAll();
+			ms_observerNotifier.cancelAll();
 			ms_databases.clear();
 		}
 	}
@@ -309,151 +369,283 @@ public final class Database extends Observable implements IXMLEncodable
 
 		m_DatabaseEntryClass = a_DatabaseEntryClass;
 		m_serviceDatabase = new Hashtable();
-		m_timeoutList = new Vector();
-		
-		//startThread();
+		m_expiryIndex = new ExpiryIndex();
 	}
-	
-	private void startThread()
-	{	
-		synchronized (SYNC_THREAD)
+
+	/**
+	 * This is the garbage collector for the database. If entries become outdated, they are
+	 * removed from the database. Afterwards, the next expire time is passed to the timer.
+	 */
+	private void removeExpiredEntries()
+	{
+		synchronized (SYNC_WRITE)
 		{
-			if (ms_bShutdown || (!m_bStopThread && m_dbThread != null && m_dbThread.isAlive()))
+			/* we need exclusive access to the database */
+			long currentTime = System.currentTimeMillis();
+			boolean bRemoved = false;
+			while (!m_expiryIndex.isEmpty() && m_expiryIndex.getFirstExpireTime() <= currentTime)
 			{
-				return;
+				String entryId = (String) m_expiryIndex.getFirstKey();
+				m_expiryIndex.remove(entryId);
+				AbstractDatabaseEntry entry = (AbstractDatabaseEntry) m_serviceDatabase.remove(entryId);
+				if (entry == null)
+				{
+					continue;
+				}
+				/* we remove the old entry now, because it has reached the expire time */
+				LogHolder.log(LogLevel.INFO, LogType.MISC,
+							  "DatabaseEntry ({}){} has reached the expire time and is removed.",
+							  entry.getClass().getName(), entry.getId());
+				recordRemoval(entryId);
+				bRemoved = true;
+				if (entry.isPersistanceDeletionAllowed())
+				{
+					removeExternal(entry);
+				}
+				/* notify the observers about the removal */
+				postMessage(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, entry));
 			}
-			
-			while (m_dbThread != null && m_bStopThread && m_dbThread.isAlive())
+			if (bRemoved)
 			{
-				LogHolder.log(LogLevel.ERR, LogType.DB, "Shutting down old database thread before starting new one (" + 
-						m_DatabaseEntryClass.toString() + ")");
-				// should not happen
-				m_dbThread.interrupt();
-				Thread.yield();
+				publishSnapshot();
 			}
-			
-			m_bStopThread = false;
-			m_dbThread = new Thread(new TimeoutThread(), 
-					"Database Thread: " + m_DatabaseEntryClass.toString());
-			m_dbThread.setDaemon(true);
-			m_dbThread.start();
+			scheduleExpiry();
 		}
+		ms_observerNotifier.waitForSpace();
 	}
-	
-	private void stopThread()
-	{	
-		synchronized (SYNC_THREAD)
+
+	/**
+	 * Tells the timer when the next entry of this database expires. The caller must hold
+	 * SYNC_WRITE, so that the timer always gets the latest expire time.
+	 */
+	private void scheduleExpiry()
+	{
+		ms_expiryTimer.schedule(this, m_expiryIndex.getFirstExpireTime());
+	}
+
+	/**
+	 * Sets the expire time of an entry in the expiry index. The timer is only informed if the
+	 * first expire time of this database has changed. The caller must hold SYNC_WRITE.
+	 *
+	 * @param a_entryId the ID of an entry
+	 * @param a_entry the new entry with this ID or null if the entry was removed from the database
+	 */
+	private void updateExpiryIndex(String a_entryId, AbstractDatabaseEntry a_entry)
+	{
+		long oldFirstExpireTime = m_expiryIndex.getFirstExpireTime();
+		if (a_entry == null)
 		{
-			m_bStopThread = true;
-			while (m_dbThread != null && m_dbThread.isAlive())
-			{
-				LogHolder.log(LogLevel.INFO, LogType.DB, 
-						"Shutting down db thread for class: " + m_DatabaseEntryClass.toString());
-				m_dbThread.interrupt();
-				synchronized (m_serviceDatabase)
-				{
-					m_serviceDatabase.notify();
-				}
-				Thread.yield();
-			}
+			m_expiryIndex.remove(a_entryId);
+		}
+		else
+		{
+			m_expiryIndex.put(a_entryId, a_entry.getExpireTime());
+		}
+		if (m_expiryIndex.getFirstExpireTime() != oldFirstExpireTime)
+		{
+			scheduleExpiry();
 		}
 	}
 
-	private class TimeoutThread implements Runnable
+	/**
+	 * A single thread that removes the expired entries of all databases. The databases are
+	 * ordered by the expire time of their first entry, so the thread only wakes up if there is
+	 * really something to remove. The thread terminates if no database has entries that may
+	 * expire, and it is started again as soon as there are some.
+	 */
+	private static final class ExpiryTimer implements Runnable
 	{
+		private final ExpiryIndex m_databases = new ExpiryIndex();
+
+		private Thread m_thread;
+
 		/**
-		 * This is the garbage collector for the database. If an entry becomes
-		 * outdated, it will be automatically removed from the database.
+		 * Sets the time when the given database has to remove its next entry.
+		 *
+		 * @param a_database a database
+		 * @param a_expireTime the lowest expire time of all entries in the database or
+		 *                     Long.MAX_VALUE if no entry will ever expire
 		 */
+		public synchronized void schedule(Database a_database, long a_expireTime)
+		{
+			if (a_expireTime == Long.MAX_VALUE || ms_bShutdown)
+			{
+				/* nothing will expire -> the database is not needed in the timer */
+				m_databases.remove(a_database);
+				return;
+			}
+			long oldFirstExpireTime = m_databases.getFirstExpireTime();
+			m_databases.put(a_database, a_expireTime);
+			if (m_thread == null)
+			{
+				m_thread = new Thread(this, "Database Expiry Timer");
+				m_thread.setDaemon(true);
+				m_thread.start();
+			}
+			else if (a_expireTime < oldFirstExpireTime)
+			{
+				/* -> notify the timer thread */
+				notify();
+			}
+		}
+
+		public synchronized void cancelAll()
+		{
+			m_databases.clear();
+			notify();
+		}
+
 		public void run()
 		{
-			LogHolder.log(LogLevel.INFO, LogType.DB, 
-					"Starting timeout database thread for class " + m_DatabaseEntryClass.toString() + ".");
-			while (!m_bStopThread && !ms_bShutdown && !Thread.currentThread().isInterrupted())
+			LogHolder.log(LogLevel.INFO, LogType.DB, "Starting database expiry timer.");
+			while (true)
 			{
-				boolean moreOldEntrys = true;
-				synchronized (m_serviceDatabase)
+				Database database;
+				synchronized (this)
 				{
-					/* we need exclusive access to the database */
-					while (!m_bStopThread && !ms_bShutdown && !Thread.currentThread().isInterrupted() &&
-							(m_timeoutList.size() > 0) && (moreOldEntrys))
-					{
-						AbstractDatabaseEntry entry = (AbstractDatabaseEntry) m_serviceDatabase.get(m_timeoutList.
-							firstElement());
-						if (System.currentTimeMillis() >= entry.getExpireTime())
-						{
-							/* we remove the old entry now, because it has reached the expire time */
-							LogHolder.log(LogLevel.INFO, LogType.MISC,
-										  "DatabaseEntry (" + entry.getClass().getName() + ")" +
-										  entry.getId() + " has reached the expire time and is removed.");
-							AbstractDatabaseEntry removedEntry = (AbstractDatabaseEntry)m_serviceDatabase.remove(entry.getId());
-							if (removedEntry != null && removedEntry.isPersistanceDeletionAllowed())
-							{
-								removeExternal(removedEntry);
-							}
-							
-							m_timeoutList.removeElementAt(0);
-							/* notify the observers about the removal */
-							setChanged();
-							notifyObservers(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, entry));
-						}
-						else
-						{
-							/* the oldest entry in the database
-							 * has not reached expire time now, so there are no more old entries
-							 */
-							moreOldEntrys = false;
-						}
-					}
-					if (m_bStopThread || ms_bShutdown || Thread.currentThread().isInterrupted())
+					if (m_databases.isEmpty())
 					{
+						/* no entry will expire -> stop the thread, it is started again if needed */
+						LogHolder.log(LogLevel.INFO, LogType.DB, "Stopping database expiry timer.");
+						m_thread = null;
 						return;
 					}
-				}
-				synchronized (m_serviceDatabase)
-				{
-					/* we need the database in a consistent state */
-					long sleepTime = 0;
-					if (m_timeoutList.size() > 0)
-					{
-						/* get time until next timeout */
-						sleepTime = ( (AbstractDatabaseEntry) (m_serviceDatabase.get(m_timeoutList.firstElement()))).
-							getExpireTime() - System.currentTimeMillis();
-					}
+					long sleepTime = m_databases.getFirstExpireTime() - System.currentTimeMillis();
 					if (sleepTime > 0)
 					{
 						/* there is nothing to do now -> wait until next expire time */
 						try
 						{
-							m_serviceDatabase.wait(sleepTime);
-							LogHolder.log(LogLevel.DEBUG, LogType.MISC,
-										  "One entry could be expired. Wake up...");
+							wait(sleepTime);
 						}
-						catch (InterruptedException e)
+						catch (InterruptedException a_e)
 						{
-							if (m_bStopThread || ms_bShutdown || Thread.currentThread().isInterrupted())
-							{
-								return;
-							}
+							/* look at the expire times again */
 						}
+						continue;
 					}
-					if (m_timeoutList.size() == 0)
+					database = (Database) m_databases.getFirstKey();
+					m_databases.remove(database);
+				}
+				/* the database lock must not be taken while holding the timer lock */
+				try
+				{
+					database.removeExpiredEntries();
+				}
+				catch (Exception a_e)
+				{
+					LogHolder.log(LogLevel.EXCEPTION, LogType.DB, a_e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A single thread that delivers the messages of all databases to their observers, so that a
+	 * database is never blocked by slow observers. The messages are delivered in the order they
+	 * have been sent.
+	 */
+	private static final class ObserverNotifier implements Runnable
+	{
+		/**
+		 * The queued messages. Each message takes three elements: the database, the array of
+		 * observers and the message itself.
+		 */
+		private final Vector m_queue = new Vector();
+
+		private Thread m_thread;
+
+		/**
+		 * Queues a message. This never blocks, so it may be called while holding a database lock.
+		 *
+		 * @param a_database the database that sends the message
+		 * @param a_observers the observers that get the message
+		 * @param a_message the message
+		 */
+		public synchronized void post(Database a_database, Observer[] a_observers, Object a_message)
+		{
+			if (ms_bShutdown)
+			{
+				return;
+			}
+			m_queue.addElement(a_database);
+			m_queue.addElement(a_observers);
+			m_queue.addElement(a_message);
+			if (m_thread == null)
+			{
+				m_thread = new Thread(this, "Database Observer Notifier");
+				m_thread.setDaemon(true);
+				m_thread.start();
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Waits until there are less than MAX_QUEUED_MESSAGES messages in the queue. This must
+		 * not be called while holding a database lock, as the observers might need it. The
+		 * observers themselves never wait, as the queue could not become shorter then.
+		 */
+		public synchronized void waitForSpace()
+		{
+			while (m_queue.size() >= MAX_QUEUED_MESSAGES * 3 && Thread.currentThread() != m_thread)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException a_e)
+				{
+					return;
+				}
+			}
+		}
+
+		public synchronized void cancelAll()
+		{
+			m_queue.removeAllElements();
+			notifyAll();
+		}
+
+		public void run()
+		{
+			Database database;
+			Observer[] observers;
+			Object message;
+
+			while (true)
+			{
+				synchronized (this)
+				{
+					while (m_queue.size() == 0)
 					{
-						/* there are no entries in the database, wait until there are some */
 						try
 						{
-							m_serviceDatabase.wait();
-							LogHolder.log(LogLevel.DEBUG, LogType.MISC,
-										  "First entry in the database. Look when it expires. Wake up...");
+							wait();
 						}
-						catch (InterruptedException e)
+						catch (InterruptedException a_e)
 						{
-							if (m_bStopThread || ms_bShutdown || Thread.currentThread().isInterrupted())
-							{
-								return;
-							}
+							/* look at the queue again */
 						}
 					}
+					database = (Database) m_queue.elementAt(0);
+					observers = (Observer[]) m_queue.elementAt(1);
+					message = m_queue.elementAt(2);
+					m_queue.removeElementAt(2);
+					m_queue.removeElementAt(1);
+					m_queue.removeElementAt(0);
+					/* wake up the threads waiting for space in the queue */
+					notifyAll();
+				}
+				for (int i = 0; i < observers.length; i++)
+				{
+					try
+					{
+						observers[i].update(database, message);
+					}
+					catch (Throwable a_e)
+					{
+						LogHolder.log(LogLevel.EXCEPTION, LogType.DB, a_e);
+					}
 				}
 			}
 		}
@@ -500,148 +692,102 @@ public final class Database extends Observable implements IXMLEncodable
 		}
 		boolean addEntry = false;
 		AbstractDatabaseEntry oldEntry = null;
-		boolean bStopThread = false;
-		boolean bStartThread = false;
-		
-		synchronized (SYNC_THREAD)
+
+		synchronized (SYNC_WRITE)
 		{
-			synchronized (m_serviceDatabase)
+			/* we need exclusive access to the database */
+			oldEntry = (AbstractDatabaseEntry) (m_serviceDatabase.get(newEntry.getId()));
+			// check if this is an unknown entry, or if the entry is newer than the one we have stored
+			addEntry = newEntry.isNewerThan(oldEntry);
+
+			if (addEntry)
 			{
-				/* we need exclusive access to the database */
-				oldEntry = (AbstractDatabaseEntry) (m_serviceDatabase.get(newEntry.getId()));
-				// check if this is an unknown entry, or if the entry is newer than the one we have stored
-				addEntry = newEntry.isNewerThan(oldEntry);
-				//if(addEntry && oldEntry != null) m_timeoutList.removeElement(oldEntry.getId());
-	
-				if (addEntry)
+				// test first if the element has not yet expired
+				if (newEntry.getExpireTime() <= System.currentTimeMillis())
 				{
-					// test first if the element has not yet expired
-					if (newEntry.getExpireTime() <= System.currentTimeMillis())
-					{
-						if (newEntry.isPersistanceDeletionAllowed())
-						{
-							newEntry.deletePersistence();
-						}
-						
-						LogHolder.log(LogLevel.INFO, LogType.NET, "Received an expired db entry: '" +
-									  newEntry.getId() + "' (" +  m_DatabaseEntryClass.toString() + 
-									  "). It was dropped immediatly.");
-						AbstractDatabaseEntry removedEntry =
-							(AbstractDatabaseEntry)m_serviceDatabase.remove(newEntry.getId());
-						if (removedEntry != null)
-						{
-							if (removedEntry.isPersistanceDeletionAllowed())
-							{
-								removeExternal(removedEntry);
-							}
-							/* There was an entry with a lower version number in the database, which was not
-							 * expired yet??? No matter why, now it was removed -> notify the observers.
-							 */
-							setChanged();
-							notifyObservers(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, removedEntry));
-							return true;
-						}
-						return false;
-					}
-					// remove any old entry with the same id from the timeout list
-					while (m_timeoutList.removeElement(newEntry.getId()));
-	
-					// add the entry to the database
 					if (newEntry.isPersistanceDeletionAllowed())
 					{
-						addExternal(newEntry);
 						newEntry.deletePersistence();
 					}
-					m_serviceDatabase.put(newEntry.getId(), newEntry);
-	
-					/* update the timeoutList */
-					boolean timeoutEntryInserted = false;
-					int i = 0;
-					while (!timeoutEntryInserted)
-					{
-						if (i < m_timeoutList.size())
-						{
-							if ( ( (AbstractDatabaseEntry) (m_serviceDatabase.get(
-								m_timeoutList.elementAt(i)))).getExpireTime() >=
-								newEntry.getExpireTime())
-							{
-								m_timeoutList.insertElementAt(newEntry.getId(), i);
-								timeoutEntryInserted = true;
-							}
-						}
-						else
-						{
-							/* we are at the last position in the list -> add entry at the end */
-							m_timeoutList.addElement(newEntry.getId());
-							timeoutEntryInserted = true;
-						}
-						i++;
-					}
-					if (i == 1)
+					
+					LogHolder.log(LogLevel.INFO, LogType.NET,
+								  "Received an expired db entry: '{}' ({}). It was dropped immediatly.",
+								  newEntry.getId(), m_DatabaseEntryClass);
+					AbstractDatabaseEntry removedEntry =
+						(AbstractDatabaseEntry)m_serviceDatabase.remove(newEntry.getId());
+					if (removedEntry != null)
 					{
-						/* entry at the first expire position added */
-						if (newEntry.getExpireTime() == Long.MAX_VALUE)
-						{
-							// this entry will never expire -> cleanup thread is not needed any more
-							bStopThread = true;
-						}
-						else
+						recordRemoval(removedEntry.getId());
+						publishSnapshot();
+						if (removedEntry.isPersistanceDeletionAllowed())
 						{
-							/* -> notify the cleanup thread */
-							bStartThread = true; // activate if needed	
-							m_serviceDatabase.notify();
+							removeExternal(removedEntry);
 						}
-						
+						updateExpiryIndex(removedEntry.getId(), null);
+						/* There was an entry with a lower version number in the database, which was not
+						 * expired yet??? No matter why, now it was removed -> notify the observers.
+						 */
+						postMessage(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, removedEntry));
+						return true;
 					}
+					return false;
+				}
+				// add the entry to the database
+				if (newEntry.isPersistanceDeletionAllowed())
+				{
+					addExternal(newEntry);
+					newEntry.deletePersistence();
+				}
+				m_serviceDatabase.put(newEntry.getId(), newEntry);
+				recordChange(newEntry.getId());
+				publishSnapshot();
+
+				/* update the expiry index */
+				updateExpiryIndex(newEntry.getId(), newEntry);
+				if (LogHolder.isLogged(LogLevel.DEBUG, LogType.MISC))
+				{
 					LogHolder.log(LogLevel.DEBUG, LogType.MISC,
 								  "Added / updated entry '" + newEntry.getId() + "' in the " +
 								  m_DatabaseEntryClass.getName() + " database. Now there are " +
 								  Integer.toString(m_serviceDatabase.size()) +
-								  " entries stored in this database. The new entry has position " +
-								  Integer.toString(i) + "/" + Integer.toString(m_timeoutList.size()) +
-								  " in the database-timeout list.");
-					if (newEntry instanceof IDistributable && a_bDistribute)
+								  " entries stored in this database.");
+				}
+				if (newEntry instanceof IDistributable && a_bDistribute)
+				{
+					// forward new entries
+					if (ms_distributor != null)
 					{
-						// forward new entries
-						if (ms_distributor != null)
-						{
-							ms_distributor.addJob( (IDistributable) newEntry);
-						}
-						else
-						{
-							LogHolder.log(LogLevel.WARNING, LogType.MISC,
-										  "No distributor specified - cannot distribute database entries!");
-						}
+						ms_distributor.addJob( (IDistributable) newEntry);
+					}
+					else
+					{
+						LogHolder.log(LogLevel.WARNING, LogType.MISC,
+									  "No distributor specified - cannot distribute database entries!");
 					}
 				}
-				else if (newEntry.isPersistanceDeletionAllowed())
+
+				/* there was an entry added or renewed in the database -> notify the observers;
+				 * this is done while holding the lock, so the messages keep the order of the changes
+				 */
+				if (oldEntry == null)
 				{
-					newEntry.deletePersistence();
+					/* it was really a new entry */
+					postMessage(new DatabaseMessage(DatabaseMessage.ENTRY_ADDED, newEntry));
+				}
+				else
+				{
+					/* there was already an entry with the same ID -> the entry was renewed */
+					postMessage(new DatabaseMessage(DatabaseMessage.ENTRY_RENEWED, newEntry));
 				}
 			}
-			if (bStopThread)
-			{
-				stopThread();
-			}
-			else if (bStartThread)
+			else if (newEntry.isPersistanceDeletionAllowed())
 			{
-				startThread();
+				newEntry.deletePersistence();
 			}
 		}
 		if (addEntry)
-		{	
-			/* there was an entry added or renewed in the database -> notify the observers */
-			setChanged();
-			if (oldEntry == null)
-			{
-				/* it was really a new entry */
-				notifyObservers(new DatabaseMessage(DatabaseMessage.ENTRY_ADDED, newEntry));
-			}
-			else
-			{
-				/* there was already an entry with the same ID -> the entry was renewed */
-				notifyObservers(new DatabaseMessage(DatabaseMessage.ENTRY_RENEWED, newEntry));
-			}
+		{
+			ms_observerNotifier.waitForSpace();
 			return true;
 		}
 		return false;
@@ -667,50 +813,27 @@ public final class Database extends Observable implements IXMLEncodable
 		if (a_entryID != null)
 		{
 			AbstractDatabaseEntry removedEntry;
-			boolean bStopThread = false;
-			boolean bStartThread = false;
-			synchronized (SYNC_THREAD)
+			synchronized (SYNC_WRITE)
 			{
-				synchronized (m_serviceDatabase)
+				/* we need exclusive access to the database */
+				removedEntry = (AbstractDatabaseEntry) m_serviceDatabase.remove(a_entryID);
+				if (removedEntry != null)
 				{
-					/* we need exclusive access to the database */
-					removedEntry = (AbstractDatabaseEntry) m_serviceDatabase.remove(a_entryID);
-					if (removedEntry != null)
+					recordRemoval(a_entryID);
+					publishSnapshot();
+					if (removedEntry.isPersistanceDeletionAllowed())
 					{
-						if (removedEntry.isPersistanceDeletionAllowed())
-						{
-							removeExternal(removedEntry);
-						}
-						
-						m_timeoutList.removeElement(a_entryID);
-						if (m_timeoutList.size() > 0 && 
-							((AbstractDatabaseEntry)m_serviceDatabase.get(m_timeoutList.elementAt(0))).getExpireTime() ==
-								Long.MAX_VALUE)
-						{
-							bStopThread = true;
-						}
-						else
-						{
-							bStartThread = true;
-						}
+						removeExternal(removedEntry);
 					}
-				}
-				
-				if (bStartThread)
-				{
-					startThread();
-				}
-				else if (bStopThread)
-				{
-					stopThread();
+					updateExpiryIndex(a_entryID, null);
+					/* an entry was removed -> notify the observers */
+					postMessage(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, removedEntry));
 				}
 			}
 			
 			if (removedEntry != null)
 			{
-				/* an entry was removed -> notify the observers */
-				setChanged();
-				notifyObservers(new DatabaseMessage(DatabaseMessage.ENTRY_REMOVED, removedEntry));
+				ms_observerNotifier.waitForSpace();
 				return true;
 			}
 		}
@@ -737,19 +860,23 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	public void removeAll()
 	{
-		synchronized (SYNC_THREAD)
+		synchronized (SYNC_WRITE)
 		{
-			synchronized (m_serviceDatabase)
-			{
-				/* we need exclusive access to the database */
-				m_serviceDatabase.clear();
-				m_timeoutList.removeAllElements();
-			}
-			//stopThread();
+			/* we need exclusive access to the database */
+			m_serviceDatabase.clear();
+			m_snapshot = new AbstractDatabaseEntry[0];
+			m_expiryIndex.clear();
+			scheduleExpiry();
+			/* clients cannot be told about the removals -> they need the complete database */
+			m_changeSequence++;
+			m_firstDeltaSequence = m_changeSequence;
+			m_entrySequences.clear();
+			m_removedEntrySequences.clear();
+			m_removedEntryIds.removeAllElements();
+			/* database was cleared -> notify the observers */
+			postMessage(new DatabaseMessage(DatabaseMessage.ALL_ENTRIES_REMOVED));
 		}
-		/* database was cleared -> notify the observers */
-		setChanged();
-		notifyObservers(new DatabaseMessage(DatabaseMessage.ALL_ENTRIES_REMOVED));
+		ms_observerNotifier.waitForSpace();
 	}
 
 	/**
@@ -869,13 +996,10 @@ public final class Database extends Observable implements IXMLEncodable
 		}
 
 		element = a_doc.createElement(a_xmlContainerName);
-		synchronized (m_serviceDatabase)
+		AbstractDatabaseEntry[] entries = getSnapshot();
+		for (int i = 0; i < entries.length; i++)
 		{
-			Enumeration it = m_serviceDatabase.elements();
-			while (it.hasMoreElements())
-			{
-				element.appendChild( ( (IXMLEncodable) (it.nextElement())).toXmlElement(a_doc));
-			}
+			element.appendChild( ( (IXMLEncodable) entries[i]).toXmlElement(a_doc));
 		}
 		return element;
 	}
@@ -892,15 +1016,11 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	public Vector getEntryList()
 	{
-		Vector entryList = new Vector();
-		synchronized (m_serviceDatabase)
+		AbstractDatabaseEntry[] entries = getSnapshot();
+		Vector entryList = new Vector(entries.length);
+		for (int i = 0; i < entries.length; i++)
 		{
-			/* get the actual values */
-			Enumeration serviceDatabaseElements = m_serviceDatabase.elements();
-			while (serviceDatabaseElements.hasMoreElements())
-			{
-				entryList.addElement(serviceDatabaseElements.nextElement());
-			}
+			entryList.addElement(entries[i]);
 		}
 		return entryList;
 	}
@@ -921,10 +1041,7 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	public Enumeration getEntrySnapshotAsEnumeration()
 	{
-		synchronized (m_serviceDatabase)
-		{
-			return getEntryList().elements();
-		}
+		return getEntryList().elements();
 	}
 
 	/**
@@ -949,13 +1066,10 @@ public final class Database extends Observable implements IXMLEncodable
 		{
 			return null;
 		}
-		AbstractDatabaseEntry resultEntry = null;
-		synchronized (m_serviceDatabase)
-		{
-			/* get the actual value */
-			resultEntry = (AbstractDatabaseEntry) (m_serviceDatabase.get(entryId));
-		}
-		return resultEntry;
+		/* the hashtable is only changed while holding SYNC_WRITE, but the single operations of a
+		 * hashtable are synchronized themselves
+		 */
+		return (AbstractDatabaseEntry) (m_serviceDatabase.get(entryId));
 	}
 
 	/**
@@ -966,28 +1080,12 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	public AbstractDatabaseEntry getRandomEntry()
 	{
-		AbstractDatabaseEntry resultEntry = null;
-		synchronized (m_serviceDatabase)
+		AbstractDatabaseEntry[] entries = getSnapshot();
+		if (entries.length == 0)
 		{
-			/* all keys of the database are in the timeout list -> select a random key from there
-			 * and get the associated entry from the database
-			 */
-			if (m_timeoutList.size() > 0)
-			{
-				try
-				{
-					String entryId =
-						(String) m_timeoutList.elementAt(
-							new MyRandom().nextInt(m_timeoutList.size()));
-					resultEntry = (AbstractDatabaseEntry) (m_serviceDatabase.get(entryId));
-				}
-				catch (Exception e)
-				{
-					/* should never occur */
-				}
-			}
+			return null;
 		}
-		return resultEntry;
+		return entries[new MyRandom().nextInt(entries.length)];
 	}
 
 	/**
@@ -999,27 +1097,250 @@ public final class Database extends Observable implements IXMLEncodable
 	 */
 	public void addObserver(Observer a_observer)
 	{
-		synchronized (m_serviceDatabase)
+		if (a_observer == null)
+		{
+			throw new NullPointerException();
+		}
+		synchronized (SYNC_WRITE)
 		{
-			/* add the observer -> because we have locked m_serviceDatabase, there will be no message
-			 * sent to the observers, until we are done -> our message to the new observer will be the
-			 * first
+			/* add the observer -> because we have locked SYNC_WRITE, the database will not change
+			 * until we are done; messages about older changes are not sent to the new observer, so
+			 * our message to the new observer will be the first
 			 */
 			super.addObserver(a_observer);
+			Observer[] observers = new Observer[m_observers.length + 1];
+			int count = 0;
+			for (int i = 0; i < m_observers.length; i++)
+			{
+				if (m_observers[i] != a_observer)
+				{
+					observers[count] = m_observers[i];
+					count++;
+				}
+			}
+			observers[count] = a_observer;
+			count++;
+			setObservers(observers, count);
 			/* send the initial message to the new observer */
 			a_observer.update(this,
 							  new DatabaseMessage(DatabaseMessage.INITIAL_OBSERVER_MESSAGE, getEntryList()));
 		}
 	}
 
+	public void deleteObserver(Observer a_observer)
+	{
+		synchronized (SYNC_WRITE)
+		{
+			super.deleteObserver(a_observer);
+			Observer[] observers = new Observer[m_observers.length];
+			int count = 0;
+			for (int i = 0; i < m_observers.length; i++)
+			{
+				if (m_observers[i] != a_observer)
+				{
+					observers[count] = m_observers[i];
+					count++;
+				}
+			}
+			setObservers(observers, count);
+		}
+	}
+
+	public void deleteObservers()
+	{
+		synchronized (SYNC_WRITE)
+		{
+			super.deleteObservers();
+			m_observers = new Observer[0];
+		}
+	}
+
+	/**
+	 * Sends a message to all observers of this database. The message is delivered by the
+	 * ObserverNotifier thread, so the sender never waits for the observers. The observers that
+	 * are registered when the message is sent will get it, even if they are removed until it
+	 * is delivered.
+	 *
+	 * @param a_message a message
+	 */
+	public void notifyObservers(Object a_message)
+	{
+		synchronized (SYNC_WRITE)
+		{
+			postMessage(a_message);
+		}
+		ms_observerNotifier.waitForSpace();
+	}
+
+	public void notifyObservers()
+	{
+		notifyObservers(null);
+	}
+
+	/**
+	 * Queues a message for the current observers. The caller must hold SYNC_WRITE, so that the
+	 * messages are delivered in the order of the changes they describe.
+	 *
+	 * @param a_message a message
+	 */
+	private void postMessage(Object a_message)
+	{
+		if (m_observers.length > 0)
+		{
+			ms_observerNotifier.post(this, m_observers, a_message);
+		}
+	}
+
+	private void setObservers(Observer[] a_observers, int a_count)
+	{
+		if (a_count < a_observers.length)
+		{
+			Observer[] observers = new Observer[a_count];
+			System.arraycopy(a_observers, 0, observers, 0, a_count);
+			a_observers = observers;
+		}
+		m_observers = a_observers;
+	}
+
+	/**
+	 * Returns all entries of the database without waiting for writers.
+	 *
+	 * @return all entries of the database; the array must not be modified
+	 */
+	private AbstractDatabaseEntry[] getSnapshot()
+	{
+		return m_snapshot;
+	}
+
+	/**
+	 * Publishes a new snapshot of all entries after a change. Must be called while holding
+	 * SYNC_WRITE.
+	 */
+	private void publishSnapshot()
+	{
+		AbstractDatabaseEntry[] snapshot = new AbstractDatabaseEntry[m_serviceDatabase.size()];
+		Enumeration entries = m_serviceDatabase.elements();
+		for (int i = 0; i < snapshot.length; i++)
+		{
+			snapshot[i] = (AbstractDatabaseEntry) entries.nextElement();
+		}
+		m_snapshot = snapshot;
+	}
+
+	/**
+	 * Returns the changes of this database since the given change sequence number. If these
+	 * changes are not known, for example because the sequence number belongs to another epoch,
+	 * a complete delta with all entries is returned.
+	 *
+	 * @param a_epoch the epoch the sequence number belongs to
+	 * @param a_sequence the change sequence number of the last delta the caller has got
+	 * @return the changes since the given sequence number
+	 */
+	public DatabaseDelta getDelta(long a_epoch, long a_sequence)
+	{
+		Vector changedEntries = new Vector();
+		Vector removedEntryIds = new Vector();
+		synchronized (SYNC_WRITE)
+		{
+			if (a_epoch != m_epoch || a_sequence < m_firstDeltaSequence ||
+				a_sequence > m_changeSequence)
+			{
+				Enumeration entries = m_serviceDatabase.elements();
+				while (entries.hasMoreElements())
+				{
+					changedEntries.addElement(entries.nextElement());
+				}
+				return new DatabaseDelta(m_DatabaseEntryClass, m_epoch, m_changeSequence, true,
+										 changedEntries, removedEntryIds);
+			}
+
+			if (a_sequence < m_changeSequence)
+			{
+				Enumeration ids = m_entrySequences.keys();
+				String id;
+				while (ids.hasMoreElements())
+				{
+					id = (String) ids.nextElement();
+					if (((Long) m_entrySequences.get(id)).longValue() > a_sequence)
+					{
+						changedEntries.addElement(m_serviceDatabase.get(id));
+					}
+				}
+				/* the removed entries are ordered by their sequence numbers */
+				for (int i = m_removedEntryIds.size() - 1; i >= 0; i--)
+				{
+					id = (String) m_removedEntryIds.elementAt(i);
+					if (((Long) m_removedEntrySequences.get(id)).longValue() <= a_sequence)
+					{
+						break;
+					}
+					removedEntryIds.addElement(id);
+				}
+			}
+			return new DatabaseDelta(m_DatabaseEntryClass, m_epoch, m_changeSequence, false,
+									 changedEntries, removedEntryIds);
+		}
+	}
+
+	/**
+	 * Returns the current change sequence number of this database.
+	 */
+	public long getChangeSequence()
+	{
+		synchronized (SYNC_WRITE)
+		{
+			return m_changeSequence;
+		}
+	}
+
+	/**
+	 * Records that an entry has been added or renewed. Must be called while holding SYNC_WRITE.
+	 */
+	private void recordChange(String a_entryId)
+	{
+		m_changeSequence++;
+		m_entrySequences.put(a_entryId, new Long(m_changeSequence));
+		if (m_removedEntrySequences.remove(a_entryId) != null)
+		{
+			m_removedEntryIds.removeElement(a_entryId);
+		}
+	}
+
+	/**
+	 * Records that an entry has been removed. Must be called while holding SYNC_WRITE.
+	 */
+	private void recordRemoval(String a_entryId)
+	{
+		m_changeSequence++;
+		m_entrySequences.remove(a_entryId);
+		if (m_removedEntrySequences.put(a_entryId, new Long(m_changeSequence)) != null)
+		{
+			m_removedEntryIds.removeElement(a_entryId);
+		}
+		m_removedEntryIds.addElement(a_entryId);
+		if (m_removedEntryIds.size() > MAX_REMEMBERED_REMOVALS)
+		{
+			/* forget the oldest removal -> older sequence numbers get the complete database */
+			m_firstDeltaSequence =
+				((Long) m_removedEntrySequences.remove(m_removedEntryIds.elementAt(0))).longValue();
+			m_removedEntryIds.removeElementAt(0);
+		}
+	}
+
 	public boolean isEntryIdInTimeoutList(String a_entryId)
 	{
-		return m_timeoutList.contains(a_entryId);
+		synchronized (SYNC_WRITE)
+		{
+			return m_expiryIndex.contains(a_entryId);
+		}
 	}
 
 	public int getTimeoutListSize()
 	{
-		return m_timeoutList.size();
+		synchronized (SYNC_WRITE)
+		{
+			return m_expiryIndex.size();
+		}
 	}
 	
 	public Document getWebInfos(String a_ID)
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.infoservice;
+
+import java.util.Vector;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import anon.util.IXMLEncodable;
+import anon.util.XMLParseException;
+import anon.util.XMLUtil;
+
+/**
+ * Contains the changes of a Database since a given change sequence number: all entries that were
+ * added or renewed and the IDs of all entries that were removed. If the changes since the
+ * requested sequence number are not known (any more), the delta is complete, that means it
+ * contains all entries of the database and the receiver has to replace its list.
+ * The InfoService creates the delta from its database, the client parses it from the signed XML
+ * document.
+ */
+public class DatabaseDelta implements IXMLEncodable
+{
+	public static final String XML_ELEMENT_NAME = "Delta";
+
+	private static final String XML_ELEMENT_REMOVED = "Removed";
+	private static final String XML_ATTR_EPOCH = "epoch";
+	private static final String XML_ATTR_SEQUENCE = "sequence";
+	private static final String XML_ATTR_COMPLETE = "complete";
+
+	private Class m_entryClass;
+	private long m_epoch;
+	private long m_sequence;
+	private boolean m_bComplete;
+	private Vector m_changedEntries;
+	private Element m_changedEntriesNode;
+	private Vector m_removedEntryIds;
+
+	/**
+	 * Creates the delta of a database.
+	 *
+	 * @param a_entryClass the DatabaseEntry class of the database
+	 * @param a_epoch the epoch of the database
+	 * @param a_sequence the current change sequence number of the database
+	 * @param a_bComplete true if the changed entries are all entries of the database
+	 * @param a_changedEntries the entries added or renewed
+	 * @param a_removedEntryIds the IDs of the removed entries
+	 */
+	DatabaseDelta(Class a_entryClass, long a_epoch, long a_sequence, boolean a_bComplete,
+				  Vector a_changedEntries, Vector a_removedEntryIds)
+	{
+		m_entryClass = a_entryClass;
+		m_epoch = a_epoch;
+		m_sequence = a_sequence;
+		m_bComplete = a_bComplete;
+		m_changedEntries = a_changedEntries;
+		m_removedEntryIds = a_removedEntryIds;
+	}
+
+	/**
+	 * Parses a delta. The changed entries are not parsed, as this depends on their class; they
+	 * are available by getChangedEntriesNode().
+	 *
+	 * @param a_entryClass the DatabaseEntry class of the database
+	 * @param a_element a Delta element
+	 * @throws XMLParseException if the element is invalid
+	 */
+	public DatabaseDelta(Class a_entryClass, Element a_element) throws XMLParseException
+	{
+		if (a_element == null || !XML_ELEMENT_NAME.equals(a_element.getNodeName()))
+		{
+			throw new XMLParseException(XMLParseException.ROOT_TAG, XML_ELEMENT_NAME);
+		}
+		m_entryClass = a_entryClass;
+		m_epoch = XMLUtil.parseAttribute(a_element, XML_ATTR_EPOCH, -1L);
+		m_sequence = XMLUtil.parseAttribute(a_element, XML_ATTR_SEQUENCE, -1L);
+		if (m_epoch < 0 || m_sequence < 0)
+		{
+			throw new XMLParseException(XML_ELEMENT_NAME, "Invalid sequence!");
+		}
+		m_bComplete = XMLUtil.parseAttribute(a_element, XML_ATTR_COMPLETE, false);
+
+		m_changedEntriesNode = (Element) XMLUtil.getFirstChildByName(a_element,
+			XMLUtil.getXmlElementContainerName(a_entryClass));
+		if (m_changedEntriesNode == null)
+		{
+			throw new XMLParseException(XMLUtil.getXmlElementContainerName(a_entryClass));
+		}
+
+		m_removedEntryIds = new Vector();
+		Node removedNode = XMLUtil.getFirstChildByName(a_element, XML_ELEMENT_REMOVED);
+		if (removedNode != null)
+		{
+			Node idNode = removedNode.getFirstChild();
+			String id;
+			while (idNode != null)
+			{
+				if (idNode.getNodeType() == Node.ELEMENT_NODE)
+				{
+					id = XMLUtil.parseAttribute(idNode, XML_ATTR_ID, null);
+					if (id != null)
+					{
+						m_removedEntryIds.addElement(id);
+					}
+				}
+				idNode = idNode.getNextSibling();
+			}
+		}
+	}
+
+	/**
+	 * Returns the epoch of the database. Change sequence numbers are only comparable within the
+	 * same epoch.
+	 */
+	public long getEpoch()
+	{
+		return m_epoch;
+	}
+
+	/**
+	 * Returns the change sequence number of the database this delta leads to.
+	 */
+	public long getSequence()
+	{
+		return m_sequence;
+	}
+
+	/**
+	 * Returns if the delta contains all entries of the database. Entries not contained in a
+	 * complete delta are not in the database.
+	 */
+	public boolean isComplete()
+	{
+		return m_bComplete;
+	}
+
+	/**
+	 * Returns the added or renewed database entries (only for deltas created from a database).
+	 */
+	public Vector getChangedEntries()
+	{
+		return m_changedEntries;
+	}
+
+	/**
+	 * Returns the XML container node of the added or renewed entries (only for parsed deltas).
+	 */
+	public Element getChangedEntriesNode()
+	{
+		return m_changedEntriesNode;
+	}
+
+	/**
+	 * Returns the IDs of the removed entries.
+	 */
+	public Vector getRemovedEntryIds()
+	{
+		return m_removedEntryIds;
+	}
+
+	public Element toXmlElement(Document a_doc)
+	{
+		Element elemDelta = a_doc.createElement(XML_ELEMENT_NAME);
+		XMLUtil.setAttribute(elemDelta, XML_ATTR_EPOCH, m_epoch);
+		XMLUtil.setAttribute(elemDelta, XML_ATTR_SEQUENCE, m_sequence);
+		XMLUtil.setAttribute(elemDelta, XML_ATTR_COMPLETE, m_bComplete);
+
+		Element elemEntries = a_doc.createElement(XMLUtil.getXmlElementContainerName(m_entryClass));
+		elemDelta.appendChild(elemEntries);
+		Object entry;
+		Element elemEntry;
+		for (int i = 0; i < m_changedEntries.size(); i++)
+		{
+			entry = m_changedEntries.elementAt(i);
+			if (entry instanceof IBoostrapable && ((IBoostrapable) entry).isBootstrap())
+			{
+				// do not forward this entry, as it is for internal use only
+				continue;
+			}
+			elemEntry = ((IXMLEncodable) entry).toXmlElement(a_doc);
+			if (elemEntry != null)
+			{
+				elemEntries.appendChild(elemEntry);
+			}
+		}
+
+		Element elemRemoved = a_doc.createElement(XML_ELEMENT_REMOVED);
+		elemDelta.appendChild(elemRemoved);
+		String entryName = XMLUtil.getXmlElementName(m_entryClass);
+		for (int i = 0; i < m_removedEntryIds.size(); i++)
+		{
+			elemEntry = a_doc.createElement(entryName);
+			XMLUtil.setAttribute(elemEntry, XML_ATTR_ID, (String) m_removedEntryIds.elementAt(i));
+			elemRemoved.appendChild(elemEntry);
+		}
+		return elemDelta;
+	}
+}
@@ -54,6 +54,11 @@ public final class HttpResponseStructure
 	
 	public static final int HTTP_RETURN_ACCEPTED = 202;
 
+	/**
+	 * This constant is used, when HTTP NOT MODIFIED (304) shall be returned.
+	 */
+	public static final int HTTP_RETURN_NOT_MODIFIED = 304;
+
 	/**
 	 * This constant is used, when HTTP BAD REQUEST (400) shall be returned.
 	 */
@@ -104,6 +109,7 @@ public final class HttpResponseStructure
 
 	public static final String HTTP_RETURN_OK_STRING = "200 OK";
 	public static final String HTTP_RETURN_ACCEPTED_STRING = "202 Accepted";
+	public static final String HTTP_RETURN_NOT_MODIFIED_STRING = "304 Not Modified";
 	public static final String HTTP_RETURN_BAD_REQUEST_STRING = "400 Bad Request";
 	public static final String HTTP_RETURN_NOT_FOUND_STRING = "404 Not Found";
 	public static final String HTTP_RETURN_INTERNAL_SERVER_ERROR_STRING = "500 Internal Server Error";
@@ -115,6 +121,7 @@ public final class HttpResponseStructure
 	public static final String HTTP_HEADER_EXPIRES_STRING = "Expires: ";
 	public static final String HTTP_HEADER_CACHE_CONTROL_STRING = "Cache-Control: ";
 	public static final String HTTP_HEADER_PRAGMA_STRING = "Pragma: ";
+	public static final String HTTP_HEADER_ETAG_STRING = "ETag: ";
 	public final static String HTTP_HEADER_CACHE_CONTROL_STRINGS=HTTP_HEADER_CACHE_CONTROL_STRING+
 			"no-cache"+HTTP_CRLF_STRING+HTTP_HEADER_PRAGMA_STRING+"no-cache"+HTTP_CRLF_STRING;
 
@@ -137,6 +144,11 @@ public final class HttpResponseStructure
 	 */
 	private byte[] m_httpReturnData;
 
+	/**
+	 * Stores the entity tag sent with this response or null, if there is none.
+	 */
+	private String m_eTag;
+
 	/**
 	 * Creates a new HTTP response, which only consists of the return code specified and sometimes a
 	 * describing HTML message.
@@ -273,12 +285,48 @@ public final class HttpResponseStructure
 											 a_httpData.getBytes(), a_onlyHeader);
 	}
 
+	/**
+	 * Creates a new HTTP response with HTTP return code OK (200), the content type and content
+	 * data specified and an entity tag. A client that already has the data may send the entity
+	 * tag in an If-None-Match header and will then get a NOT MODIFIED (304) response instead.
+	 *
+	 * @param a_httpDataType The content type of the data, see the HTTP_TYPE constants in this
+	 *                       class.
+	 * @param a_httpData The content data for the HTTP response.
+	 * @param a_eTag The entity tag of the data (without quotes).
+	 */
+	public HttpResponseStructure(int a_httpDataType, int a_httpEncoding, byte[] a_httpData,
+								 String a_eTag)
+	{
+		m_eTag = a_eTag;
+		m_httpReturnData = createHttpMessage(HTTP_RETURN_OK, a_httpDataType, a_httpEncoding, a_httpData, false);
+	}
+
 	public HttpResponseStructure(int httpReturnCode, String httpData)
 	{
 		m_httpReturnData = 
 			createHttpMessage(httpReturnCode, HTTP_TYPE_TEXT_HTML, 
 							HTTP_ENCODING_PLAIN, httpData.getBytes(), false);
 	}
+
+	/**
+	 * Creates a NOT MODIFIED (304) response without content.
+	 *
+	 * @param a_eTag The entity tag of the data the client already has.
+	 * @return a NOT MODIFIED response
+	 */
+	public static HttpResponseStructure createNotModifiedResponse(String a_eTag)
+	{
+		HttpResponseStructure response = new HttpResponseStructure();
+		response.m_eTag = a_eTag;
+		response.m_httpReturnData = response.createHttpMessage(HTTP_RETURN_NOT_MODIFIED,
+			HTTP_TYPE_NO_TYPE, HTTP_ENCODING_PLAIN, null, false);
+		return response;
+	}
+
+	private HttpResponseStructure()
+	{
+	}
 	
 	/**
 	 * Returns the data of this HTTP response.
@@ -290,6 +338,16 @@ public final class HttpResponseStructure
 		return m_httpReturnData;
 	}
 
+	/**
+	 * Returns the entity tag of this response (without quotes).
+	 *
+	 * @return the entity tag or null, if this response has none
+	 */
+	public String getETag()
+	{
+		return m_eTag;
+	}
+
 	/**
 	 * Creates the whole HTTP response, including HTTP return code, HTTP header and the specified
 	 * content.
@@ -303,7 +361,7 @@ public final class HttpResponseStructure
 	 * @param a_httpData The content for the HTTP response. The data should be in the specified
 	 *                   content type. If null is specified here, no content will be in the HTTP
 	 *                   response (response will consist of HTTP return code and header only) and
-	 *                   the content lenght field in the header is not set. In any other case, the
+	 *                   the content lenght field in the header is set to 0. In any other case, the
 	 *                   content length will be the length of this data structure.
 	 * @param a_onlyHeader If this is true, only the matching HTTP header (including content type
 	 *                     and content length, if available) is included in the response, but not
@@ -334,7 +392,7 @@ public final class HttpResponseStructure
 	 * @param a_httpData The content for the HTTP response. The data should be in the specified
 	 *                   content type. If null is specified here, no content will be in the HTTP
 	 *                   response (response will consist of HTTP return code and header only) and
-	 *                   the content lenght field in the header is not set. In any other case, the
+	 *                   the content lenght field in the header is set to 0. In any other case, the
 	 *                   content length will be the length of this data structure.
 	 * @param a_onlyHeader If this is true, only the matching HTTP header (including content type
 	 *                     and content length, if available) is included in the response, but not
@@ -360,6 +418,10 @@ public final class HttpResponseStructure
 		{
 			httpHeader.append(HTTP_RETURN_ACCEPTED_STRING);
 		}
+		else if (a_httpReturnCode == HTTP_RETURN_NOT_MODIFIED)
+		{
+			httpHeader.append(HTTP_RETURN_NOT_MODIFIED_STRING);
+		}
 		else if (a_httpReturnCode == HTTP_RETURN_BAD_REQUEST)
 		{
 			httpHeader.append(HTTP_RETURN_BAD_REQUEST_STRING);
@@ -373,11 +435,29 @@ public final class HttpResponseStructure
 			httpHeader.append(HTTP_RETURN_INTERNAL_SERVER_ERROR_STRING);
 		}
 		httpHeader.append(HTTP_CRLF_STRING);
-		/* set the data length header field */
-		if (a_httpData != null)
+		/* set the data length header field (also for responses without content, so the client
+		 * does not need to wait for the end of a persistent connection); a NOT MODIFIED response
+		 * never has a body
+		 */
+		if (a_httpReturnCode != HTTP_RETURN_NOT_MODIFIED)
 		{
 			httpHeader.append(HTTP_HEADER_LENGTH_STRING);
-			httpHeader.append(a_httpData.length);
+			if (a_httpData != null)
+			{
+				httpHeader.append(a_httpData.length);
+			}
+			else
+			{
+				httpHeader.append(0);
+			}
+			httpHeader.append(HTTP_CRLF_STRING);
+		}
+		if (m_eTag != null)
+		{
+			httpHeader.append(HTTP_HEADER_ETAG_STRING);
+			httpHeader.append("\"");
+			httpHeader.append(m_eTag);
+			httpHeader.append("\"");
 			httpHeader.append(HTTP_CRLF_STRING);
 		}
 		/* set the type header field */
@@ -83,6 +83,28 @@ public class InfoServiceDBEntry extends AbstractDistributableCertifiedDatabaseEn
 
 	private static final int BLOCK_FACTOR_IF_UNREACHABLE = 5;
 
+	/**
+	 * If an InfoService could not deliver a database delta, full lists are fetched from it for
+	 * this time.
+	 */
+	private static final long DELTA_RETRY_INTERVAL = 60 * 60000l;
+
+	/**
+	 * The entries received with database deltas, mapped by InfoService ID and entry class.
+	 */
+	private static Hashtable ms_deltaMirrors = new Hashtable();
+
+	/**
+	 * The IDs of the InfoServices that could not deliver a database delta, mapped to the time of
+	 * the failure.
+	 */
+	private static Hashtable ms_deltaNotSupported = new Hashtable();
+
+	/**
+	 * The names of the entry classes whose last list was built by applying a database delta.
+	 */
+	private static Hashtable ms_deltaApplied = new Hashtable();
+
 	private static int m_getXmlConnectionTimeout = DEFAULT_GET_XML_CONNECTION_TIMEOUT;
 
 	private static long m_timeFirstJVMSocketError = Long.MAX_VALUE;
@@ -1326,17 +1348,157 @@ public class InfoServiceDBEntry extends AbstractDistributableCertifiedDatabaseEn
 	private static class EntryGetter
 	{
 		String m_postFile;
+		/** the file for database deltas or null, if deltas are not available for these entries */
+		String m_deltaFile;
 		Class m_dbEntryClass;
 		boolean m_bJAPContext;
 	}
 
-	private Hashtable getEntries(EntryGetter a_getter) 
+	/**
+	 * The entries an InfoService sent in its database deltas. The next delta is applied to them.
+	 */
+	private static class DeltaMirror
+	{
+		long m_epoch = 0;
+		long m_sequence = 0;
+		Hashtable m_entries = new Hashtable();
+	}
+
+	private Hashtable getEntries(EntryGetter a_getter) 
 		throws ExpiredSignatureException, SignatureException, Exception
 	{
-		Document doc = getXmlDocument(HttpRequestStructure.createGetRequest(a_getter.m_postFile),
-									  HTTPConnectionFactory.HTTP_ENCODING_ZLIB);
+		if (a_getter.m_deltaFile != null && isDeltaSupported())
+		{
+			try
+			{
+				return getEntriesByDelta(a_getter);
+			}
+			catch (Exception a_e)
+			{
+				/* InfoServices before version 00.13 do not know deltas */
+				LogHolder.log(LogLevel.NOTICE, LogType.NET, "Could not get " +
+							  ClassUtil.getShortClassName(a_getter.m_dbEntryClass) +
+							  " delta from InfoService " + getId() + ". Getting full list.", a_e);
+				synchronized (ms_deltaNotSupported)
+				{
+					ms_deltaNotSupported.put(getId(), new Long(System.currentTimeMillis()));
+				}
+			}
+			ms_deltaApplied.remove(a_getter.m_dbEntryClass.getName());
+		}
+
+		Document doc = getVerifiedDocument(a_getter.m_postFile);
+		NodeList infoServicesNodes =
+			doc.getElementsByTagName(XMLUtil.getXmlElementContainerName(a_getter.m_dbEntryClass));
+		if (infoServicesNodes.getLength() == 0)
+		{
+			throw (new XMLParseException(XMLUtil.getXmlElementContainerName(a_getter.m_dbEntryClass),
+										 "Error in XML structure."));
+		}
+		return parseEntries((Element) (infoServicesNodes.item(0)), a_getter);
+	}
+
+	/**
+	 * Tells if the last list of the given entries was built by applying a database delta. In this
+	 * case, getting the list again most likely transfers and verifies only the changed entries.
+	 *
+	 * @param a_dbEntryClass the class of the entries
+	 * @return true if the last list was built from a delta; false if a full list was transferred
+	 */
+	public static boolean isDeltaApplied(Class a_dbEntryClass)
+	{
+		return ms_deltaApplied.containsKey(a_dbEntryClass.getName());
+	}
 
-		if (doc == null)
+	private boolean isDeltaSupported()
+	{
+		synchronized (ms_deltaNotSupported)
+		{
+			Long failureTime = (Long) ms_deltaNotSupported.get(getId());
+			if (failureTime == null)
+			{
+				return true;
+			}
+			if (failureTime.longValue() + DELTA_RETRY_INTERVAL < System.currentTimeMillis())
+			{
+				ms_deltaNotSupported.remove(getId());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the changes since the last delta from this InfoService and applies them to the entries
+	 * received before. Only the changed entries are transferred and verified.
+	 *
+	 * @return all entries this InfoService knows
+	 */
+	private Hashtable getEntriesByDelta(EntryGetter a_getter) throws Exception
+	{
+		String mirrorKey = getId() + ":" + a_getter.m_dbEntryClass.getName() + ":" +
+			a_getter.m_bJAPContext;
+		DeltaMirror mirror;
+		synchronized (ms_deltaMirrors)
+		{
+			mirror = (DeltaMirror) ms_deltaMirrors.get(mirrorKey);
+			if (mirror == null)
+			{
+				mirror = new DeltaMirror();
+				ms_deltaMirrors.put(mirrorKey, mirror);
+			}
+		}
+
+		synchronized (mirror)
+		{
+			Document doc = getVerifiedDocument(a_getter.m_deltaFile + mirror.m_epoch + "/" +
+											   mirror.m_sequence);
+			DatabaseDelta delta = new DatabaseDelta(a_getter.m_dbEntryClass, doc.getDocumentElement());
+			Hashtable changedEntries = parseEntries(delta.getChangedEntriesNode(), a_getter);
+			Hashtable entries;
+			if (delta.isComplete())
+			{
+				entries = changedEntries;
+				ms_deltaApplied.remove(a_getter.m_dbEntryClass.getName());
+			}
+			else
+			{
+				if (delta.getEpoch() != mirror.m_epoch)
+				{
+					throw new XMLParseException(DatabaseDelta.XML_ELEMENT_NAME, "Wrong epoch!");
+				}
+				entries = (Hashtable) mirror.m_entries.clone();
+				Enumeration changed = changedEntries.elements();
+				AbstractDatabaseEntry entry;
+				while (changed.hasMoreElements())
+				{
+					entry = (AbstractDatabaseEntry) changed.nextElement();
+					entries.put(entry.getId(), entry);
+				}
+				for (int i = 0; i < delta.getRemovedEntryIds().size(); i++)
+				{
+					entries.remove(delta.getRemovedEntryIds().elementAt(i));
+				}
+				ms_deltaApplied.put(a_getter.m_dbEntryClass.getName(), Boolean.TRUE);
+			}
+			mirror.m_entries = entries;
+			mirror.m_epoch = delta.getEpoch();
+			mirror.m_sequence = delta.getSequence();
+			/* the callers may change the returned table */
+			return (Hashtable) entries.clone();
+		}
+	}
+
+	/**
+	 * Gets a document from this InfoService and verifies its signature.
+	 */
+	private Document getVerifiedDocument(String a_file)
+		throws ExpiredSignatureException, SignatureException, Exception
+	{
+		Document doc = getXmlDocument(HttpRequestStructure.createGetRequest(a_file),
+									  HTTPConnectionFactory.HTTP_ENCODING_ZLIB);
+
+		if (doc == null)
 		{
 			throw new SignatureException("Document could not be verified!");
 		}
@@ -1359,17 +1521,17 @@ public class InfoServiceDBEntry extends AbstractDistributableCertifiedDatabaseEn
 							"InfoService " + getId() + "!");
 				}
 			}
-		}
-
-		NodeList infoServicesNodes =
-			doc.getElementsByTagName(XMLUtil.getXmlElementContainerName(a_getter.m_dbEntryClass));
-		if (infoServicesNodes.getLength() == 0)
-		{
-			throw (new XMLParseException(XMLUtil.getXmlElementContainerName(a_getter.m_dbEntryClass),
-										 "Error in XML structure."));
-		}
-		Element infoServicesNode = (Element) (infoServicesNodes.item(0));
-		NodeList infoServiceNodes =
+		}
+		return doc;
+	}
+
+	/**
+	 * Creates the entries contained in the given container node. Entries that cannot be verified
+	 * are skipped.
+	 */
+	private Hashtable parseEntries(Element infoServicesNode, EntryGetter a_getter)
+	{
+		NodeList infoServiceNodes =
 			infoServicesNode.getElementsByTagName(XMLUtil.getXmlElementName(a_getter.m_dbEntryClass));
 		Hashtable entries = new Hashtable();
 		AbstractDistributableCertifiedDatabaseEntry currentEntry;
@@ -1457,6 +1619,7 @@ public class InfoServiceDBEntry extends AbstractDistributableCertifiedDatabaseEn
 		getter.m_bJAPContext = a_bJAPClientContext;
 		getter.m_dbEntryClass = InfoServiceDBEntry.class;
 		getter.m_postFile = "/infoservices";
+		getter.m_deltaFile = "/infoservicedelta/";
 		return getEntries(getter);
 	}
 
@@ -1466,6 +1629,7 @@ public class InfoServiceDBEntry extends AbstractDistributableCertifiedDatabaseEn
 		getter.m_bJAPContext = a_bJAPClientContext;
 		getter.m_dbEntryClass = MixCascade.class;
 		getter.m_postFile = "/cascades";
+		getter.m_deltaFile = "/cascadedelta/";
 		return getEntries(getter);
 	}
 
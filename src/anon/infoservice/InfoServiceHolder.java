@@ -36,7 +36,7 @@ import java.util.Random;
 import java.util.Vector;
 
 import anon.terms.template.TermsAndConditionsTemplate;
-import anon.util.ThreadPool;
+import anon.util.TaskPool;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -168,7 +168,7 @@ public class InfoServiceHolder extends Observable implements IXMLEncodable
 	/**
 	 * Allows only 3 concurrent update operations.
 	 */
-	private ThreadPool m_poolFetchInformation = new ThreadPool("Fetch Information Thread Pool", 6, Thread.MIN_PRIORITY);
+	private TaskPool m_poolFetchInformation = new TaskPool("Fetch Information", 6, Thread.MIN_PRIORITY, 0);
 
 	/**
 	 * Stores the preferred InfoService. This InfoService is asked first for every information.
@@ -852,7 +852,7 @@ public class InfoServiceHolder extends Observable implements IXMLEncodable
 		InformationFetcher fetcher = new InformationFetcher(functionNumber, arguments);
 		try
 		{
-			m_poolFetchInformation.addRequestAndWait(fetcher);
+			m_poolFetchInformation.executeAndWait(fetcher);
 		}
 		catch (InterruptedException ex)
 		{
@@ -868,6 +868,8 @@ public class InfoServiceHolder extends Observable implements IXMLEncodable
 	 * a list from one infoservice, we stop asking other infoservices, so information is not a
 	 * cumulative list with information from more than one infoservice. If we can't get the
 	 * information from any infoservice, null is returned.
+	 * The infoservices are only asked for the cascades changed since the last request (database
+	 * deltas), so unchanged cascades are neither transferred nor verified again.
 	 *
 	 * @return The Vector of mixcascades.
 	 */
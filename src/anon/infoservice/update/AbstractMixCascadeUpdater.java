@@ -33,6 +33,7 @@ import java.util.Vector;
 import anon.client.TrustModel;
 import anon.infoservice.AbstractDatabaseEntry;
 import anon.infoservice.Database;
+import anon.infoservice.InfoServiceDBEntry;
 import anon.infoservice.InfoServiceHolder;
 import anon.infoservice.MixCascade;
 import anon.infoservice.MixInfo;
@@ -192,7 +193,7 @@ public abstract class AbstractMixCascadeUpdater extends AbstractDatabaseUpdater
 	
 	protected final Hashtable getUpdatedEntries_internal(Hashtable a_entriesToUpdate)
 	{
-		Hashtable result;
+		Hashtable result = null;
 		if (a_entriesToUpdate == null)
 		{
 			result = InfoServiceHolder.getInstance().getMixCascades(TrustModel.getContext());
@@ -201,7 +202,30 @@ public abstract class AbstractMixCascadeUpdater extends AbstractDatabaseUpdater
 		{
 			result = new Hashtable();
 		}
-		else
+		else if (InfoServiceDBEntry.isDeltaApplied(MixCascade.class))
+		{
+			/*
+			 * The last list was built from a database delta, so the list most likely only
+			 * transfers the changed cascades and is cheaper than asking for each of them.
+			 */
+			Hashtable fetchedCascades =
+				InfoServiceHolder.getInstance().getMixCascades(TrustModel.getContext());
+			if (fetchedCascades != null)
+			{
+				result = new Hashtable(a_entriesToUpdate.size() + 1);
+				Enumeration enumEntriesToUpdate = a_entriesToUpdate.keys();
+				Object key;
+				while (enumEntriesToUpdate.hasMoreElements())
+				{
+					key = enumEntriesToUpdate.nextElement();
+					if (fetchedCascades.containsKey(key))
+					{
+						result.put(key, fetchedCascades.get(key));
+					}
+				}
+			}
+		}
+		if (result == null && a_entriesToUpdate != null && a_entriesToUpdate.size() > 0)
 		{
 			Hashtable returnedEntries = new Hashtable(a_entriesToUpdate.size());
 			Enumeration enumEntriesToUpdate = a_entriesToUpdate.keys();
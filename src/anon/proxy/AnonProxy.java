@@ -107,6 +107,10 @@ final public class AnonProxy implements Runnable, AnonServiceEventListener
 
 	private boolean m_bReconnecting = false;
 	private final Object THREAD_SYNC = new Object();
+	/** guards the reconnect thread and the reconnect requests */
+	private final Object RECONNECT_SYNC = new Object();
+	private Thread m_reconnectThread = null;
+	private boolean m_bReconnectRequested = false;
 	private final Object SHUTDOWN_SYNC = new Object();
 	private boolean bShuttingDown = false;
 
@@ -1041,13 +1045,49 @@ final public class AnonProxy implements Runnable, AnonServiceEventListener
 	{
 		LogHolder.log(LogLevel.ERR, LogType.NET, "AnonProxy received connectionError", true);
 		fireConnectionError();
-		new Thread(new Runnable()
+		startReconnect();
+	}
+
+	/**
+	 * Reconnects in the background. There is at most one reconnect thread; if it is already
+	 * running, it tries again after it has finished. Threads that wait on THREAD_SYNC are
+	 * notified after each reconnect.
+	 */
+	void startReconnect()
+	{
+		synchronized (RECONNECT_SYNC)
 		{
-			public void run()
+			m_bReconnectRequested = true;
+			if (m_reconnectThread != null)
 			{
-				reconnect();
+				return;
 			}
-		}, "Connection error reconnect thead").start();
+			m_reconnectThread = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					while (true)
+					{
+						synchronized (RECONNECT_SYNC)
+						{
+							if (!m_bReconnectRequested)
+							{
+								m_reconnectThread = null;
+								return;
+							}
+							m_bReconnectRequested = false;
+						}
+						reconnect();
+						synchronized (THREAD_SYNC)
+						{
+							THREAD_SYNC.notifyAll();
+						}
+					}
+				}
+			}, "JAP - AnonProxy reconnect thread");
+			m_reconnectThread.setDaemon(true);
+			m_reconnectThread.start();
+		}
 	}
 
 	public synchronized void addEventListener(AnonServiceEventListener l)
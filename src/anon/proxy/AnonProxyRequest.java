@@ -32,6 +32,7 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Hashtable;
 
 import anon.AnonChannel;
 import anon.NotConnectedToMixException;
@@ -47,6 +48,12 @@ public final class AnonProxyRequest implements Runnable
 	private static final long TIMEOUT_RECONNECT = 60000;
 	private static final int CHUNK_SIZE = 1000;
 	
+	private static final int MAX_IDLE_THREADS = 32;
+	private static final long THREAD_IDLE_TIMEOUT = 60000;
+	
+	private static final RequestThreadPool ms_threadPool = 
+		new RequestThreadPool("JAP - AnonProxy idle thread", MAX_IDLE_THREADS, THREAD_IDLE_TIMEOUT);
+	
 	private static int ms_currentRequest;
 
 	private InputStream m_InChannel;
@@ -59,8 +66,7 @@ public final class AnonProxyRequest implements Runnable
 
 	private Socket m_clientSocket;
 
-	private Thread m_threadResponse;
-
+	/** the thread that runs the request loop; null if it has finished */
 	private Thread m_threadRequest;
 
 	private AnonChannel m_Channel;
@@ -75,6 +81,9 @@ public final class AnonProxyRequest implements Runnable
 	
 	private ProxyCallbackHandler m_callbackHandler = null;
 	
+	/** the data the proxy callbacks keep for this request, mapped by the callback */
+	private Hashtable m_callbackData = new Hashtable();
+	
 	/* indicates that the JonDo has to perform the contentEncoding
 	 * itself. May happen if, due to the header replacement, the JonDo
 	 * specifies content encodings which the client does not support.
@@ -91,12 +100,10 @@ public final class AnonProxyRequest implements Runnable
 			// stop - really no timeout ? We had 1000...
 			m_InSocket = clientSocket.getInputStream();
 			m_OutSocket = clientSocket.getOutputStream();
-			m_threadRequest = new Thread(this, "JAP - AnonProxy Request "+Integer.toString(ms_currentRequest));
-			ms_currentRequest++;
 			m_callbackHandler = callbackHandler;
 			
-			m_threadRequest.setDaemon(true);
-			m_threadRequest.start();
+			ms_threadPool.execute(this, "JAP - AnonProxy Request "+Integer.toString(ms_currentRequest));
+			ms_currentRequest++;
 	}
 
 	public static int getNrOfRequests()
@@ -105,6 +112,27 @@ public final class AnonProxyRequest implements Runnable
 	}
 	
 	public void run()
+	{
+		synchronized (this)
+		{
+			m_threadRequest = Thread.currentThread();
+		}
+		try
+		{
+			handleRequest();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				// the thread is reused for other requests and must not be interrupted any more
+				m_threadRequest = null;
+				Thread.interrupted();
+			}
+		}
+	}
+	
+	private void handleRequest()
 	{
 		ms_nrOfRequests++;
 		m_bRequestIsAlive = true;
@@ -167,45 +195,31 @@ public final class AnonProxyRequest implements Runnable
 				{
 					LogHolder.log(LogLevel.ERR, LogType.NET, "AnonProxyRequest - Connection to Mix lost");
 
-					Thread timeoutThread = new Thread(new Runnable()
-					{
-						public void run()
-						{
-							m_Proxy.reconnect();
-						}
-					}, "Request reconnect thread");
-					timeoutThread.start();
+					// all requests share one reconnect thread which notifies the sync object
+					m_Proxy.startReconnect();
 					// set timeout for this request
 					long currentTime = System.currentTimeMillis();
-					try
-					{
-
-						timeoutThread.join(TIMEOUT_RECONNECT);
-					}
-					catch (InterruptedException ex1)
-					{
-						Thread.currentThread().interrupt();
-					}
 
 					boolean success = true;
 					synchronized (m_syncObject) // synchronize with connection thread
 					{
-						if (!m_Proxy.isConnected() && !Thread.currentThread().isInterrupted())
+						long remainder;
+						while (!m_Proxy.isConnected() && !Thread.currentThread().isInterrupted() &&
+							   (remainder = currentTime + TIMEOUT_RECONNECT - System.currentTimeMillis()) > 0)
 						{
-							long remainder = currentTime + TIMEOUT_RECONNECT - System.currentTimeMillis();
-							if (remainder > 0)
+							try
 							{
-								try
-								{
-									m_syncObject.wait(remainder);
-								}
-								catch (InterruptedException ex2)
-								{
-									Thread.currentThread().interrupt();
-									break;
-								}
+								m_syncObject.wait(remainder);
+							}
+							catch (InterruptedException ex2)
+							{
+								Thread.currentThread().interrupt();
 							}
 						}
+						if (Thread.currentThread().isInterrupted())
+						{
+							break;
+						}
 
 						if (!m_Proxy.isConnected())
 						{
@@ -251,8 +265,7 @@ public final class AnonProxyRequest implements Runnable
 			m_OutChannel = newChannel.getOutputStream();
 			m_Channel = newChannel;
 
-			m_threadResponse = new Thread(new Response(), "JAP - AnonProxy Response for "+Thread.currentThread().getName());
-			m_threadResponse.start();
+			ms_threadPool.execute(new Response(), "JAP - AnonProxy Response for "+Thread.currentThread().getName());
 
 			buff = new byte[1900];
 			buff[0] = (byte) firstByte;
@@ -300,6 +313,7 @@ public final class AnonProxyRequest implements Runnable
 						}
 						m_OutChannel.write(pcBuffer.getChunk(), 0, 
 								pcBuffer.getPayloadLength());
+						pcBuffer.releaseChunk();
 					}
 					else
 					{
@@ -324,6 +338,7 @@ public final class AnonProxyRequest implements Runnable
 						 * and needs another handling.
 						 */
 						sendRemainingBytesRecursion(pcBuffer, e.getBytesSent(), m_OutChannel);
+						pcBuffer.releaseChunk();
 						//Postcondition: aktPos is always 0, because we sent the whole chunk away; 
 						aktPos = 0;
 					}
@@ -423,6 +438,37 @@ public final class AnonProxyRequest implements Runnable
 		}
 	}
 
+	/**
+	 * Returns the data a proxy callback has stored for this request.
+	 * @param a_callback a proxy callback
+	 * @return the data of the callback or null if it has not stored any
+	 */
+	Object getCallbackData(ProxyCallback a_callback)
+	{
+		return m_callbackData.get(a_callback);
+	}
+	
+	/**
+	 * Stores data of a proxy callback for this request. As the data is kept by the request
+	 * itself, callbacks do not need to synchronize on tables that are shared by all requests.
+	 * @param a_callback a proxy callback
+	 * @param a_data the data of the callback
+	 */
+	void setCallbackData(ProxyCallback a_callback, Object a_data)
+	{
+		m_callbackData.put(a_callback, a_data);
+	}
+	
+	/**
+	 * Removes the data a proxy callback has stored for this request.
+	 * @param a_callback a proxy callback
+	 * @return the removed data or null if the callback has not stored any
+	 */
+	Object removeCallbackData(ProxyCallback a_callback)
+	{
+		return m_callbackData.remove(a_callback);
+	}
+
 	public boolean isInternalEncodingRequired() 
 	{
 		return internalEncodingRequired;
@@ -492,6 +538,7 @@ mainLoop:		do
 									continue mainLoop;
 								}
 								m_OutSocket.write(pcBuffer.getChunk(), 0, pcBuffer.getPayloadLength());
+								pcBuffer.releaseChunk();
 								if(pcBuffer.getStatus() == ProxyCallback.STATUS_FINISHED)
 								{
 									break mainLoop;
@@ -553,9 +600,12 @@ mainLoop:		do
 			catch (InterruptedException e)
 			{
 			}
-			if (m_bRequestIsAlive)
+			synchronized (AnonProxyRequest.this)
 			{
-				m_threadRequest.interrupt();
+				if (m_bRequestIsAlive && m_threadRequest != null)
+				{
+					m_threadRequest.interrupt();
+				}
 			}
 			buff = null;
 		}
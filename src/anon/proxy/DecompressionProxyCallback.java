@@ -28,11 +28,9 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package anon.proxy;
 
-import java.io.ByteArrayOutputStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -50,8 +48,6 @@ import logging.LogType;
  */
 public class DecompressionProxyCallback implements ProxyCallback
 {
-	Hashtable decompressionKits = new Hashtable();
-
 	/**
 	 * these constants are copied from GZIPInputstream
 	 * because they are declared private there.
@@ -61,7 +57,7 @@ public class DecompressionProxyCallback implements ProxyCallback
 	private final static int FNAME	= 8;	// File name
 	private final static int FCOMMENT	= 16;	// File comment
 	
-	private final int MAX_DECOMPRESSION_OUTPUT = 10000;
+	private final static int MAX_DECOMPRESSION_OUTPUT = 10000;
 	
 	/**
 	 * slightly modified version of private method GZIPInputStream.readHeader to extract
@@ -129,7 +125,7 @@ public class DecompressionProxyCallback implements ProxyCallback
 	    
 	public void closeRequest(AnonProxyRequest anonRequest) 
 	{
-		DecompressionKit kit = (DecompressionKit) decompressionKits.remove(anonRequest);
+		DecompressionKit kit = (DecompressionKit) anonRequest.removeCallbackData(this);
 		if(kit != null)
 		{
 			if(kit.getGzipInflater() != null)
@@ -143,7 +139,14 @@ public class DecompressionProxyCallback implements ProxyCallback
 		}
 	}
 
-	public synchronized int handleDownstreamChunk(AnonProxyRequest anonRequest,
+	/**
+	 * Inflates the modifiable part of the chunk. The inflaters and the output buffer are
+	 * stored with the request, so chunks of different requests are processed in parallel.
+	 * The decompressed chunk is written to the output buffer of the request which is then
+	 * set as new chunk. The buffer is reused for the next chunk and only grows if a chunk
+	 * inflates to more than it can hold.
+	 */
+	public int handleDownstreamChunk(AnonProxyRequest anonRequest,
 			ProxyCallbackBuffer buffer)
 			throws ProxyCallbackNotProcessableException 
 	{
@@ -152,41 +155,36 @@ public class DecompressionProxyCallback implements ProxyCallback
 			String[] contentEncodingValues = anonRequest.getContentEncodings();
 			if(contentEncodingValues != null)
 			{
-				Vector compressionSequence = new Vector(); 
-				StringTokenizer valueTokenizer = null;
-				for (int i = 0; i < contentEncodingValues.length; i++) 
+				DecompressionKit decompressionKit = 
+					(DecompressionKit) anonRequest.getCallbackData(this);
+				boolean newKit = (decompressionKit == null);
+				if(newKit)
 				{
-					valueTokenizer = new StringTokenizer(contentEncodingValues[i], "");
-					String currentEncodingToken = null;
-					while (valueTokenizer.hasMoreTokens()) 
-					{
-						currentEncodingToken = valueTokenizer.nextToken();
-						if(currentEncodingToken.trim().equals(JonDoFoxHeader.HTTP_ENCODING_GZIP) ||
-							currentEncodingToken.trim().equals(JonDoFoxHeader.HTTP_ENCODING_DEFLATE) )
-						{
-							compressionSequence.addElement(currentEncodingToken);
-						}
-						else 
-						{
-							LogHolder.log(LogLevel.WARNING, LogType.NET, "The Content-Encoding "+currentEncodingToken+" is not supported.");
-						}
-					}
+					decompressionKit = new DecompressionKit();
+					decompressionKit.setResult(new byte[MAX_DECOMPRESSION_OUTPUT]);
 				}
+				Vector compressionSequence = 
+					decompressionKit.getCompressionSequence(contentEncodingValues);
 			
 				if( compressionSequence.size()  > 0 )
 				{
 					String currentEncoding = null;
 					
 					Inflater inflater = null;
-					DecompressionKit decompressionKit = null;
 					
 					int resultLength = 0;
 					int leadingDataLength = 0;
 					int trailingDataLength = 0;
 					int inflateLength = 0;
+					int inflatedLength = 0;
+					byte[] result = null;
 					
 					try
 					{	
+						if(newKit)
+						{
+							anonRequest.setCallbackData(this, decompressionKit);
+						}
 						for(int i = 0; i < compressionSequence.size(); i++)
 						{
 							currentEncoding = (String) compressionSequence.elementAt(i);
@@ -195,24 +193,21 @@ public class DecompressionProxyCallback implements ProxyCallback
 							
 							int gzipHeaderOffset = 0;
 							boolean gzipEncoding = currentEncoding.equals(JonDoFoxHeader.HTTP_ENCODING_GZIP);
-							decompressionKit = (DecompressionKit) decompressionKits.get(anonRequest);
 							
-							if(decompressionKit == null)
+							inflater = gzipEncoding ? decompressionKit.getGzipInflater() : decompressionKit.getZLibInflater();
+							if(inflater == null)
 							{
-								decompressionKit = new DecompressionKit();
-								decompressionKit.setNewInflater(gzipEncoding);
-								decompressionKit.setResult(new byte[MAX_DECOMPRESSION_OUTPUT]);
 								gzipHeaderOffset = gzipEncoding ?
 									readGZIPHeader(buffer.getChunk(), buffer.getModificationStartOffset(), length) : 0;
-								decompressionKits.put(anonRequest, decompressionKit);
+								decompressionKit.setNewInflater(gzipEncoding);
+								inflater = gzipEncoding ? decompressionKit.getGzipInflater() : decompressionKit.getZLibInflater();
 							}
-							inflater = gzipEncoding ? decompressionKit.getGzipInflater() : decompressionKit.getZLibInflater();
 							
 							if(inflater.needsInput())
 							{
 								leadingDataLength = buffer.getLeadingDataLength();
 								trailingDataLength = buffer.getTrailingDataLength();
-								inflateLength = decompressionKit.getResult().length - trailingDataLength - leadingDataLength;
+								result = decompressionKit.getResult(leadingDataLength + trailingDataLength);
 								
 								//take the input directly from the corresponding chunk, which is most likely http-content data.
 								inflater.setInput(buffer.getChunk(), 
@@ -220,46 +215,36 @@ public class DecompressionProxyCallback implements ProxyCallback
 										length - gzipHeaderOffset);
 								
 								//also consider the leading and trailing space of the input data buffer
-								ByteArrayOutputStream bout = null;
-								resultLength = inflater.inflate(decompressionKit.getResult(), leadingDataLength, inflateLength);
-								while( (resultLength == inflateLength) && !inflater.needsInput())
+								buffer.copyLeadingData(result);
+								resultLength = leadingDataLength;
+								while (true)
 								{
-									/* result-buffer is too small:
-									 * prepare a ByteArrayOutputStream to handle all bytes.
-									 * Note that it is better if only the prepared
-									 * result-buffers are needed because they can be reused.
-									 * So always set MAX_DECOMPRESSION_OUTPUT appropriate to avoid this case. 
-									 */
-									if(bout == null)
+									inflateLength = result.length - trailingDataLength - resultLength;
+									inflatedLength = inflater.inflate(result, resultLength, inflateLength);
+									resultLength += inflatedLength;
+									if (inflater.needsInput() || inflater.finished() || 
+										inflater.needsDictionary())
+									{
+										break;
+									}
+									if (inflatedLength == inflateLength)
+									{
+										/* the output buffer is too small: let it grow and keep
+										 * the bigger one for the following chunks
+										 */
+										result = decompressionKit.growResult(resultLength);
+									}
+									else if (inflatedLength == 0)
 									{
-										bout = new ByteArrayOutputStream();
-										buffer.copyLeadingData(bout);
-										bout.write(decompressionKit.getResult(), leadingDataLength, inflateLength);
+										break;
 									}
-									//this time: use the whole buffer
-									inflateLength = decompressionKit.getResult().length;
-									resultLength = inflater.inflate(decompressionKit.getResult());
-									bout.write(decompressionKit.getResult(), 0, resultLength);
 								}
 								
-								if(bout == null)
-								{
-									buffer.copyLeadingData(decompressionKit.getResult());
-									buffer.copyTrailingData(decompressionKit.getResult(), (leadingDataLength+resultLength));
-								
-									buffer.setChunk(decompressionKit.getResult());
-									buffer.setModificationStartOffset(leadingDataLength+resultLength);
-									buffer.setModificationEndOffset(buffer.getModificationStartOffset());
-									buffer.setPayloadLength(buffer.getModificationStartOffset() + trailingDataLength);
-								}
-								else
-								{
-									buffer.copyTrailingData(bout);
-									byte[] newChunk = bout.toByteArray();
-									buffer.setChunk(newChunk);
-									buffer.setModificationStartOffset(newChunk.length - trailingDataLength);
-									buffer.setModificationEndOffset(buffer.getModificationStartOffset());
-								}
+								buffer.copyTrailingData(result, resultLength);
+								buffer.setChunk(result);
+								buffer.setModificationStartOffset(resultLength);
+								buffer.setModificationEndOffset(buffer.getModificationStartOffset());
+								buffer.setPayloadLength(resultLength + trailingDataLength);
 								
 								if(inflater.finished())
 								{
@@ -299,17 +284,47 @@ public class DecompressionProxyCallback implements ProxyCallback
 		return STATUS_PROCESSABLE;
 	}
 
+	/**
+	 * The decompression state of a request. It is only accessed by the thread that 
+	 * handles the downstream traffic of the request.
+	 */
 	private static class DecompressionKit
 	{
 		private Inflater gzipInflater = null;
 		private Inflater zLibInflater = null;
 		private byte[] result = null;
+		private String[] contentEncodings = null;
+		private Vector compressionSequence = null;
 	
 		public byte[] getResult()
 		{
 			return result;
 		}
 		
+		/**
+		 * Returns the output buffer, which is enlarged if it could not take the given
+		 * number of bytes in addition to MAX_DECOMPRESSION_OUTPUT.
+		 */
+		private byte[] getResult(int additionalLength)
+		{
+			if(result.length < MAX_DECOMPRESSION_OUTPUT + additionalLength)
+			{
+				result = new byte[MAX_DECOMPRESSION_OUTPUT + additionalLength];
+			}
+			return result;
+		}
+		
+		/**
+		 * Doubles the size of the output buffer and keeps the given number of bytes.
+		 */
+		private byte[] growResult(int usedLength)
+		{
+			byte[] newResult = new byte[result.length * 2];
+			System.arraycopy(result, 0, newResult, 0, usedLength);
+			result = newResult;
+			return result;
+		}
+		
 		public void setResult(byte[] result)
 		{
 			this.result = result;
@@ -340,6 +355,40 @@ public class DecompressionProxyCallback implements ProxyCallback
 			if(gzipInflater) setGzipInflater(new Inflater(true));
 			else setZLibInflater(new Inflater());
 		}
+		
+		/**
+		 * Returns the supported encodings of the given Content-Encoding values. They are 
+		 * only parsed again if the request has got new values.
+		 */
+		private Vector getCompressionSequence(String[] contentEncodingValues)
+		{
+			if(contentEncodingValues == contentEncodings)
+			{
+				return compressionSequence;
+			}
+			compressionSequence = new Vector(); 
+			StringTokenizer valueTokenizer = null;
+			for (int i = 0; i < contentEncodingValues.length; i++) 
+			{
+				valueTokenizer = new StringTokenizer(contentEncodingValues[i], "");
+				String currentEncodingToken = null;
+				while (valueTokenizer.hasMoreTokens()) 
+				{
+					currentEncodingToken = valueTokenizer.nextToken();
+					if(currentEncodingToken.trim().equals(JonDoFoxHeader.HTTP_ENCODING_GZIP) ||
+						currentEncodingToken.trim().equals(JonDoFoxHeader.HTTP_ENCODING_DEFLATE) )
+					{
+						compressionSequence.addElement(currentEncodingToken);
+					}
+					else 
+					{
+						LogHolder.log(LogLevel.WARNING, LogType.NET, "The Content-Encoding "+currentEncodingToken+" is not supported.");
+					}
+				}
+			}
+			contentEncodings = contentEncodingValues;
+			return compressionSequence;
+		}
 	}
 	
 }
@@ -0,0 +1,248 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.util.Vector;
+
+/**
+ * Collects the header of a single HTTP message from the chunks of a stream and parses it
+ * without converting the chunks to Strings. The end of the header and invalid line
+ * terminations are detected byte by byte while the header bytes are copied into a buffer that
+ * is taken from a pool when the header starts and returned to it when the header has been
+ * parsed. Each direction of an AnonProxyRequest has its own parser; a parser is not thread
+ * safe.
+ */
+final class HTTPHeaderParser
+{
+	/** the header has not ended yet; more chunks are needed */
+	static final int HEADER_INCOMPLETE = -1;
+	/** the header contains a line termination other than CRLF */
+	static final int HEADER_INVALID = -2;
+
+	private static final byte CR = 13;
+	private static final byte LF = 10;
+
+	private static final int INITIAL_BUFFER_SIZE = 2048;
+	private static final int MAX_POOLED_BUFFERS = 32;
+
+	private static final Vector ms_bufferPool = new Vector();
+
+	private byte[] m_buffer;
+	private int m_length;
+	/** how many bytes of the CRLFCRLF sequence have been found at the end of the buffer */
+	private int m_headerEndMatched;
+
+	/**
+	 * Returns if a header has been started but has not been parsed yet.
+	 */
+	boolean isParsing()
+	{
+		return m_buffer != null;
+	}
+
+	/**
+	 * Starts a new header.
+	 */
+	void start()
+	{
+		reset();
+		synchronized (ms_bufferPool)
+		{
+			if (ms_bufferPool.size() > 0)
+			{
+				m_buffer = (byte[]) ms_bufferPool.lastElement();
+				ms_bufferPool.removeElementAt(ms_bufferPool.size() - 1);
+			}
+		}
+		if (m_buffer == null)
+		{
+			m_buffer = new byte[INITIAL_BUFFER_SIZE];
+		}
+	}
+
+	/**
+	 * Forgets the current header and returns the buffer to the pool.
+	 */
+	void reset()
+	{
+		if (m_buffer != null)
+		{
+			synchronized (ms_bufferPool)
+			{
+				if (ms_bufferPool.size() < MAX_POOLED_BUFFERS && m_buffer.length <= INITIAL_BUFFER_SIZE * 8)
+				{
+					ms_bufferPool.addElement(m_buffer);
+				}
+			}
+			m_buffer = null;
+		}
+		m_length = 0;
+		m_headerEndMatched = 0;
+	}
+
+	/**
+	 * Adds the bytes of a chunk to the current header until the header ends.
+	 * @param a_chunk a chunk of the stream
+	 * @param a_offset the first byte in the chunk
+	 * @param a_length the number of bytes in the chunk
+	 * @return the number of bytes of the chunk that belong to the header if it ended in this
+	 * chunk, HEADER_INCOMPLETE if all bytes belong to the header, but it has not ended yet, or
+	 * HEADER_INVALID if the header contains invalid line terminations
+	 */
+	int parse(byte[] a_chunk, int a_offset, int a_length)
+	{
+		byte current;
+		byte previous = (m_length == 0) ? 0 : m_buffer[m_length - 1];
+
+		for (int i = 0; i < a_length; i++)
+		{
+			current = a_chunk[a_offset + i];
+			if ( (previous == CR && current != LF) || (current == LF && previous != CR))
+			{
+				return HEADER_INVALID;
+			}
+			append(current);
+			previous = current;
+
+			if (current == ( (m_headerEndMatched % 2 == 0) ? CR : LF))
+			{
+				m_headerEndMatched++;
+				if (m_headerEndMatched == HTTPProxyCallback.HTTP_HEADER_END_BYTES.length)
+				{
+					return i + 1;
+				}
+			}
+			else
+			{
+				m_headerEndMatched = 0;
+			}
+		}
+		return HEADER_INCOMPLETE;
+	}
+
+	/**
+	 * Stores the start line and the header fields of the completed header in a connection
+	 * header and returns the buffer to the pool. Lines without ": " are ignored.
+	 * @param a_connHeader the connection header
+	 * @param a_messageType HTTPProxyCallback.MESSAGE_TYPE_REQUEST or MESSAGE_TYPE_RESPONSE
+	 */
+	void fill(HTTPProxyCallback.HTTPConnectionHeader a_connHeader, int a_messageType)
+	{
+		boolean bStartLine = true;
+		int lineStart = 0;
+		int end = m_length - HTTPProxyCallback.HTTP_HEADER_END_BYTES.length;
+		int lineEnd;
+		int delim;
+		String key;
+		String value;
+
+		while (lineStart < end)
+		{
+			lineEnd = lineStart;
+			while (lineEnd < end && m_buffer[lineEnd] != CR)
+			{
+				lineEnd++;
+			}
+			if (bStartLine)
+			{
+				bStartLine = false;
+				key = HTTPProxyCallback.HTTP_START_LINE_KEY;
+				value = toString(lineStart, lineEnd, false);
+			}
+			else
+			{
+				delim = lineStart;
+				while (delim < lineEnd - 1 && (m_buffer[delim] != ':' || m_buffer[delim + 1] != ' '))
+				{
+					delim++;
+				}
+				if (delim < lineEnd - 1)
+				{
+					key = toString(lineStart, delim, true);
+					value = toString(delim + 1, lineEnd, true);
+				}
+				else
+				{
+					key = null;
+					value = null;
+				}
+			}
+			if (key != null)
+			{
+				if (a_messageType == HTTPProxyCallback.MESSAGE_TYPE_REQUEST)
+				{
+					a_connHeader.setRequestHeader(key, value);
+				}
+				else
+				{
+					a_connHeader.setResponseHeader(key, value);
+				}
+			}
+			// skip CRLF
+			lineStart = lineEnd + 2;
+		}
+		reset();
+	}
+
+	/**
+	 * Creates a String from header bytes. HTTP headers are ISO-8859-1 encoded, therefore each
+	 * byte is exactly one character.
+	 */
+	private String toString(int a_start, int a_end, boolean a_bTrim)
+	{
+		if (a_bTrim)
+		{
+			while (a_start < a_end && (m_buffer[a_start] & 0xFF) <= ' ')
+			{
+				a_start++;
+			}
+			while (a_start < a_end && (m_buffer[a_end - 1] & 0xFF) <= ' ')
+			{
+				a_end--;
+			}
+		}
+		char[] chars = new char[a_end - a_start];
+		for (int i = 0; i < chars.length; i++)
+		{
+			chars[i] = (char) (m_buffer[a_start + i] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	private void append(byte a_byte)
+	{
+		if (m_length == m_buffer.length)
+		{
+			byte[] buffer = new byte[m_buffer.length * 2];
+			System.arraycopy(m_buffer, 0, buffer, 0, m_length);
+			m_buffer = buffer;
+		}
+		m_buffer[m_length++] = a_byte;
+	}
+}
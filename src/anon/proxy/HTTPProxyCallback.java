@@ -28,12 +28,8 @@ SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package anon.proxy;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.StringTokenizer;
-import java.util.Vector;
-
 import anon.infoservice.HttpResponseStructure;
+import anon.util.ByteArrayPool;
 import anon.util.JAPMessages;
 
 import logging.LogHolder;
@@ -71,6 +67,12 @@ public class HTTPProxyCallback implements ProxyCallback
 	final static String MSG_INVALID_LINETERM_REQUEST ="httpFilter.invalidlineterm.request";
 	final static String MSG_INVALID_LINETERM_RESPONSE ="httpFilter.invalidlineterm.response";
 	
+	/* chunks with rewritten headers; bigger chunks are allocated */
+	private final static int CHUNK_BUFFER_SIZE = 4096;
+	private final static int MAX_POOLED_CHUNKS = 32;
+	private final static ByteArrayPool ms_chunkPool =
+		new ByteArrayPool(CHUNK_BUFFER_SIZE, MAX_POOLED_CHUNKS);
+	
 	static 
 	{
 		HTTP_REQUEST_METHODS_BYTES = new byte[HTTP_REQUEST_METHODS.length][];
@@ -98,54 +100,17 @@ public class HTTPProxyCallback implements ProxyCallback
 	public final static String HTTP_RANGE = "Range";
 	public final static String HTTP_IE_UA_CPU = "UA-CPU";	
 	
-	/** Container for the Headers of a whole HTTP Connection
-	 * including Request and Response. 
-	 */
-	private Hashtable m_connectionHTTPHeaders = null;
-	/** request messages whose parsing hasn't finished yet */
-	private Hashtable m_unfinishedRequests = null;
-	/** response messages whose parsing hasn't finished yet */
-	private Hashtable m_unfinishedResponses = null;
-	
-	private Hashtable m_downstreamBytes = null;
-	
-	private Hashtable m_upstreamBytes = null;
-	
-	private Vector m_httpConnectionListeners = null;
-
-	
-	private static final IHTTPHelper UPSTREAM_HELPER = new IHTTPHelper()
-	{
-		public byte[] dumpHeader(HTTPProxyCallback a_callback, HTTPConnectionHeader a_header, AnonProxyRequest anonRequest)
-		{
-			a_callback.fireRequestHeadersReceived(a_callback.getEvent(anonRequest));
-			return a_header.dumpRequestHeaders();
-		}
-	};
-	private static final IHTTPHelper DOWNSTREAM_HELPER = new IHTTPHelper()
-	{
-		public byte[] dumpHeader(HTTPProxyCallback a_callback, HTTPConnectionHeader a_header, AnonProxyRequest anonRequest)
-		{
-			//a_callback.handleResponse(a_header);
-			a_callback.fireResponseHeadersReceived(a_callback.getEvent(anonRequest));
-			return a_header.dumpResponseHeaders();
-		}
-	};
+	/** the listeners sorted by priority; the array is replaced whenever a listener is added or removed */
+	private volatile AbstractHTTPConnectionListener[] m_httpConnectionListeners =
+		new AbstractHTTPConnectionListener[0];
 	
 	public HTTPProxyCallback()
 	{
-		m_connectionHTTPHeaders = new Hashtable();
-		m_unfinishedRequests = new Hashtable();
-		m_unfinishedResponses = new Hashtable();
-		m_downstreamBytes = new Hashtable();
-		m_upstreamBytes = new Hashtable();
-		m_httpConnectionListeners = new Vector();
 	}
 	
 	public int handleUpstreamChunk(AnonProxyRequest anonRequest, ProxyCallbackBuffer buffer)  throws ProxyCallbackNotProcessableException
 	{
-		return handleStreamChunk(anonRequest, buffer, MESSAGE_TYPE_REQUEST, UPSTREAM_HELPER);
-		//return chunk;
+		return handleStreamChunk(anonRequest, buffer, MESSAGE_TYPE_REQUEST);
 	}
 	
 	public int handleDownstreamChunk(AnonProxyRequest anonRequest, ProxyCallbackBuffer buffer) throws ProxyCallbackNotProcessableException
@@ -157,20 +122,14 @@ public class HTTPProxyCallback implements ProxyCallback
 		 * This flag should avoid confusion when received byte-content contains the
 		 * same aligned byte sequence that would identify it as a response.
 		 */
-		boolean noResponseExpected = false;
-		synchronized(this)
-		{
-			HTTPConnectionHeader connHeader =
-				(HTTPConnectionHeader) m_connectionHTTPHeaders.get(anonRequest);
-			noResponseExpected = (connHeader == null) ? true : !connHeader.isResponseExpected();
-		}
-		return noResponseExpected ? STATUS_PROCESSABLE : handleStreamChunk(anonRequest,  buffer, MESSAGE_TYPE_RESPONSE, DOWNSTREAM_HELPER);
-					
-		//return chunk;
+		RequestState state = getState(anonRequest);
+		boolean noResponseExpected = (state == null) ? true :
+			!state.m_header.isResponseExpected() && !state.m_responseParser.isParsing();
+		return noResponseExpected ? STATUS_PROCESSABLE : handleStreamChunk(anonRequest,  buffer, MESSAGE_TYPE_RESPONSE);
 	}
 
 	private int handleStreamChunk(AnonProxyRequest anonRequest, ProxyCallbackBuffer buffer, 
-			int a_messageType, IHTTPHelper a_helper) throws ProxyCallbackNotProcessableException
+			int a_messageType) throws ProxyCallbackNotProcessableException
 	{
 		int startOffset = buffer.getModificationStartOffset();
 		int endOffset = buffer.getModificationEndOffset();
@@ -181,381 +140,247 @@ public class HTTPProxyCallback implements ProxyCallback
 		{
 			throw new NullPointerException("AnonProxyRequest must not be null!");
 		}
-		int headerEndLength = HTTP_HEADER_END.length();
-		int headerEndIndex = -1;
-		//preceding bytes of that chunk possibly containing line termination bytes
-		byte[] prefixBytes = null;
-		
-		Hashtable unfinishedMessages =
-			(a_messageType == MESSAGE_TYPE_REQUEST) ? 
-				m_unfinishedRequests : m_unfinishedResponses;
-		String unfinishedHeaderPart = null;
+		RequestState state = getState(anonRequest);
+		if (state == null)
+		{
+			/* only requests are parsed before the state is created */
+			state = new RequestState();
+			anonRequest.setCallbackData(this, state);
+		}
+		HTTPConnectionHeader connHeader = state.m_header;
+		HTTPHeaderParser parser = (a_messageType == MESSAGE_TYPE_REQUEST) ?
+			state.m_requestParser : state.m_responseParser;
 		
-		Hashtable byteCounter = 
-			(a_messageType == MESSAGE_TYPE_REQUEST) ? 
-					m_upstreamBytes : m_downstreamBytes;
 		/* check if header parsing has already started but hasn't finished yet for this AnonRequest */
-		synchronized(this)
+		if (!parser.isParsing())
 		{
-			unfinishedHeaderPart = (String) unfinishedMessages.get(anonRequest);
+			if (!hasAlignedHTTPStartLine(chunk, startOffset, length, a_messageType))
+			{
+				countContentBytes(anonRequest, state, length, a_messageType);
+				return STATUS_PROCESSABLE;
+			}
+			/* old http messages already delivered by this AnonProxyRequest-Thread can be removed */
+			if (a_messageType == MESSAGE_TYPE_REQUEST && connHeader.isRequestFinished())
+			{
+				connHeader.clearRequest();
+				state.resetContentBytes(a_messageType);
+			}
+			else if (a_messageType == MESSAGE_TYPE_RESPONSE && connHeader.isResponseFinished())
+			{
+				connHeader.clearResponse();
+				state.resetContentBytes(a_messageType);
+			}
+			parser.start();
 		}
 		
-		if(unfinishedHeaderPart != null)
+		/* the number of bytes of the chunk that belong to the header */
+		int headerBytes = parser.parse(chunk, startOffset, length);
+		if (headerBytes == HTTPHeaderParser.HEADER_INCOMPLETE)
+		{
+			/* if header parsing hasn't finished yet:
+			 * chunk can be delivered with delay and the rest later on.
+			 */
+			return STATUS_DELAY;
+		}
+		if (headerBytes == HTTPHeaderParser.HEADER_INVALID)
 		{
-			//take care, as there may be some HTTP header ending bytes in the previous extracted part
-			if(unfinishedHeaderPart.length() > (HTTP_HEADER_END_BYTES.length-1) )
+			String errorMsgKey = null;
+			parser.reset();
+			if(a_messageType == MESSAGE_TYPE_REQUEST)
 			{
-				prefixBytes = 
-					unfinishedHeaderPart.substring(
-						unfinishedHeaderPart.length() - (HTTP_HEADER_END_BYTES.length-1)).getBytes();
+				connHeader.setRequestFinished(true);
+				errorMsgKey = MSG_INVALID_LINETERM_REQUEST;
 			}
 			else
 			{
-				prefixBytes = unfinishedHeaderPart.getBytes();
+				connHeader.setResponseFinished(true);
+				errorMsgKey = MSG_INVALID_LINETERM_RESPONSE;
 			}
+			throw new HTTPHeaderParseException(
+					HttpResponseStructure.HTTP_RETURN_BAD_REQUEST,
+					a_messageType, 
+					JAPMessages.getString(errorMsgKey));
 		}
 		
-		/* get the index of the first char after the CRLFCRLF end delimiter of the http headers */		
-		headerEndIndex = indexOfHTTPHeaderEnd(prefixBytes, chunk, startOffset, endOffset);
-		
-		/* this specifies how many bytes of the chunk may contain header data 
-		 * (if the chunk contain header data at all)
-		 */
-		//int endLen = (headerEndIndex == -1) ? length : Math.min(headerEndIndex, length);
-		int endLen = (headerEndIndex == -1) ? length : (headerEndIndex - startOffset);
-		int contentBytes = length;
-		String chunkData = null;
+		parser.fill(connHeader, a_messageType);
+		if(a_messageType == MESSAGE_TYPE_REQUEST)
+		{
+			connHeader.setRequestFinished(true);
+			/* response for that request expected. */
+			connHeader.setResponseExpected(true);
+		}
+		else
+		{
+			connHeader.setResponseFinished(true);
+			/* next response expected when new request is parsed. */
+			connHeader.setResponseExpected(false);
+		}
 		
-		/* only if this chunk contains http headers, we need to turn it into a string */
-		if( (unfinishedHeaderPart != null) || hasAlignedHTTPStartLine(chunk, startOffset, endLen, a_messageType) )
+		int contentBytes = length - headerBytes;
+		if (connHeader.getRequestLine() != null)
 		{
-			contentBytes = length - endLen;
-			chunkData = ( (unfinishedHeaderPart == null) ? "" : unfinishedHeaderPart) + new String(chunk, startOffset, endLen );
-			
-			boolean finished = extractHeaderParts(anonRequest, chunkData, a_messageType);
-
-			if(!finished)
-			{
-				/* if header parsing hasn't finished yet:
-				 * chunk can be delivered with delay by returning null for now and
-				 * the rest later on.
-				 */
-				return STATUS_DELAY;
-			}
-			HTTPConnectionHeader connHeader = null;
-			synchronized (this)
+			if (a_messageType == MESSAGE_TYPE_REQUEST)
 			{
-				connHeader = (HTTPConnectionHeader) m_connectionHTTPHeaders.get(anonRequest);
+				fireRequestHeadersReceived(getEvent(anonRequest, state));
 			}
-						
-			if (connHeader != null && connHeader.getRequestLine() != null)
+			else
 			{
-				byte[] newHeaders = a_helper.dumpHeader(this, connHeader, anonRequest);
-				
-				countContentBytes(anonRequest, contentBytes, byteCounter, FIRE_EVENT);
-				
-				int contentDataStart = newHeaders.length + startOffset;
-				int trailingDataStart = contentDataStart+contentBytes;
-				byte[] newChunk = new byte[trailingDataStart + buffer.getTrailingDataLength()];
-				
-				buffer.copyLeadingData(newChunk);
-				System.arraycopy(newHeaders, 0, newChunk, startOffset, newHeaders.length);
-	 			System.arraycopy(chunk, (endOffset+1-contentBytes), newChunk, contentDataStart, contentBytes);
-				buffer.copyTrailingData(newChunk, trailingDataStart);
-				
-				buffer.setChunk(newChunk);
-				buffer.setModificationStartOffset(contentDataStart);
-				buffer.setModificationEndOffset(trailingDataStart-1);
-				return STATUS_PROCESSABLE;
+				fireResponseHeadersReceived(getEvent(anonRequest, state));
 			}
+			replaceHeaders(buffer, connHeader, a_messageType, contentBytes);
 		}
-		countContentBytes(anonRequest, contentBytes, byteCounter, FIRE_EVENT);
+		countContentBytes(anonRequest, state, contentBytes, a_messageType);
 		return STATUS_PROCESSABLE;		
 	}
 	
-	
-	private interface IHTTPHelper
-	{
-		byte[] dumpHeader(HTTPProxyCallback a_callback, HTTPConnectionHeader a_header, AnonProxyRequest anonRequest);
-	}
-	
-	private synchronized long countContentBytes(AnonProxyRequest anonRequest, int contentBytes, Hashtable contentBytesCount, boolean fire)
+	/**
+	 * Replaces the modifiable part of the buffer by the current headers of the message,
+	 * followed by the content bytes at the end of the modifiable part. The headers are written
+	 * directly into the new chunk, which is taken from a pool and given back after it has been
+	 * forwarded.
+	 */
+	private static void replaceHeaders(ProxyCallbackBuffer a_buffer, HTTPConnectionHeader a_connHeader,
+									   int a_messageType, int a_contentBytes)
 	{
-		long dsCurrentValue = 0;
+		int startOffset = a_buffer.getModificationStartOffset();
+		int endOffset = a_buffer.getModificationEndOffset();
+		byte[] chunk = a_buffer.getChunk();
+		byte[] newChunk;
+		int newChunkLength;
+		int contentDataStart;
+		int trailingDataStart;
 		
-		Long dsCurrentBytes = (Long) contentBytesCount.remove(anonRequest);	
-		if(dsCurrentBytes != null)
+		synchronized (a_connHeader)
 		{
-			dsCurrentValue = dsCurrentBytes.longValue();
-		}
-		dsCurrentValue += contentBytes;
-		contentBytesCount.put(anonRequest, new Long(dsCurrentValue));
-		
-		/* use occasion to fire event, when we have a brand new byteCount value */
-		if(fire == FIRE_EVENT)
-		{
-			HTTPConnectionEvent event = new HTTPConnectionEvent();
-			event.setAnonRequest(anonRequest);
-			event.setConnectionHeader((HTTPConnectionHeader)m_connectionHTTPHeaders.get(anonRequest));
-			
-			if(contentBytesCount == m_downstreamBytes)
+			int headersLength = a_connHeader.dumpHeaders(a_messageType, null, 0);
+			contentDataStart = headersLength + startOffset;
+			trailingDataStart = contentDataStart + a_contentBytes;
+			newChunkLength = trailingDataStart + a_buffer.getTrailingDataLength();
+			if (newChunkLength <= CHUNK_BUFFER_SIZE)
 			{
-				event.setUpStreamContentBytes(getUpStreamContentBytes(anonRequest));
-				event.setDownStreamContentBytes(dsCurrentValue);
-				fireDownstreamContentBytesReceived(event);
+				newChunk = ms_chunkPool.acquire();
 			}
-			else if(contentBytesCount == m_upstreamBytes)
+			else
 			{
-				event.setDownStreamContentBytes(getDownStreamContentBytes(anonRequest));
-				event.setUpStreamContentBytes(dsCurrentValue);
-				fireUpstreamContentBytesReceived(event);
+				newChunk = new byte[newChunkLength];
 			}
+			a_connHeader.dumpHeaders(a_messageType, newChunk, startOffset);
 		}
-		return dsCurrentValue;
-	}
-	
-	public synchronized long getUpStreamContentBytes(AnonProxyRequest anonRequest)
-	{
-		return getContentBytes(anonRequest, m_upstreamBytes);
-	}
-	
-	public synchronized long getDownStreamContentBytes(AnonProxyRequest anonRequest)
-	{
-		return getContentBytes(anonRequest, m_downstreamBytes);
-	}
-	
-	private long getContentBytes(AnonProxyRequest anonRequest, Hashtable contentByteCount)
-	{
-		if(contentByteCount == null)
+		if (LogHolder.isLogged(LogLevel.INFO, LogType.FILTER))
 		{
-			throw new NullPointerException("Bug: No count table specified for getContentBytes");
+			LogHolder.log(LogLevel.INFO, LogType.FILTER, Thread.currentThread().getName() +
+				": header dump:\n" + new String(newChunk, startOffset, contentDataStart - startOffset));
 		}
-		Long contentBytes = (Long) contentByteCount.get(anonRequest);
-		return (contentBytes == null) ? 0l : contentBytes.longValue();
+		
+		a_buffer.copyLeadingData(newChunk);
+		System.arraycopy(chunk, (endOffset+1-a_contentBytes), newChunk, contentDataStart, a_contentBytes);
+		a_buffer.copyTrailingData(newChunk, trailingDataStart);
+		
+		a_buffer.setChunk(newChunk, newChunkLength, ms_chunkPool);
+		a_buffer.setModificationStartOffset(contentDataStart);
+		a_buffer.setModificationEndOffset(trailingDataStart-1);
 	}
 	
-	private synchronized HTTPConnectionEvent getEvent(AnonProxyRequest anonRequest)
+	private RequestState getState(AnonProxyRequest anonRequest)
 	{
-		long upStreamBytes = getUpStreamContentBytes(anonRequest);
-		long downStreamBytes = getDownStreamContentBytes(anonRequest);
-		HTTPConnectionHeader connHeader = (HTTPConnectionHeader) m_connectionHTTPHeaders.get(anonRequest);
-		return new HTTPConnectionEvent(connHeader, upStreamBytes, downStreamBytes, anonRequest);
+		return (RequestState) anonRequest.getCallbackData(this);
 	}
 	
-	/* 
-	 * 	extract headers from data chunk
-	 * returns false if header could not be extracted
-	 */
-	private synchronized boolean extractHeaderParts(AnonProxyRequest anonRequest, String chunkData, int messageType)
-		throws ProxyCallbackNotProcessableException
+	private void countContentBytes(AnonProxyRequest anonRequest, RequestState state, int contentBytes, int messageType)
 	{
-		if(anonRequest == null)
+		HTTPConnectionEvent event = new HTTPConnectionEvent();
+		event.setAnonRequest(anonRequest);
+		event.setConnectionHeader(state.m_header);
+		synchronized (state)
 		{
-			throw new NullPointerException("AnonProxyRequest must not be null!");
-		}
-		HTTPConnectionHeader connHeader = null;
-	
-		connHeader = (HTTPConnectionHeader) 
-			m_connectionHTTPHeaders.get(anonRequest);
-		
-		if( (connHeader != null) )
-		{
-			/* old http messages already delivered by this AnonProxyRequest-Thread can be removed */ 
-			if((messageType == MESSAGE_TYPE_REQUEST) && connHeader.isRequestFinished())
+			if (messageType == MESSAGE_TYPE_RESPONSE)
 			{
-				connHeader.clearRequest();
-				m_upstreamBytes.remove(anonRequest);
+				state.m_downstreamBytes += contentBytes;
 			}
-			else if ((messageType == MESSAGE_TYPE_RESPONSE) && connHeader.isResponseFinished())
+			else
 			{
-				connHeader.clearResponse();
-				m_downstreamBytes.remove(anonRequest);
+				state.m_upstreamBytes += contentBytes;
 			}
+			event.setUpStreamContentBytes(state.m_upstreamBytes);
+			event.setDownStreamContentBytes(state.m_downstreamBytes);
 		}
 		
-		if ( connHeader == null )
+		/* use occasion to fire event, when we have a brand new byteCount value */
+		if (messageType == MESSAGE_TYPE_RESPONSE)
 		{
-			connHeader = new HTTPConnectionHeader();
-			m_connectionHTTPHeaders.put(anonRequest, connHeader);
+			fireDownstreamContentBytesReceived(event);
+		}
+		else
+		{
+			fireUpstreamContentBytesReceived(event);
 		}
-		
-		//if(hasAlignedHTTPStartLine(chunkData, messageType))
-		//{
-			
-			Hashtable unfinishedMessages = 
-				(messageType == MESSAGE_TYPE_REQUEST) ? 
-					m_unfinishedRequests : m_unfinishedResponses;
-			
-			int off_headers_end = chunkData.indexOf(HTTP_HEADER_END);
-			String headerFragment = ( off_headers_end == -1 ) ? chunkData : 
-				chunkData.substring(0,  off_headers_end);
-			
-			if(!checkValidity(headerFragment))
-			{
-				String errorMsgKey = null;
-				if(messageType == MESSAGE_TYPE_REQUEST)
-				{
-					connHeader.setRequestFinished(true);
-					errorMsgKey = MSG_INVALID_LINETERM_REQUEST;
-				}
-				else if (messageType == MESSAGE_TYPE_RESPONSE)
-				{
-					connHeader.setResponseFinished(true);
-					errorMsgKey = MSG_INVALID_LINETERM_RESPONSE;
-				}
-				
-				unfinishedMessages.remove(anonRequest);
-				
-				throw new HTTPHeaderParseException(
-						HttpResponseStructure.HTTP_RETURN_BAD_REQUEST,
-						messageType, 
-						JAPMessages.getString(errorMsgKey));
-			}
-			
-			
-			if((off_headers_end != -1))
-			{
-				//Because it is assumed that the chunk is aligned: the HTTP message starts at index 0
-				parseHTTPHeader(headerFragment, connHeader, messageType);
-				if(messageType == MESSAGE_TYPE_REQUEST)
-				{
-					connHeader.setRequestFinished(true);
-					/* response for that request expected. */
-					connHeader.setResponseExpected(true);
-				}
-				else if (messageType == MESSAGE_TYPE_RESPONSE)
-				{
-					connHeader.setResponseFinished(true);
-					/* next response expected when new request is parsed. */
-					connHeader.setResponseExpected(false);
-				}
-				unfinishedMessages.remove(anonRequest);
-				return true;
-			}
-			else 
-			{
-				unfinishedMessages.put(anonRequest, chunkData);
-				return false;
-			}
-		//}
-		//return false;
 	}
 	
-	/**
-	 * checks whether the HTTP message headers fragment specified by headerData
-	 * contains invalid line terminations, i.e. all terminations other
-	 * than CRLF
-	 * @param headerData the fragment of the HTTP headers of a HTTP message
-	 * @return false if the fragment contains invalid line terminations, true otherwise.
-	 */
-	public static boolean checkValidity(String headerData)
+	public long getUpStreamContentBytes(AnonProxyRequest anonRequest)
 	{
-		int currentCRIndex = -1;
-		int currentLFIndex = -1;
-		
-		//a CR that stands without a trailing LF
-		boolean onlyCR = false;
-		//a LF that stands without a leading CR
-		boolean onlyLF = false;
-		boolean endsWithCR = false;
-		boolean noMoreLineTerminations = false;
-		boolean indexExceeds = (Math.max((currentCRIndex+1), (currentLFIndex+1)) >= headerData.length());
-		
-		while(!indexExceeds )
+		RequestState state = getState(anonRequest);
+		if (state == null)
 		{
-			currentCRIndex = headerData.indexOf('\r', (currentCRIndex+1));
-			currentLFIndex = headerData.indexOf('\n', (currentLFIndex+1));
-		
-			noMoreLineTerminations = ( (currentCRIndex == -1) && (currentLFIndex == -1));
-			
-			if(noMoreLineTerminations)
-			{
-				break;
-			}
-			
-			onlyLF = (currentLFIndex != -1) && ( (currentCRIndex == -1) || (currentCRIndex != (currentLFIndex-1)) );
-			if(onlyLF)
-			{
-				break;
-			}
-			
-			onlyCR = (currentCRIndex != -1) && ( (currentLFIndex == -1) || (currentCRIndex != (currentLFIndex-1)) );
-			
-			endsWithCR = (currentCRIndex == (headerData.length() - 1));
-			if(endsWithCR)
-			{
-				break;
-			}
-			indexExceeds = (Math.max((currentCRIndex+1), (currentLFIndex+1)) >= headerData.length());
+			return 0l;
+		}
+		synchronized (state)
+		{
+			return state.m_upstreamBytes;
 		}
-		return !onlyLF && ( !onlyCR || endsWithCR );
 	}
 	
-	private boolean hasAlignedHTTPStartLine(String chunkData, int messageType)
+	public long getDownStreamContentBytes(AnonProxyRequest anonRequest)
 	{
-		return (messageType == MESSAGE_TYPE_REQUEST) ? isRequest(chunkData) : isResponse(chunkData);
+		RequestState state = getState(anonRequest);
+		if (state == null)
+		{
+			return 0l;
+		}
+		synchronized (state)
+		{
+			return state.m_downstreamBytes;
+		}
 	}
 	
-	private boolean hasAlignedHTTPStartLine(byte[] chunk, int off, int len, int messageType)
+	private HTTPConnectionEvent getEvent(AnonProxyRequest anonRequest, RequestState state)
 	{
-		return (messageType == MESSAGE_TYPE_REQUEST) ? isRequest(chunk, off, len) : isResponse(chunk, off, len);
+		synchronized (state)
+		{
+			return new HTTPConnectionEvent(state.m_header, state.m_upstreamBytes, state.m_downstreamBytes,
+										   anonRequest);
+		}
 	}
 	
-	private boolean isRequest(String chunkData)
+	private boolean hasAlignedHTTPStartLine(byte[] chunk, int off, int len, int messageType)
 	{
-		for (int i = 0; i < HTTP_REQUEST_METHODS.length; i++) {
-			if( chunkData.startsWith(HTTP_REQUEST_METHODS[i]) )
+		if (messageType == MESSAGE_TYPE_REQUEST)
+		{
+			for (int i = 0; i < HTTP_REQUEST_METHODS_BYTES.length; i++)
 			{
-				return true;
+				if (startsWith(chunk, off, len, HTTP_REQUEST_METHODS_BYTES[i]))
+				{
+					return true;
+				}
 			}
+			return false;
 		}
-		return false;
+		return startsWith(chunk, off, len, HTTP_VERSION_PREFIX_BYTES);
 	}
 	
 	/**
 	 * this method makes a bytewise comparison so we don't have 
 	 * to turn the whole chunk into a string for header detection.
-	 * @param chunk
-	 * @param len
-	 * @return
+	 * If the chunk is shorter than the prefix, only the available bytes are compared.
 	 */
-	private boolean isRequest(byte[] chunk, int off, int len)
+	private static boolean startsWith(byte[] chunk, int off, int len, byte[] prefix)
 	{
-		boolean match = true;
-		for (int i = 0; i < HTTP_REQUEST_METHODS_BYTES.length; i++) {
-			//the bytes encoding of the header data is the same as the default
-			//Java byte encoding since we don't have any special characters 
-			//in the header data
-			int compLen = Math.min(len, HTTP_REQUEST_METHODS_BYTES[i].length);
-			for (int j = off; j < compLen; j++) 
-			{
-				if(chunk[j] != HTTP_REQUEST_METHODS_BYTES[i][j])
-				{
-					match = false;
-					break;
-				}
-			}
-			if(!match)
-			{
-				match = true;
-				continue;
-			}
-			return true;
-		}
-		return false;
-	}
-	
-	private boolean isResponse(String chunkData)
-	{
-		return chunkData.startsWith(HTTP_VERSION_PREFIX);
-	}
-	
-	private boolean isResponse(byte[] chunk, int off, int len)
-	{
-		int compLen = Math.min(len, HTTP_VERSION_PREFIX_BYTES.length);
-		for (int i = off; i < compLen; i++) 
+		//the bytes encoding of the header data is the same as the default
+		//Java byte encoding since we don't have any special characters 
+		//in the header data
+		int compLen = Math.min(len, prefix.length);
+		for (int i = 0; i < compLen; i++) 
 		{
-			if(chunk[i] != HTTP_VERSION_PREFIX_BYTES[i])
+			if(chunk[off + i] != prefix[i])
 			{
 				return false;
 			}
@@ -667,151 +492,135 @@ public class HTTPProxyCallback implements ProxyCallback
 		return indexOfHTTPHeaderEnd(chunk, chunkStartIndex, chunkEndIndex);
 	}
 	
-	private synchronized void parseHTTPHeader(String headerData, HTTPConnectionHeader connHeader, int headerType)
+	public synchronized void addHTTPConnectionListener(AbstractHTTPConnectionListener listener)
 	{
-		StringTokenizer lineTokenizer = new StringTokenizer(headerData,CRLF);
-		if(lineTokenizer.countTokens() == 0)
-		{
-			return;
-		}
-		String header = null;
-		String key = null;
-		String values = null;
-		if(headerType == MESSAGE_TYPE_REQUEST)
-		{
-			connHeader.setRequestHeader(HTTP_START_LINE_KEY, lineTokenizer.nextToken());
-		}
-		else if (headerType == MESSAGE_TYPE_RESPONSE)
-		{
-			connHeader.setResponseHeader(HTTP_START_LINE_KEY, lineTokenizer.nextToken());
-		}
-		while(lineTokenizer.hasMoreTokens())
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		int i = 0;
+		for (; i < listeners.length; i++)
 		{
-			header = lineTokenizer.nextToken();
-			int delim = header.indexOf(HTTP_HEADER_DELIM);
-			if(delim == -1)
+			if (listeners[i].equals(listener))
 			{
-				delim = header.indexOf("\n\n");
+				return;
 			}
-			if(delim != -1)
+		}
+		for (i = 0; i < listeners.length; i++)
+		{
+			if (listeners[i].getPriority() >= listener.getPriority())
 			{
-				key = header.substring(0, delim).trim();
-				if(delim+1 < header.length())
-				{
-					values = header.substring(delim+1).trim();
-				}
-				if( (key != null) && (values != null) )
-				{
-					if(headerType == MESSAGE_TYPE_REQUEST)
-					{
-						connHeader.setRequestHeader(key, values);
-					}
-					else if (headerType == MESSAGE_TYPE_RESPONSE)
-					{
-						connHeader.setResponseHeader(key, values);
-					}
-				}
+				break;
 			}
 		}
+		AbstractHTTPConnectionListener[] newListeners =
+			new AbstractHTTPConnectionListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, newListeners, 0, i);
+		newListeners[i] = listener;
+		System.arraycopy(listeners, i, newListeners, i + 1, listeners.length - i);
+		m_httpConnectionListeners = newListeners;
 	}
 	
-	public synchronized void addHTTPConnectionListener(AbstractHTTPConnectionListener listener)
+	public synchronized void removeHTTPConnectionListener(AbstractHTTPConnectionListener listener)
 	{
-		if (!m_httpConnectionListeners.contains(listener))
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		for (int i = 0; i < listeners.length; i++)
 		{
-			int i = 0;
-			for (; i < m_httpConnectionListeners.size(); i++)
+			if (listeners[i].equals(listener))
 			{
-				if (((AbstractHTTPConnectionListener)m_httpConnectionListeners.elementAt(i)).
-						getPriority() >= listener.getPriority())
-				{
-					break;
-				}
+				AbstractHTTPConnectionListener[] newListeners =
+					new AbstractHTTPConnectionListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				m_httpConnectionListeners = newListeners;
+				return;
 			}
-			m_httpConnectionListeners.insertElementAt(listener, i);
 		}
 	}
 	
-	public synchronized void removeHTTPConnectionListener(AbstractHTTPConnectionListener listener)
+	public synchronized void removeAllHTTPConnectionListeners()
 	{
-		m_httpConnectionListeners.removeElement(listener);
+		m_httpConnectionListeners = new AbstractHTTPConnectionListener[0];
 	}
 	
-	public synchronized void removeAllHTTPConnectionListeners()
+	/* the listeners are called without holding any lock, so chunks of different requests are not
+	 * serialized here
+	 */
+	public void fireRequestHeadersReceived(HTTPConnectionEvent event)
 	{
-		m_httpConnectionListeners.removeAllElements();
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		for (int i = 0; i < listeners.length; i++)
+		{
+			listeners[i].requestHeadersReceived(event);
+		}
 	}
 	
-	public synchronized void fireRequestHeadersReceived(HTTPConnectionEvent event)
+	public void fireResponseHeadersReceived(HTTPConnectionEvent event)
 	{
-		for (Enumeration enumeration = m_httpConnectionListeners.elements(); enumeration.hasMoreElements();)
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		for (int i = 0; i < listeners.length; i++)
 		{
-			AbstractHTTPConnectionListener listener = (AbstractHTTPConnectionListener) enumeration.nextElement();
-			if (listener != null)
-			{
-				listener.requestHeadersReceived(event);
-			}
+			listeners[i].responseHeadersReceived(event);
 		}
 	}
 	
-	public synchronized void fireResponseHeadersReceived(HTTPConnectionEvent event)
+	public void fireDownstreamContentBytesReceived(HTTPConnectionEvent event)
 	{
-		for (Enumeration enumeration = m_httpConnectionListeners.elements(); enumeration.hasMoreElements();)
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		for (int i = 0; i < listeners.length; i++)
 		{
-			AbstractHTTPConnectionListener listener = (AbstractHTTPConnectionListener) enumeration.nextElement();
-			if( listener != null)
-			{
-				listener.responseHeadersReceived(event);
-			}
+			listeners[i].downstreamContentBytesReceived(event);
 		}
 	}
 	
-	public synchronized void fireDownstreamContentBytesReceived(HTTPConnectionEvent event)
+	public void fireUpstreamContentBytesReceived(HTTPConnectionEvent event)
 	{
-		for (Enumeration enumeration = m_httpConnectionListeners.elements(); enumeration.hasMoreElements();)
+		AbstractHTTPConnectionListener[] listeners = m_httpConnectionListeners;
+		for (int i = 0; i < listeners.length; i++)
 		{
-			AbstractHTTPConnectionListener listener = (AbstractHTTPConnectionListener) enumeration.nextElement();
-			if (listener != null)
-			{
-				listener.downstreamContentBytesReceived(event);
-			}
+			listeners[i].upstreamContentBytesReceived(event);
 		}
 	}
 	
-	public synchronized void fireUpstreamContentBytesReceived(HTTPConnectionEvent event)
+	public void closeRequest(AnonProxyRequest anonRequest)
 	{
-		for (Enumeration enumeration = m_httpConnectionListeners.elements(); enumeration.hasMoreElements();)
+		RequestState state = (RequestState) anonRequest.removeCallbackData(this);
+		if (state != null)
 		{
-			AbstractHTTPConnectionListener listener = (AbstractHTTPConnectionListener) enumeration.nextElement();
-			if (listener != null)
-			{
-				listener.upstreamContentBytesReceived(event);
-			}
+			state.m_requestParser.reset();
+			state.m_responseParser.reset();
+			state.m_header.clearRequest();
+			state.m_header.clearResponse();
 		}
 	}
 	
-	public synchronized void closeRequest(AnonProxyRequest anonRequest)
+	/**
+	 * The parsing state and the headers of an AnonProxyRequest. It is stored in the request, so
+	 * that chunks of different requests never share any data. Each parser is only used by the
+	 * thread of its direction; the byte counters are guarded by the state object.
+	 */
+	private final class RequestState
 	{
-		HTTPConnectionHeader connHeader = 
-			(HTTPConnectionHeader)m_connectionHTTPHeaders.get(anonRequest);
-	
-		if( (connHeader != null) )
+		private final HTTPConnectionHeader m_header = new HTTPConnectionHeader();
+		private final HTTPHeaderParser m_requestParser = new HTTPHeaderParser();
+		private final HTTPHeaderParser m_responseParser = new HTTPHeaderParser();
+		private long m_upstreamBytes;
+		private long m_downstreamBytes;
+		
+		private synchronized void resetContentBytes(int a_messageType)
 		{
-			connHeader.clearRequest();
-			connHeader.clearResponse();
-			m_upstreamBytes.remove(anonRequest);
-			m_downstreamBytes.remove(anonRequest);
-			m_connectionHTTPHeaders.remove(anonRequest);
+			if (a_messageType == MESSAGE_TYPE_REQUEST)
+			{
+				m_upstreamBytes = 0;
+			}
+			else
+			{
+				m_downstreamBytes = 0;
+			}
 		}
 	}
 	
 	public final class HTTPConnectionHeader
 	{
-		private Hashtable reqHeaders = new Hashtable();
-		private Hashtable resHeaders = new Hashtable();
-		
-		private Vector reqHeaderOrder = new Vector();
-		private Vector resHeaderOrder = new Vector();
+		private HeaderFields reqHeaders = new HeaderFields();
+		private HeaderFields resHeaders = new HeaderFields();
 		
 		private boolean requestFinished = false;
 		private boolean responseFinished = false;
@@ -853,22 +662,24 @@ public class HTTPProxyCallback implements ProxyCallback
 		 */
 		protected synchronized void setRequestHeader(String header, String value)
 		{
-			setHeader(reqHeaders, reqHeaderOrder, header, value);
+			reqHeaders.add(header, value);
 		}
 		
 		protected synchronized void setResponseHeader(String header, String value)
 		{
-			setHeader(resHeaders, resHeaderOrder, header, value);
+			resHeaders.add(header, value);
 		}
 		
 		public synchronized void replaceRequestHeader(String header, String value)
 		{
-			replaceHeader(reqHeaders, reqHeaderOrder, header, value);
+			reqHeaders.remove(header);
+			reqHeaders.add(header, value);
 		}
 		
 		public synchronized void replaceResponseHeader(String header, String value)
 		{
-			replaceHeader(resHeaders, resHeaderOrder, header, value);
+			resHeaders.remove(header);
+			resHeaders.add(header, value);
 		}
 		
 		public synchronized String getRequestLine()
@@ -883,196 +694,221 @@ public class HTTPProxyCallback implements ProxyCallback
 		
 		public synchronized void replaceResponseLine(String a_newResponseLine)
 		{
-			Vector responseLine = new Vector();
-			responseLine.addElement(a_newResponseLine);
-			resHeaders.put(HTTP_START_LINE_KEY.toLowerCase(), responseLine);
+			resHeaders.remove(HTTP_START_LINE_KEY);
+			resHeaders.add(HTTP_START_LINE_KEY, a_newResponseLine);
 		}
 		
 		public synchronized String[] getRequestHeader(String header)
 		{
-			return getHeader(reqHeaders, header);
+			return reqHeaders.get(header);
 		}
 		
 		public synchronized String[] getResponseHeader(String header)
 		{
-			return getHeader(resHeaders, header);
+			return resHeaders.get(header);
 		}
 		
 		public synchronized String[] removeRequestHeader(String header)
 		{
-			return removeHeader(reqHeaders, reqHeaderOrder, header);
+			return reqHeaders.remove(header);
 		}
 		
 		public synchronized String[] removeResponseHeader(String header)
 		{
-			return removeHeader(resHeaders, resHeaderOrder, header);
+			return resHeaders.remove(header);
 		}
 		
 		protected synchronized void clearRequest()
 		{
-			clearHeader(reqHeaders, reqHeaderOrder);
+			reqHeaders.clear();
 		}
 		
 		protected synchronized void clearResponse()
 		{
-			clearHeader(resHeaders, resHeaderOrder);
+			resHeaders.clear();
 		}
 		
 		/* private util-function area. All of these functions are not thread safe and are only to be accessed  
 		 * synchronized by the actual ConnectionHeader object
 		 */
-		private void setHeader(Hashtable headerMap, Vector headerOrder, String header, String value)
+		private String getStartLine(HeaderFields a_fields)
 		{
-			Vector valueContainer = (Vector) headerMap.get(header.toLowerCase());
-			if(valueContainer == null)
+			HeaderField field = a_fields.find(HTTP_START_LINE_KEY);
+			if (field == null || field.m_valueCount == 0)
 			{
-				/* it's possible that a header was removed but is still in the order list. 
-				 * because when a header is removed, it is not deleted from there.
-				 * this is convenient for replacing headers but can cause side effects.
-				 * (Removing and the setting a header will set the header in the place where 
-				 * it first was). 
-				 */
-				boolean addToOrder = true;
-				for(Enumeration enumeration = headerOrder.elements(); enumeration.hasMoreElements();)
-				{
-					String aktheader = (String) enumeration.nextElement();
-					if(aktheader.equalsIgnoreCase(header))
-					{
-						addToOrder = false;
-					}
-				}
-				if(addToOrder)
+				LogHolder.log(LogLevel.ERR, LogType.FILTER, "Invalid request because it contains no startline");
+				return null;
+			}
+		
+			if (field.m_valueCount > 1)
+			{
+				String errOutput = "";
+				for (int i = 0; i < field.m_valueCount; i++) 
 				{
-					headerOrder.addElement(header);
+					errOutput+= field.m_values[i] + "\n";
 				}
-				valueContainer = new Vector();
+				LogHolder.log(LogLevel.ERR, LogType.FILTER, 
+						"This HTTP message seems to be invalid, because it has multiple start lines:\n"
+					+errOutput);
 			}
-			valueContainer.addElement(value);
-			headerMap.put(header.toLowerCase(), valueContainer);
-		}
-		private void replaceHeader(Hashtable headerMap, Vector headerOrder, String header, String value)
-		{
-			removeHeader(headerMap, headerOrder, header);
-			setHeader(headerMap, headerOrder, header, value);
-		}
-		
-		private String[] getHeader(Hashtable headerMap, String header)
-		{
-			Vector valueContainer = (Vector) headerMap.get(header.toLowerCase());
-			return valuesToArray(valueContainer);
+			return field.m_values[0];
 		}
 		
-		private String[] removeHeader(Hashtable headerMap, Vector headerOrder, String header)
+		/**
+		 * Writes the start line and the header fields of the request or the response in
+		 * ISO-8859-1 encoding, followed by an empty line. Must be called while holding the lock of
+		 * this header.
+		 * @param a_messageType MESSAGE_TYPE_REQUEST or MESSAGE_TYPE_RESPONSE
+		 * @param a_dest the destination array; if null, only the length is calculated
+		 * @param a_offset the position of the first byte in the destination array
+		 * @return the number of bytes
+		 */
+		private int dumpHeaders(int a_messageType, byte[] a_dest, int a_offset)
 		{
-			/*for(Enumeration enumeration = headerOrder.elements(); enumeration.hasMoreElements();)
+			HeaderFields fields = (a_messageType == MESSAGE_TYPE_REQUEST) ? reqHeaders : resHeaders;
+			int position = a_offset;
+			HeaderField field;
+
+			for (int j = 0; j < fields.m_size; j++)
 			{
-				String aktheader = (String) enumeration.nextElement();
-				if(aktheader.equalsIgnoreCase(header))
+				field = fields.m_fields[j];
+				if(field.m_name.equalsIgnoreCase(HTTP_START_LINE_KEY))
 				{
-					headerOrder.remove(aktheader);
+					if(position != a_offset)
+					{
+						LogHolder.log(LogLevel.ERR, LogType.FILTER, "HTTP startline set after Message-Header. " +
+								"This is a Bug. please report this.");
+						throw new  IllegalStateException("HTTP startline set after Message-Header. " +
+								"This is a Bug. please report this.");
+					}
+					position = write(getStartLine(fields), a_dest, position);
+					position = write(CRLF, a_dest, position);
 				}
-			}*/
-			/* header is not removed from the order list: beware of side-effects */
-			Vector valueContainer = (Vector) headerMap.remove(header.toLowerCase());
-			return valuesToArray(valueContainer);
-		}
-		
-		private void clearHeader(Hashtable headerMap, Vector headerOrder)
-		{
-			headerMap.clear();
-			headerOrder.removeAllElements();
+				else
+				{
+					for (int i = 0; i < field.m_valueCount; i++) 
+					{
+						position = write(field.m_name, a_dest, position);
+						position = write(HTTP_HEADER_DELIM, a_dest, position);
+						position = write(field.m_values[i], a_dest, position);
+						position = write(CRLF, a_dest, position);
+					}
+				}
+			}
+			position = write(CRLF, a_dest, position);
+			return position - a_offset;
 		}
 		
-		private String getStartLine(Hashtable headerMap)
+		private int write(String a_string, byte[] a_dest, int a_position)
 		{
-			Vector valueContainer = (Vector) headerMap.get(HTTP_START_LINE_KEY.toLowerCase());
-			if (valueContainer == null || valueContainer.size() == 0)
+			if (a_string == null)
 			{
-				LogHolder.log(LogLevel.ERR, LogType.FILTER, "Invalid request because it contains no startline");
-				return null;
+				a_string = "null";
 			}
-		
-			if (valueContainer.size() > 1)
+			if (a_dest != null)
 			{
-				String errOutput = "";
-				for (int i = 0; i < valueContainer.size(); i++) 
+				for (int i = 0; i < a_string.length(); i++)
 				{
-					errOutput+= valueContainer.elementAt(i) + "\n";
+					a_dest[a_position + i] = (byte) a_string.charAt(i);
 				}
-				LogHolder.log(LogLevel.ERR, LogType.FILTER, 
-						"This HTTP message seems to be invalid, because it has multiple start lines:\n"
-					+errOutput);
 			}
-			return (String)valueContainer.elementAt(0);
+			return a_position + a_string.length();
 		}
+	}
+	
+	/**
+	 * The header fields of a HTTP message in the order they were first set. Field names are
+	 * case-insensitive and a message has only a few fields, so they are searched linearly.
+	 * A removed field keeps its place, so that a field that is set again after it was removed
+	 * is written where it was first. The start line is stored as field HTTP_START_LINE_KEY.
+	 */
+	private static final class HeaderFields
+	{
+		private HeaderField[] m_fields = new HeaderField[16];
+		private int m_size;
 		
-		private String[] valuesToArray(Vector valueContainer)
+		private HeaderField find(String a_name)
 		{
-			if(valueContainer == null)
+			for (int i = 0; i < m_size; i++)
 			{
-				return null;
+				if (m_fields[i].m_name.equalsIgnoreCase(a_name))
+				{
+					return m_fields[i];
+				}
 			}
-			int valueCount = valueContainer.size();
-			if(valueCount == 0)
+			return null;
+		}
+		
+		private void add(String a_name, String a_value)
+		{
+			HeaderField field = find(a_name);
+			if (field == null)
 			{
-				return null;
+				if (m_size == m_fields.length)
+				{
+					HeaderField[] fields = new HeaderField[m_size * 2];
+					System.arraycopy(m_fields, 0, fields, 0, m_size);
+					m_fields = fields;
+				}
+				field = new HeaderField(a_name);
+				m_fields[m_size++] = field;
 			}
-			String[] values = new String[valueCount];
-			Enumeration enumeration = valueContainer.elements();
-			for(int i = 0; enumeration.hasMoreElements(); i++)
+			if (field.m_valueCount == field.m_values.length)
 			{
-				values[i] = (String) enumeration.nextElement();
+				String[] values = new String[field.m_valueCount * 2];
+				System.arraycopy(field.m_values, 0, values, 0, field.m_valueCount);
+				field.m_values = values;
 			}
-			return values;
+			field.m_values[field.m_valueCount++] = a_value;
 		}
 		
-		private byte[] dumpRequestHeaders()
+		private String[] get(String a_name)
 		{
-			return dumpHeaders(reqHeaders, reqHeaderOrder);
-		}
-		
-		private byte[] dumpResponseHeaders()
-		{
-			return dumpHeaders(resHeaders, resHeaderOrder);
+			HeaderField field = find(a_name);
+			if (field == null || field.m_valueCount == 0)
+			{
+				return null;
+			}
+			String[] values = new String[field.m_valueCount];
+			System.arraycopy(field.m_values, 0, values, 0, values.length);
+			return values;
 		}
 		
-		private byte[] dumpHeaders(Hashtable headerMap, Vector headerOrder)
+		private String[] remove(String a_name)
 		{
-			String allHeaders = "";
-			String header = null;
-
-			for(Enumeration enumeration = headerOrder.elements(); enumeration.hasMoreElements(); )
+			String[] values = get(a_name);
+			if (values != null)
 			{
-				header = (String) enumeration.nextElement();
-				if(header.equalsIgnoreCase(HTTP_START_LINE_KEY))
+				HeaderField field = find(a_name);
+				for (int i = 0; i < field.m_valueCount; i++)
 				{
-					if(!allHeaders.equals(""))
-					{
-						LogHolder.log(LogLevel.ERR, LogType.FILTER, "HTTP startline set after Message-Header. " +
-								"This is a Bug. please report this.");
-						throw new  IllegalStateException("HTTP startline set after Message-Header. " +
-								"This is a Bug. please report this.");
-					}
-					allHeaders += getStartLine(headerMap)+CRLF;
-				}
-				else
-				{
-					String[] values = getHeader(headerMap, header);
-					if(values != null)
-					{
-						for (int i = 0; i < values.length; i++) 
-						{
-							allHeaders += header+": "+values[i]+CRLF;
-						}
-					}
+					field.m_values[i] = null;
 				}
+				field.m_valueCount = 0;
 			}
-			allHeaders += CRLF;
-			if (LogHolder.isLogged(LogLevel.INFO, LogType.FILTER))
+			return values;
+		}
+		
+		private void clear()
+		{
+			for (int i = 0; i < m_size; i++)
 			{
-				LogHolder.log(LogLevel.INFO, LogType.FILTER, Thread.currentThread().getName()+": header dump:\n"+allHeaders);
+				m_fields[i] = null;
 			}
-			return allHeaders.getBytes();
+			m_size = 0;
+		}
+	}
+	
+	private static final class HeaderField
+	{
+		/** the name as it was first set */
+		private final String m_name;
+		private String[] m_values = new String[2];
+		private int m_valueCount;
+		
+		private HeaderField(String a_name)
+		{
+			m_name = a_name;
 		}
 	}
 }
@@ -30,9 +30,14 @@ package anon.proxy;
 
 import java.io.ByteArrayOutputStream;
 
+import anon.util.ByteArrayPool;
+
 public class ProxyCallbackBuffer 
 {	
 	private byte[] chunk = null;
+	/* a chunk taken from chunkPool that has to be given back after it has been forwarded */
+	private byte[] pooledChunk = null;
+	private ByteArrayPool chunkPool = null;
 	private int modificationStartOffset = 0;
 	private int modificationEndOffset = 0;
 	private int payloadLength = 0;
@@ -81,6 +86,34 @@ public class ProxyCallbackBuffer
 		this.modificationEndOffset = chunk.length-1;
 		this.payloadLength = chunk.length;
 	}
+	
+	/**
+	 * Sets a chunk that has been taken from a pool. Only the first payloadLength bytes of the
+	 * chunk are used. The chunk is given back to the pool by releaseChunk().
+	 */
+	public void setChunk(byte[] chunk, int payloadLength, ByteArrayPool pool)
+	{
+		releaseChunk();
+		setChunk(chunk);
+		setPayloadLength(payloadLength);
+		setModificationEndOffset(payloadLength - 1);
+		pooledChunk = chunk;
+		chunkPool = pool;
+	}
+	
+	/**
+	 * Gives a chunk that has been set together with its pool back to the pool. This must only
+	 * be called after the chunk has been forwarded.
+	 */
+	public void releaseChunk()
+	{
+		if (chunkPool != null)
+		{
+			chunkPool.release(pooledChunk);
+			pooledChunk = null;
+			chunkPool = null;
+		}
+	}
 
 	public int getModificationStartOffset() 
 	{
@@ -0,0 +1,238 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.util.Vector;
+
+import anon.util.ThreadFactory;
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * Runs the request and response loops of the AnonProxyRequests. A thread that has finished
+ * its task waits for a while for the next one instead of terminating, so that the many
+ * short requests of a page load do not each create two new threads. The number of threads
+ * that run at the same time is not limited here, as every task blocks on a socket until its
+ * connection is closed; the AnonProxy limits the number of parallel requests instead.
+ * The threads are created by the {@link ThreadFactory}.
+ */
+final class RequestThreadPool
+{
+	private final String m_idleThreadName;
+	private final int m_maxIdleThreads;
+	private final long m_idleTimeout;
+
+	/** the threads that wait for a task, the one that became idle last at the end */
+	private final Vector m_idleThreads = new Vector();
+	private int m_threadCount = 0;
+
+	/**
+	 * @param a_idleThreadName the name of the threads while they wait for a task
+	 * @param a_maxIdleThreads the maximum number of threads that wait for a task; any further
+	 * thread terminates after its task
+	 * @param a_idleTimeout the time in milliseconds a thread waits for a task before it
+	 * terminates
+	 */
+	RequestThreadPool(String a_idleThreadName, int a_maxIdleThreads, long a_idleTimeout)
+	{
+		m_idleThreadName = a_idleThreadName;
+		m_maxIdleThreads = a_maxIdleThreads;
+		m_idleTimeout = a_idleTimeout;
+	}
+
+	/**
+	 * Runs the given task in an idle thread or, if there is none, in a new one.
+	 * @param a_task a task
+	 * @param a_threadName the name of the thread while it runs the task
+	 */
+	void execute(Runnable a_task, String a_threadName)
+	{
+		PoolThread thread = null;
+		synchronized (m_idleThreads)
+		{
+			int size = m_idleThreads.size();
+			if (size > 0)
+			{
+				thread = (PoolThread) m_idleThreads.elementAt(size - 1);
+				m_idleThreads.removeElementAt(size - 1);
+			}
+			else
+			{
+				m_threadCount++;
+			}
+		}
+		if (thread != null)
+		{
+			thread.assign(a_task, a_threadName);
+		}
+		else
+		{
+			thread = new PoolThread();
+			thread.assign(a_task, a_threadName);
+			thread.start();
+		}
+	}
+
+	/**
+	 * @return the number of threads of this pool, including the idle ones
+	 */
+	int getThreadCount()
+	{
+		synchronized (m_idleThreads)
+		{
+			return m_threadCount;
+		}
+	}
+
+	/**
+	 * @return the number of threads that wait for a task
+	 */
+	int getIdleThreadCount()
+	{
+		synchronized (m_idleThreads)
+		{
+			return m_idleThreads.size();
+		}
+	}
+
+	private final class PoolThread implements Runnable
+	{
+		private final Thread m_thread;
+		private Runnable m_task;
+		private String m_taskName;
+
+		private PoolThread()
+		{
+			m_thread = ThreadFactory.getInstance().createThread(this, m_idleThreadName);
+			m_thread.setDaemon(true);
+		}
+
+		private void start()
+		{
+			m_thread.start();
+		}
+
+		private synchronized void assign(Runnable a_task, String a_taskName)
+		{
+			m_task = a_task;
+			m_taskName = a_taskName;
+			notify();
+		}
+
+		public void run()
+		{
+			Runnable task;
+			synchronized (this)
+			{
+				task = m_task;
+			}
+			while (task != null)
+			{
+				m_thread.setName(m_taskName);
+				try
+				{
+					task.run();
+				}
+				catch (Throwable a_e)
+				{
+					LogHolder.log(LogLevel.ERR, LogType.THREAD, a_e);
+				}
+				m_thread.setName(m_idleThreadName);
+				// an interruption that was meant for the finished task
+				Thread.interrupted();
+				task = waitForTask();
+			}
+			synchronized (m_idleThreads)
+			{
+				m_threadCount--;
+			}
+		}
+
+		private Runnable waitForTask()
+		{
+			synchronized (this)
+			{
+				m_task = null;
+			}
+			synchronized (m_idleThreads)
+			{
+				if (m_idleThreads.size() >= m_maxIdleThreads)
+				{
+					return null;
+				}
+				m_idleThreads.addElement(this);
+			}
+
+			long timeout = System.currentTimeMillis() + m_idleTimeout;
+			long remainder;
+			synchronized (this)
+			{
+				while (m_task == null && (remainder = timeout - System.currentTimeMillis()) > 0)
+				{
+					try
+					{
+						wait(remainder);
+					}
+					catch (InterruptedException a_e)
+					{
+						// may only be meant for the finished task
+					}
+				}
+				if (m_task != null)
+				{
+					return m_task;
+				}
+			}
+
+			synchronized (m_idleThreads)
+			{
+				if (m_idleThreads.removeElement(this))
+				{
+					return null;
+				}
+			}
+			// execute() has just taken this thread; wait for the task
+			synchronized (this)
+			{
+				while (m_task == null)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException a_e)
+					{
+					}
+				}
+				return m_task;
+			}
+		}
+	}
+}
@@ -29,227 +29,396 @@ package anon.shared;
 
 import java.io.IOException;
 
+/**
+ * A ring buffer that passes bytes from one writing thread to one reading thread. The read and
+ * write positions are counters that are only changed by their owner, so neither reading nor
+ * writing needs a lock. A thread that has to wait checks the queue again a few times, yielding
+ * the processor in between, and then waits on a monitor that the other thread only takes if
+ * someone is waiting there.
+ * Apart from the stream-like methods, the reader and the writer may access the buffer in place
+ * with {@link #awaitReadable()}, {@link #getReadOffset()} and {@link #commitRead(int)}, or with
+ * {@link #awaitWritable()}, {@link #getWriteOffset()} and {@link #commitWrite(int)}.
+ * There must not be more than one reading and one writing thread at a time.
+ * Without a lock, the bytes in the buffer are only passed safely with the memory model of
+ * Java 5 (JSR 133), in which writing a volatile counter also publishes the bytes written before.
+ * On older JREs, the counters are read and written under a lock and the other thread is
+ * always notified.
+ */
 final class IOQueue
 {
-	private byte[] buff;
-	private int readPos;
-	private int writePos;
-	private boolean bWriteClosed;
-	private boolean bReadClosed;
-	private final static int BUFF_SIZE = 10000;
-	private boolean bFull;
+	public final static int DEFAULT_CAPACITY = 10000;
+
+	/** how often a thread checks the queue again before it waits on the monitor */
+	private final static int SPIN_COUNT = 100;
+
+	/** true if volatile fields may pass the bytes without a lock (Java 5 and later) */
+	private final static boolean LOCK_FREE = isLockFreeSupported();
+
+	private final byte[] m_buffer;
+
+	/** the number of bytes written so far; only changed by the writer */
+	private volatile long m_writeCount = 0;
+	/** the number of bytes read so far; only changed by the reader */
+	private volatile long m_readCount = 0;
+
+	private volatile boolean m_bWriteClosed = false;
+	private volatile boolean m_bReadClosed = false;
+
+	private final Object m_readerSync = new Object();
+	private final Object m_writerSync = new Object();
+	private volatile boolean m_bReaderWaiting = false;
+	private volatile boolean m_bWriterWaiting = false;
 
 	public IOQueue()
 	{
-		buff = new byte[BUFF_SIZE];
-		readPos = 0;
-		writePos = 0;
-		bWriteClosed =false;
-		bReadClosed = false;
-		bFull = false;
-	}
-
-	public synchronized void write(byte[] in, int pos, int len) throws IOException
-	{ //RingBuffer: (Start)
-		//	--------------------------------------------
-		//	^
-		//  |Writepos
-		//  |RreadPos
-		//
-		//After some Write
-		//	--------------------------------------------
-		//	^                ^
-		//                    |Writepos
-		//  |ReadPos
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param a_capacity the number of bytes the queue can hold
+	 */
+	public IOQueue(int a_capacity)
+	{
+		if (a_capacity <= 0)
+		{
+			throw new IllegalArgumentException("Illegal capacity: " + a_capacity);
+		}
+		m_buffer = new byte[a_capacity];
+	}
+
+	public int getCapacity()
+	{
+		return m_buffer.length;
+	}
+
+	public void write(byte[] in, int pos, int len) throws IOException
+	{
 		int toCopy;
 		while (len > 0)
 		{
-			if (bReadClosed || bWriteClosed)
+			toCopy = Math.min(awaitWritable(), len);
+			System.arraycopy(in, pos, m_buffer, getWriteOffset(), toCopy);
+			commitWrite(toCopy);
+			pos += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	public int read() throws IOException
+	{
+		if (awaitReadable() < 0)
+		{
+			return -1;
+		}
+		int i = m_buffer[getReadOffset()] & 0xFF;
+		commitRead(1);
+		return i;
+	}
+
+	public int read(byte[] in, int pos, int len) throws IOException
+	{
+		if (len <= 0)
+		{
+			return 0;
+		}
+		int toCopy = awaitReadable();
+		if (toCopy < 0)
+		{
+			return -1;
+		}
+		toCopy = Math.min(toCopy, len);
+		System.arraycopy(m_buffer, getReadOffset(), in, pos, toCopy);
+		commitRead(toCopy);
+
+		// the data may continue at the beginning of the buffer
+		int remaining = Math.min(getReadableLength(), len - toCopy);
+		if (remaining > 0)
+		{
+			System.arraycopy(m_buffer, getReadOffset(), in, pos + toCopy, remaining);
+			commitRead(remaining);
+			toCopy += remaining;
+		}
+		return toCopy;
+	}
+
+	/**
+	 * @return the number of bytes that may be read without blocking
+	 */
+	public int available()
+	{
+		return (int) (getWriteCount() - getReadCount());
+	}
+
+	/**
+	 * @return the buffer of this queue for reading or writing in place
+	 */
+	public byte[] getBuffer()
+	{
+		return m_buffer;
+	}
+
+	/**
+	 * Waits until there are bytes to read.
+	 * @return the number of bytes that may be read in place, starting at getReadOffset(), or
+	 * -1 if the writer has closed the queue and all bytes have been read
+	 * @throws IOException if the queue has been closed for reading or if the thread has been
+	 * interrupted
+	 */
+	public int awaitReadable() throws IOException
+	{
+		int length;
+		int spins = 0;
+		while (true)
+		{
+			if (m_bReadClosed)
 			{
 				throw new IOException("IOQueue closed");
 			}
-			if (bFull)
+			length = getReadableLength();
+			if (length > 0)
 			{
-				notify(); //awake readers
-				try
-				{
-					wait();
-				}
-				catch (InterruptedException e)
-				{
-					throw new IOException("IOQueue write interrupted");
-				} //wait;
-				continue ;
+				return length;
 			}
-			if (readPos <= writePos)
+			if (m_bWriteClosed)
 			{
-				toCopy = BUFF_SIZE - writePos;
+				// the writer may have written the last bytes just before closing
+				length = getReadableLength();
+				return (length > 0) ? length : -1;
 			}
-			else
+			if (spins < SPIN_COUNT)
 			{
-				toCopy = readPos - writePos;
+				spins++;
+				Thread.yield();
+				continue;
 			}
-			if (toCopy > len)
+			synchronized (m_readerSync)
 			{
-				toCopy = len;
+				m_bReaderWaiting = true;
+				try
+				{
+					while (getReadableLength() == 0 && !m_bWriteClosed && !m_bReadClosed)
+					{
+						m_readerSync.wait();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					throw new IOException("IOQueue read() interrupted");
+				}
+				finally
+				{
+					m_bReaderWaiting = false;
+				}
 			}
-			System.arraycopy(in, pos, buff, writePos, toCopy);
-			pos += toCopy;
-			writePos += toCopy;
-			len -= toCopy;
-			if (writePos >= BUFF_SIZE)
+		}
+	}
+
+	/**
+	 * @return the position in the buffer of the next byte to read
+	 */
+	public int getReadOffset()
+	{
+		return (int) (m_readCount % m_buffer.length);
+	}
+
+	/**
+	 * Marks bytes that have been read in place as read.
+	 * @param a_length the number of bytes, starting at getReadOffset()
+	 */
+	public void commitRead(int a_length)
+	{
+		if (a_length < 0 || a_length > getReadableLength())
+		{
+			throw new IllegalArgumentException("Illegal length: " + a_length);
+		}
+		if (LOCK_FREE)
+		{
+			m_readCount += a_length;
+		}
+		else
+		{
+			synchronized (this)
 			{
-				writePos = 0;
+				m_readCount += a_length;
 			}
-			if (readPos == writePos)
+		}
+		if (m_bWriterWaiting || !LOCK_FREE)
+		{
+			synchronized (m_writerSync)
 			{
-				bFull = true;
+				m_writerSync.notify();
 			}
-		} //End while
-		notify(); //awake Readers
+		}
 	}
 
-	public synchronized int read() throws IOException
+	/**
+	 * Waits until there is space to write.
+	 * @return the number of bytes that may be written in place, starting at getWriteOffset()
+	 * @throws IOException if the queue has been closed or if the thread has been interrupted
+	 */
+	public int awaitWritable() throws IOException
 	{
+		int length;
+		int spins = 0;
 		while (true)
 		{
-			if (bReadClosed)
+			if (m_bReadClosed || m_bWriteClosed)
 			{
 				throw new IOException("IOQueue closed");
 			}
-			if (readPos == writePos && !bFull) //IOQueue is empty
+			length = getWritableLength();
+			if (length > 0)
 			{
-				if (bWriteClosed)
-				{
-					return -1;
-				}
-				else
-				{
-					notify(); //awake Writers;
-					try
-					{
-						wait();
-					}
-					catch (InterruptedException e)
-					{
-						throw new IOException("IOQueue read() interrupted");
-					}
-					continue ;
-				}
+				return length;
 			}
-			int i = buff[readPos++] & 0xFF;
-			if (readPos >= BUFF_SIZE)
+			if (spins < SPIN_COUNT)
 			{
-				readPos = 0;
+				spins++;
+				Thread.yield();
+				continue;
 			}
-			if (bFull)
+			synchronized (m_writerSync)
 			{
-				bFull = false;
-				notify(); //awake Writers;
+				m_bWriterWaiting = true;
+				try
+				{
+					while (getWritableLength() == 0 && !m_bWriteClosed && !m_bReadClosed)
+					{
+						m_writerSync.wait();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					throw new IOException("IOQueue write interrupted");
+				}
+				finally
+				{
+					m_bWriterWaiting = false;
+				}
 			}
-			return i;
 		}
 	}
 
-	public synchronized int read(byte[] in, int pos, int len) throws IOException
+	/**
+	 * @return the position in the buffer of the next byte to write
+	 */
+	public int getWriteOffset()
 	{
-		if (len <= 0)
+		return (int) (m_writeCount % m_buffer.length);
+	}
+
+	/**
+	 * Passes bytes that have been written in place to the reader.
+	 * @param a_length the number of bytes, starting at getWriteOffset()
+	 */
+	public void commitWrite(int a_length)
+	{
+		if (a_length < 0 || a_length > getWritableLength())
 		{
-			return 0;
+			throw new IllegalArgumentException("Illegal length: " + a_length);
 		}
-		while (true)
+		if (LOCK_FREE)
 		{
-			if (bReadClosed)
-			{
-				throw new IOException("IOQueue closed");
-			}
-			if (readPos == writePos && !bFull) //IOQueue is empty
-			{
-				if (bWriteClosed)
-				{
-					return -1;
-				}
-				else
-				{
-					notify(); //awake Writers;
-					try
-					{
-						wait();
-					}
-					catch (InterruptedException e)
-					{
-						throw new IOException("IOQueue read() interrupted");
-					}
-					continue ;
-				}
-			}
-			int toCopy;
-			if (writePos <= readPos)
-			{
-				toCopy = BUFF_SIZE - readPos;
-			}
-			else
-			{
-				toCopy = writePos - readPos;
-			}
-			if (toCopy > len)
-			{
-				toCopy = len;
-			}
-			System.arraycopy(buff, readPos, in, pos, toCopy);
-			readPos += toCopy;
-			if (readPos >= BUFF_SIZE)
+			m_writeCount += a_length;
+		}
+		else
+		{
+			synchronized (this)
 			{
-				readPos = 0;
+				m_writeCount += a_length;
 			}
-			if (bFull)
+		}
+		if (m_bReaderWaiting || !LOCK_FREE)
+		{
+			synchronized (m_readerSync)
 			{
-				bFull = false;
-				notify(); //awake Writers;
+				m_readerSync.notify();
 			}
-			return toCopy;
 		}
+	}
+
+	public void closeWrite()
+	{
+		m_bWriteClosed = true;
+		wakeUp();
+	}
+
+	public void closeRead()
+	{
+		m_bReadClosed = true;
+		wakeUp();
+	}
+
+	/**
+	 * @return the number of bytes that follow the read position without wrapping around
+	 */
+	private int getReadableLength()
+	{
+		long readCount = m_readCount;
+		int offset = (int) (readCount % m_buffer.length);
+		return (int) Math.min(getWriteCount() - readCount, m_buffer.length - offset);
+	}
 
+	/**
+	 * @return the number of free bytes that follow the write position without wrapping around
+	 */
+	private int getWritableLength()
+	{
+		long writeCount = m_writeCount;
+		int offset = (int) (writeCount % m_buffer.length);
+		return (int) Math.min(m_buffer.length - (writeCount - getReadCount()), m_buffer.length - offset);
 	}
 
-	public synchronized int available()
+	private long getWriteCount()
 	{
-		if (bFull)
+		if (LOCK_FREE)
 		{
-			return BUFF_SIZE;
+			return m_writeCount;
 		}
-		if (readPos == writePos && !bFull) //IOQueue is empty
+		synchronized (this)
 		{
-			return 0;
+			return m_writeCount;
 		}
-		if (writePos <= readPos)
+	}
+
+	private long getReadCount()
+	{
+		if (LOCK_FREE)
 		{
-			return BUFF_SIZE - readPos;
+			return m_readCount;
 		}
-		else
+		synchronized (this)
 		{
-			return writePos - readPos;
+			return m_readCount;
 		}
 	}
 
-	public synchronized void closeWrite()
-	{
-		bWriteClosed = true;
-		notify();
-	}
-
-	public synchronized void closeRead()
+	private static boolean isLockFreeSupported()
 	{
-		bReadClosed = true;
-		notify();
+		try
+		{
+			String version = System.getProperty("java.specification.version");
+			if (!version.startsWith("1."))
+			{
+				return true;
+			}
+			return Integer.parseInt(version.substring(2)) >= 5;
+		}
+		catch (Exception a_e)
+		{
+			return false;
+		}
 	}
 
-	public synchronized void finalize() throws Throwable
+	private void wakeUp()
 	{
-		bReadClosed = true;
-		bWriteClosed = true;
-		notify();
-		buff = null;
-		super.finalize();
+		synchronized (m_readerSync)
+		{
+			m_readerSync.notify();
+		}
+		synchronized (m_writerSync)
+		{
+			m_writerSync.notify();
+		}
 	}
 }
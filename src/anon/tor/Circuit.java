@@ -43,6 +43,7 @@ import anon.tor.cells.DestroyCell;
 import anon.tor.cells.PaddingCell;
 import anon.tor.cells.RelayCell;
 import anon.tor.ordescription.ORDescriptor;
+import anon.tor.ordescription.ORList;
 import anon.util.ByteArrayUtil;
 import logging.LogHolder;
 import logging.LogLevel;
@@ -59,6 +60,11 @@ public final class Circuit implements Runnable
 	//max number of streams over a circuit
 	public final static int MAX_STREAMS_OVER_CIRCUIT = 1000;
 
+	//a pause in the received data that is longer does not count as time the circuit was busy
+	private final static long MAX_DATA_PAUSE = 1000;
+	//the throughput is measured only if at least this number of bytes was received
+	private final static long MIN_BYTES_FOR_THROUGHPUT = 64 * 1024;
+
 	private OnionRouter m_FirstOR;
 	private ORDescriptor m_lastORDescription;
 	private FirstOnionRouterConnection m_FirstORConnection;
@@ -97,6 +103,12 @@ public final class Circuit implements Runnable
 	private Thread m_threadSendCellLoop; //this thread takes cells from the cell queue and sends them
 	private CellQueue m_cellqueueSend;
 
+	//throughput measurement - only updated by the thread that dispatches the cells
+	private long m_receivedDataBytes;
+	private long m_busyTime;
+	private long m_lastDataTime;
+	private boolean m_bThroughputReported;
+
 	/**
 	 * constructor
 	 * @param circID
@@ -133,6 +145,10 @@ public final class Circuit implements Runnable
 		m_State = STATE_CREATING;
 		m_destroyed = false;
 		m_iRelayErrors = 0;
+		m_receivedDataBytes = 0;
+		m_busyTime = 0;
+		m_lastDataTime = 0;
+		m_bThroughputReported = false;
 		m_cellqueueSend = new CellQueue();
 		m_threadSendCellLoop = new Thread(this, "Tor - Circuit - SendCellLoop");
 		m_threadSendCellLoop.setDaemon(true);
@@ -155,6 +171,13 @@ public final class Circuit implements Runnable
 	{
 		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "[TOR] Creating Circuit '" + m_circID + "'");
 		m_FirstOR = new OnionRouter(m_circID, (ORDescriptor) (m_onionRouters.elementAt(0)));
+		//the time each hop needs is reported to the list of onion routers; as an EXTEND cell
+		//travels through all earlier hops, their round trip time is subtracted
+		ORList orList = m_FirstORConnection.getORList();
+		ORDescriptor currentOR = (ORDescriptor) (m_onionRouters.elementAt(0));
+		long startTime = System.currentTimeMillis();
+		long previousRoundTrip = 0;
+		long timeout = 15000;
 		try
 		{
 			synchronized (m_oNotifySync)
@@ -162,28 +185,41 @@ public final class Circuit implements Runnable
 				m_bReceivedCreatedOrExtendedCell = false;
 				m_FirstORConnection.send(m_FirstOR.createConnection());
 				//wait until a created cell arrives or an erro occured or a time out occured
-				m_oNotifySync.wait(15000);
+				m_oNotifySync.wait(timeout);
 			}
 			if (m_State != STATE_CREATING || !m_bReceivedCreatedOrExtendedCell) //Error or time out
 			{
 				throw new IOException("Error during Circuit creation");
 			}
+			previousRoundTrip = System.currentTimeMillis() - startTime;
+			if (orList != null)
+			{
+				orList.addCircuitBuildTime(currentOR, previousRoundTrip);
+			}
 			LogHolder.log(LogLevel.DEBUG, LogType.TOR, "[TOR] created!");
 			for (int i = 1; i < this.m_onionRouters.size(); i++)
 			{
-				ORDescriptor nextOR = (ORDescriptor) (m_onionRouters.elementAt(i));
+				currentOR = (ORDescriptor) (m_onionRouters.elementAt(i));
+				startTime = System.currentTimeMillis();
+				timeout = 25000;
 				LogHolder.log(LogLevel.DEBUG, LogType.TOR, "[TOR] trying to extend!");
 				synchronized (m_oNotifySync)
 				{
 					m_bReceivedCreatedOrExtendedCell = false;
-					RelayCell cell = m_FirstOR.extendConnection(nextOR);
+					RelayCell cell = m_FirstOR.extendConnection(currentOR);
 					m_FirstORConnection.send(cell);
-					m_oNotifySync.wait(25000);
+					m_oNotifySync.wait(timeout);
 				}
 				if (m_State != STATE_CREATING || !m_bReceivedCreatedOrExtendedCell)
 				{
 					throw new IOException("Error during Circuit creation");
 				}
+				long roundTrip = System.currentTimeMillis() - startTime;
+				if (orList != null)
+				{
+					orList.addCircuitBuildTime(currentOR, Math.max(0, roundTrip - previousRoundTrip));
+				}
+				previousRoundTrip = roundTrip;
 				LogHolder.log(LogLevel.DEBUG, LogType.TOR, "[TOR] extended!");
 			}
 			m_State = STATE_READY;
@@ -193,6 +229,13 @@ public final class Circuit implements Runnable
 		}
 		catch (Exception ex)
 		{
+			//a router that did not answer in time is slow
+			long buildTime = System.currentTimeMillis() - startTime;
+			if (orList != null && m_State == STATE_CREATING && !m_bReceivedCreatedOrExtendedCell &&
+				buildTime >= timeout)
+			{
+				orList.addCircuitBuildTime(currentOR, Math.max(0, buildTime - previousRoundTrip));
+			}
 			//send destroy on error, when circuit wasn't allready destroyed
 			try
 			{
@@ -276,6 +319,7 @@ public final class Circuit implements Runnable
 		{
 		}
 		m_FirstORConnection.notifyCircuitClosed(this);
+		reportThroughput();
 	}
 
 	/**
@@ -312,6 +356,47 @@ public final class Circuit implements Runnable
 		{
 			m_oNotifySync.notify();
 		}
+		reportThroughput();
+	}
+
+	/**
+	 * counts data received over this circuit. Only the time between data cells that follow each
+	 * other closely is counted, so that idle times do not lower the measured throughput.
+	 * @param bytes
+	 * number of received bytes
+	 */
+	private void countReceivedData(int bytes)
+	{
+		long now = System.currentTimeMillis();
+		if (m_lastDataTime != 0 && now - m_lastDataTime <= MAX_DATA_PAUSE)
+		{
+			m_busyTime += now - m_lastDataTime;
+		}
+		m_lastDataTime = now;
+		m_receivedDataBytes += bytes;
+	}
+
+	/**
+	 * reports the measured throughput of this circuit to the list of onion routers once
+	 */
+	private synchronized void reportThroughput()
+	{
+		if (m_bThroughputReported || m_receivedDataBytes < MIN_BYTES_FOR_THROUGHPUT ||
+			m_busyTime < MAX_DATA_PAUSE / 10)
+		{
+			return;
+		}
+		m_bThroughputReported = true;
+		ORList orList = m_FirstORConnection.getORList();
+		if (orList == null)
+		{
+			return;
+		}
+		long throughput = m_receivedDataBytes * 1000 / m_busyTime;
+		for (int i = 0; i < m_onionRouters.size(); i++)
+		{
+			orList.addThroughput( (ORDescriptor) m_onionRouters.elementAt(i), throughput);
+		}
 	}
 
 	/**
@@ -376,6 +461,10 @@ public final class Circuit implements Runnable
 					}
 
 					RelayCell c = m_FirstOR.decryptCell( (RelayCell) cell);
+					if (c.getRelayCommand() == RelayCell.RELAY_DATA)
+					{
+						countReceivedData(c.getRelayPayloadLength());
+					}
 					Integer streamID = c.getStreamID();
 					if (c.getStreamID().intValue() == 0) // Relay cells that belong to the circuit
 					{
@@ -729,7 +818,7 @@ public final class Circuit implements Runnable
 		{
 			m_MaxStreamsPerCircuit = i;
 		}
-		if (m_streamCounter >= MAX_STREAMS_OVER_CIRCUIT)
+		if (m_streamCounter >= m_MaxStreamsPerCircuit)
 		{
 			shutdown();
 		}
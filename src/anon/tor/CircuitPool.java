@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import anon.util.TaskPool;
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * Keeps the circuits of a Tor instance. Circuits are built by a small pool of threads, so that
+ * several handshakes run at the same time and no lock of the pool is held while a circuit is
+ * built. For every exit policy class, the pool keeps a number of circuits that have not been
+ * used yet (warm circuits), so that a request for a new destination usually gets a circuit
+ * without waiting for a handshake at all.
+ * <P>
+ * A circuit is retired as soon as it has been in use for longer than the maximum circuit age,
+ * or if it has been warm for longer than MAX_WARM_CIRCUIT_AGE. Circuits shut themselves down
+ * after they have carried their maximum number of streams and are then retired as well.
+ * Retired circuits are shut down, so their open streams are not affected.
+ */
+final class CircuitPool
+{
+	/** Exit policy class of circuits whose exit node allows web traffic (ports 80 and 443). */
+	public static final int EXIT_CLASS_WEB = 0;
+
+	/** Exit policy class of circuits with an arbitrary exit node, e.g. for DNS requests. */
+	public static final int EXIT_CLASS_ANY = 1;
+
+	/** The maximum time in milliseconds a circuit is kept warm before it is replaced. */
+	public static final long MAX_WARM_CIRCUIT_AGE = 3600000;
+
+	/** The maximum number of circuits that are built at the same time. */
+	public static final int MAX_PARALLEL_BUILDS = 4;
+
+	/** The maximum number of circuits that are built for a single request. */
+	public static final int MAX_BUILD_ATTEMPTS = 3;
+
+	/** The maximum time in milliseconds a request waits for a circuit. */
+	public static final long BUILD_TIMEOUT = 60000;
+
+	private static final int NR_OF_EXIT_CLASSES = 2;
+
+	// the destination that exit nodes of web circuits must accept
+	private static final String WEB_PROBE_ADDRESS = "141.76.46.1";
+	private static final int[] WEB_PORTS = new int[] {80, 443};
+
+	private Tor m_tor;
+	private TaskPool m_builders;
+	private int m_warmCircuitsPerClass;
+	private int m_maxCircuitsInUse;
+	private long m_maxCircuitAge;
+
+	// the pooled circuits, guarded by this pool
+	private Vector m_circuits;
+	private Hashtable m_circuitsForDestination;
+	private int[] m_warmBuilds;
+	private boolean m_bClosed;
+
+	// retired circuits that are shut down after the lock of this pool has been released
+	private Vector m_retiredCircuits;
+
+	/**
+	 * Creates a new circuit pool. Warm circuits are not built before maintain() is called.
+	 * @param a_tor the Tor instance that builds the circuits
+	 * @param a_warmCircuitsPerClass the number of unused circuits per exit policy class
+	 * @param a_maxCircuitsInUse the maximum number of used circuits; if more circuits are in use,
+	 * the oldest ones are retired
+	 * @param a_maxCircuitAge the time in milliseconds after its first use a circuit is retired
+	 */
+	public CircuitPool(Tor a_tor, int a_warmCircuitsPerClass, int a_maxCircuitsInUse,
+					   long a_maxCircuitAge)
+	{
+		m_tor = a_tor;
+		m_warmCircuitsPerClass = Math.max(0, a_warmCircuitsPerClass);
+		m_maxCircuitsInUse = Math.max(1, a_maxCircuitsInUse);
+		m_maxCircuitAge = a_maxCircuitAge;
+		m_builders = new TaskPool("Tor Circuit Builder", MAX_PARALLEL_BUILDS, Thread.NORM_PRIORITY,
+								  TaskPool.UNLIMITED_QUEUE);
+		m_circuits = new Vector();
+		m_circuitsForDestination = new Hashtable();
+		m_warmBuilds = new int[NR_OF_EXIT_CLASSES];
+		m_retiredCircuits = new Vector();
+		m_bClosed = false;
+	}
+
+	/**
+	 * Returns the exit policy class of circuits that are suitable for the given port.
+	 * @param a_port a port or -1 if any exit node is suitable
+	 * @return the exit policy class
+	 */
+	public static int getExitClass(int a_port)
+	{
+		for (int i = 0; i < WEB_PORTS.length; i++)
+		{
+			if (WEB_PORTS[i] == a_port)
+			{
+				return EXIT_CLASS_WEB;
+			}
+		}
+		return EXIT_CLASS_ANY;
+	}
+
+	/**
+	 * Gets a circuit that can connect to the given destination. A circuit that has been used for
+	 * this destination before is preferred, then any other used circuit and then a warm one. If
+	 * there is no suitable circuit, new circuits are built until one of them or another
+	 * circuit that has been built in the meantime is suitable.
+	 * @param a_addr the IP address of the destination or null if any circuit is suitable
+	 * @param a_port the port of the destination
+	 * @param a_excludedCircuits circuits that must not be returned; may be null
+	 * @return a circuit or null if no circuit could be built
+	 */
+	public Circuit getCircuit(String a_addr, int a_port, Hashtable a_excludedCircuits)
+	{
+		String key = null;
+		if (a_addr != null)
+		{
+			key = a_addr + ":" + a_port;
+		}
+		long timeout = System.currentTimeMillis() + BUILD_TIMEOUT;
+		CircuitBuild build = null;
+		int attempts = 0;
+		Circuit circuit = null;
+
+		synchronized (this)
+		{
+			while (!m_bClosed)
+			{
+				retireCircuits();
+				PooledCircuit pooledCircuit = findCircuit(a_addr, a_port, key, a_excludedCircuits);
+				if (pooledCircuit != null)
+				{
+					use(pooledCircuit, key);
+					circuit = pooledCircuit.m_circuit;
+					break;
+				}
+				if (build == null || build.m_bFinished)
+				{
+					if (attempts >= MAX_BUILD_ATTEMPTS)
+					{
+						break;
+					}
+					attempts++;
+					if (a_addr == null)
+					{
+						build = new CircuitBuild(null, null, EXIT_CLASS_ANY, false);
+					}
+					else
+					{
+						build = new CircuitBuild(a_addr, new int[] {a_port}, getExitClass(a_port), false);
+					}
+					if (!m_builders.execute(build))
+					{
+						break;
+					}
+				}
+				long waitTime = timeout - System.currentTimeMillis();
+				if (waitTime <= 0)
+				{
+					break;
+				}
+				try
+				{
+					wait(waitTime);
+				}
+				catch (InterruptedException a_e)
+				{
+					break;
+				}
+			}
+		}
+		shutdownRetiredCircuits();
+		if (circuit == null)
+		{
+			LogHolder.log(LogLevel.DEBUG, LogType.TOR, "No circuit available for {}.",
+						  key == null ? "DNS requests" : key);
+		}
+		return circuit;
+	}
+
+	/**
+	 * Retires old circuits and builds new warm circuits for those that have been used or retired.
+	 */
+	public void maintain()
+	{
+		synchronized (this)
+		{
+			retireCircuits();
+			buildWarmCircuits();
+		}
+		shutdownRetiredCircuits();
+	}
+
+	/**
+	 * Closes this pool. Running builds are interrupted, and threads waiting for a circuit return
+	 * null. The circuits themselves are closed together with their first onion router connections.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			m_bClosed = true;
+			m_circuits.removeAllElements();
+			m_circuitsForDestination.clear();
+			notifyAll();
+		}
+		m_builders.shutdown();
+	}
+
+	/**
+	 * @return the number of pooled circuits that have not been used yet
+	 */
+	public synchronized int getNrOfWarmCircuits()
+	{
+		int count = 0;
+		for (int i = 0; i < m_circuits.size(); i++)
+		{
+			if ( ( (PooledCircuit) m_circuits.elementAt(i)).m_firstUse == 0)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of pooled circuits that are in use
+	 */
+	public synchronized int getNrOfCircuitsInUse()
+	{
+		return m_circuits.size() - getNrOfWarmCircuits();
+	}
+
+	/**
+	 * Must be called while holding the lock of this pool.
+	 */
+	private PooledCircuit findCircuit(String a_addr, int a_port, String a_key,
+									  Hashtable a_excludedCircuits)
+	{
+		PooledCircuit pooledCircuit;
+		if (a_key != null)
+		{
+			pooledCircuit = (PooledCircuit) m_circuitsForDestination.get(a_key);
+			if (pooledCircuit != null && isSuitable(pooledCircuit, a_addr, a_port, a_excludedCircuits))
+			{
+				return pooledCircuit;
+			}
+		}
+
+		PooledCircuit warmCircuit = null;
+		int exitClass = getExitClass(a_port);
+		for (int i = 0; i < m_circuits.size(); i++)
+		{
+			pooledCircuit = (PooledCircuit) m_circuits.elementAt(i);
+			if (!isSuitable(pooledCircuit, a_addr, a_port, a_excludedCircuits))
+			{
+				continue;
+			}
+			if (pooledCircuit.m_firstUse != 0)
+			{
+				return pooledCircuit;
+			}
+			if (warmCircuit == null || (warmCircuit.m_exitClass != exitClass &&
+										pooledCircuit.m_exitClass == exitClass))
+			{
+				warmCircuit = pooledCircuit;
+			}
+		}
+		return warmCircuit;
+	}
+
+	private static boolean isSuitable(PooledCircuit a_pooledCircuit, String a_addr, int a_port,
+									  Hashtable a_excludedCircuits)
+	{
+		Circuit circuit = a_pooledCircuit.m_circuit;
+		return !circuit.isShutdown() && (a_addr == null || circuit.isAllowed(a_addr, a_port)) &&
+			(a_excludedCircuits == null || !a_excludedCircuits.containsKey(circuit));
+	}
+
+	/**
+	 * Marks a circuit as used for the given destination. If this circuit has been warm, a new warm
+	 * circuit is built, and the oldest circuit in use is retired if there are too many.
+	 * Must be called while holding the lock of this pool.
+	 */
+	private void use(PooledCircuit a_pooledCircuit, String a_key)
+	{
+		if (a_pooledCircuit.m_firstUse == 0)
+		{
+			a_pooledCircuit.m_firstUse = System.currentTimeMillis();
+			if (getNrOfCircuitsInUse() > m_maxCircuitsInUse)
+			{
+				PooledCircuit oldest = null;
+				for (int i = 0; i < m_circuits.size(); i++)
+				{
+					PooledCircuit pooledCircuit = (PooledCircuit) m_circuits.elementAt(i);
+					if (pooledCircuit != a_pooledCircuit && pooledCircuit.m_firstUse != 0 &&
+						(oldest == null || pooledCircuit.m_firstUse < oldest.m_firstUse))
+					{
+						oldest = pooledCircuit;
+					}
+				}
+				if (oldest != null)
+				{
+					retire(oldest);
+				}
+			}
+			buildWarmCircuits();
+		}
+		if (a_key != null && !a_pooledCircuit.m_destinations.contains(a_key))
+		{
+			PooledCircuit previous = (PooledCircuit) m_circuitsForDestination.put(a_key, a_pooledCircuit);
+			if (previous != null)
+			{
+				previous.m_destinations.removeElement(a_key);
+			}
+			a_pooledCircuit.m_destinations.addElement(a_key);
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of this pool.
+	 */
+	private void retireCircuits()
+	{
+		long now = System.currentTimeMillis();
+		for (int i = m_circuits.size() - 1; i >= 0; i--)
+		{
+			PooledCircuit pooledCircuit = (PooledCircuit) m_circuits.elementAt(i);
+			if (pooledCircuit.m_circuit.isShutdown() ||
+				(pooledCircuit.m_firstUse != 0 && now - pooledCircuit.m_firstUse > m_maxCircuitAge) ||
+				(pooledCircuit.m_firstUse == 0 && now - pooledCircuit.m_created > MAX_WARM_CIRCUIT_AGE))
+			{
+				retire(pooledCircuit);
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of this pool.
+	 */
+	private void retire(PooledCircuit a_pooledCircuit)
+	{
+		m_circuits.removeElement(a_pooledCircuit);
+		Enumeration destinations = a_pooledCircuit.m_destinations.elements();
+		while (destinations.hasMoreElements())
+		{
+			m_circuitsForDestination.remove(destinations.nextElement());
+		}
+		if (!a_pooledCircuit.m_circuit.isShutdown())
+		{
+			m_retiredCircuits.addElement(a_pooledCircuit.m_circuit);
+		}
+	}
+
+	/**
+	 * Shuts down the retired circuits. This may wait for the send threads of the circuits, so
+	 * it must not be called while holding the lock of this pool.
+	 */
+	private void shutdownRetiredCircuits()
+	{
+		Vector retiredCircuits;
+		synchronized (this)
+		{
+			if (m_retiredCircuits.size() == 0)
+			{
+				return;
+			}
+			retiredCircuits = m_retiredCircuits;
+			m_retiredCircuits = new Vector();
+		}
+		for (int i = 0; i < retiredCircuits.size(); i++)
+		{
+			( (Circuit) retiredCircuits.elementAt(i)).shutdown();
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of this pool.
+	 */
+	private void buildWarmCircuits()
+	{
+		if (m_bClosed)
+		{
+			return;
+		}
+		int[] missing = new int[NR_OF_EXIT_CLASSES];
+		for (int i = 0; i < NR_OF_EXIT_CLASSES; i++)
+		{
+			missing[i] = m_warmCircuitsPerClass - m_warmBuilds[i];
+		}
+		for (int i = 0; i < m_circuits.size(); i++)
+		{
+			PooledCircuit pooledCircuit = (PooledCircuit) m_circuits.elementAt(i);
+			if (pooledCircuit.m_firstUse == 0)
+			{
+				missing[pooledCircuit.m_exitClass]--;
+			}
+		}
+		for (int i = 0; i < NR_OF_EXIT_CLASSES; i++)
+		{
+			for (; missing[i] > 0; missing[i]--)
+			{
+				CircuitBuild build;
+				if (i == EXIT_CLASS_WEB)
+				{
+					build = new CircuitBuild(WEB_PROBE_ADDRESS, WEB_PORTS, i, true);
+				}
+				else
+				{
+					build = new CircuitBuild(null, null, i, true);
+				}
+				if (!m_builders.execute(build))
+				{
+					return;
+				}
+				m_warmBuilds[i]++;
+			}
+		}
+	}
+
+	/**
+	 * A circuit of this pool.
+	 */
+	private static final class PooledCircuit
+	{
+		private Circuit m_circuit;
+		private int m_exitClass;
+		private long m_created;
+		// the time of the first use, or 0 while the circuit is warm
+		private long m_firstUse;
+		// the destinations this circuit has been used for
+		private Vector m_destinations;
+
+		private PooledCircuit(Circuit a_circuit, int a_exitClass)
+		{
+			m_circuit = a_circuit;
+			m_exitClass = a_exitClass;
+			m_created = System.currentTimeMillis();
+			m_firstUse = 0;
+			m_destinations = new Vector();
+		}
+	}
+
+	/**
+	 * Builds a circuit and adds it to this pool as a warm circuit.
+	 */
+	private final class CircuitBuild implements Runnable
+	{
+		private String m_addr;
+		private int[] m_ports;
+		private int m_exitClass;
+		private boolean m_bWarm;
+		// guarded by the pool
+		private boolean m_bFinished;
+
+		private CircuitBuild(String a_addr, int[] a_ports, int a_exitClass, boolean a_bWarm)
+		{
+			m_addr = a_addr;
+			m_ports = a_ports;
+			m_exitClass = a_exitClass;
+			m_bWarm = a_bWarm;
+			m_bFinished = false;
+		}
+
+		public void run()
+		{
+			Circuit circuit = null;
+			try
+			{
+				circuit = m_tor.createNewCircuit(m_addr, m_ports);
+			}
+			finally
+			{
+				synchronized (CircuitPool.this)
+				{
+					if (m_bWarm)
+					{
+						m_warmBuilds[m_exitClass]--;
+					}
+					m_bFinished = true;
+					if (circuit != null && !circuit.isShutdown() && !m_bClosed)
+					{
+						m_circuits.addElement(new PooledCircuit(circuit, m_exitClass));
+					}
+					CircuitPool.this.notifyAll();
+				}
+			}
+		}
+	}
+}
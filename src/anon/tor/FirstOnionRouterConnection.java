@@ -51,6 +51,7 @@ import anon.crypto.RSAKeyPair;
 import anon.crypto.tinytls.TinyTLS;
 import anon.tor.cells.Cell;
 import anon.tor.ordescription.ORDescriptor;
+import anon.tor.ordescription.ORList;
 import anon.infoservice.IMutableProxyInterface;
 import anon.infoservice.ImmutableProxyInterface;
 import logging.LogHolder;
@@ -111,6 +112,20 @@ public class FirstOnionRouterConnection implements Runnable
 		return m_description;
 	}
 
+	/**
+	 * returns the list of onion routers the circuits report their measured speed to
+	 * @return
+	 * list of onion routers or null if there is none
+	 */
+	ORList getORList()
+	{
+		if (m_Tor == null)
+		{
+			return null;
+		}
+		return m_Tor.getORList();
+	}
+
 	/**
 	 * check if the connection to the first onion router is closed
 	 * @return
@@ -248,34 +263,39 @@ public class FirstOnionRouterConnection implements Runnable
 	 * on succes : the created circuit
 	 * else : null
 	 */
-	public synchronized Circuit createCircuit(Vector onionRouters)
+	public Circuit createCircuit(Vector onionRouters)
 	{
 		int circid = 0;
 		try
 		{
-			/** From Tor spec:  The CircID for a CREATE cell is an arbitrarily chosen 2-byte integer,
-			  selected by the node (OP or OR) that sends the CREATE cell.  To prevent
-			  CircID collisions, when one OR sends a CREATE cell to another OR, it chooses
-			  from only one half of the possible values based on the ORs' public
-			  identity keys: if the sending OR has a lower key, it chooses a CircID with
-			  an MSB of 0; otherwise, it chooses a CircID with an MSB of 1.
-
-			  Public keys are compared numerically by modulus.
-			 ***/
-			int iMSB = 0x8000;
-			if (m_description.getSigningKey().getModulus().compareTo( ( (MyRSAPublicKey)this.
-				m_keypairIdentityKey.getPublic()).getModulus()) > 0)
-			{
-				iMSB = 0;
-			}
-			do
+			Circuit circ;
+			synchronized (this)
 			{
-				circid = m_rand.nextInt(0x7FFF);
-				circid |= iMSB;
+				/** From Tor spec:  The CircID for a CREATE cell is an arbitrarily chosen 2-byte integer,
+				  selected by the node (OP or OR) that sends the CREATE cell.  To prevent
+				  CircID collisions, when one OR sends a CREATE cell to another OR, it chooses
+				  from only one half of the possible values based on the ORs' public
+				  identity keys: if the sending OR has a lower key, it chooses a CircID with
+				  an MSB of 0; otherwise, it chooses a CircID with an MSB of 1.
+
+				  Public keys are compared numerically by modulus.
+				 ***/
+				int iMSB = 0x8000;
+				if (m_description.getSigningKey().getModulus().compareTo( ( (MyRSAPublicKey)this.
+					m_keypairIdentityKey.getPublic()).getModulus()) > 0)
+				{
+					iMSB = 0;
+				}
+				do
+				{
+					circid = m_rand.nextInt(0x7FFF);
+					circid |= iMSB;
+				}
+				while (m_Circuits.containsKey(new Integer(circid)) && (circid != 0));
+				circ = new Circuit(circid, this, onionRouters);
+				m_Circuits.put(new Integer(circid), circ);
 			}
-			while (m_Circuits.containsKey(new Integer(circid)) && (circid != 0));
-			Circuit circ = new Circuit(circid, this, onionRouters);
-			m_Circuits.put(new Integer(circid), circ);
+			// wait for the handshakes without blocking the creation of other circuits
 			circ.create();
 			return circ;
 		}
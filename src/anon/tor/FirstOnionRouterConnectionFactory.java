@@ -57,47 +57,55 @@ public class FirstOnionRouterConnectionFactory
 	}
 
 	/**
-	 * creates a FOR with the given description if it doesn't exist. else it returns a existing FOR
+	 * creates a FOR with the given description if it doesn't exist. else it returns a existing FOR.
+	 * The factory is only locked while the FOR is looked up, so connections to different onion
+	 * routers are established at the same time.
 	 * @param d
 	 * description of a FOR
 	 * @return
 	 * FirstOnionRouter
 	 */
-	public synchronized FirstOnionRouterConnection createFirstOnionRouterConnection(ORDescriptor d)
+	public FirstOnionRouterConnection createFirstOnionRouterConnection(ORDescriptor d)
 	{
-		ORDescriptor ord;
-		FirstOnionRouterConnection fOR = null;
-		for (int i = 0; i < m_firstOnionRouters.size(); i++)
+		FirstOnionRouterConnection fOR = getFirstOnionRouterConnection(d);
+		synchronized (fOR)
 		{
-			fOR = (FirstOnionRouterConnection) m_firstOnionRouters.elementAt(i);
-			ord = fOR.getORDescription();
-			if (ord.isSimilar(d))
+			if (!fOR.isClosed())
 			{
-				if (!fOR.isClosed())
-				{
-					return fOR;
-				}
-				else
-				{
-					break;
-				}
+				return fOR;
+			}
+			try
+			{
+				fOR.connect();
+			}
+			catch (Exception ex)
+			{
+				LogHolder.log(LogLevel.EXCEPTION, LogType.TOR, "Error while connection to first OnionRouter");
+				LogHolder.log(LogLevel.EXCEPTION, LogType.TOR, ex);
+				return null;
 			}
-			fOR = null;
-		}
-		if (fOR == null)
-		{
-			fOR = new FirstOnionRouterConnection(d, m_Tor);
-		}
-		try
-		{
-			fOR.connect();
 		}
-		catch (Exception ex)
+		return fOR;
+	}
+
+	/**
+	 * gets the FOR with the given description or adds a new one that is not connected yet
+	 * @param d
+	 * description of a FOR
+	 * @return
+	 * FirstOnionRouter
+	 */
+	private synchronized FirstOnionRouterConnection getFirstOnionRouterConnection(ORDescriptor d)
+	{
+		for (int i = 0; i < m_firstOnionRouters.size(); i++)
 		{
-			LogHolder.log(LogLevel.EXCEPTION, LogType.TOR, "Error while connection to first OnionRouter");
-			LogHolder.log(LogLevel.EXCEPTION, LogType.TOR, ex);
-			return null;
+			FirstOnionRouterConnection fOR = (FirstOnionRouterConnection) m_firstOnionRouters.elementAt(i);
+			if (fOR.getORDescription().isSimilar(d))
+			{
+				return fOR;
+			}
 		}
+		FirstOnionRouterConnection fOR = new FirstOnionRouterConnection(d, m_Tor);
 		m_firstOnionRouters.addElement(fOR);
 		return fOR;
 	}
@@ -76,6 +76,15 @@ public class Tor implements Runnable, AnonService
 	///the time when an entry in the DNS-Cache is obsolete
 	public final static int DNS_TIME_OUT = 600000;
 
+	// default number of unused circuits that are kept for every exit policy class
+	public final static int DEFAULT_WARM_CIRCUITS_PER_CLASS = 2;
+
+	// default time in milliseconds after its first use a circuit is not used for new streams
+	public final static long DEFAULT_MAX_CIRCUIT_AGE = 600000;
+
+	// the interval in which the circuit pool is maintained
+	private final static long CIRCUIT_MAINTENANCE_INTERVAL = 10000;
+
 	private static Tor ms_theTorInstance = null;
 
 	//list of all onion routers
@@ -90,29 +99,26 @@ public class Tor implements Runnable, AnonService
 	//list of allowed exitnodes - not used at the moment
 	private Vector m_allowedExitNodeNames;
 
-	//list of circuits
-	//private Hashtable m_Circuits;
-	//active circuit
-	private Circuit[] m_activeCircuits;
+	//pool of warm and active circuits
+	private volatile CircuitPool m_circuitPool;
 	private int m_MaxNrOfActiveCircuits;
+	private int m_warmCircuitsPerClass;
+	private long m_maxCircuitAge;
 	//private int m_CircuitsCreated;
 
-	//used for synchronisation on active Circuit operations...
-	private Object m_oActiveCircuitSync;
 	private Object m_oStartStopSync;
+	//counts the circuits that are being created...
+	private Object m_oCircuitCreationSync;
+	private int m_nrOfCircuitsInCreation;
 	//private Object m_oCircuitCreatorSync;
 
 	private FirstOnionRouterConnectionFactory m_firstORFactory;
 
 	private Database m_DNSCache;
 
-	private Hashtable m_CircuitForDestination;
-	private Vector[] m_KeysForCircuit;
-
 	//private long m_createNewCircuitIntervall;
 	//private Thread m_createNewCircuitLoop;
 	private volatile boolean m_bIsStarted;
-	private boolean m_bIsCreatingCircuit;
 	private boolean m_useDNSCache;
 
 	private int m_circuitLengthMin;
@@ -136,14 +142,32 @@ public class Tor implements Runnable, AnonService
 	 */
 	private Tor()
 	{
-		m_orList = new ORList(new PlainORListFetcher(DEFAULT_DIR_SERVER_ADDR, DEFAULT_DIR_SERVER_PORT));
-		m_oActiveCircuitSync = new Object();
+		this(new ORList(new PlainORListFetcher(DEFAULT_DIR_SERVER_ADDR, DEFAULT_DIR_SERVER_PORT)), null);
+	}
+
+	/**
+	 * Constructor for tests that use their own onion routers
+	 *
+	 * @param a_orList
+	 * list of onion routers
+	 * @param a_firstORFactory
+	 * factory for the connections to the first onion routers (null = default)
+	 */
+	Tor(ORList a_orList, FirstOnionRouterConnectionFactory a_firstORFactory)
+	{
+		m_orList = a_orList;
 		m_oStartStopSync = new Object();
+		m_oCircuitCreationSync = new Object();
+		m_nrOfCircuitsInCreation = 0;
 		//m_oCircuitCreatorSync = new Object();
 		//create a new circuit every 5 minutes
 		//m_createNewCircuitIntervall = 60000 * 5;
 
-		m_firstORFactory = new FirstOnionRouterConnectionFactory(this);
+		if (a_firstORFactory == null)
+		{
+			a_firstORFactory = new FirstOnionRouterConnectionFactory(this);
+		}
+		m_firstORFactory = a_firstORFactory;
 		//m_allowedORNames = null;
 
 		//m_allowedFirstORNames = null;
@@ -155,13 +179,12 @@ public class Tor implements Runnable, AnonService
 		m_ConnectionsPerCircuit = Circuit.MAX_STREAMS_OVER_CIRCUIT;
 		m_rand = new MyRandom(new SecureRandom());
 		m_bIsStarted = false;
-		m_bIsCreatingCircuit = false;
 		m_MaxNrOfActiveCircuits = 5;
-		m_activeCircuits = new Circuit[m_MaxNrOfActiveCircuits];
+		m_warmCircuitsPerClass = DEFAULT_WARM_CIRCUITS_PER_CLASS;
+		m_maxCircuitAge = DEFAULT_MAX_CIRCUIT_AGE;
+		m_circuitPool = null;
 		m_useDNSCache = true;
 		m_DNSCache = Database.getInstance(DNSCacheEntry.class);
-		m_CircuitForDestination = new Hashtable();
-		m_KeysForCircuit = new Vector[m_MaxNrOfActiveCircuits];
 		//counts the number of circuits that have been created (-1 : no use of this variable / 0-m_maxnrofactivecircuits : number of created circuits)
 		m_bCloseCreator = false;
 		m_proxyInterface = null;
@@ -190,16 +213,15 @@ public class Tor implements Runnable, AnonService
 	 * @return
 	 * a circuit that can connect to the destination
 	 */
-	protected synchronized Circuit getCircuitForDestination(String addr, int port,
+	protected Circuit getCircuitForDestination(String addr, int port,
 		Hashtable exludeCircuits)
 	{
-		if (! m_bIsStarted)
+		CircuitPool circuitPool = m_circuitPool;
+		if (! m_bIsStarted || circuitPool == null)
 		{
 			return null;
 		}
 
-		Circuit c = null;
-
 		// resolve address
 		if (!ListenerInterface.isValidIP(addr))
 		{
@@ -210,143 +232,34 @@ public class Tor implements Runnable, AnonService
 			}
 		}
 
-		String key = addr + ":" + port;
-
-		// try to find an existing circuit
-
-		// directly
-		if (m_CircuitForDestination.containsKey(key))
-		{
-			int circnr = ( (Integer) m_CircuitForDestination.get(key)).intValue();
-			c = m_activeCircuits[circnr];
-			if (c != null && ! c.isShutdown() && c.isAllowed(addr, port)&&
-				(exludeCircuits==null||!exludeCircuits.containsKey(c)))
-			{
-				return c;
-			}
-		}
-
-		// by linear search
-		for (int nr = 0; nr < m_MaxNrOfActiveCircuits; nr++)
-		{
-			c = m_activeCircuits[nr];
-			if (c != null && ! c.isShutdown() && c.isAllowed(addr, port)&&
-				(exludeCircuits==null||!exludeCircuits.containsKey(c)))
-			{
-				m_CircuitForDestination.put(key, new Integer(nr));
-				if (m_KeysForCircuit[nr] == null)
-				{
-					m_KeysForCircuit[nr] = new Vector();
-				}
-				m_KeysForCircuit[nr].addElement(key);
-				return c;
-			}
-		}
-
-		// create new circuit
-		synchronized (m_oActiveCircuitSync)
-		{
-			// try 5 times
-			for (int i = 0; i < 5; i++)
-			{
-				int circstart = m_rand.nextInt(m_MaxNrOfActiveCircuits);
-				int j = 0;
-				int circ = 0;
-
-				// try all available circuits
-				while (j < m_MaxNrOfActiveCircuits)
-				{
-					circ = circstart % m_MaxNrOfActiveCircuits;
-					if (m_activeCircuits[circ] == null || m_activeCircuits[circ].isShutdown())
-					{
-						if (m_KeysForCircuit[circ] != null)
-						{
-							// remove destinations for this circuit
-							Enumeration it = m_KeysForCircuit[circ].elements();
-							while (it.hasMoreElements())
-							{
-								Object obj = it.nextElement();
-								m_CircuitForDestination.remove(obj);
-							}
-							m_KeysForCircuit[circ] = null;
-						}
-						m_activeCircuits[circ] = createNewCircuit(addr, port);
-						if (m_activeCircuits[circ] != null && !m_activeCircuits[circ].isShutdown())
-						{
-							//add destination for this circuit
-							m_CircuitForDestination.put(key, new Integer(circ));
-							m_KeysForCircuit[circ] = new Vector();
-							m_KeysForCircuit[circ].addElement(key);
-							return m_activeCircuits[circ];
-						}
-						else
-						{
-							break;
-						}
-					}
-					else if (m_activeCircuits[circ].isAllowed(addr, port))
-					{
-						if (!m_KeysForCircuit[circ].contains(key))
-						{
-							m_CircuitForDestination.put(key, new Integer(circ));
-							m_KeysForCircuit[circ].addElement(key);
-						}
-						return m_activeCircuits[circ];
-					}
-					circstart++;
-					j++;
-				}
-
-				// all circuits active but no fitting found --> shutdown
-				if (m_activeCircuits[circ] != null && !m_activeCircuits[circ].isShutdown())
-				{
-					circ = circstart % m_MaxNrOfActiveCircuits;
-					m_activeCircuits[circ].shutdown();
-
-					Enumeration it = m_KeysForCircuit[circ].elements();
-					while (it.hasMoreElements())
-					{
-						Object obj = it.nextElement();
-						m_CircuitForDestination.remove(obj);
-					}
-
-					m_KeysForCircuit[circ] = null;
-					m_activeCircuits[circ] = createNewCircuit(addr, port);
-					if (m_activeCircuits[circ] != null && !m_activeCircuits[circ].isShutdown())
-					{
-						m_CircuitForDestination.put(key, new Integer(circ));
-						m_KeysForCircuit[circ] = new Vector();
-						m_KeysForCircuit[circ].addElement(key);
-						return m_activeCircuits[circ];
-					}
-				}
-			}
-			return null;
-		}
+		// take a used or warm circuit or wait until a fitting circuit has been built
+		return circuitPool.getCircuit(addr, port, exludeCircuits);
 	}
 
 	/**
-	 * creates a new random circuit for the given destination
-	 * @param addr address
-	 * @param port port
+	 * creates a new random circuit for the given destination. The list of onion routers is only
+	 * locked while the routers are selected, so several circuits may be created at the same time.
+	 * @param addr address (null = any exit node)
+	 * @param ports ports the exit node has to allow for the address
+	 * @return the circuit or null if it could not be created
 	 */
-	private Circuit createNewCircuit(String addr, int port)
+	Circuit createNewCircuit(String addr, int[] ports)
 	{
-		if (!m_bIsStarted)
-		{
-			return null;
-		}
-		synchronized (m_oStartStopSync)
+		synchronized (m_oCircuitCreationSync)
 		{
-				m_bIsCreatingCircuit = true;
+			if (!m_bIsStarted)
+			{
+				return null;
+			}
+			m_nrOfCircuitsInCreation++;
 		}
 
 		try
 		{
+			ORDescriptor ord;
+			Vector orsForNewCircuit = new Vector();
 			synchronized (m_orList)
 			{
-				ORDescriptor ord;
-				Vector orsForNewCircuit = new Vector();
 				int circuitLength = m_rand.nextInt(m_circuitLengthMax - m_circuitLengthMin + 1) +
 					m_circuitLengthMin;
 
@@ -390,7 +303,7 @@ public class Tor implements Runnable, AnonService
 						possibleOrs.removeElement(ord);
 					}
 					// remove OR that cannot connect to the destination
-					else if (addr != null && !ord.getAcl().isAllowed(addr, port))
+					else if (addr != null && !isAllowed(ord, addr, ports))
 					{
 						possibleOrs.removeElement(ord);
 					}
@@ -406,8 +319,12 @@ public class Tor implements Runnable, AnonService
 					return null;
 				}
 
-				// select one randomly...
-				ord = (ORDescriptor) possibleOrs.elementAt(m_rand.nextInt(possibleOrs.size()));
+				// select one randomly according to the bandwidth...
+				ord = m_orList.getByRandomWeighted(possibleOrs);
+				if (ord == null)
+				{
+					return null;
+				}
 				orsForNewCircuit.addElement(ord);
 				LogHolder.log(LogLevel.DEBUG, LogType.TOR,
 							  "added as last: " + ord);
@@ -431,42 +348,76 @@ public class Tor implements Runnable, AnonService
 								  "added " + ord);
 					orsForNewCircuit.insertElementAt(ord, 1);
 				}
+			}
 
-				// get SSL connection to the first OR
-				FirstOnionRouterConnection firstOR;
-				ORDescriptor firstORDescription = (ORDescriptor) orsForNewCircuit.elementAt(0);
-				firstOR = m_firstORFactory.createFirstOnionRouterConnection(firstORDescription);
-				if (firstOR == null)
-				{
-					LogHolder.log(LogLevel.DEBUG, LogType.TOR, "removed " + firstORDescription.getName());
-					m_orList.remove(firstORDescription.getName());
-					throw new IOException("Problem with router " + orsForNewCircuit +
-										  ". Cannot connect.");
-				}
+			// get SSL connection to the first OR
+			FirstOnionRouterConnection firstOR;
+			ORDescriptor firstORDescription = (ORDescriptor) orsForNewCircuit.elementAt(0);
+			firstOR = m_firstORFactory.createFirstOnionRouterConnection(firstORDescription);
+			if (firstOR == null)
+			{
+				LogHolder.log(LogLevel.DEBUG, LogType.TOR, "removed " + firstORDescription.getName());
+				m_orList.remove(firstORDescription.getName());
+				throw new IOException("Problem with router " + orsForNewCircuit +
+									  ". Cannot connect.");
+			}
 
-				// create circuit with given ORs
-				Circuit circuit = firstOR.createCircuit(orsForNewCircuit);
-				m_bIsCreatingCircuit = false;
-				if (circuit == null)
-				{
-					return null;
-				}
-				circuit.setMaxNrOfStreams(m_ConnectionsPerCircuit);
-				return circuit;
+			// create circuit with given ORs
+			Circuit circuit = firstOR.createCircuit(orsForNewCircuit);
+			if (circuit == null)
+			{
+				return null;
 			}
+			circuit.setMaxNrOfStreams(m_ConnectionsPerCircuit);
+			return circuit;
 		}
 		catch (Exception e)
 		{
-			m_bIsCreatingCircuit = false;
 			return null;
 		}
 		finally
 		{
-			m_bIsCreatingCircuit = false;
+			synchronized (m_oCircuitCreationSync)
+			{
+				m_nrOfCircuitsInCreation--;
+				m_oCircuitCreationSync.notifyAll();
+			}
 		}
 
 	}
 
+	/**
+	 * checks if an onion router may be used as exit node for the given destination
+	 * @param ord onion router
+	 * @param addr address
+	 * @param ports ports (null = any port)
+	 */
+	private static boolean isAllowed(ORDescriptor ord, String addr, int[] ports)
+	{
+		if (ports == null)
+		{
+			return true;
+		}
+		for (int i = 0; i < ports.length; i++)
+		{
+			if (!ord.getAcl().isAllowed(addr, ports[i]))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * returns the list of onion routers, which collects the measured speed of the routers
+	 * @return
+	 * list of onion routers
+	 */
+	ORList getORList()
+	{
+		return m_orList;
+	}
+
 	/**
 	 * returns an instance of Tor
 	 * @return an instance of Tor
@@ -481,70 +432,24 @@ public class Tor implements Runnable, AnonService
 	}
 
 	/**
-	 * thread creating new circuits
+	 * thread keeping the circuit pool warm
 	 */
 	public void run()
 	{
-		boolean foundemptyslot = false;
-
 		while (!m_bCloseCreator)
 		{
-			if (m_bCloseCreator)
+			CircuitPool circuitPool = m_circuitPool;
+			if (circuitPool != null)
 			{
-				break;
+				// retire old circuits and build new ones in the background
+				circuitPool.maintain();
 			}
-			synchronized (m_oActiveCircuitSync)
+			try
 			{
-				int index = -1;
-				// find the next free index --> note that other threads may create new circuits as well
-				// so we have to do this check first
-				// (As we are synchronized on m_oActiveCircuitSync no other thread can interfere now!)
-				for (int i = 0; i < m_MaxNrOfActiveCircuits; i++)
-				{
-					if (m_activeCircuits[i] == null || m_activeCircuits[i].isShutdown())
-					{
-						index = i;
-						break;
-					}
-				}
-
-				// found an empty slot
-				if (index != -1)
-				{
-					foundemptyslot = true;
-
-					//just create a new circuit, that can connect to this address and port
-					Circuit circ = createNewCircuit("141.76.46.1", 80);
-					if (circ == null)
-					{
-						continue;
-					}
-					m_activeCircuits[index] = circ;
-				}
-			}
-
-			if (foundemptyslot)
-			{
-				// we do not want to be as fast as possible
-				foundemptyslot = false;
-				try
-				{
-					Thread.sleep(10000);
-				}
-				catch (InterruptedException ex)
-				{
-				}
+				Thread.sleep(CIRCUIT_MAINTENANCE_INTERVAL);
 			}
-			else
+			catch (InterruptedException ex)
 			{
-				// we did not find any empty slot --> sleep for a while
-				try
-				{
-					Thread.sleep(30000);
-				}
-				catch (InterruptedException ex)
-				{
-				}
 			}
 		}
 
@@ -554,26 +459,30 @@ public class Tor implements Runnable, AnonService
 	/**
 	 * starts the Tor service
 	 * @param startCircuits
-	 * create all circuits at startup
+	 * create warm circuits at startup and keep them in the background
 	 * @throws IOException
 	 */
 	private void start(boolean startCircuits) throws IOException
 	{
 		synchronized (m_oStartStopSync)
 		{
-			m_bIsStarted = true;
+			if (m_circuitPool != null)
+			{
+				m_circuitPool.close();
+			}
+			synchronized (m_oCircuitCreationSync)
+			{
+				m_bIsStarted = true;
+			}
 			m_bCloseCreator = false;
-			m_activeCircuits = new Circuit[m_MaxNrOfActiveCircuits];
-			if (startCircuits)
+			m_circuitPool = new CircuitPool(this, startCircuits ? m_warmCircuitsPerClass : 0,
+											m_MaxNrOfActiveCircuits, m_maxCircuitAge);
+			if (startCircuits && m_circuitCreator == null)
 			{
 				m_circuitCreator = new Thread(this, "TorCircuitCreator");
 				m_circuitCreator.setDaemon(true);
 				m_circuitCreator.start();
 			}
-			else
-			{
-				m_circuitCreator = null;
-			}
 		}
 	}
 
@@ -584,7 +493,10 @@ public class Tor implements Runnable, AnonService
 	{
 		synchronized (m_oStartStopSync)
 		{
-			m_bIsStarted = false;
+			synchronized (m_oCircuitCreationSync)
+			{
+				m_bIsStarted = false;
+			}
 			m_bCloseCreator = true;
 			if (m_circuitCreator != null)
 			{
@@ -604,14 +516,19 @@ public class Tor implements Runnable, AnonService
 				}
 				m_circuitCreator = null;
 			}
-			if (m_bIsCreatingCircuit)
+			if (m_circuitPool != null)
 			{
-				m_firstORFactory.closeAll();
-				while (m_bIsCreatingCircuit)
+				m_circuitPool.close();
+				m_circuitPool = null;
+			}
+			m_firstORFactory.closeAll();
+			synchronized (m_oCircuitCreationSync)
+			{
+				while (m_nrOfCircuitsInCreation > 0)
 				{
 					try
 					{
-						Thread.sleep(500);
+						m_oCircuitCreationSync.wait(500);
 					}
 					catch (InterruptedException ex1)
 					{
@@ -678,6 +595,28 @@ public class Tor implements Runnable, AnonService
 		m_ConnectionsPerCircuit = i;
 	}
 
+	/**
+	 *  sets the number of unused circuits that are kept for every exit policy class
+	 */
+	private void setWarmCircuitsPerClass(int i)
+	{
+		if (i >= 0)
+		{
+			m_warmCircuitsPerClass = i;
+		}
+	}
+
+	/**
+	 *  sets the time in milliseconds after its first use a circuit is not used for new streams
+	 */
+	private void setMaxCircuitAge(long l)
+	{
+		if (l > 0)
+		{
+			m_maxCircuitAge = l;
+		}
+	}
+
 	/**
 	 * sets the server the list of onionrouters is fetched from
 	 * @param name
@@ -794,6 +733,8 @@ public class Tor implements Runnable, AnonService
 						td.getTorDirServerPort());
 		setCircuitLength(td.getMinRouteLen(),td.getMaxRouteLen());
 		setConnectionsPerRoute(td.getMaxConnectionsPerRoute());
+		setWarmCircuitsPerClass(td.getWarmCircuitsPerClass());
+		setMaxCircuitAge(td.getMaxCircuitAge());
 
 		try
 		{
@@ -851,7 +792,7 @@ public class Tor implements Runnable, AnonService
 	 * @return
 	 * IP address
 	 */
-	public synchronized String resolveDNS(String name)
+	public String resolveDNS(String name)
 	{
 		DNSCacheEntry entry;
 		String resolvedIP = null;
@@ -869,25 +810,25 @@ public class Tor implements Runnable, AnonService
 		}
 
 		// no entry in cache
-		synchronized (m_oActiveCircuitSync)
+		CircuitPool circuitPool = m_circuitPool;
+		if (circuitPool != null)
 		{
+			Hashtable triedCircuits = new Hashtable();
 			// try 3 times
 			for (int i = 0; i < 3; i++)
 			{
-				int circ = m_rand.nextInt(m_MaxNrOfActiveCircuits);
-				if (m_activeCircuits[circ] == null || m_activeCircuits[circ].isShutdown())
+				Circuit circ = circuitPool.getCircuit(null, -1, triedCircuits);
+				if (circ == null)
 				{
-					m_activeCircuits[circ] = createNewCircuit(null, -1);
+					break;
 				}
-				if (m_activeCircuits[circ] != null && ! m_activeCircuits[circ].isShutdown())
+				String s = circ.resolveDNS(name);
+				if (s != null)
 				{
-					String s = m_activeCircuits[circ].resolveDNS(name);
-					if (s != null)
-					{
-						resolvedIP = s;
-						break;
-					}
+					resolvedIP = s;
+					break;
 				}
+				triedCircuits.put(circ, circ);
 			}
 		}
 
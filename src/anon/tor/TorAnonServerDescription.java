@@ -38,6 +38,8 @@ public class TorAnonServerDescription implements AnonServerDescription
 	private int m_iMaxRouteLen=Tor.MAX_ROUTE_LEN;
 	private int m_iMinRouteLen=Tor.MIN_ROUTE_LEN;
 	private int m_iMaxConnectionsPerRoute=Circuit.MAX_STREAMS_OVER_CIRCUIT;
+	private int m_iWarmCircuitsPerClass=Tor.DEFAULT_WARM_CIRCUITS_PER_CLASS;
+	private long m_lMaxCircuitAge=Tor.DEFAULT_MAX_CIRCUIT_AGE;
 
 	/**
 	 * Constructor
@@ -175,4 +177,33 @@ public class TorAnonServerDescription implements AnonServerDescription
 	{
 		return m_iMaxConnectionsPerRoute;
 	}
+
+	/**
+	 * sets the number of unused circuits that are kept for every exit policy class
+	 * (web traffic and any other) if circuits are created on startup
+	 * @param i number of circuits
+	 */
+	public void setWarmCircuitsPerClass(int i)
+	{
+		m_iWarmCircuitsPerClass=i;
+	}
+
+	public int getWarmCircuitsPerClass()
+	{
+		return m_iWarmCircuitsPerClass;
+	}
+
+	/**
+	 * sets the time after its first use a circuit is not used for new connections any more
+	 * @param l time in milliseconds
+	 */
+	public void setMaxCircuitAge(long l)
+	{
+		m_lMaxCircuitAge=l;
+	}
+
+	public long getMaxCircuitAge()
+	{
+		return m_lMaxCircuitAge;
+	}
 }
@@ -228,6 +228,16 @@ public class RelayCell extends Cell
 		}
 	}
 
+	/**
+	 * gets the length of the payload of the relay cell without copying it
+	 * @return
+	 * length of the payload
+	 */
+	public int getRelayPayloadLength()
+	{
+		return ( (m_payload[9] & 0x00FF) << 8) | (m_payload[10] & 0x00FF);
+	}
+
 	/**
 	 * gets the payload of the relay cell
 	 * @return
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor.ordescription;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import anon.tor.util.Base16;
+import anon.util.Base64;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+
+/**
+ * Parses router descriptors and network status documents directly from the bytes of a
+ * DirectoryScanner. The digest of a descriptor is calculated while its lines are scanned, so a
+ * descriptor that is already known is recognized before any of its fields are parsed. The keys
+ * of new descriptors are only Base64 decoded; they are converted to RSA keys when they are used
+ * for the first time.
+ */
+final class DirectoryParser
+{
+	private static final byte[] ROUTER = toBytes("router ");
+	private static final byte[] ROUTER_SIGNATURE = toBytes("router-signature");
+	private static final byte[] END = toBytes("-----END");
+	private static final byte[] OPT = toBytes("opt ");
+	private static final byte[] PLATFORM = toBytes("platform ");
+	private static final byte[] PUBLISHED = toBytes("published ");
+	private static final byte[] ACCEPT = toBytes("accept");
+	private static final byte[] REJECT = toBytes("reject");
+	private static final byte[] FINGERPRINT = toBytes("fingerprint");
+	private static final byte[] BANDWIDTH = toBytes("bandwidth");
+	private static final byte[] HIBERNATE = toBytes("hibernate ");
+	private static final byte[] ONION_KEY = toBytes("onion-key");
+	private static final byte[] SIGNING_KEY = toBytes("signing-key");
+	private static final byte[] FAMILY = toBytes("family");
+	private static final byte[] STATUS_VERSION = toBytes("network-status-version");
+	private static final byte[] STATUS_ROUTER = toBytes("r ");
+
+	private DirectoryScanner m_scanner;
+	private SHA1Digest m_digest;
+	private byte[] m_digestValue;
+	// the current token of the current line
+	private int m_tokenStart;
+	private int m_tokenEnd;
+	// the last router of a status document
+	private String m_statusName;
+	private String m_statusDigest;
+	private byte[] m_statusDigestBase64;
+
+	public DirectoryParser(DirectoryScanner a_scanner)
+	{
+		m_scanner = a_scanner;
+		m_digest = new SHA1Digest();
+		m_digestValue = new byte[m_digest.getDigestSize()];
+		m_statusDigestBase64 = new byte[28];
+	}
+
+	/**
+	 * Parses the next router descriptor of the document. Invalid descriptors are skipped.
+	 * @param a_knownRouters routers by name, may be null; if the descriptor of one of them has not
+	 * changed, this router is returned instead of a new one
+	 * @return a descriptor or null if there are no more descriptors
+	 * @throws IOException if the document could not be read
+	 */
+	public ORDescriptor nextDescriptor(Hashtable a_knownRouters) throws IOException
+	{
+		while (m_scanner.nextLine())
+		{
+			if (!lineStartsWith(ROUTER, 0))
+			{
+				continue;
+			}
+			m_scanner.mark();
+			m_tokenEnd = m_scanner.getLineStart() + ROUTER.length;
+			if (!nextToken())
+			{
+				m_scanner.unmark();
+				continue;
+			}
+			String name = getToken();
+			String hash = digestDescriptor();
+			if (hash == null)
+			{
+				// incomplete descriptor at the end of the document
+				m_scanner.unmark();
+				return null;
+			}
+			int signature = m_scanner.getLineStart() - m_scanner.getMark();
+			ORDescriptor ord = null;
+			if (a_knownRouters != null)
+			{
+				ord = (ORDescriptor) a_knownRouters.get(name);
+			}
+			if (ord == null || !hash.equals(ord.getHash()))
+			{
+				m_scanner.seek(0);
+				ord = parseDescriptor();
+				if (ord != null)
+				{
+					ord.setHash(hash);
+				}
+				// parseDescriptor() stops early at invalid fields
+				m_scanner.seek(signature);
+				m_scanner.nextLine();
+			}
+			skipObject();
+			m_scanner.unmark();
+			if (ord != null)
+			{
+				return ord;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks the first line of a network status document.
+	 * @return true if the document is a network status
+	 * @throws IOException if the document could not be read
+	 */
+	public boolean isStatus() throws IOException
+	{
+		return m_scanner.nextLine() && lineStartsWith(STATUS_VERSION, 0);
+	}
+
+	/**
+	 * Moves to the next router entry ("r" line) of a network status document.
+	 * @return false if there are no more entries
+	 * @throws IOException if the document could not be read
+	 */
+	public boolean nextStatus() throws IOException
+	{
+		while (m_scanner.nextLine())
+		{
+			if (!lineStartsWith(STATUS_ROUTER, 0))
+			{
+				continue;
+			}
+			m_tokenEnd = m_scanner.getLineStart() + STATUS_ROUTER.length;
+			if (!nextToken())
+			{
+				continue;
+			}
+			m_statusName = getToken();
+			// skip the identity
+			if (!nextToken() || !nextToken() || m_tokenEnd - m_tokenStart != 27)
+			{
+				continue;
+			}
+			// the digest is Base64 encoded without the trailing "="
+			System.arraycopy(m_scanner.getBuffer(), m_tokenStart, m_statusDigestBase64, 0, 27);
+			m_statusDigestBase64[27] = '=';
+			byte[] digest = Base64.decode(m_statusDigestBase64, 0, m_statusDigestBase64.length);
+			if (digest == null)
+			{
+				continue;
+			}
+			m_statusDigest = Base16.encode(digest);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the name of the router of the current status entry
+	 */
+	public String getStatusName()
+	{
+		return m_statusName;
+	}
+
+	/**
+	 * @return the descriptor digest of the current status entry, in the format of
+	 * ORDescriptor.getHash()
+	 */
+	public String getStatusDigest()
+	{
+		return m_statusDigest;
+	}
+
+	/**
+	 * Calculates the digest of the descriptor that starts at the current line. The descriptor
+	 * ends with the "router-signature" line, which is the current line afterwards.
+	 * @return the digest or null if the document ends before the descriptor
+	 */
+	private String digestDescriptor() throws IOException
+	{
+		do
+		{
+			m_digest.update(m_scanner.getBuffer(), m_scanner.getLineStart(),
+							m_scanner.getLineEnd() - m_scanner.getLineStart());
+			m_digest.update( (byte) '\n');
+			if (lineStartsWith(ROUTER_SIGNATURE, 0))
+			{
+				m_digest.doFinal(m_digestValue, 0);
+				return Base16.encode(m_digestValue);
+			}
+		}
+		while (m_scanner.nextLine());
+		m_digest.reset();
+		return null;
+	}
+
+	/**
+	 * Parses the fields of the descriptor that starts at the next line.
+	 * @return the descriptor or null if it is invalid
+	 */
+	private ORDescriptor parseDescriptor() throws IOException
+	{
+		m_scanner.nextLine();
+		m_tokenEnd = m_scanner.getLineStart() + ROUTER.length;
+		if (!nextToken())
+		{
+			return null;
+		}
+		String name = getToken();
+		if (!nextToken())
+		{
+			return null;
+		}
+		String address = getToken();
+		int port = nextInt();
+		nextInt(); // skip the socks port
+		int dirPort = nextInt();
+		if (port < 0)
+		{
+			return null;
+		}
+
+		Vector family = null;
+		byte[] onionKey = null;
+		byte[] signingKey = null;
+		ORAcl acl = new ORAcl();
+		boolean bIsExitNode = false;
+		String software = "";
+		String published = "";
+		String fingerprint = "";
+		boolean bHibernate = false;
+		int[] bandwidth = null;
+
+		while (m_scanner.nextLine())
+		{
+			int offset = lineStartsWith(OPT, 0) ? OPT.length : 0;
+			if (lineStartsWith(ROUTER_SIGNATURE, offset))
+			{
+				break;
+			}
+			else if (lineStartsWith(PLATFORM, offset))
+			{
+				software = getString(m_scanner.getLineStart() + offset + PLATFORM.length,
+									 m_scanner.getLineEnd());
+			}
+			else if (lineStartsWith(PUBLISHED, offset))
+			{
+				published = getString(m_scanner.getLineStart() + offset + PUBLISHED.length,
+									  m_scanner.getLineEnd());
+			}
+			else if (lineStartsWith(ACCEPT, offset) || lineStartsWith(REJECT, offset))
+			{
+				try
+				{
+					acl.add(getString(m_scanner.getLineStart() + offset, m_scanner.getLineEnd()));
+				}
+				catch (Exception a_e)
+				{
+					// invalid exit policy
+					return null;
+				}
+				if (lineStartsWith(ACCEPT, offset))
+				{
+					bIsExitNode = true;
+				}
+			}
+			else if (lineStartsWith(FINGERPRINT, offset))
+			{
+				fingerprint = getFingerprint(m_scanner.getLineStart() + offset + FINGERPRINT.length);
+			}
+			else if (lineStartsWith(BANDWIDTH, offset))
+			{
+				m_tokenEnd = m_scanner.getLineStart() + offset + BANDWIDTH.length;
+				bandwidth = new int[3];
+				for (int i = 0; i < bandwidth.length && bandwidth != null; i++)
+				{
+					bandwidth[i] = nextInt();
+					if (bandwidth[i] < 0)
+					{
+						bandwidth = null;
+					}
+				}
+			}
+			else if (lineStartsWith(HIBERNATE, offset))
+			{
+				m_tokenEnd = m_scanner.getLineStart() + offset + HIBERNATE.length;
+				bHibernate = nextInt() == 1;
+			}
+			else if (lineStartsWith(ONION_KEY, offset))
+			{
+				onionKey = readObject();
+				if (onionKey == null)
+				{
+					return null;
+				}
+			}
+			else if (lineStartsWith(SIGNING_KEY, offset))
+			{
+				signingKey = readObject();
+				if (signingKey == null)
+				{
+					return null;
+				}
+			}
+			else if (lineStartsWith(FAMILY, offset))
+			{
+				m_tokenEnd = m_scanner.getLineStart() + offset + FAMILY.length;
+				family = new Vector();
+				while (nextToken())
+				{
+					family.addElement(getToken());
+				}
+			}
+		}
+		if (onionKey == null || signingKey == null)
+		{
+			return null;
+		}
+
+		ORDescriptor ord = new ORDescriptor(address, name, port, software);
+		// only new or changed descriptors get here, so their keys are checked like before
+		if (!ord.setOnionKey(onionKey) || !ord.setSigningKey(signingKey))
+		{
+			return null;
+		}
+		ord.setAcl(acl);
+		ord.setExitNode(bIsExitNode);
+		ord.setFamily(family);
+		ord.setPublished(published);
+		ord.setFingerprint(fingerprint);
+		ord.setHibernate(bHibernate);
+		if (bandwidth != null)
+		{
+			ord.setBandwidth(bandwidth[0], bandwidth[1], bandwidth[2]);
+		}
+		if (dirPort >= 0)
+		{
+			ord.setDirPort(dirPort);
+		}
+		return ord;
+	}
+
+	/**
+	 * Reads an object like a key that follows the current line and decodes it.
+	 * @return the decoded object or null if it is invalid
+	 */
+	private byte[] readObject() throws IOException
+	{
+		// skip "-----BEGIN ..."
+		if (!m_scanner.nextLine() || !m_scanner.nextLine())
+		{
+			return null;
+		}
+		// the buffer of a stream may be moved, but not in front of the mark
+		int start = m_scanner.getLineStart() - m_scanner.getMark();
+		while (!lineStartsWith(END, 0))
+		{
+			if (lineStartsWith(ROUTER_SIGNATURE, 0) || !m_scanner.nextLine())
+			{
+				return null;
+			}
+		}
+		start += m_scanner.getMark();
+		return Base64.decode(m_scanner.getBuffer(), start, m_scanner.getLineStart() - start);
+	}
+
+	/**
+	 * Skips an object like a signature that follows the current line.
+	 */
+	private void skipObject() throws IOException
+	{
+		// skip "-----BEGIN ..."
+		m_scanner.nextLine();
+		while (m_scanner.nextLine())
+		{
+			if (lineStartsWith(END, 0))
+			{
+				return;
+			}
+		}
+	}
+
+	private boolean lineStartsWith(byte[] a_prefix, int a_offset)
+	{
+		int start = m_scanner.getLineStart() + a_offset;
+		if (m_scanner.getLineEnd() - start < a_prefix.length)
+		{
+			return false;
+		}
+		byte[] buffer = m_scanner.getBuffer();
+		for (int i = 0; i < a_prefix.length; i++)
+		{
+			if (buffer[start + i] != a_prefix[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves to the next token of the current line that is separated by spaces.
+	 * @return false if there are no more tokens
+	 */
+	private boolean nextToken()
+	{
+		byte[] buffer = m_scanner.getBuffer();
+		int end = m_scanner.getLineEnd();
+		int i = m_tokenEnd;
+		while (i < end && (buffer[i] == ' ' || buffer[i] == '\t'))
+		{
+			i++;
+		}
+		m_tokenStart = i;
+		while (i < end && buffer[i] != ' ' && buffer[i] != '\t')
+		{
+			i++;
+		}
+		m_tokenEnd = i;
+		return m_tokenStart < m_tokenEnd;
+	}
+
+	private String getToken()
+	{
+		return getString(m_tokenStart, m_tokenEnd);
+	}
+
+	/**
+	 * Parses the next token as a non-negative integer.
+	 * @return the integer or -1 if the token is missing or not a number
+	 */
+	private int nextInt()
+	{
+		if (!nextToken() || m_tokenEnd - m_tokenStart > 9)
+		{
+			return -1;
+		}
+		byte[] buffer = m_scanner.getBuffer();
+		int value = 0;
+		for (int i = m_tokenStart; i < m_tokenEnd; i++)
+		{
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9)
+			{
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the fingerprint that starts at the given offset without the spaces
+	 */
+	private String getFingerprint(int a_start)
+	{
+		byte[] buffer = m_scanner.getBuffer();
+		int end = m_scanner.getLineEnd();
+		char[] chars = new char[end - a_start];
+		int length = 0;
+		for (int i = a_start; i < end; i++)
+		{
+			if (buffer[i] != ' ')
+			{
+				chars[length++] = (char) (buffer[i] & 0xFF);
+			}
+		}
+		return new String(chars, 0, length);
+	}
+
+	private String getString(int a_start, int a_end)
+	{
+		byte[] buffer = m_scanner.getBuffer();
+		char[] chars = new char[a_end - a_start];
+		for (int i = 0; i < chars.length; i++)
+		{
+			chars[i] = (char) (buffer[a_start + i] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	private static byte[] toBytes(String a_string)
+	{
+		byte[] bytes = new byte[a_string.length()];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = (byte) a_string.charAt(i);
+		}
+		return bytes;
+	}
+}
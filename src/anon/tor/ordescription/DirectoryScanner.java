@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor.ordescription;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a directory document into lines without creating a String for each line. The document
+ * is either a byte array or a stream that is read into a buffer which grows only if a single
+ * marked region does not fit into it. A line is given by its start and end offset in the buffer;
+ * the end excludes the line terminator ("\n" or "\r\n").
+ */
+final class DirectoryScanner
+{
+	private static final int BUFFER_SIZE = 16384;
+
+	private InputStream m_in;
+	private byte[] m_buffer;
+	private int m_end;
+	private int m_lineStart;
+	private int m_lineEnd;
+	private int m_nextLine;
+	// start of the marked line or -1; the buffer keeps everything from here on
+	private int m_mark;
+	private boolean m_bEndOfStream;
+
+	/**
+	 * Creates a scanner over a document in memory. The array is not copied.
+	 * @param a_document the document
+	 */
+	public DirectoryScanner(byte[] a_document)
+	{
+		m_buffer = a_document;
+		m_end = a_document.length;
+		m_mark = -1;
+		m_bEndOfStream = true;
+	}
+
+	/**
+	 * Creates a scanner that reads the document from a stream.
+	 * @param a_in the stream; it is not closed by the scanner
+	 */
+	public DirectoryScanner(InputStream a_in)
+	{
+		m_in = a_in;
+		m_buffer = new byte[BUFFER_SIZE];
+		m_mark = -1;
+		m_bEndOfStream = false;
+	}
+
+	/**
+	 * Moves to the next line.
+	 * @return false if there are no more lines
+	 * @throws IOException if the stream could not be read
+	 */
+	public boolean nextLine() throws IOException
+	{
+		m_lineStart = m_nextLine;
+		int i = m_lineStart;
+		for (;;)
+		{
+			while (i < m_end)
+			{
+				if (m_buffer[i] == '\n')
+				{
+					m_nextLine = i + 1;
+					if (i > m_lineStart && m_buffer[i - 1] == '\r')
+					{
+						i--;
+					}
+					m_lineEnd = i;
+					return true;
+				}
+				i++;
+			}
+			if (m_bEndOfStream)
+			{
+				break;
+			}
+			i -= fill();
+		}
+		if (m_lineStart < m_end)
+		{
+			// last line without a line terminator
+			m_lineEnd = m_end;
+			m_nextLine = m_end;
+			return true;
+		}
+		m_lineEnd = m_lineStart;
+		return false;
+	}
+
+	/**
+	 * Marks the current line. The marked line and all lines after it stay in the buffer until
+	 * unmark() is called, so their offsets may be used even after further calls of nextLine().
+	 * Note that the offsets of a stream buffer may move while it is refilled, so they should be
+	 * stored relative to getMark().
+	 */
+	public void mark()
+	{
+		m_mark = m_lineStart;
+	}
+
+	/**
+	 * Moves to a line after the mark, i.e. the next call of nextLine() returns this line.
+	 * @param a_offset the offset of the line relative to the mark, e.g. 0 for the marked line
+	 */
+	public void seek(int a_offset)
+	{
+		m_nextLine = m_mark + a_offset;
+	}
+
+	public void unmark()
+	{
+		m_mark = -1;
+	}
+
+	/**
+	 * @return the offset of the marked line in the buffer
+	 */
+	public int getMark()
+	{
+		return m_mark;
+	}
+
+	/**
+	 * @return the buffer that contains the current line; it may change after nextLine()
+	 */
+	public byte[] getBuffer()
+	{
+		return m_buffer;
+	}
+
+	public int getLineStart()
+	{
+		return m_lineStart;
+	}
+
+	public int getLineEnd()
+	{
+		return m_lineEnd;
+	}
+
+	/**
+	 * Reads more data from the stream. The unneeded data in front of the marked or the current
+	 * line is dropped first.
+	 * @return the number of bytes the data in the buffer has been moved to the front
+	 */
+	private int fill() throws IOException
+	{
+		int keep = m_mark >= 0 ? m_mark : m_lineStart;
+		if (keep > 0)
+		{
+			System.arraycopy(m_buffer, keep, m_buffer, 0, m_end - keep);
+			m_end -= keep;
+			m_lineStart -= keep;
+			m_nextLine -= keep;
+			if (m_mark >= 0)
+			{
+				m_mark -= keep;
+			}
+		}
+		if (m_end == m_buffer.length)
+		{
+			byte[] buffer = new byte[m_buffer.length * 2];
+			System.arraycopy(m_buffer, 0, buffer, 0, m_end);
+			m_buffer = buffer;
+		}
+		int len = m_in.read(m_buffer, m_end, m_buffer.length - m_end);
+		if (len < 0)
+		{
+			m_bEndOfStream = true;
+		}
+		else
+		{
+			m_end += len;
+		}
+		return keep;
+	}
+}
@@ -47,6 +47,9 @@ public class ORDescriptor
 	private int m_port;
 	private int m_portDir;
 	private int m_uptime;
+	private int m_bandwidthAverage;
+	private int m_bandwidthBurst;
+	private int m_bandwidthObserved;
 	private String m_strSoftware;
 	private String m_published;
 	private String m_hash;
@@ -77,6 +80,9 @@ public class ORDescriptor
 		m_acl = new ORAcl();
 		m_bIsExitNode = false;
 		m_uptime = 0;
+		m_bandwidthAverage = -1;
+		m_bandwidthBurst = -1;
+		m_bandwidthObserved = -1;
 		m_hibernate = false;
 		family = null;
 	}
@@ -126,6 +132,65 @@ public class ORDescriptor
 		return family;
 	}
 	
+	/**
+	 * sets the bandwidth of this onion router as given by the "bandwidth" line of its descriptor
+	 * @param average
+	 * bandwidth in bytes/s the onion router is willing to sustain
+	 * @param burst
+	 * bandwidth in bytes/s the onion router is willing to sustain in short bursts
+	 * @param observed
+	 * bandwidth in bytes/s the onion router has measured for itself
+	 */
+	public void setBandwidth(int average, int burst, int observed)
+	{
+		m_bandwidthAverage = average;
+		m_bandwidthBurst = burst;
+		m_bandwidthObserved = observed;
+	}
+
+	/**
+	 * @return the advertised average bandwidth in bytes/s or -1 if it is unknown
+	 */
+	public int getBandwidthAverage()
+	{
+		return m_bandwidthAverage;
+	}
+
+	/**
+	 * @return the advertised burst bandwidth in bytes/s or -1 if it is unknown
+	 */
+	public int getBandwidthBurst()
+	{
+		return m_bandwidthBurst;
+	}
+
+	/**
+	 * @return the observed bandwidth in bytes/s or -1 if it is unknown
+	 */
+	public int getBandwidthObserved()
+	{
+		return m_bandwidthObserved;
+	}
+
+	/**
+	 * gets the bandwidth this onion router may be expected to provide, which is the minimum of
+	 * the advertised average and the observed bandwidth like in Tor
+	 * @return
+	 * bandwidth in bytes/s or -1 if it is unknown
+	 */
+	public int getBandwidth()
+	{
+		if (m_bandwidthObserved < 0)
+		{
+			return m_bandwidthAverage;
+		}
+		if (m_bandwidthAverage < 0)
+		{
+			return m_bandwidthObserved;
+		}
+		return Math.min(m_bandwidthAverage, m_bandwidthObserved);
+	}
+
 	public void setHibernate(boolean hibernate)
 	{
 		m_hibernate = hibernate;
@@ -356,6 +421,7 @@ public class ORDescriptor
 			String published   = "";
 			String fp = "";
 			boolean hibernate = false;
+			int[] bandwidth = null;
 			
 			for (;;)
 			{
@@ -407,6 +473,23 @@ public class ORDescriptor
 					}
 					fp = buff.toString();
 				}
+				else if (ln.startsWith("bandwidth"))
+				{
+					try
+					{
+						st = new StringTokenizer(ln);
+						st.nextToken(); // skip "bandwidth"
+						bandwidth = new int[3];
+						for (int i = 0; i < bandwidth.length; i++)
+						{
+							bandwidth[i] = Integer.parseInt(st.nextToken());
+						}
+					}
+					catch (Exception e)
+					{
+						bandwidth = null;
+					}
+				}
 				else if (ln.startsWith("hibernate"))
 				{
 					try
@@ -513,6 +596,10 @@ public class ORDescriptor
 							ord.setPublished(published);
 							ord.setFingerprint(fp);
 							ord.setHibernate(hibernate);
+							if (bandwidth != null)
+							{
+								ord.setBandwidth(bandwidth[0], bandwidth[1], bandwidth[2]);
+							}
 							ord.setHash(calcHash(router_doc.toString()));
 							
 							try
@@ -27,39 +27,54 @@
  */
 package anon.tor.ordescription;
 
-import java.io.LineNumberReader;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.StringTokenizer;
-import java.util.TimeZone;
 import java.util.Vector;
 
 import anon.crypto.MyRandom;
-import anon.util.Base64;
-import anon.tor.util.Base16;
 import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
-import java.io.InputStreamReader;
-import java.io.ByteArrayInputStream;
 
 final public class ORList
 {
-	private Vector m_onionrouters;
-	private Vector m_exitnodes;
-	private Vector m_middlenodes;
+	/** Bandwidth in bytes/s that is assumed for routers that do not advertise their bandwidth. */
+	public final static int DEFAULT_BANDWIDTH = 20 * 1024;
+
+	/** Routers are not believed to have more bandwidth (in bytes/s) than this. */
+	public final static int MAX_BELIEVABLE_BANDWIDTH = 10 * 1024 * 1024;
+
+	/** The selection weight of slow routers is divided by this value. */
+	public final static int SLOW_ROUTER_DEMOTION = 10;
+
+	/**
+	 * A router is slow if it builds circuits this many times slower or carries this many times
+	 * less throughput than the average router.
+	 */
+	public final static int SLOW_ROUTER_FACTOR = 2;
+
+	/** The number of measurements of a router before it may be considered slow. */
+	public final static int MIN_MEASUREMENTS = 3;
+
+	//all routers with different names; the array is replaced as a whole if the list changes
+	private ORDescriptor[] m_onionrouters;
+	private int m_countExitNodes;
 	private Hashtable m_onionroutersWithNames;
 	private MyRandom m_rand;
 	private ORListFetcher m_orlistFetcher;
 	private Date m_datePublished;
 	private int m_countHibernate;
-	private final static DateFormat ms_DateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-	static
-	{
-		ms_DateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-	}
+	//measured circuit build times and throughput of the routers by name
+	private Hashtable m_routerStatistics;
+	private long m_averageBuildTime;
+	private long m_averageThroughput;
+	//selection tables - null if they have to be rebuilt
+	private WeightedRouterTable m_tableAll;
+	private WeightedRouterTable m_tableExitNodes;
+	private WeightedRouterTable m_tableMiddleNodes;
 
 	/**
 	 * constructor
@@ -67,13 +82,15 @@ final public class ORList
 	 */
 	public ORList(ORListFetcher fetcher)
 	{
-		m_onionrouters = new Vector();
-		m_exitnodes = new Vector();
-		m_middlenodes = new Vector();
+		m_onionrouters = new ORDescriptor[0];
+		m_countExitNodes = 0;
 		m_onionroutersWithNames = new Hashtable();
 		m_orlistFetcher = fetcher;
 		m_countHibernate = 0;
 		m_rand = new MyRandom();
+		m_routerStatistics = new Hashtable();
+		m_averageBuildTime = -1;
+		m_averageThroughput = -1;
 	}
 
 	/**
@@ -83,7 +100,7 @@ final public class ORList
 	 */
 	public synchronized int size()
 	{
-		return m_onionrouters.size();
+		return m_onionrouters.length;
 	}
 
 	public synchronized int active()
@@ -96,7 +113,8 @@ final public class ORList
 		m_orlistFetcher = fetcher;
 	}
 
-	/** Updates the list of available ORRouters.
+	/** Updates the list of available ORRouters. Routers whose descriptors have not changed are
+	 * kept.
 	 * @return true if it was ok, false otherwise
 	 */
 	public synchronized boolean updateList()
@@ -110,11 +128,11 @@ final public class ORList
 				buff=m_orlistFetcher.getAllDescriptors();
 				if(buff==null)
 					return false;
-				return parseFirstDocument(buff);
+				return parseDescriptors(new DirectoryScanner(buff));
 			}
 			else
 			{
-				return parseStatus(buff, true);
+				return parseStatus(buff);
 			}
 		}
 		catch (Throwable t)
@@ -125,14 +143,40 @@ final public class ORList
 		return false;
 	}
 
+	/**
+	 * Updates the list from a directory document that is read from the given stream, e.g. a
+	 * stored copy of the directory. Routers whose descriptors have not changed are kept.
+	 * @param a_directory
+	 * directory document with the descriptors of all routers
+	 * @return true if it was ok, false otherwise
+	 */
+	public synchronized boolean updateList(InputStream a_directory)
+	{
+		try
+		{
+			return parseDescriptors(new DirectoryScanner(a_directory));
+		}
+		catch (IOException a_e)
+		{
+			LogHolder.log(LogLevel.DEBUG, LogType.TOR,
+						  "There was a problem with reading the available ORRouters: " + a_e.getMessage());
+		}
+		return false;
+	}
+
 	/**
 	 * returns a List of all onionrouters
 	 * @return
 	 * List of ORDescriptions
 	 */
-	public Vector getList()
+	public synchronized Vector getList()
 	{
-		return (Vector) m_onionrouters.clone();
+		Vector list = new Vector(m_onionrouters.length);
+		for (int i = 0; i < m_onionrouters.length; i++)
+		{
+			list.addElement(m_onionrouters[i]);
+		}
+		return list;
 	}
 
 	/**
@@ -170,37 +214,30 @@ final public class ORList
 			return;
 		}
 
-		m_onionrouters.removeElement(ord);
-		if (ord.isExitNode())
-		{
-			m_exitnodes.removeElement(ord);
-		}
-		else
+		ORDescriptor[] routers = new ORDescriptor[m_onionrouters.length - 1];
+		int count = 0;
+		for (int i = 0; i < m_onionrouters.length; i++)
 		{
-			m_middlenodes.removeElement(ord);
+			if (m_onionrouters[i] != ord)
+			{
+				routers[count++] = m_onionrouters[i];
+			}
 		}
 		m_onionroutersWithNames.remove(name);
+		setRouters(routers, count);
 	}
 
 	/**
-	 * add an onion rotuer
+	 * add an onion rotuer. A router with the same name is replaced.
 	 * @param ord
 	 * descriptor for router
 	 */
 	public synchronized void add(ORDescriptor ord)
 	{
-		if (ord.isExitNode())
-		{
-			m_exitnodes.addElement(ord);
-		}
-		else
-		{
-			m_middlenodes.addElement(ord);
-		}
-
-		m_onionrouters.addElement(ord);
-		m_onionroutersWithNames.put(ord.getName(), ord);
-		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "Added: " + ord);
+		Vector routers = new Vector(1);
+		routers.addElement(ord);
+		replaceRouters(routers);
+		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "Added: {}", ord);
 	}
 
 	/**
@@ -233,7 +270,8 @@ final public class ORList
 	}
 
 	/**
-	 * selects a OR randomly (it should not hibernate)
+	 * selects a OR randomly (it should not hibernate). The probability of a router is
+	 * proportional to its bandwidth.
 	 * @return
 	 */
 	public synchronized ORDescriptor getByRandom()
@@ -242,23 +280,17 @@ final public class ORList
 		{
 			return null;
 		}
-
-		ORDescriptor ord;
-		while (true)
+		if (m_tableAll == null)
 		{
-			ord = (ORDescriptor)this.m_onionrouters.elementAt(m_rand.nextInt(m_onionrouters.size()));
-			if (ord.getHibernate() == false)
-			{
-				break;
-			}
+			m_tableAll = createTable(m_onionrouters);
 		}
-
-		return ord;
+		return m_tableAll.select(m_rand);
 	}
 
 	/**
 	 * selects a OR randomly
-	 * tries to blanace the probability of exit and non-exit nodes
+	 * tries to blanace the probability of exit and non-exit nodes. Within the exit and the
+	 * non-exit nodes, the probability of a router is proportional to its bandwidth.
 	 * @param length
 	 * length of the circuit
 	 * @return
@@ -269,13 +301,33 @@ final public class ORList
 		{
 			return null;
 		}
+		if (m_tableExitNodes == null)
+		{
+			ORDescriptor[] exitNodes = new ORDescriptor[m_countExitNodes];
+			ORDescriptor[] middleNodes = new ORDescriptor[m_onionrouters.length - m_countExitNodes];
+			int countExitNodes = 0;
+			int countMiddleNodes = 0;
+			for (int i = 0; i < m_onionrouters.length; i++)
+			{
+				if (m_onionrouters[i].isExitNode())
+				{
+					exitNodes[countExitNodes++] = m_onionrouters[i];
+				}
+				else
+				{
+					middleNodes[countMiddleNodes++] = m_onionrouters[i];
+				}
+			}
+			m_tableExitNodes = createTable(exitNodes);
+			m_tableMiddleNodes = createTable(middleNodes);
+		}
 
 		//we know that the last node is an exit node, so we have to calculate a new probability
 		//p(x') = (p(x)-1/length)*(length/(length-1))
 		//p(x) ... probability for exit nodes    p(x') ... new probability for exit nodes
 		//p(x) = exit_nodes/number_of_routers
-		int number_of_routers = m_onionrouters.size();
-		int numerator = length * m_exitnodes.size() - number_of_routers;
+		int number_of_routers = m_onionrouters.length;
+		int numerator = length * m_countExitNodes - number_of_routers;
 		int denominator = (length - 1) * number_of_routers;
 
 		//TODO: line can be removed if tor balance exit nodes and middlerouters in the right way
@@ -283,26 +335,173 @@ final public class ORList
 		denominator *= 2;
 
 		ORDescriptor ord;
-		while (true)
+		if (m_rand.nextInt(denominator) > numerator)
 		{
-			if (m_rand.nextInt(denominator) > numerator)
-			{
-				ord = (ORDescriptor)this.m_middlenodes.elementAt(m_rand.nextInt(m_middlenodes.size()));
-			}
-			else
+			ord = m_tableMiddleNodes.select(m_rand);
+			if (ord == null)
 			{
-				ord = (ORDescriptor)this.m_exitnodes.elementAt(m_rand.nextInt(m_exitnodes.size()));
+				ord = m_tableExitNodes.select(m_rand);
 			}
-
-			if (ord.getHibernate() == false)
+		}
+		else
+		{
+			ord = m_tableExitNodes.select(m_rand);
+			if (ord == null)
 			{
-				break;
+				ord = m_tableMiddleNodes.select(m_rand);
 			}
 		}
 
 		return ord;
 	}
 
+	/**
+	 * selects one of the given ORs randomly. The probability of a router is proportional to its
+	 * bandwidth.
+	 * @param routers
+	 * list of ORDescriptions, e.g. the possible exit nodes for a destination
+	 * @return
+	 * a router or null if none of the routers may be used
+	 */
+	public synchronized ORDescriptor getByRandomWeighted(Vector routers)
+	{
+		ORDescriptor[] ords = new ORDescriptor[routers.size()];
+		routers.copyInto(ords);
+		return createTable(ords).select(m_rand);
+	}
+
+	/**
+	 * gets the weight of a router for the random selection. It is the bandwidth of the router in
+	 * KBytes/s, divided by SLOW_ROUTER_DEMOTION if the router is slow, and 0 if it hibernates.
+	 * @param ord
+	 * ORDescription
+	 * @return
+	 * weight
+	 */
+	public synchronized int getWeight(ORDescriptor ord)
+	{
+		if (ord.getHibernate())
+		{
+			return 0;
+		}
+		int bandwidth = ord.getBandwidth();
+		if (bandwidth < 0)
+		{
+			bandwidth = DEFAULT_BANDWIDTH;
+		}
+		int weight = Math.max(1, Math.min(bandwidth, MAX_BELIEVABLE_BANDWIDTH) / 1024);
+		if (isSlow(ord))
+		{
+			weight = Math.max(1, weight / SLOW_ROUTER_DEMOTION);
+		}
+		return weight;
+	}
+
+	/**
+	 * checks if a router has been measured to be consistently slower than the average router
+	 * @param ord
+	 * ORDescription
+	 * @return
+	 * true if the router is slow
+	 */
+	public synchronized boolean isSlow(ORDescriptor ord)
+	{
+		RouterStatistics statistics = (RouterStatistics) m_routerStatistics.get(ord.getName());
+		return statistics != null && statistics.m_bSlow;
+	}
+
+	/**
+	 * adds a measured time that was needed to extend a circuit to the given router
+	 * @param ord
+	 * ORDescription
+	 * @param buildTime
+	 * time in milliseconds
+	 */
+	public synchronized void addCircuitBuildTime(ORDescriptor ord, long buildTime)
+	{
+		RouterStatistics statistics = getStatistics(ord);
+		statistics.m_buildTime = average(statistics.m_buildTime, buildTime, 4);
+		statistics.m_buildTimeMeasurements++;
+		m_averageBuildTime = average(m_averageBuildTime, buildTime, 32);
+		updateSlow(statistics);
+	}
+
+	/**
+	 * adds a measured throughput of a circuit the given router was part of
+	 * @param ord
+	 * ORDescription
+	 * @param bytesPerSecond
+	 * throughput in bytes/s
+	 */
+	public synchronized void addThroughput(ORDescriptor ord, long bytesPerSecond)
+	{
+		RouterStatistics statistics = getStatistics(ord);
+		statistics.m_throughput = average(statistics.m_throughput, bytesPerSecond, 4);
+		statistics.m_throughputMeasurements++;
+		m_averageThroughput = average(m_averageThroughput, bytesPerSecond, 32);
+		updateSlow(statistics);
+	}
+
+	private RouterStatistics getStatistics(ORDescriptor ord)
+	{
+		RouterStatistics statistics = (RouterStatistics) m_routerStatistics.get(ord.getName());
+		if (statistics == null)
+		{
+			statistics = new RouterStatistics();
+			m_routerStatistics.put(ord.getName(), statistics);
+		}
+		return statistics;
+	}
+
+	/**
+	 * exponentially weighted moving average
+	 * @param average
+	 * previous average or -1 if there is none
+	 * @param value
+	 * new value
+	 * @param weight
+	 * the new value is weighted with 1/weight
+	 */
+	private static long average(long average, long value, int weight)
+	{
+		if (average < 0)
+		{
+			return value;
+		}
+		return average + (value - average) / weight;
+	}
+
+	private void updateSlow(RouterStatistics statistics)
+	{
+		boolean bSlow =
+			(statistics.m_buildTimeMeasurements >= MIN_MEASUREMENTS &&
+			 statistics.m_buildTime > SLOW_ROUTER_FACTOR * m_averageBuildTime) ||
+			(statistics.m_throughputMeasurements >= MIN_MEASUREMENTS &&
+			 statistics.m_throughput * SLOW_ROUTER_FACTOR < m_averageThroughput);
+		if (bSlow != statistics.m_bSlow)
+		{
+			statistics.m_bSlow = bSlow;
+			invalidateTables();
+		}
+	}
+
+	private WeightedRouterTable createTable(ORDescriptor[] ords)
+	{
+		int[] weights = new int[ords.length];
+		for (int i = 0; i < ords.length; i++)
+		{
+			weights[i] = getWeight(ords[i]);
+		}
+		return new WeightedRouterTable(ords, weights);
+	}
+
+	private void invalidateTables()
+	{
+		m_tableAll = null;
+		m_tableExitNodes = null;
+		m_tableMiddleNodes = null;
+	}
+
 	/**
 	 * returns a ORDescription to the given ORName
 	 * @param name
@@ -320,207 +519,171 @@ final public class ORList
 	}
 
 	/**
-	 * parse router status
+	 * parses a router status and replaces the routers whose descriptors have changed
+	 * @param document
+	 * network status document
+	 * @return false if document is not a valid network status, true otherwise
 	 */
-	private boolean parseStatus(byte[] document, boolean change) throws Exception
+	private boolean parseStatus(byte[] document) throws IOException
 	{
-		LineNumberReader reader = new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(
-			document)));
-		Date published = null;
-		String curLine = reader.readLine();
-		StringTokenizer st;
-		byte[] b;
-		boolean hibernate = false;
-
-		if (curLine == null || !curLine.startsWith("network-status-version"))
+		DirectoryParser parser = new DirectoryParser(new DirectoryScanner(document));
+		if (!parser.isStatus())
 		{
 			return false;
 		}
 
-		while (true)
+		Vector changedRouters = new Vector();
+		while (parser.nextStatus())
 		{
-			reader.mark(200);
-			curLine = reader.readLine();
-
-			if (curLine == null)
-			{
-				break;
-			}
-
-			if (curLine.startsWith("published"))
-			{
-				st = new StringTokenizer(curLine, " ");
-				st.nextToken();
-				String strPublished = st.nextToken();
-				strPublished += " " + st.nextToken();
-				published = ms_DateFormat.parse(strPublished);
-			}
-			else if (curLine.startsWith("r "))
+			/** @todo handle status flags and version of OR */
+			ORDescriptor ord = getByName(parser.getStatusName());
+			String digest = parser.getStatusDigest();
+			if (ord == null || !digest.equals(ord.getHash()))
 			{
-				st = new StringTokenizer(curLine, " ");
-				st.nextToken();
-				String nick = st.nextToken();
-				String hashKey = st.nextToken() + "=";
-				String hashDescriptor = st.nextToken() + "=";
-				String strPublished = st.nextToken();
-				strPublished += " " + st.nextToken();
-				String address = st.nextToken();
-				String version;
-				Vector options = new Vector();
-				int port = Integer.parseInt(st.nextToken());
-
-				reader.mark(200);
-				curLine = reader.readLine();
-				if (!curLine.startsWith("s "))
-				{
-					reader.reset();
-				}
-				else
-				{
-					st = new StringTokenizer(curLine);
-					st.nextToken();
-
-					while (st.hasMoreTokens())
-					{
-						options.addElement(st.nextToken());
-					}
-				}
-
-				/** @todo handle status flags */
-
-				curLine = reader.readLine();
-				if (curLine.startsWith("v "))
+				byte[] b = m_orlistFetcher.getDescriptor(digest);
+				if (b != null)
 				{
-					version = curLine.substring(2);
-				}
-				else if (curLine.startsWith("opt v "))
-				{
-					version = curLine.substring(6);
-				}
-				else
-				{
-					reader.reset();
-				}
-
-				/** @todo handle version of OR */
-
-				ORDescriptor ord = getORDescriptor(nick);
-				/*if (ord != null && ! hashDescriptor.equals(ord.getHash()))
-				  {
-				 if (! change)
-				 {
-				  ord.setHash(hashDescriptor);
-				  }
-				 else
-				 {
-				   b = m_orlistFetcher.getDescriptorByFingerprint(ord.getFingerprint());
-
-				   if (b != null)
-				   {
-				 if (ord != null && ord.getHibernate())
-				 {
-				  hibernate = true;
-				 }
-				 remove(nick);
-				 LineNumberReader l = new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(b)));
-				 ord = ORDescriptor.parse(l);
-
-				 // does not hibernate anymore, decrease number
-				 if (hibernate && ! ord.getHibernate())
-				 {
-				  m_countHibernate--;
-				 }
-				 add(ord);
-				   }
-				 }
-				  }*/
-
-				String digest = Base16.encode( (Base64.decode(hashDescriptor)));
-				if ( (ord == null)
-					|| ( (ord.getHash() == null) || (!digest.equals(ord.getHash()))))
-				{
-					b = m_orlistFetcher.getDescriptor(digest);
-					if (b != null)
+					ord = new DirectoryParser(new DirectoryScanner(b)).nextDescriptor(null);
+					if (ord != null)
 					{
-						if (ord != null && ord.getHibernate())
-						{
-							hibernate = true;
-						}
-						remove(nick);
-						LineNumberReader l = new LineNumberReader(new InputStreamReader(new
-							ByteArrayInputStream(b)));
-						ord = ORDescriptor.parse(l);
 						ord.setHash(digest);
-
-						// does not hibernate anymore, decrease number
-						if (hibernate && !ord.getHibernate())
-						{
-							m_countHibernate--;
-						}
-						add(ord);
+						changedRouters.addElement(ord);
 					}
 				}
 			}
 		}
-
+		replaceRouters(changedRouters);
+		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "Updated {} routers.",
+					  new Integer(changedRouters.size()));
+		m_datePublished = new Date();
 		return true;
 	}
 
 	/**
-	 * parses the document and creates a list with all ORDescriptions
-	 * @param strDocument
-	 * @throws Exception
+	 * parses a document with the descriptors of all routers and replaces the list with them.
+	 * Routers whose descriptors have not changed are kept, so only new descriptors are parsed.
+	 * @param a_scanner
+	 * the document
+	 * @throws IOException
 	 * @return false if document is not a valid directory, true otherwise
 	 */
-	private synchronized boolean parseFirstDocument(byte[] document) throws Exception
+	private boolean parseDescriptors(DirectoryScanner a_scanner) throws IOException
 	{
-		LineNumberReader reader = new LineNumberReader(new InputStreamReader(new ByteArrayInputStream(
-			document)));
-		Date published = new Date();//workaround for a while until we are able to get the real published date of the tor list
-		reader.mark(200);
-		String curLine = reader.readLine();
-
-		if (curLine == null)
-		{
-			return false;
-		}
-		m_countHibernate=0;
-		m_onionrouters = new Vector();
-		m_exitnodes = new Vector();
-		m_middlenodes = new Vector();
-		m_onionroutersWithNames = new Hashtable();
-
-		for (; ; )
+		DirectoryParser parser = new DirectoryParser(a_scanner);
+		ORDescriptor[] routers = new ORDescriptor[Math.max(64, m_onionrouters.length)];
+		Hashtable routersWithNames = new Hashtable(routers.length * 2);
+		int count = 0;
+		int countChanged = 0;
+		ORDescriptor ord;
+		while ( (ord = parser.nextDescriptor(m_onionroutersWithNames)) != null)
 		{
-			if (curLine.startsWith("router "))
+			if (routersWithNames.put(ord.getName(), ord) != null)
 			{
-				reader.reset();
-				ORDescriptor ord = ORDescriptor.parse(reader);
-				if (ord != null)
-				{
-					if (ord.getHibernate())
-					{
-						m_countHibernate++;
-					}
-					add(ord);
-				}
+				//the first router with a name is used
+				continue;
 			}
-			reader.mark(200);
-			curLine = reader.readLine();
-			if (curLine == null)
+			if (count == routers.length)
 			{
-				break;
+				ORDescriptor[] newRouters = new ORDescriptor[routers.length * 2];
+				System.arraycopy(routers, 0, newRouters, 0, count);
+				routers = newRouters;
 			}
-			if (curLine == null)
+			routers[count++] = ord;
+			if (m_onionroutersWithNames.get(ord.getName()) != ord)
 			{
-				break;
+				countChanged++;
 			}
 		}
+		if (count == 0)
+		{
+			return false;
+		}
+		m_onionroutersWithNames = routersWithNames;
+		setRouters(routers, count);
 
-		LogHolder.log(LogLevel.DEBUG, LogType.TOR,
-					  "Exit Nodes : " + m_exitnodes.size() + " Non-Exit Nodes : " + m_middlenodes.size());
-		m_datePublished = published;
+		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "Exit Nodes : {} Non-Exit Nodes : {}",
+					  new Integer(m_countExitNodes), new Integer(count - m_countExitNodes));
+		LogHolder.log(LogLevel.DEBUG, LogType.TOR, "Parsed {} new or changed descriptors.",
+					  new Integer(countChanged));
+		m_datePublished = new Date();//workaround for a while until we are able to get the real published date of the tor list
 
 		return true;
 	}
+
+	/**
+	 * replaces the routers with the same names as the given routers and adds the others
+	 * @param a_routers
+	 * List of ORDescriptions
+	 */
+	private void replaceRouters(Vector a_routers)
+	{
+		if (a_routers.size() == 0)
+		{
+			return;
+		}
+		Hashtable changedRouters = new Hashtable();
+		for (int i = 0; i < a_routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) a_routers.elementAt(i);
+			changedRouters.put(ord.getName(), ord);
+			m_onionroutersWithNames.put(ord.getName(), ord);
+		}
+		ORDescriptor[] routers = new ORDescriptor[m_onionrouters.length + changedRouters.size()];
+		int count = 0;
+		for (int i = 0; i < m_onionrouters.length; i++)
+		{
+			ORDescriptor ord = (ORDescriptor) changedRouters.remove(m_onionrouters[i].getName());
+			routers[count++] = (ord != null) ? ord : m_onionrouters[i];
+		}
+		Enumeration addedRouters = changedRouters.elements();
+		while (addedRouters.hasMoreElements())
+		{
+			routers[count++] = (ORDescriptor) addedRouters.nextElement();
+		}
+		setRouters(routers, count);
+	}
+
+	/**
+	 * sets the routers of the list; m_onionroutersWithNames has to be updated by the caller
+	 * @param a_routers
+	 * routers with different names
+	 * @param a_count
+	 * number of routers in the array
+	 */
+	private void setRouters(ORDescriptor[] a_routers, int a_count)
+	{
+		if (a_count < a_routers.length)
+		{
+			ORDescriptor[] routers = new ORDescriptor[a_count];
+			System.arraycopy(a_routers, 0, routers, 0, a_count);
+			a_routers = routers;
+		}
+		m_countExitNodes = 0;
+		m_countHibernate = 0;
+		for (int i = 0; i < a_routers.length; i++)
+		{
+			if (a_routers[i].isExitNode())
+			{
+				m_countExitNodes++;
+			}
+			if (a_routers[i].getHibernate())
+			{
+				m_countHibernate++;
+			}
+		}
+		m_onionrouters = a_routers;
+		invalidateTables();
+	}
+
+	/**
+	 * measurements of a router
+	 */
+	private static final class RouterStatistics
+	{
+		private long m_buildTime = -1;
+		private int m_buildTimeMeasurements = 0;
+		private long m_throughput = -1;
+		private int m_throughputMeasurements = 0;
+		private boolean m_bSlow = false;
+	}
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor.ordescription;
+
+import anon.crypto.MyRandom;
+
+/**
+ * An immutable table of onion routers that selects a router randomly with a probability that
+ * is proportional to its weight. The weights are stored as a cumulative array, so a selection
+ * is a binary search instead of a scan over all routers.
+ */
+final class WeightedRouterTable
+{
+	private ORDescriptor[] m_routers;
+	// m_cumulativeWeights[i] is the sum of the weights of the routers 0 to i
+	private int[] m_cumulativeWeights;
+
+	/**
+	 * Creates a new table.
+	 * @param a_routers the routers
+	 * @param a_weights the weights of the routers; routers with weight 0 are never selected
+	 */
+	public WeightedRouterTable(ORDescriptor[] a_routers, int[] a_weights)
+	{
+		m_routers = a_routers;
+		m_cumulativeWeights = new int[a_weights.length];
+		int sum = 0;
+		for (int i = 0; i < a_weights.length; i++)
+		{
+			sum += Math.max(0, a_weights[i]);
+			m_cumulativeWeights[i] = sum;
+		}
+	}
+
+	public int size()
+	{
+		return m_routers.length;
+	}
+
+	/**
+	 * @return the sum of the weights of all routers
+	 */
+	public int getTotalWeight()
+	{
+		if (m_cumulativeWeights.length == 0)
+		{
+			return 0;
+		}
+		return m_cumulativeWeights[m_cumulativeWeights.length - 1];
+	}
+
+	/**
+	 * Selects a router randomly according to the weights.
+	 * @param a_random a random number generator
+	 * @return a router or null if the total weight is 0
+	 */
+	public ORDescriptor select(MyRandom a_random)
+	{
+		int totalWeight = getTotalWeight();
+		if (totalWeight <= 0)
+		{
+			return null;
+		}
+		return m_routers[find(a_random.nextInt(totalWeight))];
+	}
+
+	/**
+	 * Finds the first router whose cumulative weight is greater than the given value.
+	 * @param a_value a value from 0 (inclusive) to the total weight (exclusive)
+	 * @return the index of the router
+	 */
+	int find(int a_value)
+	{
+		int low = 0;
+		int high = m_cumulativeWeights.length - 1;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (m_cumulativeWeights[middle] > a_value)
+			{
+				high = middle;
+			}
+			else
+			{
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+/**
+ * A bounded pool of byte arrays of a fixed size. It is meant for buffers that are needed very
+ * often for a short time, e.g. for every packet sent or received. Arrays that are returned while
+ * the pool is full are left to the garbage collector, so the pool never holds more than the
+ * given number of arrays.
+ */
+public class ByteArrayPool
+{
+	private final int m_bufferSize;
+	private final byte[][] m_buffers;
+	private int m_pooledBuffers;
+
+	/**
+	 * Creates a new, empty pool.
+	 * @param a_bufferSize the length of all arrays handed out by this pool
+	 * @param a_maxPooledBuffers the maximum number of unused arrays kept by the pool
+	 */
+	public ByteArrayPool(int a_bufferSize, int a_maxPooledBuffers)
+	{
+		if (a_bufferSize < 0 || a_maxPooledBuffers < 0)
+		{
+			throw new IllegalArgumentException("Buffer size and pool size must not be negative!");
+		}
+		m_bufferSize = a_bufferSize;
+		m_buffers = new byte[a_maxPooledBuffers][];
+		m_pooledBuffers = 0;
+	}
+
+	/**
+	 * Returns an array of the size of this pool. The content of the array is undefined.
+	 * @return an unused array, either taken from the pool or newly created
+	 */
+	public byte[] acquire()
+	{
+		synchronized (m_buffers)
+		{
+			if (m_pooledBuffers > 0)
+			{
+				m_pooledBuffers--;
+				byte[] buffer = m_buffers[m_pooledBuffers];
+				m_buffers[m_pooledBuffers] = null;
+				return buffer;
+			}
+		}
+		return new byte[m_bufferSize];
+	}
+
+	/**
+	 * Gives an array back to the pool. The caller must not use the array afterwards.
+	 * @param a_buffer an array previously got from this pool; arrays of a different size
+	 * and null are ignored
+	 */
+	public void release(byte[] a_buffer)
+	{
+		if (a_buffer == null || a_buffer.length != m_bufferSize)
+		{
+			return;
+		}
+		synchronized (m_buffers)
+		{
+			if (m_pooledBuffers < m_buffers.length)
+			{
+				m_buffers[m_pooledBuffers] = a_buffer;
+				m_pooledBuffers++;
+			}
+		}
+	}
+
+	public int getBufferSize()
+	{
+		return m_bufferSize;
+	}
+
+	public int getPooledBuffers()
+	{
+		synchronized (m_buffers)
+		{
+			return m_pooledBuffers;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+import java.util.Hashtable;
+
+/**
+ * Orders keys by their expire times. The keys are stored in a binary min-heap
+ * and a hashtable remembers the heap position of every key, so inserting,
+ * rescheduling and removing a key take O(log n), while the key which expires
+ * next is found in constant time. Keys with equal expire times are returned
+ * in no particular order. This class is not synchronized.
+ */
+public class ExpiryIndex
+{
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private Object[] m_keys;
+
+	private long[] m_expireTimes;
+
+	/**
+	 * Maps every key to its position in the heap (stored as Integer).
+	 */
+	private Hashtable m_positions;
+
+	private int m_size;
+
+	public ExpiryIndex()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param a_expectedSize The number of keys which can be stored without
+	 *                       enlarging the heap.
+	 */
+	public ExpiryIndex(int a_expectedSize)
+	{
+		int capacity = Math.max(a_expectedSize, 1);
+		m_keys = new Object[capacity];
+		m_expireTimes = new long[capacity];
+		m_positions = new Hashtable(capacity);
+	}
+
+	/**
+	 * Adds a key or changes the expire time of a key that is already stored.
+	 *
+	 * @param a_key a key; must not be null
+	 * @param a_expireTime the time when the key expires
+	 */
+	public void put(Object a_key, long a_expireTime)
+	{
+		Integer position = (Integer) m_positions.get(a_key);
+		if (position != null)
+		{
+			int index = position.intValue();
+			long oldExpireTime = m_expireTimes[index];
+			m_expireTimes[index] = a_expireTime;
+			if (a_expireTime < oldExpireTime)
+			{
+				siftUp(index);
+			}
+			else if (a_expireTime > oldExpireTime)
+			{
+				siftDown(index);
+			}
+			return;
+		}
+
+		if (m_size == m_keys.length)
+		{
+			Object[] keys = new Object[m_size * 2];
+			long[] expireTimes = new long[m_size * 2];
+			System.arraycopy(m_keys, 0, keys, 0, m_size);
+			System.arraycopy(m_expireTimes, 0, expireTimes, 0, m_size);
+			m_keys = keys;
+			m_expireTimes = expireTimes;
+		}
+		m_keys[m_size] = a_key;
+		m_expireTimes[m_size] = a_expireTime;
+		m_positions.put(a_key, new Integer(m_size));
+		m_size++;
+		siftUp(m_size - 1);
+	}
+
+	/**
+	 * Removes a key from the index.
+	 *
+	 * @param a_key a key
+	 * @return true if the key was stored; false otherwise
+	 */
+	public boolean remove(Object a_key)
+	{
+		Integer position = (Integer) m_positions.remove(a_key);
+		if (position == null)
+		{
+			return false;
+		}
+		int index = position.intValue();
+		m_size--;
+		if (index < m_size)
+		{
+			long oldExpireTime = m_expireTimes[index];
+			move(m_size, index);
+			if (m_expireTimes[index] < oldExpireTime)
+			{
+				siftUp(index);
+			}
+			else
+			{
+				siftDown(index);
+			}
+		}
+		m_keys[m_size] = null;
+		return true;
+	}
+
+	/**
+	 * Returns the key which expires next.
+	 *
+	 * @return the key with the lowest expire time or null if the index is empty
+	 */
+	public Object getFirstKey()
+	{
+		if (m_size == 0)
+		{
+			return null;
+		}
+		return m_keys[0];
+	}
+
+	/**
+	 * Returns the lowest expire time of all keys.
+	 *
+	 * @return the lowest expire time or Long.MAX_VALUE if the index is empty
+	 */
+	public long getFirstExpireTime()
+	{
+		if (m_size == 0)
+		{
+			return Long.MAX_VALUE;
+		}
+		return m_expireTimes[0];
+	}
+
+	/**
+	 * Returns the expire time of a key.
+	 *
+	 * @param a_key a key
+	 * @return the expire time of the key or Long.MAX_VALUE if it is not stored
+	 */
+	public long getExpireTime(Object a_key)
+	{
+		Integer position = (Integer) m_positions.get(a_key);
+		if (position == null)
+		{
+			return Long.MAX_VALUE;
+		}
+		return m_expireTimes[position.intValue()];
+	}
+
+	/**
+	 * Returns the key at the given position of the heap. The positions do not
+	 * follow the expire times except for position 0, but every key has
+	 * exactly one position between 0 and size() - 1.
+	 *
+	 * @param a_index a position between 0 and size() - 1
+	 * @return the key at this position
+	 */
+	public Object getKeyAt(int a_index)
+	{
+		if (a_index < 0 || a_index >= m_size)
+		{
+			throw new ArrayIndexOutOfBoundsException(a_index);
+		}
+		return m_keys[a_index];
+	}
+
+	public boolean contains(Object a_key)
+	{
+		return m_positions.containsKey(a_key);
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public boolean isEmpty()
+	{
+		return m_size == 0;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < m_size; i++)
+		{
+			m_keys[i] = null;
+		}
+		m_positions.clear();
+		m_size = 0;
+	}
+
+	private void siftUp(int a_index)
+	{
+		Object key = m_keys[a_index];
+		long expireTime = m_expireTimes[a_index];
+		while (a_index > 0)
+		{
+			int parent = (a_index - 1) >> 1;
+			if (m_expireTimes[parent] <= expireTime)
+			{
+				break;
+			}
+			move(parent, a_index);
+			a_index = parent;
+		}
+		set(a_index, key, expireTime);
+	}
+
+	private void siftDown(int a_index)
+	{
+		Object key = m_keys[a_index];
+		long expireTime = m_expireTimes[a_index];
+		int half = m_size >> 1;
+		while (a_index < half)
+		{
+			int child = (a_index << 1) + 1;
+			if (child + 1 < m_size && m_expireTimes[child + 1] < m_expireTimes[child])
+			{
+				child++;
+			}
+			if (expireTime <= m_expireTimes[child])
+			{
+				break;
+			}
+			move(child, a_index);
+			a_index = child;
+		}
+		set(a_index, key, expireTime);
+	}
+
+	private void move(int a_from, int a_to)
+	{
+		set(a_to, m_keys[a_from], m_expireTimes[a_from]);
+	}
+
+	private void set(int a_index, Object a_key, long a_expireTime)
+	{
+		m_keys[a_index] = a_key;
+		m_expireTimes[a_index] = a_expireTime;
+		m_positions.put(a_key, new Integer(a_index));
+	}
+}
@@ -0,0 +1,15 @@
+package anon.util;
+
+/**
+ * Implement this interface if your task has to know when a TaskPool drops it without running it,
+ * for example because another task with the same key replaced it or the pool has been shut down.
+ * @see TaskPool
+ */
+public interface IDroppableTask extends Runnable
+{
+	/**
+	 * Called by the pool while it holds its internal lock, so this method has to return quickly
+	 * and must not call the pool.
+	 */
+	public void taskDropped();
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * A hashtable with primitive int keys. The entries are stored in two arrays
+ * using open addressing with linear probing, so lookups need neither boxed
+ * keys nor entry objects. Removed entries are closed up by shifting the
+ * following entries of the probe sequence back, so no deletion markers are
+ * necessary. This class is not synchronized.
+ */
+public class IntObjectHashtable
+{
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The table is enlarged as soon as more than 3/4 of the slots are used.
+	 */
+	private static final int MAX_LOAD_NUMERATOR = 3;
+
+	private static final int MAX_LOAD_DENOMINATOR = 4;
+
+	private int[] m_keys;
+
+	private Object[] m_values;
+
+	private int m_size;
+
+	private int m_mask;
+
+	public IntObjectHashtable()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty hashtable.
+	 *
+	 * @param a_expectedSize The number of entries which can be stored without
+	 *                       enlarging the table.
+	 */
+	public IntObjectHashtable(int a_expectedSize)
+	{
+		int capacity = 4;
+		while (capacity * MAX_LOAD_NUMERATOR < a_expectedSize * MAX_LOAD_DENOMINATOR)
+		{
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public boolean isEmpty()
+	{
+		return m_size == 0;
+	}
+
+	public boolean containsKey(int a_key)
+	{
+		return m_values[indexOf(a_key)] != null;
+	}
+
+	/**
+	 * Returns the value stored for a key.
+	 *
+	 * @param a_key The key.
+	 * @return The value or null, if there is no entry for the key.
+	 */
+	public Object get(int a_key)
+	{
+		return m_values[indexOf(a_key)];
+	}
+
+	/**
+	 * Stores a value for a key.
+	 *
+	 * @param a_key The key.
+	 * @param a_value The value (must not be null).
+	 * @return The value previously stored for the key or null.
+	 */
+	public Object put(int a_key, Object a_value)
+	{
+		if (a_value == null)
+		{
+			throw new NullPointerException("Value must not be null.");
+		}
+		int index = indexOf(a_key);
+		Object oldValue = m_values[index];
+		if (oldValue == null)
+		{
+			if ((m_size + 1) * MAX_LOAD_DENOMINATOR > m_keys.length * MAX_LOAD_NUMERATOR)
+			{
+				rehash(m_keys.length << 1);
+				index = indexOf(a_key);
+			}
+			m_keys[index] = a_key;
+			m_size++;
+		}
+		m_values[index] = a_value;
+		return oldValue;
+	}
+
+	/**
+	 * Removes the entry for a key.
+	 *
+	 * @param a_key The key.
+	 * @return The removed value or null, if there was no entry for the key.
+	 */
+	public Object remove(int a_key)
+	{
+		int index = indexOf(a_key);
+		Object oldValue = m_values[index];
+		if (oldValue == null)
+		{
+			return null;
+		}
+		m_values[index] = null;
+		m_size--;
+		/* move the following entries of the probe sequence into the gap if
+		 * their home slot is not between the gap and their current slot
+		 */
+		int gap = index;
+		int current = (index + 1) & m_mask;
+		while (m_values[current] != null)
+		{
+			int home = hash(m_keys[current]) & m_mask;
+			if (((current - home) & m_mask) >= ((current - gap) & m_mask))
+			{
+				m_keys[gap] = m_keys[current];
+				m_values[gap] = m_values[current];
+				m_values[current] = null;
+				gap = current;
+			}
+			current = (current + 1) & m_mask;
+		}
+		return oldValue;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < m_values.length; i++)
+		{
+			m_values[i] = null;
+		}
+		m_size = 0;
+	}
+
+	/**
+	 * Returns an enumeration of a snapshot of the values. Changes of the
+	 * table are not reflected by the enumeration.
+	 *
+	 * @return The values of all entries.
+	 */
+	public Enumeration elements()
+	{
+		final Object[] values = new Object[m_size];
+		int count = 0;
+		for (int i = 0; i < m_values.length; i++)
+		{
+			if (m_values[i] != null)
+			{
+				values[count] = m_values[i];
+				count++;
+			}
+		}
+		return new Enumeration()
+		{
+			private int m_next = 0;
+
+			public boolean hasMoreElements()
+			{
+				return m_next < values.length;
+			}
+
+			public Object nextElement()
+			{
+				if (m_next >= values.length)
+				{
+					throw new NoSuchElementException();
+				}
+				m_next++;
+				return values[m_next - 1];
+			}
+		};
+	}
+
+	/**
+	 * Returns the slot of the key or the free slot where it would be stored.
+	 */
+	private int indexOf(int a_key)
+	{
+		int index = hash(a_key) & m_mask;
+		while ((m_values[index] != null) && (m_keys[index] != a_key))
+		{
+			index = (index + 1) & m_mask;
+		}
+		return index;
+	}
+
+	private static int hash(int a_key)
+	{
+		/* spread sequential keys over the table (multiplicative hashing) */
+		int h = a_key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void allocate(int a_capacity)
+	{
+		m_keys = new int[a_capacity];
+		m_values = new Object[a_capacity];
+		m_mask = a_capacity - 1;
+	}
+
+	private void rehash(int a_capacity)
+	{
+		int[] oldKeys = m_keys;
+		Object[] oldValues = m_values;
+		allocate(a_capacity);
+		for (int i = 0; i < oldValues.length; i++)
+		{
+			if (oldValues[i] != null)
+			{
+				int index = indexOf(oldKeys[i]);
+				m_keys[index] = oldKeys[i];
+				m_values[index] = oldValues[i];
+			}
+		}
+	}
+}
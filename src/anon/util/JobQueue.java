@@ -27,8 +27,6 @@
  */
 package anon.util;
 
-import java.util.Vector;
-
 import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
@@ -40,136 +38,42 @@ import logging.LogType;
  * jobs are added, any job in the queue that is currently not running is removed and the new job is
  * added. It will then be executed right after the running job has finished, or it is removed if
  * another job is added meanwhile.
+ * <P>
+ * The jobs of all queues are executed by the shared job pool of the Scheduler, with the queue
+ * as the key of its jobs.
  *
  * @author Rolf Wendolsky
+ * @see Scheduler#getJobPool()
  */
 public class JobQueue
 {
-	private Vector m_jobs;
-	private Vector m_jobThreads;
-
-	private Thread m_threadQueue;
-	private boolean m_bInterrupted = false;
-
-	private Job m_currentJob;
-	private Thread m_currentJobThread;
+	private String m_name;
+	private TaskPool m_pool;
+	private volatile boolean m_bInterrupted = false;
+	/** the job that is currently running and its thread; guarded by this queue */
+	private Job m_runningJob;
+	private Thread m_runningJobThread;
 
 	/**
-	 * Creates and starts the job queue.
+	 * Creates the job queue.
 	 * @param a_name name of the queue
 	 */
 	public JobQueue(String a_name)
 	{
-		m_jobs = new Vector();
-		m_jobThreads = new Vector();
-		m_threadQueue = new Thread(new Runnable()
-		{
-			public void run()
-			{
-				synchronized (Thread.currentThread())
-				{
-					while (!Thread.currentThread().isInterrupted() && !m_bInterrupted)
-					{
-						try
-						{
-							Thread.currentThread().wait();
-						}
-						catch (InterruptedException ex)
-						{
-						}
-						if (Thread.currentThread().isInterrupted())
-						{
-							Thread.currentThread().notifyAll();
-							break;
-						}
-
-						// There is a new job!
-						if (m_jobs.size() > 0 &&
-							m_currentJob == m_jobs.firstElement() &&
-							m_currentJobThread.isAlive())
-						{
-							// a job is currently running; 
-							if (((Job) m_jobs.lastElement()).isInterrupting())
-							{
-								// interrupt the running job 
-								while (m_currentJobThread.isAlive())
-								{
-									m_currentJobThread.interrupt();
-									try 
-									{
-										Thread.currentThread().wait(100);
-									} 
-									catch (InterruptedException e) 
-									{
-										break;
-									}
-								}
-							}
-							else 
-							{
-								// wait for the end/notify of the running job
-								continue;
-							}
-						}
-						
-						if (m_jobs.size() > 0)
-						{
-							// no job is running; remove all jobs that are outdated
-							while (m_jobs.size() > 1)
-							{
-								m_jobs.removeElementAt(0);
-								m_jobThreads.removeElementAt(0);
-							}
-
-							// start the newest job
-							m_currentJob = (Job) m_jobs.elementAt(0);
-							m_currentJobThread = (Thread) m_jobThreads.elementAt(0);
-							try
-							{
-								m_currentJobThread.start();
-							}
-							catch (IllegalThreadStateException a_e)
-							{
-								// maybe we are shutting down the program...
-								LogHolder.log(LogLevel.ERR, LogType.THREAD, a_e);
-							}
-						}
-					}
-					// stop all threads
-					while (m_jobs.size() > 0)
-					{
-						if (m_currentJob == m_jobs.firstElement())
-						{
-							m_currentJobThread.interrupt();
-
-							try
-							{
-								Thread.currentThread().wait(500);
-							}
-							catch (InterruptedException ex1)
-							{
-							}
-						}
-						else
-						{
-							m_jobs.removeAllElements();
-							m_jobThreads.removeAllElements();
-						}
-					}
-				}
-			}
-		}, a_name);
-		m_threadQueue.setDaemon(true);
-		m_threadQueue.start();
+		m_name = a_name;
+		m_pool = Scheduler.getJobPool();
 	}
 
 	/**
 	 * A job that may be added to the job queue.
 	 */
-	public static abstract class Job implements Runnable
+	public static abstract class Job implements IDroppableTask
 	{
 		private boolean m_bMayBeSkippedIfDuplicate;
+		/** the queue of the job while it is waiting or running; guarded by SYNC_QUEUE */
 		private JobQueue m_queue;
+		/** not the job itself, as the pool drops jobs while holding its own lock */
+		private final Object SYNC_QUEUE = new Object();
 
 		/**
 		 * Creates a new job.
@@ -197,10 +101,42 @@ public class JobQueue
 
 		public final void run()
 		{
-			runJob();
-			if (m_queue != null)
+			JobQueue queue;
+			synchronized (SYNC_QUEUE)
+			{
+				queue = m_queue;
+			}
+			if (queue != null)
 			{
-				m_queue.removeJob(this, true);
+				queue.jobStarted(this);
+			}
+			try
+			{
+				runJob();
+			}
+			finally
+			{
+				// the job may be added again
+				synchronized (SYNC_QUEUE)
+				{
+					m_queue = null;
+				}
+				if (queue != null)
+				{
+					queue.jobFinished(this);
+				}
+			}
+		}
+
+		/**
+		 * Called by the pool if the job has been removed from the queue without running, for
+		 * example because a newer job replaced it. The job may be added again.
+		 */
+		public final void taskDropped()
+		{
+			synchronized (SYNC_QUEUE)
+			{
+				m_queue = null;
 			}
 		}
 
@@ -238,125 +174,88 @@ public class JobQueue
 	 */
 	public void addJob(final Job a_anonJob)
 	{
-		Thread jobThread;
-		Job job;
-
-		if (a_anonJob == null)
+		if (a_anonJob == null || m_bInterrupted)
 		{
 			return;
 		}
 
-		if (!a_anonJob.isSkippedIfDuplicate() && m_bInterrupted)
+		synchronized (a_anonJob.SYNC_QUEUE)
 		{
-			// only jobs that may be skipped are allowed when thread is interrupted
-			return;
+			if (a_anonJob.m_queue != null)
+			{
+				// this job already is in a queue
+				return;
+			}
+			a_anonJob.m_queue = this;
 		}
 
-		if (a_anonJob.m_queue != null)
+		if (a_anonJob.isInterrupting())
 		{
-			// this job already is in a queue
-			return;
+			// interrupt the running job; the new job is started after it has finished
+			m_pool.interrupt(this);
 		}
 
-		synchronized (m_threadQueue)
+		if (!m_pool.execute(this, a_anonJob, a_anonJob.isSkippedIfDuplicate()))
 		{
-			if (a_anonJob.isSkippedIfDuplicate() && m_jobs.contains(a_anonJob))
+			// It's the same as the last job and may be skipped; skip it!
+			synchronized (a_anonJob.SYNC_QUEUE)
 			{
-				// do not accept duplicate jobs
-				return;
+				a_anonJob.m_queue = null;
 			}
+			return;
+		}
 
-			if (m_jobs.size() > 0)
-			{
-				/* check whether this is job is different to the last one */
-				Job lastJob = (Job) (m_jobs.lastElement());
-				if (lastJob.isSkippedIfDuplicate() && a_anonJob.isSkippedIfDuplicate())
-				{
-					/* It's the same as the last job and may be skipped; skip it! */
-					return;
-				}
-				else 
-				{
-					// remove all jobs that are not currently running
-					while (m_jobs.size() > 0)
-					{
-						job = (Job)m_jobs.lastElement();
-						if (job == m_currentJob && m_currentJobThread.isAlive())
-						{
-							// do not delete a running job; finish it and then start this new job
-							break;
-						}
-						removeJob(job, false);
-					}
-				}
-			}
-			
-			jobThread = new Thread(a_anonJob);
-			jobThread.setDaemon(true);
-			a_anonJob.m_queue = this;
-			m_jobs.addElement(a_anonJob);
-			m_jobThreads.addElement(jobThread);
-			m_threadQueue.notify();
-
-			String logMessage = a_anonJob.getAddedJobLogMessage();
-			if (logMessage != null)
-			{
-				LogHolder.log(LogLevel.DEBUG, LogType.MISC, logMessage);
-			}
+		String logMessage = a_anonJob.getAddedJobLogMessage();
+		if (logMessage != null)
+		{
+			LogHolder.log(LogLevel.DEBUG, LogType.MISC, logMessage);
 		}
 	}
 
 	/**
-	 * Stops the queue once and for all and interrupts all running threads. After calling
-	 * this method, it will not accept any new threads.
+	 * Stops the queue once and for all, interrupts the running job and waits until it has
+	 * finished. After calling this method, it will not accept any new threads.
 	 */
 	public void stop()
 	{
-		while (m_threadQueue.isAlive())
+		m_bInterrupted = true;
+		m_pool.cancel(this);
+		synchronized (this)
 		{
-			m_threadQueue.interrupt();
-			synchronized (m_threadQueue)
-			{
-				m_bInterrupted = true;
-				m_threadQueue.notifyAll();
-				m_threadQueue.interrupt();
-			}
-			try
-			{
-				m_threadQueue.join(500);
-			}
-			catch (InterruptedException a_e)
+			// a job that stops its own queue must not wait for itself
+			while (m_runningJob != null && m_runningJobThread != Thread.currentThread())
 			{
-				// ignore
+				m_runningJobThread.interrupt();
+				try
+				{
+					wait(500);
+				}
+				catch (InterruptedException a_e)
+				{
+					break;
+				}
 			}
 		}
 	}
 
-	/**
-	 * Must (!!) be called at the end of a job thread to remove this job from the queue and to tell the
-	 * queue that the job was removed, so that a new job may be started.
-	 * @param a_anonJob a Job to be removed
-	 */
-	private void removeJob(final Job a_anonJob, boolean a_bNotifyQueue)
+	private synchronized void jobStarted(Job a_job)
+	{
+		m_runningJob = a_job;
+		m_runningJobThread = Thread.currentThread();
+	}
+
+	private synchronized void jobFinished(Job a_job)
 	{
-		if (a_anonJob == null)
+		if (m_runningJob == a_job)
 		{
-			return;
+			m_runningJob = null;
+			m_runningJobThread = null;
 		}
-		synchronized (m_threadQueue)
-		{
-			int index = m_jobs.indexOf(a_anonJob);
+		notifyAll();
+	}
 
-			if (index >= 0)
-			{
-				((Thread)m_jobThreads.elementAt(index)).interrupt();
-				m_jobs.removeElementAt(index);
-				m_jobThreads.removeElementAt(index);
-				if (a_bNotifyQueue)
-				{
-					m_threadQueue.notify();
-				}
-			}
-		}
+	public String toString()
+	{
+		return m_name;
 	}
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+import java.util.Vector;
+
+/**
+ * Keeps all task pools of this program, so that their statistics may be shown at one place,
+ * and provides the pools that are shared by all components: one for CPU-bound work with a
+ * thread per processor, and one for the jobs of the job queues.
+ * @see TaskPool
+ */
+public final class Scheduler
+{
+	public static final String POOL_NAME_CPU = "CPU";
+	public static final String POOL_NAME_JOBS = "Jobs";
+
+	/**
+	 * The maximum number of job queues that may run a job at the same time. Jobs of further
+	 * queues wait until a thread is free.
+	 */
+	public static final int MAX_JOB_THREADS = 32;
+
+	private static final Vector ms_pools = new Vector();
+
+	private static TaskPool ms_cpuPool;
+	private static TaskPool ms_jobPool;
+
+	private Scheduler()
+	{
+	}
+
+	/**
+	 * Returns the pool for CPU-bound work like signature verification. It has one thread per
+	 * processor; use TaskPool.invokeAll() to let the calling thread take part in the work.
+	 * @return the pool for CPU-bound work
+	 */
+	public static TaskPool getCpuPool()
+	{
+		synchronized (ms_pools)
+		{
+			if (ms_cpuPool == null || ms_cpuPool.isShutdown())
+			{
+				ms_cpuPool = new TaskPool(POOL_NAME_CPU, getNumberOfProcessors(), Thread.NORM_PRIORITY,
+										  TaskPool.UNLIMITED_QUEUE);
+			}
+			return ms_cpuPool;
+		}
+	}
+
+	/**
+	 * Returns the pool that runs the jobs of all job queues.
+	 * @return the pool of the job queues
+	 */
+	public static TaskPool getJobPool()
+	{
+		synchronized (ms_pools)
+		{
+			if (ms_jobPool == null || ms_jobPool.isShutdown())
+			{
+				ms_jobPool = new TaskPool(POOL_NAME_JOBS, MAX_JOB_THREADS, Thread.NORM_PRIORITY,
+										  TaskPool.UNLIMITED_QUEUE);
+			}
+			return ms_jobPool;
+		}
+	}
+
+	/**
+	 * @param a_name the name of a pool
+	 * @return the first registered pool with the given name or null if there is none
+	 */
+	public static TaskPool getPool(String a_name)
+	{
+		synchronized (ms_pools)
+		{
+			for (int i = 0; i < ms_pools.size(); i++)
+			{
+				TaskPool pool = (TaskPool) ms_pools.elementAt(i);
+				if (pool.getName().equals(a_name))
+				{
+					return pool;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return all pools that have not been shut down, in the order of their creation
+	 */
+	public static Vector getPools()
+	{
+		synchronized (ms_pools)
+		{
+			return (Vector) ms_pools.clone();
+		}
+	}
+
+	/**
+	 * Returns the number of processors of this machine. Java versions before 1.4 cannot tell it,
+	 * so 1 is returned then.
+	 *
+	 * @return the number of processors of this machine
+	 */
+	public static int getNumberOfProcessors()
+	{
+		try
+		{
+			return ((Integer) Runtime.class.getMethod("availableProcessors", new Class[0]).invoke(
+				Runtime.getRuntime(), new Object[0])).intValue();
+		}
+		catch (Exception a_e)
+		{
+			return 1;
+		}
+	}
+
+	static void registerPool(TaskPool a_pool)
+	{
+		synchronized (ms_pools)
+		{
+			ms_pools.addElement(a_pool);
+		}
+	}
+
+	static void unregisterPool(TaskPool a_pool)
+	{
+		synchronized (ms_pools)
+		{
+			ms_pools.removeElement(a_pool);
+		}
+	}
+}
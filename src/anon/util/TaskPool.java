@@ -0,0 +1,727 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * A named pool of worker threads that executes tasks in the order they were added. The pool
+ * starts threads on demand up to a fixed maximum and lets them die after they have been idle for
+ * THREAD_IDLE_TIMEOUT milliseconds. Threads that add tasks are blocked while more tasks are
+ * queued than allowed, so a busy pool slows down its producers instead of growing without
+ * limits.
+ * <P>
+ * Tasks may be added with a key. Tasks with the same key are executed one after another, and
+ * at most one of them waits while another one is running. A task that is added while another
+ * task with the same key waits replaces the waiting one; if both tasks may be skipped if they
+ * are duplicates, the new task is dropped instead. This is how the JobQueue coalesces its jobs.
+ * Tasks that implement IDroppableTask are told when they are dropped without running.
+ * <P>
+ * Every pool counts its queued, running and completed tasks and the latencies of the tasks,
+ * measured from adding a task until it has finished, in a histogram with exponential buckets.
+ * All pools are registered with the Scheduler until they are shut down.
+ * @see Scheduler
+ * @see JobQueue
+ */
+public final class TaskPool
+{
+	/**
+	 * The time in milliseconds after which an idle thread dies.
+	 */
+	public static final long THREAD_IDLE_TIMEOUT = 60000;
+
+	/**
+	 * The number of buckets of the latency histogram. Bucket i counts the tasks that needed less
+	 * than 2^i milliseconds, the last bucket counts all slower tasks.
+	 */
+	public static final int LATENCY_BUCKETS = 16;
+
+	/**
+	 * Use this as queue size for pools that should never block the threads that add tasks.
+	 */
+	public static final int UNLIMITED_QUEUE = Integer.MAX_VALUE;
+
+	private String m_name;
+	private int m_maxThreads;
+	private int m_maxQueuedTasks;
+	private int m_priority;
+
+	private Object m_internalSynchronization = new Object();
+	private Vector m_queue = new Vector();
+	private Hashtable m_keyedTasks = new Hashtable();
+	private int m_threadCount = 0;
+	private int m_idleThreadCount = 0;
+	private int m_activeThreadCount = 0;
+	private int m_threadNumber = 0;
+	private long m_completedTaskCount = 0;
+	private long[] m_latencyHistogram = new long[LATENCY_BUCKETS];
+	private boolean m_bShutdown = false;
+
+	/**
+	 * Creates a new pool and registers it with the Scheduler. No thread is started before the
+	 * first task is added.
+	 * @param a_name the name of the pool; it is used for the names of the threads, too
+	 * @param a_maxThreads the maximum number of threads that execute tasks at the same time
+	 * @param a_priority the priority of the threads
+	 * @param a_maxQueuedTasks the number of tasks that may wait for a thread before the threads
+	 * adding further tasks are blocked; 0 blocks them until a thread has taken their task
+	 */
+	public TaskPool(String a_name, int a_maxThreads, int a_priority, int a_maxQueuedTasks)
+	{
+		if (a_maxThreads <= 0)
+		{
+			throw new IllegalArgumentException("A task pool needs at least one thread!");
+		}
+		if (a_name == null)
+		{
+			a_name = "";
+		}
+		m_name = a_name;
+		m_maxThreads = a_maxThreads;
+		m_priority = a_priority;
+		m_maxQueuedTasks = Math.max(a_maxQueuedTasks, 0);
+		Scheduler.registerPool(this);
+	}
+
+	/**
+	 * Creates a new pool whose threads have normal priority and that never blocks the threads
+	 * adding tasks.
+	 * @param a_name the name of the pool
+	 * @param a_maxThreads the maximum number of threads that execute tasks at the same time
+	 */
+	public TaskPool(String a_name, int a_maxThreads)
+	{
+		this(a_name, a_maxThreads, Thread.NORM_PRIORITY, UNLIMITED_QUEUE);
+	}
+
+	public String getName()
+	{
+		return m_name;
+	}
+
+	public int getMaxThreads()
+	{
+		return m_maxThreads;
+	}
+
+	/**
+	 * @return the number of tasks that wait for a thread
+	 */
+	public int getQueueSize()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_queue.size();
+		}
+	}
+
+	/**
+	 * @return the number of threads that currently execute a task
+	 */
+	public int getActiveThreadCount()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_activeThreadCount;
+		}
+	}
+
+	/**
+	 * @return the number of running and idle threads of this pool
+	 */
+	public int getThreadCount()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_threadCount;
+		}
+	}
+
+	public long getCompletedTaskCount()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_completedTaskCount;
+		}
+	}
+
+	/**
+	 * @return a copy of the latency histogram; entry i counts the finished tasks with a latency
+	 * below getLatencyBucketLimit(i)
+	 */
+	public long[] getLatencyHistogram()
+	{
+		long[] histogram = new long[LATENCY_BUCKETS];
+		synchronized (m_internalSynchronization)
+		{
+			System.arraycopy(m_latencyHistogram, 0, histogram, 0, LATENCY_BUCKETS);
+		}
+		return histogram;
+	}
+
+	/**
+	 * @param a_bucket a bucket of the latency histogram
+	 * @return the upper (exclusive) latency limit in milliseconds of the given bucket
+	 */
+	public static long getLatencyBucketLimit(int a_bucket)
+	{
+		if (a_bucket >= LATENCY_BUCKETS - 1)
+		{
+			return Long.MAX_VALUE;
+		}
+		return 1L << a_bucket;
+	}
+
+	/**
+	 * Estimates a percentile of the latencies of the finished tasks.
+	 * @param a_percent a value from 0 to 100
+	 * @return the upper limit in milliseconds of the histogram bucket that contains the
+	 * percentile, or 0 if no task has finished yet
+	 */
+	public long getLatencyPercentile(int a_percent)
+	{
+		long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			total += histogram[i];
+		}
+		if (total == 0)
+		{
+			return 0;
+		}
+		long rank = Math.max(1, (total * Math.min(Math.max(a_percent, 0), 100) + 99) / 100);
+		long count = 0;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			count += histogram[i];
+			if (count >= rank)
+			{
+				return getLatencyBucketLimit(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Adds a task that is executed as soon as a thread of this pool is free. The calling thread
+	 * is blocked while the queue of this pool is full.
+	 * @param a_task a task
+	 * @return false if the pool has been shut down and the task is not executed
+	 */
+	public boolean execute(Runnable a_task)
+	{
+		return execute(null, a_task, false);
+	}
+
+	/**
+	 * Adds a task that is executed after all other tasks with the same key have finished. If
+	 * another task with this key already waits, the new task replaces it. However, if both
+	 * tasks may be skipped if they are duplicates, the new task is dropped.
+	 * @param a_key a key or null if the task is independent of all other tasks
+	 * @param a_task a task
+	 * @param a_bSkipIfDuplicate if the task is skipped if another task with the same key that
+	 * may be skipped, too, is running or waiting
+	 * @return false if the task has been dropped or the pool has been shut down
+	 */
+	public boolean execute(Object a_key, Runnable a_task, boolean a_bSkipIfDuplicate)
+	{
+		return add(new Task(a_key, a_task, a_bSkipIfDuplicate)) != null;
+	}
+
+	/**
+	 * Adds a task and waits until it has been executed.
+	 * @param a_task a task
+	 * @throws InterruptedException if the calling thread has been interrupted while waiting; the
+	 * task is executed anyway
+	 */
+	public void executeAndWait(Runnable a_task) throws InterruptedException
+	{
+		Task task = add(new Task(null, a_task, false));
+		if (task != null)
+		{
+			synchronized (task)
+			{
+				while (!task.m_bFinished)
+				{
+					task.wait();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes several independent tasks and returns after all of them have finished. The
+	 * calling thread executes tasks, too, while idle threads of this pool help it. The tasks are
+	 * not assigned to a thread before, but every thread takes the next task that is left. Tasks
+	 * of unequal costs are therefore balanced between the threads, and as the calling thread
+	 * never waits for a task that no thread has taken yet, this method may be called by tasks
+	 * of the same pool without the danger of a deadlock.
+	 * @param a_tasks the tasks
+	 * @throws RuntimeException the first exception thrown by a task
+	 */
+	public void invokeAll(Runnable[] a_tasks)
+	{
+		TaskBatch batch = new TaskBatch(a_tasks);
+		int helpers = Math.min(a_tasks.length - 1, m_maxThreads);
+		synchronized (m_internalSynchronization)
+		{
+			if (!m_bShutdown)
+			{
+				for (int i = 0; i < helpers; i++)
+				{
+					/* helpers must not block the calling thread, so the queue limit is ignored */
+					enqueue(new Task(null, batch, false));
+				}
+			}
+		}
+		batch.run();
+		batch.waitForCompletion();
+	}
+
+	/**
+	 * Interrupts the running task with the given key, if there is one.
+	 * @param a_key the key of a task
+	 */
+	public void interrupt(Object a_key)
+	{
+		synchronized (m_internalSynchronization)
+		{
+			KeyedTasks keyedTasks = (KeyedTasks) m_keyedTasks.get(a_key);
+			if (keyedTasks != null && keyedTasks.m_current.m_thread != null)
+			{
+				keyedTasks.m_current.m_thread.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Removes all waiting tasks with the given key and interrupts the running one.
+	 * @param a_key the key of the tasks
+	 */
+	public void cancel(Object a_key)
+	{
+		synchronized (m_internalSynchronization)
+		{
+			KeyedTasks keyedTasks = (KeyedTasks) m_keyedTasks.get(a_key);
+			if (keyedTasks != null)
+			{
+				if (keyedTasks.m_next != null)
+				{
+					drop(keyedTasks.m_next);
+					keyedTasks.m_next = null;
+				}
+				if (keyedTasks.m_current.m_thread != null)
+				{
+					keyedTasks.m_current.m_thread.interrupt();
+				}
+				else if (m_queue.removeElement(keyedTasks.m_current))
+				{
+					m_keyedTasks.remove(a_key);
+					drop(keyedTasks.m_current);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops this pool and removes it from the Scheduler. Waiting tasks are dropped, running tasks
+	 * are interrupted, and new tasks are not accepted any more.
+	 */
+	public void shutdown()
+	{
+		Scheduler.unregisterPool(this);
+		synchronized (m_internalSynchronization)
+		{
+			m_bShutdown = true;
+			Enumeration keyedTasks = m_keyedTasks.elements();
+			while (keyedTasks.hasMoreElements())
+			{
+				Task nextTask = ((KeyedTasks) keyedTasks.nextElement()).m_next;
+				if (nextTask != null)
+				{
+					drop(nextTask);
+				}
+			}
+			m_keyedTasks.clear();
+			while (m_queue.size() > 0)
+			{
+				Task task = (Task) m_queue.firstElement();
+				m_queue.removeElementAt(0);
+				drop(task);
+			}
+			m_internalSynchronization.notifyAll();
+		}
+	}
+
+	public boolean isShutdown()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_bShutdown;
+		}
+	}
+
+	public String toString()
+	{
+		synchronized (m_internalSynchronization)
+		{
+			return m_name + ": " + m_activeThreadCount + " of " + m_threadCount + " threads active, " +
+				m_queue.size() + " tasks queued, " + m_completedTaskCount + " tasks completed";
+		}
+	}
+
+	private Task add(Task a_task)
+	{
+		if (a_task.m_target == null)
+		{
+			return null;
+		}
+		synchronized (m_internalSynchronization)
+		{
+			if (m_bShutdown)
+			{
+				return null;
+			}
+			if (a_task.m_key != null)
+			{
+				KeyedTasks keyedTasks = (KeyedTasks) m_keyedTasks.get(a_task.m_key);
+				if (keyedTasks == null)
+				{
+					m_keyedTasks.put(a_task.m_key, new KeyedTasks(a_task));
+				}
+				else
+				{
+					Task lastTask = keyedTasks.m_next != null ? keyedTasks.m_next : keyedTasks.m_current;
+					if (lastTask.m_bSkipIfDuplicate && a_task.m_bSkipIfDuplicate)
+					{
+						return null;
+					}
+					if (keyedTasks.m_current.m_thread == null &&
+						m_queue.removeElement(keyedTasks.m_current))
+					{
+						/* the current task did not start yet, replace it */
+						drop(keyedTasks.m_current);
+						keyedTasks.m_current = a_task;
+					}
+					else
+					{
+						if (keyedTasks.m_next != null)
+						{
+							drop(keyedTasks.m_next);
+						}
+						/* it is queued as soon as the current task has finished */
+						keyedTasks.m_next = a_task;
+						return a_task;
+					}
+				}
+			}
+			enqueue(a_task);
+
+			while (m_queue.size() > m_maxQueuedTasks && m_queue.contains(a_task) && !m_bShutdown)
+			{
+				try
+				{
+					m_internalSynchronization.wait();
+				}
+				catch (InterruptedException a_e)
+				{
+					/* the task stays in the queue */
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		return a_task;
+	}
+
+	/**
+	 * Must be called while holding the internal lock.
+	 */
+	private void enqueue(Task a_task)
+	{
+		a_task.m_enqueueTime = System.currentTimeMillis();
+		m_queue.addElement(a_task);
+		if (m_idleThreadCount < m_queue.size() && m_threadCount < m_maxThreads)
+		{
+			m_threadCount++;
+			m_threadNumber++;
+			Thread thread = new Thread(new Worker(), m_name + " - Thread " + m_threadNumber);
+			thread.setDaemon(true);
+			thread.setPriority(m_priority);
+			thread.start();
+		}
+		m_internalSynchronization.notifyAll();
+	}
+
+	/**
+	 * Finishes a task that has been removed without running it. Must be called while holding the
+	 * internal lock.
+	 */
+	private void drop(Task a_task)
+	{
+		if (a_task.m_target instanceof IDroppableTask)
+		{
+			try
+			{
+				( (IDroppableTask) a_task.m_target).taskDropped();
+			}
+			catch (Throwable a_e)
+			{
+				LogHolder.log(LogLevel.EXCEPTION, LogType.THREAD,
+							  "Uncaught exception in task pool '" + m_name + "'!", a_e);
+			}
+		}
+		finish(a_task);
+	}
+
+	/**
+	 * Must be called while holding the internal lock.
+	 */
+	private void finish(Task a_task)
+	{
+		synchronized (a_task)
+		{
+			a_task.m_bFinished = true;
+			a_task.notifyAll();
+		}
+	}
+
+	private void taskCompleted(Task a_task)
+	{
+		long latency = System.currentTimeMillis() - a_task.m_enqueueTime;
+		int bucket = 0;
+		while (bucket < LATENCY_BUCKETS - 1 && latency >= getLatencyBucketLimit(bucket))
+		{
+			bucket++;
+		}
+		synchronized (m_internalSynchronization)
+		{
+			a_task.m_thread = null;
+			m_activeThreadCount--;
+			m_completedTaskCount++;
+			m_latencyHistogram[bucket]++;
+			if (a_task.m_key != null)
+			{
+				KeyedTasks keyedTasks = (KeyedTasks) m_keyedTasks.get(a_task.m_key);
+				if (keyedTasks != null && keyedTasks.m_current == a_task)
+				{
+					if (keyedTasks.m_next != null && !m_bShutdown)
+					{
+						keyedTasks.m_current = keyedTasks.m_next;
+						keyedTasks.m_next = null;
+						enqueue(keyedTasks.m_current);
+					}
+					else
+					{
+						m_keyedTasks.remove(a_task.m_key);
+					}
+				}
+			}
+			finish(a_task);
+		}
+	}
+
+	private final class Worker implements Runnable
+	{
+		public void run()
+		{
+			Task task;
+			while (true)
+			{
+				synchronized (m_internalSynchronization)
+				{
+					long idleSince = System.currentTimeMillis();
+					while (m_queue.size() == 0)
+					{
+						long idleTime = System.currentTimeMillis() - idleSince;
+						if (m_bShutdown || idleTime >= THREAD_IDLE_TIMEOUT)
+						{
+							m_threadCount--;
+							return;
+						}
+						m_idleThreadCount++;
+						try
+						{
+							m_internalSynchronization.wait(THREAD_IDLE_TIMEOUT - idleTime);
+						}
+						catch (InterruptedException a_e)
+						{
+							/* interruptions are meant for the tasks */
+						}
+						m_idleThreadCount--;
+					}
+					task = (Task) m_queue.firstElement();
+					m_queue.removeElementAt(0);
+					task.m_thread = Thread.currentThread();
+					m_activeThreadCount++;
+					/* threads that wait for space in the queue may go on */
+					m_internalSynchronization.notifyAll();
+				}
+
+				try
+				{
+					task.m_target.run();
+				}
+				catch (Throwable a_e)
+				{
+					LogHolder.log(LogLevel.EXCEPTION, LogType.THREAD,
+								  "Uncaught exception in task pool '" + m_name + "'!", a_e);
+				}
+				/* clear an interruption of the finished task */
+				Thread.interrupted();
+				taskCompleted(task);
+			}
+		}
+	}
+
+	private static final class Task
+	{
+		private Object m_key;
+		private Runnable m_target;
+		private boolean m_bSkipIfDuplicate;
+		private long m_enqueueTime;
+		private Thread m_thread;
+		private boolean m_bFinished = false;
+
+		private Task(Object a_key, Runnable a_target, boolean a_bSkipIfDuplicate)
+		{
+			m_key = a_key;
+			m_target = a_target;
+			m_bSkipIfDuplicate = a_bSkipIfDuplicate;
+		}
+	}
+
+	/**
+	 * The task that is running or waiting for a thread, and the task that waits until it has
+	 * finished, of one key.
+	 */
+	private static final class KeyedTasks
+	{
+		private Task m_current;
+		private Task m_next;
+
+		private KeyedTasks(Task a_current)
+		{
+			m_current = a_current;
+		}
+	}
+
+	/**
+	 * The tasks of invokeAll(). Every thread that runs the batch takes the next task that is left.
+	 */
+	private static final class TaskBatch implements Runnable
+	{
+		private Runnable[] m_tasks;
+		private int m_nextTask = 0;
+		private int m_finishedTasks = 0;
+		private RuntimeException m_exception;
+
+		private TaskBatch(Runnable[] a_tasks)
+		{
+			m_tasks = a_tasks;
+		}
+
+		public void run()
+		{
+			int index;
+			while (true)
+			{
+				synchronized (this)
+				{
+					if (m_nextTask >= m_tasks.length)
+					{
+						return;
+					}
+					index = m_nextTask;
+					m_nextTask++;
+				}
+				try
+				{
+					if (m_tasks[index] != null)
+					{
+						m_tasks[index].run();
+					}
+				}
+				catch (RuntimeException a_e)
+				{
+					synchronized (this)
+					{
+						if (m_exception == null)
+						{
+							m_exception = a_e;
+						}
+					}
+				}
+				synchronized (this)
+				{
+					m_finishedTasks++;
+					if (m_finishedTasks == m_tasks.length)
+					{
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		private synchronized void waitForCompletion()
+		{
+			boolean bInterrupted = false;
+			while (m_finishedTasks < m_tasks.length)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException a_e)
+				{
+					/* the other threads do not wait for anything, so they will finish soon */
+					bInterrupted = true;
+				}
+			}
+			if (bInterrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+			if (m_exception != null)
+			{
+				throw m_exception;
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util;
+
+import java.lang.reflect.Method;
+
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * Creates platform threads or, if requested and supported by the JRE, virtual threads.
+ * Virtual threads are cheap to create and do not occupy an OS thread while they are blocked,
+ * so that many parallel connections do not hit the thread limits of the operating system.
+ * They are only supported from Java 24 on: the streams of the proxy and of the channels wait
+ * in synchronized blocks, and before Java 24 a virtual thread that waits there keeps its
+ * carrier thread, so that a few hundred waiting connections would block all others.
+ * The JRE is accessed by reflection, so this class runs on every Java version.
+ * Virtual threads are used by default if the system property
+ * {@link #PROPERTY_VIRTUAL_THREADS} is set to "true".
+ */
+public final class ThreadFactory implements IThreadFactory
+{
+	/** If this system property is "true", the default factory creates virtual threads. */
+	public static final String PROPERTY_VIRTUAL_THREADS = "anon.virtualThreads";
+
+	/** the first Java version in which waiting in a synchronized block does not pin a virtual thread */
+	private static final int MIN_JAVA_VERSION_VIRTUAL_THREADS = 24;
+
+	/** Thread.ofVirtual() */
+	private static Method ms_ofVirtual;
+	/** Thread.Builder.name(String) */
+	private static Method ms_builderName;
+	/** Thread.Builder.unstarted(Runnable) */
+	private static Method ms_builderUnstarted;
+
+	private static IThreadFactory ms_instance;
+
+	private final boolean m_bVirtualThreads;
+
+	static
+	{
+		if (getJavaVersion() >= MIN_JAVA_VERSION_VIRTUAL_THREADS)
+		{
+			try
+			{
+				Class builderClass = Class.forName("java.lang.Thread$Builder");
+				ms_ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+				ms_builderName = builderClass.getMethod("name", new Class[]{String.class});
+				ms_builderUnstarted = builderClass.getMethod("unstarted", new Class[]{Runnable.class});
+				createVirtualThread(new Runnable()
+				{
+					public void run()
+					{
+					}
+				}, "Virtual thread test");
+			}
+			catch (Throwable a_e)
+			{
+				ms_ofVirtual = null;
+			}
+		}
+
+		boolean bVirtualThreads = false;
+		try
+		{
+			bVirtualThreads = "true".equalsIgnoreCase(System.getProperty(PROPERTY_VIRTUAL_THREADS));
+		}
+		catch (SecurityException a_e)
+		{
+		}
+		ms_instance = new ThreadFactory(bVirtualThreads);
+	}
+
+	/**
+	 * @param a_bVirtualThreads true if virtual threads should be created; ignored if they are
+	 * not supported
+	 */
+	public ThreadFactory(boolean a_bVirtualThreads)
+	{
+		m_bVirtualThreads = a_bVirtualThreads && isVirtualThreadSupported();
+		if (a_bVirtualThreads && !m_bVirtualThreads)
+		{
+			LogHolder.log(LogLevel.WARNING, LogType.THREAD,
+						  "Virtual threads are not supported by this JRE. Using platform threads.");
+		}
+	}
+
+	/**
+	 * @return the factory that is used for the threads of the proxy and of the connection
+	 * to the mix
+	 */
+	public static IThreadFactory getInstance()
+	{
+		return ms_instance;
+	}
+
+	/**
+	 * Sets the factory that is used for new threads of the proxy and of the connection to the
+	 * mix. Threads that are already running are not affected.
+	 * @param a_factory a thread factory; if null, platform threads are used
+	 */
+	public static void setInstance(IThreadFactory a_factory)
+	{
+		if (a_factory == null)
+		{
+			a_factory = new ThreadFactory(false);
+		}
+		ms_instance = a_factory;
+	}
+
+	/**
+	 * @return true if this JRE supports virtual threads; false otherwise
+	 */
+	public static boolean isVirtualThreadSupported()
+	{
+		return ms_ofVirtual != null;
+	}
+
+	/**
+	 * @return true if this factory creates virtual threads; false otherwise
+	 */
+	public boolean isCreatingVirtualThreads()
+	{
+		return m_bVirtualThreads;
+	}
+
+	public Thread createThread(Runnable a_runnable, String a_name)
+	{
+		if (m_bVirtualThreads)
+		{
+			try
+			{
+				return createVirtualThread(a_runnable, a_name);
+			}
+			catch (Exception a_e)
+			{
+				LogHolder.log(LogLevel.ERR, LogType.THREAD, "Could not create virtual thread!", a_e);
+			}
+		}
+		return new Thread(a_runnable, a_name);
+	}
+
+	/**
+	 * @return the major version of the JRE, e.g. 1 for Java 1.4 and 24 for Java 24; 0 if unknown
+	 */
+	private static int getJavaVersion()
+	{
+		try
+		{
+			String version = System.getProperty("java.specification.version");
+			int index = version.indexOf('.');
+			return Integer.parseInt((index < 0) ? version : version.substring(0, index));
+		}
+		catch (Exception a_e)
+		{
+			return 0;
+		}
+	}
+
+	private static Thread createVirtualThread(Runnable a_runnable, String a_name) throws Exception
+	{
+		Object builder = ms_ofVirtual.invoke(null, new Object[0]);
+		builder = ms_builderName.invoke(builder, new Object[]{a_name});
+		return (Thread) ms_builderUnstarted.invoke(builder, new Object[]{a_runnable});
+	}
+}
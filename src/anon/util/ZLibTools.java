@@ -29,9 +29,14 @@ package anon.util;
 
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Vector;
 
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 
 import logging.LogHolder;
@@ -40,9 +45,37 @@ import logging.LogType;
 
 /**
  * This class provides some utility methods for ZLib compression.
+ * The native zlib memory held by Deflater and Inflater objects is only freed by end() or by
+ * finalization. Therefore, all methods take them from a small pool and return them after use,
+ * and objects that do not fit into the pool are ended at once.
  */
 final public class ZLibTools
 {
+	/**
+	 * The maximum number of idle Deflaters per compression level and of idle Inflaters.
+	 */
+	public static final int MAX_POOLED_OBJECTS = 8;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The header of a GZIP file without file name and time, as GZIPOutputStream writes it. */
+	private static final byte[] GZIP_HEADER = new byte[]
+		{(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+	/** idle Deflaters in zlib format, one Vector for each compression level -1 to 9 */
+	private static final Vector[] ms_deflaters = new Vector[11];
+	/** idle Deflaters without zlib header, used for GZIP */
+	private static final Vector[] ms_rawDeflaters = new Vector[11];
+	private static final Vector ms_inflaters = new Vector();
+
+	static
+	{
+		for (int i = 0; i < ms_deflaters.length; i++)
+		{
+			ms_deflaters[i] = new Vector();
+			ms_rawDeflaters[i] = new Vector();
+		}
+	}
 
 	/**
 	 * Compresses the specified data with ZLib in the best compression mode.
@@ -52,15 +85,84 @@ final public class ZLibTools
 	 * @return The compressed data or null, if there was an error while the compression.
 	 */
 	public static byte[] compress(byte[] a_data)
+	{
+		return compress(a_data, Deflater.BEST_COMPRESSION);
+	}
+
+	/**
+	 * Compresses the specified data with ZLib.
+	 *
+	 * @param a_data The data to compress.
+	 * @param a_level The compression level from Deflater.NO_COMPRESSION to
+	 *                Deflater.BEST_COMPRESSION or Deflater.DEFAULT_COMPRESSION.
+	 *
+	 * @return The compressed data or null, if there was an error while the compression.
+	 */
+	public static byte[] compress(byte[] a_data, int a_level)
+	{
+		byte[] resultData = null;
+		try
+		{
+			ByteArrayOutputStream zippedData = new ByteArrayOutputStream(a_data.length / 4 + 64);
+			deflate(a_data, 0, a_data.length, null, zippedData, a_level, false);
+			resultData = zippedData.toByteArray();
+		}
+		catch (Throwable e)
+		{
+			/* should not happen */
+		}
+		return resultData;
+	}
+
+	/**
+	 * Reads all data from a stream and writes it ZLib compressed to another stream. None of the
+	 * streams is closed.
+	 *
+	 * @param a_in The data to compress.
+	 * @param a_out The stream the compressed data is written to.
+	 * @param a_level The compression level from Deflater.NO_COMPRESSION to
+	 *                Deflater.BEST_COMPRESSION or Deflater.DEFAULT_COMPRESSION.
+	 *
+	 * @exception IOException if an I/O error occurs
+	 */
+	public static void compress(InputStream a_in, OutputStream a_out, int a_level) throws IOException
+	{
+		deflate(null, 0, 0, a_in, a_out, a_level, false);
+	}
+
+	/**
+	 * Compresses the specified data in the GZIP file format.
+	 *
+	 * @param a_data The data to compress.
+	 *
+	 * @return The compressed data or null, if there was an error while the compression.
+	 */
+	public static byte[] compressGZip(byte[] a_data)
+	{
+		return compressGZip(a_data, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Compresses the specified data in the GZIP file format.
+	 *
+	 * @param a_data The data to compress.
+	 * @param a_level The compression level from Deflater.NO_COMPRESSION to
+	 *                Deflater.BEST_COMPRESSION or Deflater.DEFAULT_COMPRESSION.
+	 *
+	 * @return The compressed data or null, if there was an error while the compression.
+	 */
+	public static byte[] compressGZip(byte[] a_data, int a_level)
 	{
 		byte[] resultData = null;
 		try
 		{
-			Deflater zipper = new Deflater(Deflater.BEST_COMPRESSION);
-			ByteArrayOutputStream zippedData = new ByteArrayOutputStream();
-			DeflaterOutputStream zipStream = new DeflaterOutputStream(zippedData, zipper);
-			zipStream.write(a_data, 0, a_data.length);
-			zipStream.finish();
+			ByteArrayOutputStream zippedData = new ByteArrayOutputStream(a_data.length / 4 + 64);
+			zippedData.write(GZIP_HEADER);
+			CRC32 crc = new CRC32();
+			crc.update(a_data, 0, a_data.length);
+			deflate(a_data, 0, a_data.length, null, zippedData, a_level, true);
+			writeIntLittleEndian(zippedData, (int) crc.getValue());
+			writeIntLittleEndian(zippedData, a_data.length);
 			resultData = zippedData.toByteArray();
 		}
 		catch (Throwable e)
@@ -80,12 +182,13 @@ final public class ZLibTools
 	public static byte[] decompress(byte[] a_data)
 	{
 		byte[] resultData = null;
+		Inflater unzipper = null;
 		try
 		{
-			ByteArrayOutputStream unzippedData = new ByteArrayOutputStream();
-			Inflater unzipper = new Inflater();
+			ByteArrayOutputStream unzippedData = new ByteArrayOutputStream(a_data.length * 4);
+			unzipper = getInflater();
 			unzipper.setInput(a_data);
-			byte[] currentByte = new byte[10000];
+			byte[] currentByte = new byte[BUFFER_SIZE];
 			int len;
 			while ((len=unzipper.inflate(currentByte)) >0)
 			{
@@ -100,6 +203,251 @@ final public class ZLibTools
 						  "ZLIb decompress() decommpressed failed!");
 			/* something was wrong with the compressed data */
 		}
+		finally
+		{
+			releaseInflater(unzipper);
+		}
 		return resultData;
 	}
+
+	/**
+	 * Reads ZLib compressed data from a stream and writes it uncompressed to another stream.
+	 * Reading stops at the end of the compressed data or the end of the input stream. None of
+	 * the streams is closed.
+	 *
+	 * @param a_in The ZLib compressed data.
+	 * @param a_out The stream the uncompressed data is written to.
+	 *
+	 * @exception IOException if an I/O error occurs or the data is not ZLib compressed
+	 */
+	public static void decompress(InputStream a_in, OutputStream a_out) throws IOException
+	{
+		Inflater unzipper = getInflater();
+		byte[] input = new byte[BUFFER_SIZE];
+		byte[] output = new byte[BUFFER_SIZE];
+		int len;
+
+		try
+		{
+			while (!unzipper.finished())
+			{
+				if (unzipper.needsInput())
+				{
+					len = a_in.read(input);
+					if (len < 0)
+					{
+						break;
+					}
+					unzipper.setInput(input, 0, len);
+				}
+				else if (unzipper.needsDictionary())
+				{
+					throw new IOException("ZLib data needs a preset dictionary!");
+				}
+				while ( (len = unzipper.inflate(output)) > 0)
+				{
+					a_out.write(output, 0, len);
+				}
+			}
+			a_out.flush();
+		}
+		catch (DataFormatException a_e)
+		{
+			throw new IOException("Data is not ZLib compressed: " + a_e.getMessage());
+		}
+		finally
+		{
+			releaseInflater(unzipper);
+		}
+	}
+
+	/**
+	 * Frees the native memory of all idle Deflaters and Inflaters.
+	 */
+	public static void clearPool()
+	{
+		for (int i = 0; i < ms_deflaters.length; i++)
+		{
+			endAll(ms_deflaters[i]);
+			endAll(ms_rawDeflaters[i]);
+		}
+		endAll(ms_inflaters);
+	}
+
+	/**
+	 * Returns the number of idle Deflaters and Inflaters in the pool.
+	 *
+	 * @return the number of idle Deflaters and Inflaters
+	 */
+	public static int getPooledObjects()
+	{
+		int pooledObjects = ms_inflaters.size();
+		for (int i = 0; i < ms_deflaters.length; i++)
+		{
+			pooledObjects += ms_deflaters[i].size() + ms_rawDeflaters[i].size();
+		}
+		return pooledObjects;
+	}
+
+	/**
+	 * Deflates either a part of a byte array or, if no array is given, a stream.
+	 */
+	private static void deflate(byte[] a_data, int a_offset, int a_length, InputStream a_in,
+								OutputStream a_out, int a_level, boolean a_bNoWrap) throws IOException
+	{
+		Vector pool = getDeflaterPool(a_level, a_bNoWrap);
+		Deflater zipper = null;
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int len;
+
+		synchronized (pool)
+		{
+			if (pool.size() > 0)
+			{
+				zipper = (Deflater) pool.lastElement();
+				pool.removeElementAt(pool.size() - 1);
+			}
+		}
+		if (zipper == null)
+		{
+			zipper = new Deflater(a_level, a_bNoWrap);
+		}
+
+		try
+		{
+			if (a_data != null)
+			{
+				zipper.setInput(a_data, a_offset, a_length);
+			}
+			else
+			{
+				byte[] input = new byte[BUFFER_SIZE];
+				while ( (len = a_in.read(input)) >= 0)
+				{
+					zipper.setInput(input, 0, len);
+					while (!zipper.needsInput())
+					{
+						len = zipper.deflate(buffer);
+						a_out.write(buffer, 0, len);
+					}
+				}
+			}
+			zipper.finish();
+			while (!zipper.finished())
+			{
+				len = zipper.deflate(buffer);
+				a_out.write(buffer, 0, len);
+			}
+			a_out.flush();
+		}
+		finally
+		{
+			release(pool, zipper);
+		}
+	}
+
+	private static Vector getDeflaterPool(int a_level, boolean a_bNoWrap)
+	{
+		if (a_level < Deflater.DEFAULT_COMPRESSION || a_level > Deflater.BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("Invalid compression level: " + a_level);
+		}
+		if (a_bNoWrap)
+		{
+			return ms_rawDeflaters[a_level + 1];
+		}
+		return ms_deflaters[a_level + 1];
+	}
+
+	private static Inflater getInflater()
+	{
+		synchronized (ms_inflaters)
+		{
+			if (ms_inflaters.size() > 0)
+			{
+				Inflater unzipper = (Inflater) ms_inflaters.lastElement();
+				ms_inflaters.removeElementAt(ms_inflaters.size() - 1);
+				return unzipper;
+			}
+		}
+		return new Inflater();
+	}
+
+	private static void releaseInflater(Inflater a_unzipper)
+	{
+		if (a_unzipper == null)
+		{
+			return;
+		}
+		try
+		{
+			a_unzipper.reset();
+		}
+		catch (Throwable a_e)
+		{
+			a_unzipper.end();
+			return;
+		}
+		synchronized (ms_inflaters)
+		{
+			if (ms_inflaters.size() < MAX_POOLED_OBJECTS)
+			{
+				ms_inflaters.addElement(a_unzipper);
+				return;
+			}
+		}
+		a_unzipper.end();
+	}
+
+	private static void release(Vector a_pool, Deflater a_zipper)
+	{
+		try
+		{
+			a_zipper.reset();
+		}
+		catch (Throwable a_e)
+		{
+			a_zipper.end();
+			return;
+		}
+		synchronized (a_pool)
+		{
+			if (a_pool.size() < MAX_POOLED_OBJECTS)
+			{
+				a_pool.addElement(a_zipper);
+				return;
+			}
+		}
+		a_zipper.end();
+	}
+
+	private static void endAll(Vector a_pool)
+	{
+		Vector pooled;
+
+		synchronized (a_pool)
+		{
+			pooled = (Vector) a_pool.clone();
+			a_pool.removeAllElements();
+		}
+		for (int i = 0; i < pooled.size(); i++)
+		{
+			if (pooled.elementAt(i) instanceof Deflater)
+			{
+				( (Deflater) pooled.elementAt(i)).end();
+			}
+			else
+			{
+				( (Inflater) pooled.elementAt(i)).end();
+			}
+		}
+	}
+
+	private static void writeIntLittleEndian(OutputStream a_out, int a_value) throws IOException
+	{
+		a_out.write(a_value & 0xFF);
+		a_out.write( (a_value >> 8) & 0xFF);
+		a_out.write( (a_value >> 16) & 0xFF);
+		a_out.write( (a_value >> 24) & 0xFF);
+	}
 }
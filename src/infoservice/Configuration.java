@@ -41,6 +41,7 @@ import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.zip.Deflater;
 
 import anon.terms.template.TermsAndConditionsTemplate;
 import anon.util.XMLParseException;
@@ -56,6 +57,7 @@ import anon.infoservice.Database;
 import infoservice.tor.TorDirectoryAgent;
 import infoservice.tor.TorDirectoryServer;
 import infoservice.tor.TorDirectoryServerUrl;
+import logging.AsyncLog;
 import logging.LogHolder;
 import logging.LogLevel;
 import logging.LogType;
@@ -201,6 +203,17 @@ final public class Configuration
 	 *
 	 */
 	private int m_NrOfThreads;
+
+	/**
+	 * Stores whether the requests are received by the non-blocking InfoServiceSelectorServer
+	 * (true) or by one thread per connection (false).
+	 */
+	private boolean m_bNonBlockingServer;
+
+	/**
+	 * Stores the zlib compression level of the cached responses.
+	 */
+	private int m_responseCompressionLevel;
 	
 	/**
 	 * Stores if the performance monitoring is enabled
@@ -277,9 +290,18 @@ final public class Configuration
 		m_startupTime = new Date();
 		try
 		{
-			LogHolder.setLogInstance(new InfoServiceLog(a_properties));
+			if (Boolean.valueOf(a_properties.getProperty("messageAsyncLogging", "true").trim()).booleanValue())
+			{
+				LogHolder.setLogInstance(new AsyncLog(new InfoServiceLog(a_properties)));
+			}
+			else
+			{
+				LogHolder.setLogInstance(new InfoServiceLog(a_properties));
+			}
 			LogHolder.setDetailLevel(Integer.parseInt(a_properties.getProperty("messageDetailLevel", "0").
 				trim()));
+			LogHolder.setCallerLocationEnabled(Boolean.valueOf(
+				a_properties.getProperty("messageCallerLocation", "true").trim()).booleanValue());
 			m_strOwnName = a_properties.getProperty("ownname").trim();
 			m_iMaxPostContentLength = Integer.parseInt(a_properties.getProperty("maxPOSTContentLength").trim());
 			String strHardwareListeners = a_properties.getProperty("HardwareListeners").trim();
@@ -769,6 +791,28 @@ final public class Configuration
 							  m_NrOfThreads);
 			}
 			
+			m_bNonBlockingServer = Boolean.valueOf(a_properties.getProperty("nonBlockingServer", "false").trim()).booleanValue();
+
+			m_responseCompressionLevel = Deflater.BEST_COMPRESSION;
+			try
+			{
+				String b = a_properties.getProperty("responseCompressionLevel",
+					Integer.toString(m_responseCompressionLevel)).trim();
+				m_responseCompressionLevel = Integer.parseInt(b);
+				if (m_responseCompressionLevel < Deflater.DEFAULT_COMPRESSION ||
+					m_responseCompressionLevel > Deflater.BEST_COMPRESSION)
+				{
+					throw new NumberFormatException();
+				}
+			}
+			catch (Exception e)
+			{
+				m_responseCompressionLevel = Deflater.BEST_COMPRESSION;
+				LogHolder.log(LogLevel.WARNING, LogType.MISC,
+							  "Could not read 'responseCompressionLevel' setting - default to: " +
+							  m_responseCompressionLevel);
+			}
+			
 			if (Boolean.valueOf(a_properties.getProperty("enableDynamicConfiguration", "false")).booleanValue())
 			{
 				try
@@ -896,6 +940,30 @@ final public class Configuration
 		return m_NrOfThreads;
 	}
 
+	/**
+	 * Returns whether the requests are received by the non-blocking InfoServiceSelectorServer.
+	 * In this case getNrOfConcurrentConnections() is the number of worker threads processing
+	 * requests, but the number of connections is not limited.
+	 *
+	 * @return True, if the non-blocking server is used, false if there is one thread per
+	 *         connection.
+	 */
+	public boolean isNonBlockingServer()
+	{
+		return m_bNonBlockingServer;
+	}
+
+	/**
+	 * Returns the zlib compression level of the cached responses, from 0 (no compression) to
+	 * 9 (best compression) or -1 for the default level.
+	 *
+	 * @return the compression level of the cached responses
+	 */
+	public int getResponseCompressionLevel()
+	{
+		return m_responseCompressionLevel;
+	}
+
 	/**
 	 * Returns the ListenerInterfaces of all Interfaces our infoservice
 	 * propagates to others.
@@ -0,0 +1,246 @@
+/*
+ Copyright (c) 2000 - 2005, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+ - Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+ - Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation and/or
+  other materials provided with the distribution.
+
+ - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+   may be used to endorse or promote products derived from this software without specific
+  prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package infoservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+import anon.infoservice.Constants;
+
+/**
+ * Parses HTTP requests from data which arrives in arbitrary pieces (as it is read from a
+ * non-blocking socket). The parser keeps its state between the calls of parse(), so every byte
+ * is examined only once. Bytes following a complete request are left in the buffer, so pipelined
+ * requests can be parsed by the next call. The same syntax rules as in InfoServiceConnection are
+ * applied.
+ */
+final class HttpRequestParser
+{
+	private static final int STATE_HEADER = 0;
+
+	private static final int STATE_CONTENT = 1;
+
+	private static final byte CR = 13;
+
+	private static final byte LF = 10;
+
+	private int m_maxHeaderSize;
+
+	private int m_maxContentLength;
+
+	private int m_state;
+
+	private ByteArrayOutputStream m_header;
+
+	/**
+	 * The number of bytes of the <CRLF><CRLF> sequence at the end of the header which were
+	 * already found.
+	 */
+	private int m_headerEndMatched;
+
+	private InfoServiceRequest m_request;
+
+	private byte[] m_content;
+
+	private int m_contentRead;
+
+	/**
+	 * Creates a new parser.
+	 *
+	 * @param a_maxHeaderSize The maximum size of request line and header (including all CRLF).
+	 * @param a_maxContentLength The maximum length of the content of a request.
+	 */
+	public HttpRequestParser(int a_maxHeaderSize, int a_maxContentLength)
+	{
+		m_maxHeaderSize = a_maxHeaderSize;
+		m_maxContentLength = a_maxContentLength;
+		m_header = new ByteArrayOutputStream(512);
+		reset();
+	}
+
+	/**
+	 * Consumes bytes from the buffer until a request is complete or the buffer is empty.
+	 *
+	 * @param a_buffer The received data (position and limit are set to the unread bytes). Bytes
+	 *                 which do not belong to the returned request are not consumed.
+	 *
+	 * @return The next complete request or null, if more data is needed.
+	 *
+	 * @exception IOException If the request is invalid or exceeds one of the size limits.
+	 */
+	public InfoServiceRequest parse(ByteBuffer a_buffer) throws IOException
+	{
+		if (m_state == STATE_HEADER)
+		{
+			while (a_buffer.hasRemaining())
+			{
+				byte currentByte = a_buffer.get();
+				if (m_header.size() >= m_maxHeaderSize)
+				{
+					throw new IOException("Cannot read more bytes, message size limit reached.");
+				}
+				m_header.write(currentByte);
+				if ((currentByte == CR && (m_headerEndMatched & 1) == 0) ||
+					(currentByte == LF && (m_headerEndMatched & 1) == 1))
+				{
+					m_headerEndMatched++;
+				}
+				else
+				{
+					m_headerEndMatched = (currentByte == CR) ? 1 : 0;
+				}
+				if (m_headerEndMatched == 4)
+				{
+					m_request = createRequest(m_header.toByteArray());
+					if (m_request.getContentLength() > m_maxContentLength)
+					{
+						throw new IOException(
+							"Content is longer than allowed maximum content length.");
+					}
+					m_content = new byte[Math.max(0, m_request.getContentLength())];
+					m_contentRead = 0;
+					m_state = STATE_CONTENT;
+					break;
+				}
+			}
+		}
+		if (m_state == STATE_CONTENT)
+		{
+			int length = Math.min(a_buffer.remaining(), m_content.length - m_contentRead);
+			a_buffer.get(m_content, m_contentRead, length);
+			m_contentRead += length;
+			if (m_contentRead == m_content.length)
+			{
+				InfoServiceRequest request = m_request;
+				if (request.getInternalRequestMethodCode() == Constants.REQUEST_METHOD_POST)
+				{
+					request.setPostData(m_content);
+				}
+				reset();
+				return request;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the parser has received a part of a request.
+	 */
+	public boolean isRequestStarted()
+	{
+		return (m_state != STATE_HEADER) || (m_header.size() > 0);
+	}
+
+	private void reset()
+	{
+		m_state = STATE_HEADER;
+		m_header.reset();
+		m_headerEndMatched = 0;
+		m_request = null;
+		m_content = null;
+		m_contentRead = 0;
+	}
+
+	/**
+	 * Splits the complete header into the request line and the header lines. Folded header lines
+	 * are concatenated (the folding CRLF is removed, but not the SPACE or TAB at the beginning of
+	 * the next line).
+	 *
+	 * @param a_header The request line and the header including the empty line at the end (so
+	 *                 every line is terminated by <CRLF>).
+	 *
+	 * @return The request.
+	 */
+	private static InfoServiceRequest createRequest(byte[] a_header) throws IOException
+	{
+		String requestLine = null;
+		Vector headerLines = new Vector();
+		ByteArrayOutputStream currentLine = new ByteArrayOutputStream(128);
+		int position = 0;
+		while (true)
+		{
+			int lineEnd = position;
+			while (a_header[lineEnd] != CR)
+			{
+				int currentByte = a_header[lineEnd] & 0xFF;
+				/* check for illegal characters (TAB is only allowed in header lines) */
+				if (((currentByte < 32) && ((currentByte != 9) || (requestLine == null))) ||
+					(currentByte == 127))
+				{
+					throw new IOException("Illegal character in HTTP request header.");
+				}
+				lineEnd++;
+			}
+			if (a_header[lineEnd + 1] != LF)
+			{
+				/* only complete <CRLF> is allowed */
+				throw new IOException("Invalid line end in HTTP request header.");
+			}
+			if (requestLine == null)
+			{
+				requestLine = new String(a_header, position, lineEnd - position);
+			}
+			else if (lineEnd == position)
+			{
+				/* found empty header line -> end of header */
+				if (currentLine.size() > 0)
+				{
+					headerLines.addElement(currentLine.toString());
+				}
+				break;
+			}
+			else if ((a_header[position] == 9) || (a_header[position] == 32))
+			{
+				if (currentLine.size() == 0)
+				{
+					throw new IOException("Invalid folded line in HTTP request header.");
+				}
+				/* folded header line */
+				currentLine.write(a_header, position, lineEnd - position);
+			}
+			else
+			{
+				if (currentLine.size() > 0)
+				{
+					headerLines.addElement(currentLine.toString());
+					currentLine.reset();
+				}
+				currentLine.write(a_header, position, lineEnd - position);
+			}
+			position = lineEnd + 2;
+		}
+		InfoServiceRequest request = InfoServiceRequest.createRequest(requestLine, headerLines);
+		if (request == null)
+		{
+			throw new IOException("Invalid HTTP request: " + requestLine);
+		}
+		return request;
+	}
+}
@@ -1,6 +1,8 @@
 package infoservice;
 
 import anon.util.MyStringBuilder;
+import anon.util.Scheduler;
+import anon.util.TaskPool;
 import anon.util.Util;
 
 import java.math.BigInteger;
@@ -11,6 +13,7 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import anon.crypto.VerifiedSignatureCache;
 import anon.infoservice.Database;
 import infoservice.japforwarding.ForwarderDBEntry;
 
@@ -164,6 +167,16 @@ final class ISRuntimeStatistics
 		}
 	}
 
+	private static String formatLatency(long a_latency)
+	{
+		if (a_latency == Long.MAX_VALUE)
+		{
+			return ">= " + ms_NumberFormat.format(
+				TaskPool.getLatencyBucketLimit(TaskPool.LATENCY_BUCKETS - 2)) + " ms";
+		}
+		return "< " + ms_NumberFormat.format(a_latency) + " ms";
+	}
+
 	static String getAsHTML()
 	{
 		MyStringBuilder sb=new MyStringBuilder(512);
@@ -212,6 +225,30 @@ final class ISRuntimeStatistics
 		sb.append("</td></tr><tr><td>Active forwarders: </td><td>");
 		sb.append(ms_NumberFormat.format(Database.getInstance(ForwarderDBEntry.class).getNumberOfEntries()));
 		sb.append("</td></tr><tr><td><br></td><td>");
+		sb.append("</td></tr><tr><td>Verified signature cache hit rate: </td><td>");
+		sb.append(VerifiedSignatureCache.getInstance().getHitRate());
+		sb.append(" %</td></tr><tr><td>Saved signature verification time: </td><td>");
+		sb.append(ms_NumberFormat.format(VerifiedSignatureCache.getInstance().getSavedVerificationTime()));
+		sb.append(" ms</td></tr><tr><td><br></td><td>");
+		
+		Vector pools = Scheduler.getPools();
+		for (int i = 0; i < pools.size(); i++)
+		{
+			TaskPool pool = (TaskPool) pools.elementAt(i);
+			sb.append("</td></tr><tr><td>Task pool '" + pool.getName() + "': </td><td>");
+			sb.append(pool.getActiveThreadCount() + " of " + pool.getThreadCount() + " threads active, ");
+			sb.append(ms_NumberFormat.format(pool.getQueueSize()) + " tasks queued, ");
+			sb.append(ms_NumberFormat.format(pool.getCompletedTaskCount()) + " tasks completed");
+			if (pool.getCompletedTaskCount() > 0)
+			{
+				sb.append(", latency 50%: " + formatLatency(pool.getLatencyPercentile(50)));
+				sb.append(", 99%: " + formatLatency(pool.getLatencyPercentile(99)));
+			}
+		}
+		if (pools.size() > 0)
+		{
+			sb.append("</td></tr><tr><td><br></td><td>");
+		}
 		
 		Hashtable hashVersionStrings = new Hashtable();
 		Enumeration enumProperties, enumValues;
@@ -30,6 +30,7 @@ package infoservice;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.security.SignatureException;
 import java.util.Enumeration;
 import java.util.Properties;
@@ -49,7 +50,7 @@ import anon.infoservice.ListenerInterface;
 import anon.terms.template.TermsAndConditionsTemplate;
 import anon.infoservice.update.AccountUpdater;
 import anon.util.JAPMessages;
-import anon.util.ThreadPool;
+import anon.util.TaskPool;
 import anon.util.TimedOutputStream;
 import anon.util.XMLParseException;
 import logging.LogHolder;
@@ -67,7 +68,7 @@ public class InfoService implements Observer
 	
 	private String m_configFileName;
 	
-	protected ThreadPool m_ThreadPool;
+	protected TaskPool m_ThreadPool;
 
 	public static void main(String[] argv)
 	{
@@ -354,10 +355,27 @@ public class InfoService implements Observer
 		LogHolder.log(LogLevel.EMERG, LogType.MISC, System.getProperty("os.name"));
 		LogHolder.log(LogLevel.EMERG, LogType.MISC, System.getProperty("os.arch"));
 		LogHolder.log(LogLevel.EMERG, LogType.MISC, System.getProperty("os.version"));
-		m_ThreadPool = new ThreadPool("ISConnection",
-									  Configuration.getInstance().getNrOfConcurrentConnections());
-		TimedOutputStream.init();
 		Enumeration enumer = Configuration.getInstance().getHardwareListeners().elements();
+		if (Configuration.getInstance().isNonBlockingServer())
+		{
+			/* one selector thread serves all listeners */
+			InfoServiceSelectorServer server = new InfoServiceSelectorServer(oicHandler,
+				Configuration.getInstance().getNrOfConcurrentConnections(),
+				Configuration.getInstance().getMaxPostContentLength());
+			while (enumer.hasMoreElements())
+			{
+				ListenerInterface listener = (ListenerInterface) (enumer.nextElement());
+				server.addListener(InetAddress.getByName(listener.getHost()), listener.getPort());
+			}
+			Thread serverThread = new Thread(server, server.toString());
+			serverThread.setDaemon(true);
+			serverThread.start();
+			return;
+		}
+		m_ThreadPool = new TaskPool("ISConnection",
+									Configuration.getInstance().getNrOfConcurrentConnections(),
+									Thread.NORM_PRIORITY, 0);
+		TimedOutputStream.init();
 		while (enumer.hasMoreElements())
 		{
 			InfoServiceServer server = new InfoServiceServer( (ListenerInterface) (enumer.nextElement()), this);
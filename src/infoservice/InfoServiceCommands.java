@@ -32,6 +32,8 @@ import java.io.File;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.Calendar;
@@ -39,6 +41,8 @@ import java.util.Calendar;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import anon.crypto.ByteSignature;
 import anon.crypto.SignatureCreator;
 import anon.crypto.SignatureVerifier;
 import anon.crypto.XMLSignature;
@@ -46,6 +50,7 @@ import anon.infoservice.AbstractDatabaseEntry;
 import anon.infoservice.AbstractDistributableDatabaseEntry;
 import anon.infoservice.Constants;
 import anon.infoservice.Database;
+import anon.infoservice.DatabaseDelta;
 import anon.infoservice.HttpResponseStructure;
 import anon.infoservice.IBoostrapable;
 import anon.infoservice.InfoServiceDBEntry;
@@ -86,6 +91,8 @@ import java.util.Random;
  */
 final public class InfoServiceCommands implements JWSInternalCommands
 {
+	private final ResponseBuilder m_responseBuilder = new ResponseBuilder();
+
 	private final HTTPResponseGetter m_isResponseGetter = new HTTPResponseGetter()
 	{
 		public Class getDatabaseClass()
@@ -465,164 +472,603 @@ final public class InfoServiceCommands implements JWSInternalCommands
 		return httpResponse;
 	}*/
 
-	private abstract class HTTPResponseGetter
+	/**
+	 * Stores the serialized responses for one document of an HTTPResponseGetter. The plain, the
+	 * zlib and the gzip variant are created once when the document is built, so a request only
+	 * has to select one of them. The entity tag is derived from the content of the document.
+	 */
+	private static final class CachedResponse
 	{
-		private static final long CACHE_SERIALS_MS = 10000;
-		private static final long CACHE_MS = 10000;
-
-		private HttpResponseStructure m_cachedSerialsResponse;
-		private HttpResponseStructure m_cachedSerialsCompressedResponse;
-		private final Object SYNC_CACHE_SERIALS = new Object();
-		private long m_lastSerialsUpdate = 0;
-
-		private HttpResponseStructure m_cachedResponse;
-		private HttpResponseStructure m_cachedCompressedResponse;
-		private final Object SYNC_CACHE = new Object();
-		private long m_lastUpdate = 0;
-		private boolean m_bWebInfo;
+		private final int m_version;
+		private final long m_creationTime;
+		private final HttpResponseStructure m_plainResponse;
+		private final HttpResponseStructure m_zlibResponse;
+		private final HttpResponseStructure m_gzipResponse;
+		private final boolean m_bValid;
 
-		public HTTPResponseGetter()
+		/**
+		 * Creates an error response, which is replaced as soon as possible.
+		 */
+		public CachedResponse(int a_version)
 		{
+			m_version = a_version;
+			m_creationTime = System.currentTimeMillis();
+			m_plainResponse = new HttpResponseStructure(HttpResponseStructure.
+				HTTP_RETURN_INTERNAL_SERVER_ERROR);
+			m_zlibResponse = m_plainResponse;
+			m_gzipResponse = m_plainResponse;
+			m_bValid = false;
 		}
-		
-		public HTTPResponseGetter(boolean a_bWebInfo)
+
+		/**
+		 * Creates the responses for a document.
+		 *
+		 * @param a_version the database version the document was created from
+		 * @param a_plainData the serialized document sent to clients without compression support
+		 * @param a_compressionData the serialized document that is sent compressed
+		 */
+		public CachedResponse(int a_version, byte[] a_plainData, byte[] a_compressionData)
+			throws Exception
 		{
-			m_bWebInfo = a_bWebInfo;
+			int level = Configuration.getInstance().getResponseCompressionLevel();
+			byte[] zlibData = ZLibTools.compress(a_compressionData, level);
+			byte[] gzipData = ZLibTools.compressGZip(a_compressionData, level);
+			if (zlibData == null || gzipData == null)
+			{
+				throw new Exception("Could not compress the response.");
+			}
+
+			SHA1Digest digest = new SHA1Digest();
+			byte[] hash = new byte[digest.getDigestSize()];
+			digest.update(a_plainData, 0, a_plainData.length);
+			digest.doFinal(hash, 0);
+			String eTag = ByteSignature.toHexString(hash, "");
+
+			m_version = a_version;
+			m_creationTime = System.currentTimeMillis();
+			/* every encoding is a different representation and needs its own entity tag */
+			m_plainResponse = new HttpResponseStructure(HttpResponseStructure.HTTP_TYPE_TEXT_XML,
+				HttpResponseStructure.HTTP_ENCODING_PLAIN, a_plainData, eTag);
+			m_zlibResponse = new HttpResponseStructure(HttpResponseStructure.HTTP_TYPE_TEXT_XML,
+				HttpResponseStructure.HTTP_ENCODING_ZLIB, zlibData, eTag + "-z");
+			m_gzipResponse = new HttpResponseStructure(HttpResponseStructure.HTTP_TYPE_TEXT_XML,
+				HttpResponseStructure.HTTP_ENCODING_GZIP, gzipData, eTag + "-g");
+			m_bValid = true;
 		}
 
-		public abstract Class getDatabaseClass();
+		public HttpResponseStructure getResponse(int a_supportedEncodings)
+		{
+			if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_ZLIB) > 0)
+			{
+				return m_zlibResponse;
+			}
+			else if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_GZIP) > 0)
+			{
+				return m_gzipResponse;
+			}
+			return m_plainResponse;
+		}
+	}
+
+	/**
+	 * Rebuilds the outdated documents of the HTTPResponseGetters, so signing and compressing
+	 * never delays a request.
+	 */
+	private final class ResponseBuilder implements Runnable
+	{
+		/** the scheduled getters, ordered by the time they should be rebuilt */
+		private final Vector m_scheduledGetters = new Vector();
+		private final Vector m_rebuildTimes = new Vector();
+		private Thread m_thread;
 
-		protected HttpResponseStructure fetchResponse(int a_supportedEncodings)
+		/**
+		 * Schedules the rebuild of a getter.
+		 *
+		 * @param a_getter the getter
+		 * @param a_rebuildTime the time in milliseconds when the getter should be rebuilt
+		 */
+		public void schedule(HTTPResponseGetter a_getter, long a_rebuildTime)
 		{
-			HttpResponseStructure httpResponse;
-			Document doc;
-			Element containerNode;
+			synchronized (m_scheduledGetters)
+			{
+				int index = m_rebuildTimes.size();
+				while (index > 0 &&
+					   ((Long) m_rebuildTimes.elementAt(index - 1)).longValue() > a_rebuildTime)
+				{
+					index--;
+				}
+				m_scheduledGetters.insertElementAt(a_getter, index);
+				m_rebuildTimes.insertElementAt(new Long(a_rebuildTime), index);
+				if (m_thread == null)
+				{
+					m_thread = new Thread(this, "InfoServiceCommands - Response Builder");
+					m_thread.setDaemon(true);
+					m_thread.start();
+				}
+				m_scheduledGetters.notify();
+			}
+		}
 
-			synchronized (SYNC_CACHE)
+		public void run()
+		{
+			HTTPResponseGetter getter;
+			while (true)
 			{
-				if (m_lastUpdate < (System.currentTimeMillis() - CACHE_MS))
+				synchronized (m_scheduledGetters)
 				{
-					m_lastUpdate = System.currentTimeMillis();
-					
-					if (m_bWebInfo)
-					{
-						doc = Database.getInstance(getDatabaseClass()).getWebInfos();
-					}
-					else
+					try
 					{
-						doc = XMLUtil.createDocument();
-						containerNode = doc.createElement(XMLUtil.getXmlElementContainerName(getDatabaseClass()));					
-						XMLUtil.setAttribute(containerNode, "id", Configuration.getInstance().getID());
-						XMLUtil.setAttribute(containerNode, AbstractDatabaseEntry.XML_ATTR_LAST_UPDATE, 
-								m_lastUpdate);
-						
-						/* append the nodes of all entries we know */
-						Enumeration knownentries = Database.getInstance(getDatabaseClass()).
-							getEntrySnapshotAsEnumeration();
-						IXMLEncodable currentCascade;
-						Element node;
-						while (knownentries.hasMoreElements())
+						while (true)
 						{
-							/* import the entry XML structure in this document */
-							currentCascade = (IXMLEncodable) (knownentries.nextElement());
-							if (currentCascade instanceof IBoostrapable && 
-								((IBoostrapable)currentCascade).isBootstrap())
+							if (m_scheduledGetters.size() == 0)
 							{
-								// do not forward this entry, as it is for internal use only
+								m_scheduledGetters.wait();
 								continue;
 							}
-							node = currentCascade.toXmlElement(doc);
-							containerNode.appendChild(node);
+							long delay = ((Long) m_rebuildTimes.firstElement()).longValue() -
+								System.currentTimeMillis();
+							if (delay <= 0)
+							{
+								break;
+							}
+							m_scheduledGetters.wait(delay);
 						}
-						SignatureCreator.getInstance().signXml(SignatureVerifier.DOCUMENT_CLASS_INFOSERVICE,
-							containerNode);
-						doc.appendChild(containerNode);
 					}
-					
-					/* send the XML document to the client */
-					//if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_ZLIB) > 0)
+					catch (InterruptedException a_e)
 					{
-						try
-						{
-							m_cachedCompressedResponse = new HttpResponseStructure(
-								HttpResponseStructure.HTTP_TYPE_TEXT_XML,
-								HttpResponseStructure.HTTP_ENCODING_ZLIB,
-								ZLibTools.compress(XMLUtil.toByteArray(doc)));
-								//ZLibTools.compress(XMLSignature.toCanonical(doc)));
-						}
-						catch (/*XMLParse*/Exception ex)
-						{
-							m_cachedCompressedResponse = new HttpResponseStructure(HttpResponseStructure.
-								HTTP_RETURN_INTERNAL_SERVER_ERROR);
-						}
+						return;
 					}
-					//else
-					{
-						m_cachedResponse = new HttpResponseStructure(doc);
-					}					
+					getter = (HTTPResponseGetter) m_scheduledGetters.firstElement();
+					m_scheduledGetters.removeElementAt(0);
+					m_rebuildTimes.removeElementAt(0);
+				}
+				try
+				{
+					getter.rebuild();
+				}
+				catch (Throwable a_e)
+				{
+					LogHolder.log(LogLevel.ERR, LogType.NET, a_e);
 				}
 			}
+		}
+	}
 
-			if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_ZLIB) > 0)
+	/**
+	 * Creates the signed lists of the entries of a database. The lists are kept until the database
+	 * reports a change and are then rebuilt in the background by the ResponseBuilder, so requests
+	 * get the last list without waiting. Only the very first request has to wait for the list.
+	 */
+	private abstract class HTTPResponseGetter implements Observer
+	{
+		/**
+		 * A list is rebuilt at most once within this interval, even if the database changes more
+		 * often.
+		 */
+		private static final long MIN_REBUILD_INTERVAL_MS = 1000;
+
+		/**
+		 * Web infos contain data of other databases, which are not observed -> rebuild them
+		 * regularly.
+		 */
+		private static final long CACHE_WEB_INFO_MS = 10000;
+
+		/**
+		 * The maximum age of a list, even if the database did not report a change.
+		 */
+		private static final long CACHE_MAX_MS = 5 * 60 * 1000;
+
+		/**
+		 * Deltas are built only for the last MAX_CACHED_DELTAS change sequence numbers of the
+		 * database; older sequence numbers get the complete delta.
+		 */
+		private static final int MAX_CACHED_DELTAS = 50;
+
+		/**
+		 * The maximum time a request waits for the first complete delta.
+		 */
+		private static final long MAX_DELTA_WAIT_MS = 30000;
+
+		private volatile CachedResponse m_cachedSerialsResponse;
+		private volatile CachedResponse m_cachedResponse;
+		private final Object SYNC_BUILD = new Object();
+		private final Object SYNC_VERSION = new Object();
+		private int m_version = 0;
+		private boolean m_bObserving = false;
+		private boolean m_bRebuildScheduled = false;
+		private long m_lastRebuild = 0;
+		private boolean m_bWebInfo;
+		private volatile CachedResponse m_cachedCompleteDelta;
+		private volatile boolean m_bDeltasRequested = false;
+		/** the deltas since the requested sequence numbers to the current one of the database */
+		private final Hashtable m_cachedDeltaResponses = new Hashtable();
+		private Vector m_requestedDeltaSequences = new Vector();
+		private long m_cachedDeltaEpoch = -1;
+		private long m_cachedDeltaSequence = -1;
+
+		public HTTPResponseGetter()
+		{
+		}
+		
+		public HTTPResponseGetter(boolean a_bWebInfo)
+		{
+			m_bWebInfo = a_bWebInfo;
+		}
+
+		public abstract Class getDatabaseClass();
+
+		/**
+		 * Called by the database on every change. The lists are marked as outdated and rebuilt
+		 * in the background, once they have been requested.
+		 */
+		public void update(Observable a_database, Object a_message)
+		{
+			synchronized (SYNC_VERSION)
+			{
+				m_version++;
+			}
+			if (m_cachedResponse != null || m_cachedSerialsResponse != null ||
+				m_cachedCompleteDelta != null)
+			{
+				scheduleRebuild();
+			}
+		}
+
+		private int getVersion()
+		{
+			synchronized (SYNC_VERSION)
+			{
+				return m_version;
+			}
+		}
+
+		private boolean isOutdated(CachedResponse a_cachedResponse)
+		{
+			long age = System.currentTimeMillis() - a_cachedResponse.m_creationTime;
+			return !a_cachedResponse.m_bValid || a_cachedResponse.m_version != getVersion() ||
+				age > CACHE_MAX_MS || (m_bWebInfo && age > CACHE_WEB_INFO_MS);
+		}
+
+		/**
+		 * Schedules a rebuild of the outdated lists. A change within MIN_REBUILD_INTERVAL_MS of
+		 * the last rebuild is rebuilt as soon as the interval has passed.
+		 */
+		private void scheduleRebuild()
+		{
+			long rebuildTime;
+			synchronized (SYNC_VERSION)
+			{
+				if (m_bRebuildScheduled)
+				{
+					return;
+				}
+				m_bRebuildScheduled = true;
+				rebuildTime = Math.max(System.currentTimeMillis(),
+									   m_lastRebuild + MIN_REBUILD_INTERVAL_MS);
+			}
+			m_responseBuilder.schedule(this, rebuildTime);
+		}
+
+		/**
+		 * Rebuilds the outdated lists. This is called by the ResponseBuilder.
+		 */
+		public void rebuild()
+		{
+			synchronized (SYNC_VERSION)
+			{
+				/* changes from now on need another rebuild */
+				m_bRebuildScheduled = false;
+				m_lastRebuild = System.currentTimeMillis();
+			}
+			synchronized (SYNC_BUILD)
+			{
+				if (m_cachedResponse != null && isOutdated(m_cachedResponse))
+				{
+					build(false);
+				}
+				if (m_cachedSerialsResponse != null && isOutdated(m_cachedSerialsResponse))
+				{
+					build(true);
+				}
+				if (m_bDeltasRequested)
+				{
+					buildDeltas();
+				}
+			}
+		}
+
+		private void observe()
+		{
+			if (!m_bObserving)
+			{
+				/* the initial message increases the version, too */
+				Database.getInstance(getDatabaseClass()).addObserver(this);
+				m_bObserving = true;
+			}
+		}
+
+		/**
+		 * Builds a list and replaces the current one. Must be called while holding SYNC_BUILD.
+		 */
+		private CachedResponse build(boolean a_bSerialsOnly)
+		{
+			CachedResponse cachedResponse;
+			int version;
+
+			observe();
+			version = getVersion();
+			try
+			{
+				if (a_bSerialsOnly)
+				{
+					cachedResponse = createSerialsResponse(version);
+				}
+				else
+				{
+					cachedResponse = createResponse(version);
+				}
+			}
+			catch (Exception a_e)
 			{
-				httpResponse = m_cachedCompressedResponse;
+				LogHolder.log(LogLevel.ERR, LogType.NET, a_e);
+				cachedResponse = new CachedResponse(version);
+			}
+
+			if (a_bSerialsOnly)
+			{
+				m_cachedSerialsResponse = cachedResponse;
 			}
 			else
 			{
-				httpResponse = m_cachedResponse;
+				m_cachedResponse = cachedResponse;
 			}
-			return httpResponse;
+			return cachedResponse;
 		}
 
-		protected HttpResponseStructure fetchSerialsResponse(int a_supportedEncodings)
+		private CachedResponse createResponse(int a_version) throws Exception
+		{
+			Document doc;
+			Element containerNode;
+
+			if (m_bWebInfo)
+			{
+				doc = Database.getInstance(getDatabaseClass()).getWebInfos();
+			}
+			else
+			{
+				doc = XMLUtil.createDocument();
+				containerNode = doc.createElement(XMLUtil.getXmlElementContainerName(getDatabaseClass()));					
+				XMLUtil.setAttribute(containerNode, "id", Configuration.getInstance().getID());
+				XMLUtil.setAttribute(containerNode, AbstractDatabaseEntry.XML_ATTR_LAST_UPDATE, 
+						System.currentTimeMillis());
+				
+				/* append the nodes of all entries we know */
+				Enumeration knownentries = Database.getInstance(getDatabaseClass()).
+					getEntrySnapshotAsEnumeration();
+				IXMLEncodable currentCascade;
+				Element node;
+				while (knownentries.hasMoreElements())
+				{
+					/* import the entry XML structure in this document */
+					currentCascade = (IXMLEncodable) (knownentries.nextElement());
+					if (currentCascade instanceof IBoostrapable && 
+						((IBoostrapable)currentCascade).isBootstrap())
+					{
+						// do not forward this entry, as it is for internal use only
+						continue;
+					}
+					node = currentCascade.toXmlElement(doc);
+					containerNode.appendChild(node);
+				}
+				SignatureCreator.getInstance().signXml(SignatureVerifier.DOCUMENT_CLASS_INFOSERVICE,
+					containerNode);
+				doc.appendChild(containerNode);
+			}
+
+			byte[] data = XMLUtil.toByteArray(doc);
+			if (data == null)
+			{
+				throw new Exception("Could not serialize the " +
+									XMLUtil.getXmlElementContainerName(getDatabaseClass()) + ".");
+			}
+			return new CachedResponse(a_version, data, data);
+		}
+
+		private CachedResponse createSerialsResponse(int a_version) throws Exception
 		{
-			HttpResponseStructure httpResponse;
 			Document doc;
 			Element node;
 
-			synchronized (SYNC_CACHE_SERIALS)
+			doc = XMLUtil.createDocument();
+			node = new AbstractDistributableDatabaseEntry.Serials(getDatabaseClass()).toXmlElement(doc);
+			SignatureCreator.getInstance().signXml(SignatureVerifier.DOCUMENT_CLASS_INFOSERVICE, node);
+			doc.appendChild(node);
+
+			byte[] data = XMLUtil.toByteArray(doc);
+			if (data == null)
+			{
+				throw new Exception("Could not serialize the serials of " +
+									XMLUtil.getXmlElementContainerName(getDatabaseClass()) + ".");
+			}
+			return new CachedResponse(a_version, data, XMLSignature.toCanonical(doc));
+		}
+
+		/**
+		 * Builds the complete delta if it is outdated and the deltas for the sequence numbers
+		 * clients have asked for. Must be called while holding SYNC_BUILD.
+		 */
+		private void buildDeltas()
+		{
+			Database database = Database.getInstance(getDatabaseClass());
+			CachedResponse completeDelta = m_cachedCompleteDelta;
+			if (completeDelta == null || isOutdated(completeDelta))
+			{
+				observe();
+				int version = getVersion();
+				/* no epoch matches -> the delta contains the whole database */
+				DatabaseDelta delta = database.getDelta(-1, -1);
+				try
+				{
+					completeDelta = createDeltaResponse(version, delta);
+				}
+				catch (Exception a_e)
+				{
+					LogHolder.log(LogLevel.ERR, LogType.NET, a_e);
+					completeDelta = new CachedResponse(version);
+				}
+				synchronized (m_cachedDeltaResponses)
+				{
+					m_cachedDeltaResponses.clear();
+					m_cachedDeltaEpoch = delta.getEpoch();
+					m_cachedDeltaSequence = delta.getSequence();
+					m_cachedCompleteDelta = completeDelta;
+					m_cachedDeltaResponses.notifyAll();
+				}
+			}
+
+			Vector requestedSequences;
+			long epoch, sequence;
+			synchronized (m_cachedDeltaResponses)
+			{
+				requestedSequences = m_requestedDeltaSequences;
+				m_requestedDeltaSequences = new Vector();
+				epoch = m_cachedDeltaEpoch;
+				sequence = m_cachedDeltaSequence;
+			}
+			for (int i = 0; i < requestedSequences.size(); i++)
+			{
+				Long requestedSequence = (Long) requestedSequences.elementAt(i);
+				DatabaseDelta delta = database.getDelta(epoch, requestedSequence.longValue());
+				if (delta.isComplete() || delta.getSequence() != sequence)
+				{
+					/* the database has changed meanwhile -> clients ask again */
+					continue;
+				}
+				CachedResponse deltaResponse;
+				try
+				{
+					deltaResponse = createDeltaResponse(completeDelta.m_version, delta);
+				}
+				catch (Exception a_e)
+				{
+					LogHolder.log(LogLevel.ERR, LogType.NET, a_e);
+					continue;
+				}
+				synchronized (m_cachedDeltaResponses)
+				{
+					if (m_cachedDeltaSequence == sequence)
+					{
+						m_cachedDeltaResponses.put(requestedSequence, deltaResponse);
+					}
+				}
+			}
+		}
+
+		private CachedResponse createDeltaResponse(int a_version, DatabaseDelta a_delta)
+			throws Exception
+		{
+			Document doc = XMLUtil.createDocument();
+			Element node = a_delta.toXmlElement(doc);
+			SignatureCreator.getInstance().signXml(SignatureVerifier.DOCUMENT_CLASS_INFOSERVICE, node);
+			doc.appendChild(node);
+			byte[] data = XMLUtil.toByteArray(doc);
+			if (data == null)
 			{
-				if (m_lastSerialsUpdate < (System.currentTimeMillis() - CACHE_SERIALS_MS))
+				throw new Exception("Could not serialize the delta of " +
+									XMLUtil.getXmlElementContainerName(getDatabaseClass()) + ".");
+			}
+			return new CachedResponse(a_version, data, data);
+		}
+
+		/**
+		 * Sends the changes of the database since the given change sequence number to the client.
+		 * Deltas are only built and signed by the ResponseBuilder, so a request never creates a
+		 * signature. If the delta for the sequence number is not built yet, or if the sequence
+		 * number is unknown, the client gets the complete delta and the delta is built in the
+		 * background if the sequence number is one of the last MAX_CACHED_DELTAS.
+		 *
+		 * @param a_supportedEncodings defines the encoding supported by the client (deflate, gzip,...)
+		 * @param a_epochAndSequence the epoch and sequence number of the last delta the client got,
+		 * separated by '/'
+		 * @return The HTTP response for the client.
+		 */
+		public HttpResponseStructure fetchDeltaResponse(int a_supportedEncodings,
+			String a_epochAndSequence)
+		{
+			long epoch, sequence;
+			try
+			{
+				int separator = a_epochAndSequence.indexOf('/');
+				epoch = Long.parseLong(a_epochAndSequence.substring(0, separator));
+				sequence = Long.parseLong(a_epochAndSequence.substring(separator + 1));
+			}
+			catch (Exception a_e)
+			{
+				return new HttpResponseStructure(HttpResponseStructure.HTTP_RETURN_BAD_REQUEST);
+			}
+
+			HttpResponseStructure httpResponse;
+			try
+			{
+				m_bDeltasRequested = true;
+				CachedResponse completeDelta = m_cachedCompleteDelta;
+				if (completeDelta == null)
 				{
-					doc = XMLUtil.createDocument();
-					node =
-						new AbstractDistributableDatabaseEntry.Serials(getDatabaseClass()).toXmlElement(doc);
-					SignatureCreator.getInstance().signXml(SignatureVerifier.
-						DOCUMENT_CLASS_INFOSERVICE,
-						node);
-					doc.appendChild(node);
-
-					//if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_ZLIB) > 0)
+					/* there is no complete delta yet -> the client has to wait for the builder */
+					scheduleRebuild();
+					long waitUntil = System.currentTimeMillis() + MAX_DELTA_WAIT_MS;
+					synchronized (m_cachedDeltaResponses)
 					{
-						try
+						while ((completeDelta = m_cachedCompleteDelta) == null &&
+							   System.currentTimeMillis() < waitUntil)
 						{
-							m_cachedSerialsCompressedResponse = new HttpResponseStructure(
-								HttpResponseStructure.HTTP_TYPE_TEXT_XML,
-								HttpResponseStructure.HTTP_ENCODING_ZLIB,
-								//ZLibTools.compress(XMLUtil.toByteArray(doc)));
-								ZLibTools.compress(XMLSignature.toCanonical(doc)));
-						}
-						catch (XMLParseException ex)
-						{
-							m_cachedCompressedResponse = new HttpResponseStructure(HttpResponseStructure.
-								HTTP_RETURN_INTERNAL_SERVER_ERROR);
+							m_cachedDeltaResponses.wait(
+								Math.max(1, waitUntil - System.currentTimeMillis()));
 						}
 					}
-					//else
+					if (completeDelta == null)
 					{
-						m_cachedSerialsResponse = new HttpResponseStructure(doc);
+						throw new Exception("The complete delta of " +
+							XMLUtil.getXmlElementContainerName(getDatabaseClass()) +
+							" was not built in time.");
 					}
-					m_lastSerialsUpdate = System.currentTimeMillis();
 				}
+				else if (isOutdated(completeDelta))
+				{
+					scheduleRebuild();
+				}
+
+				CachedResponse cachedResponse = null;
+				boolean bBuild = false;
+				synchronized (m_cachedDeltaResponses)
+				{
+					if (epoch == m_cachedDeltaEpoch && sequence <= m_cachedDeltaSequence &&
+						sequence >= m_cachedDeltaSequence - MAX_CACHED_DELTAS)
+					{
+						Long key = new Long(sequence);
+						cachedResponse = (CachedResponse) m_cachedDeltaResponses.get(key);
+						if (cachedResponse == null && !m_requestedDeltaSequences.contains(key))
+						{
+							m_requestedDeltaSequences.addElement(key);
+							bBuild = true;
+						}
+					}
+				}
+				if (bBuild)
+				{
+					scheduleRebuild();
+				}
+				if (cachedResponse == null)
+				{
+					cachedResponse = completeDelta;
+				}
+				httpResponse = cachedResponse.getResponse(a_supportedEncodings);
 			}
-			/* send the XML document to the client */
-			if ( (a_supportedEncodings & HttpResponseStructure.HTTP_ENCODING_ZLIB) > 0)
-			{
-				httpResponse = m_cachedSerialsCompressedResponse;
-			}
-			else
+			catch (Exception e)
 			{
-				httpResponse = m_cachedSerialsResponse;
+				httpResponse = new HttpResponseStructure(HttpResponseStructure.
+					HTTP_RETURN_INTERNAL_SERVER_ERROR);
+				LogHolder.log(LogLevel.ERR, LogType.NET, e);
 			}
 			return httpResponse;
 		}
@@ -640,14 +1086,26 @@ final public class InfoServiceCommands implements JWSInternalCommands
 			HttpResponseStructure httpResponse;
 			try
 			{
-				if (a_bSerialsOnly)
+				CachedResponse cachedResponse =
+					a_bSerialsOnly ? m_cachedSerialsResponse : m_cachedResponse;
+				if (cachedResponse == null)
 				{
-					httpResponse = fetchSerialsResponse(a_supportedEncodings);
+					synchronized (SYNC_BUILD)
+					{
+						cachedResponse = a_bSerialsOnly ? m_cachedSerialsResponse : m_cachedResponse;
+						if (cachedResponse == null)
+						{
+							/* there is no list yet -> the client has to wait */
+							cachedResponse = build(a_bSerialsOnly);
+						}
+					}
 				}
-				else
+				else if (isOutdated(cachedResponse))
 				{
-					httpResponse = fetchResponse(a_supportedEncodings);
+					/* send the last list and create a new one in the background */
+					scheduleRebuild();
 				}
+				httpResponse = cachedResponse.getResponse(a_supportedEncodings);
 			}
 			catch (Exception e)
 			{
@@ -2030,6 +2488,17 @@ final public class InfoServiceCommands implements JWSInternalCommands
 			ISRuntimeStatistics.ms_lNrOfGetInfoservicesRequests++;
 			httpResponse = m_isResponseGetter.fetchResponse(a_supportedEncodings, false);
 		}
+		else if ( (command.startsWith("/infoservicedelta/")) && (method == Constants.REQUEST_METHOD_GET))
+		{
+			/** Full Command: GET /infoservicedelta/[epoch]/[sequence]
+			 * Source: JAP
+			 * Description: JAP or someone else wants to get all infoservices that were added, renewed or
+			 * removed since the last delta it got
+			 * Description_de: 
+			 */
+			httpResponse = m_isResponseGetter.fetchDeltaResponse(a_supportedEncodings,
+				command.substring(18));
+		}
 		else if ( (command.equals("/infoserviceserials")) && (method == Constants.REQUEST_METHOD_GET))
 		{
 			/** Full Command: GET /infoserviceserials
@@ -2061,6 +2530,17 @@ final public class InfoServiceCommands implements JWSInternalCommands
 			ISRuntimeStatistics.ms_lNrOfGetCascadeserialsRequests++;
 			httpResponse = m_cascadeResponseGetter.fetchResponse(a_supportedEncodings, true);
 		}
+		else if ( (command.startsWith("/cascadedelta/")) && (method == Constants.REQUEST_METHOD_GET))
+		{
+			/** Full Command: GET /cascadedelta/[epoch]/[sequence]
+			 * Source: JAP
+			 * Description: JAP or someone else wants to get all cascades that were added, renewed or
+			 * removed since the last delta it got
+			 * Description_de: 
+			 */
+			httpResponse = m_cascadeResponseGetter.fetchDeltaResponse(a_supportedEncodings,
+				command.substring(14));
+		}
 		else if ((command.startsWith("/cascades")) && (method == Constants.REQUEST_METHOD_GET))
 		{
 			/** Full Command: GET /cascades
@@ -32,14 +32,10 @@ import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.Enumeration;
-import java.util.StringTokenizer;
 import java.util.Vector;
 
 import anon.infoservice.Constants;
-import anon.infoservice.HTTPConnectionFactory;
 import anon.infoservice.HttpResponseStructure;
-import anon.infoservice.InfoServiceDBEntry;
 import anon.util.TimedOutputStream;
 import logging.LogHolder;
 import logging.LogLevel;
@@ -55,8 +51,6 @@ final public class InfoServiceConnection implements Runnable
 {
 
 	private static final int RESPONSE_CHUNK_SIZE = 5000;
-	
-	private static boolean ms_bLogAnonlibVersion = false;
 
 	/**
 	 * Stores the socket which is connected to the client we got the request from.
@@ -151,6 +145,7 @@ final public class InfoServiceConnection implements Runnable
 			String requestUrl = null;
 			byte[] postData = null;
 			int supportedEncodings = HttpResponseStructure.HTTP_ENCODING_PLAIN;
+			InfoServiceRequest request = null;
 
 			try
 			{
@@ -182,32 +177,6 @@ final public class InfoServiceConnection implements Runnable
 				//LogHolder.log(LogLevel.DEBUG, LogType.NET,
 				//			  "InfoServiceConnection (" + Integer.toString(m_connectionId) +
 				//			  "): Client: " + m_socket.getInetAddress() +  " Request line: " + requestLine);
-				StringTokenizer requestLineTokenizer = new StringTokenizer(requestLine, " ");
-				/*if (requestLineTokenizer.countTokens() != 3)
-				   {
-				 throw (new Exception("Invalid HTTP request line: " + requestLine));
-				   }*/
-				requestMethod = requestLineTokenizer.nextToken();
-				requestUrl = requestLineTokenizer.nextToken();
-				if (requestMethod.equals("POST"))
-				{
-					internalRequestMethodCode = Constants.REQUEST_METHOD_POST;
-				}
-				else if (requestMethod.equals("GET"))
-				{
-					internalRequestMethodCode = Constants.REQUEST_METHOD_GET;
-				}
-				else if (requestMethod.equals("HEAD"))
-				{
-					internalRequestMethodCode = Constants.REQUEST_METHOD_GET;
-				}
-				else
-				{
-					closeSockets();
-					return;
-				}
-
-				int contentLength = 0;
 				/* now process the HTTP request header */
 				Vector v = readHeader();
 				if (v == null)
@@ -215,78 +184,17 @@ final public class InfoServiceConnection implements Runnable
 					closeSockets();
 					return;
 				}
-				Enumeration headerLines = v.elements();
-				boolean bStatisticsHeaderFound = !headerLines.hasMoreElements(); // ignore requests with no headers
-				while (headerLines.hasMoreElements())
+				request = InfoServiceRequest.createRequest(requestLine, v);
+				if (request == null)
 				{
-					String currentHeaderLine = (String) (headerLines.nextElement());
-					//LogHolder.log(LogLevel.DEBUG, LogType.NET,
-					//			  "InfoServiceConnection (" + Integer.toString(m_connectionId) +
-					//			  "): Processing header line: " + currentHeaderLine);
-					/* everything until the first ':' is the field-name, everything after the first ':'
-					 * belongs to the field-value
-					 */
-					int fieldDelimiterPos = currentHeaderLine.indexOf(":");
-					if (fieldDelimiterPos < 0)
-					{
-						closeSockets();
-						return;
-					}
-					String currentHeaderFieldName = currentHeaderLine.substring(0, fieldDelimiterPos);
-					/* leading or trailing whitspaces can be removed from a field value */
-					String currentHeaderFieldValue = currentHeaderLine.substring(fieldDelimiterPos + 1).
-						trim();
-					if (currentHeaderFieldName.equalsIgnoreCase("Content-Length"))
-					{
-						try
-						{
-							contentLength = Integer.parseInt(currentHeaderFieldValue);
-							//LogHolder.log(LogLevel.DEBUG, LogType.NET,
-							//			  "InfoServiceConnection (" + Integer.toString(m_connectionId) +
-							//			  "): Read 'Content-Length: " + Integer.toString(contentLength) +
-							//			  "' from header.");
-						}
-						catch (Exception e)
-						{
-							closeSockets();
-							return;
-						}
-					}
-
-					if (currentHeaderFieldName.toLowerCase().startsWith(InfoServiceDBEntry.HEADER_STATISTICS.toLowerCase()))
-					{
-						if (!ms_bLogAnonlibVersion && 
-							currentHeaderFieldName.equals("statistics-anonlib-version"))
-						{
-							ms_bLogAnonlibVersion = true;
-						}
-						ISRuntimeStatistics.putClientVersion(currentHeaderFieldName, currentHeaderFieldValue);
-						bStatisticsHeaderFound = true;
-					}
-					
-					if ((currentHeaderFieldName.equalsIgnoreCase("Accept-Encoding") &&
-						(internalRequestMethodCode == Constants.REQUEST_METHOD_GET ||
-						 internalRequestMethodCode == Constants.REQUEST_METHOD_HEAD)) ||
-						(currentHeaderFieldName.equalsIgnoreCase("Content-Encoding") &&
-						 internalRequestMethodCode == Constants.REQUEST_METHOD_POST)) // for post
-					{
-						if (currentHeaderFieldValue != null &&
-							currentHeaderFieldValue.indexOf(
-								HTTPConnectionFactory.HTTP_ENCODING_ZLIB_STRING) >= 0)
-						{
-							supportedEncodings = HttpResponseStructure.HTTP_ENCODING_ZLIB;
-						}
-					}
-				}
-				
-				if (ms_bLogAnonlibVersion && 
-					internalRequestMethodCode == Constants.REQUEST_METHOD_GET &&
-					!bStatisticsHeaderFound)
-					
-				{
-					ISRuntimeStatistics.putClientVersion("statistics-anonlib-version",
-							"unknown");
+					closeSockets();
+					return;
 				}
+				internalRequestMethodCode = request.getInternalRequestMethodCode();
+				requestMethod = request.getRequestMethod();
+				requestUrl = request.getRequestUrl();
+				supportedEncodings = request.getSupportedEncodings();
+				int contentLength = request.getContentLength();
 
 				/* read the POST data, if it is a POST request */
 				if ( (internalRequestMethodCode == Constants.REQUEST_METHOD_POST) && (contentLength >= 0))
@@ -345,6 +253,7 @@ final public class InfoServiceConnection implements Runnable
 								  " " + requestUrl);
 					response = new HttpResponseStructure(HttpResponseStructure.HTTP_RETURN_NOT_FOUND);
 				}
+				response = request.createConditionalResponse(response);
 			}
 			catch (Exception a_e)
 			{
@@ -0,0 +1,301 @@
+/*
+ Copyright (c) 2000 - 2005, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+ - Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+ - Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation and/or
+  other materials provided with the distribution.
+
+ - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+   may be used to endorse or promote products derived from this software without specific
+  prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package infoservice;
+
+import java.util.Enumeration;
+import java.util.StringTokenizer;
+import java.util.Vector;
+
+import anon.infoservice.Constants;
+import anon.infoservice.HTTPConnectionFactory;
+import anon.infoservice.HttpResponseStructure;
+import anon.infoservice.InfoServiceDBEntry;
+
+/**
+ * Stores a parsed HTTP request received by the InfoService. The request line and the header
+ * fields are interpreted here, so the blocking InfoServiceConnection and the non-blocking
+ * InfoServiceSelectorServer handle requests in the same way.
+ */
+final class InfoServiceRequest
+{
+	private static final String HTTP_11_VERSION = "HTTP/1.1";
+
+	private static boolean ms_bLogAnonlibVersion = false;
+
+	private String m_requestMethod;
+
+	private int m_internalRequestMethodCode;
+
+	private String m_requestUrl;
+
+	private int m_contentLength;
+
+	private int m_supportedEncodings;
+
+	private boolean m_bKeepAlive;
+
+	private String m_ifNoneMatch;
+
+	private byte[] m_postData;
+
+	private InfoServiceRequest()
+	{
+		m_contentLength = 0;
+		m_supportedEncodings = HttpResponseStructure.HTTP_ENCODING_PLAIN;
+		m_postData = null;
+	}
+
+	/**
+	 * Interprets the request line and the header lines of an HTTP request. The client statistics
+	 * sent within the header are recorded.
+	 *
+	 * @param a_requestLine The request line without the trailing CRLF.
+	 * @param a_headerLines The header lines without the trailing CRLF (folded lines already
+	 *                      concatenated).
+	 *
+	 * @return The request or null, if the request is invalid or uses an unsupported method.
+	 */
+	public static InfoServiceRequest createRequest(String a_requestLine, Vector a_headerLines)
+	{
+		InfoServiceRequest request = new InfoServiceRequest();
+		StringTokenizer requestLineTokenizer = new StringTokenizer(a_requestLine, " ");
+		if (requestLineTokenizer.countTokens() < 2)
+		{
+			return null;
+		}
+		request.m_requestMethod = requestLineTokenizer.nextToken();
+		request.m_requestUrl = requestLineTokenizer.nextToken();
+		/* persistent connections are only supported for HTTP/1.1 clients */
+		request.m_bKeepAlive = requestLineTokenizer.hasMoreTokens() &&
+			requestLineTokenizer.nextToken().equals(HTTP_11_VERSION);
+		if (request.m_requestMethod.equals("POST"))
+		{
+			request.m_internalRequestMethodCode = Constants.REQUEST_METHOD_POST;
+		}
+		else if (request.m_requestMethod.equals("GET"))
+		{
+			request.m_internalRequestMethodCode = Constants.REQUEST_METHOD_GET;
+		}
+		else if (request.m_requestMethod.equals("HEAD"))
+		{
+			request.m_internalRequestMethodCode = Constants.REQUEST_METHOD_GET;
+			/* the whole response is sent also for HEAD requests -> the client cannot reuse the
+			 * connection
+			 */
+			request.m_bKeepAlive = false;
+		}
+		else
+		{
+			return null;
+		}
+
+		Enumeration headerLines = a_headerLines.elements();
+		boolean bStatisticsHeaderFound = !headerLines.hasMoreElements(); // ignore requests with no headers
+		while (headerLines.hasMoreElements())
+		{
+			String currentHeaderLine = (String) (headerLines.nextElement());
+			/* everything until the first ':' is the field-name, everything after the first ':'
+			 * belongs to the field-value
+			 */
+			int fieldDelimiterPos = currentHeaderLine.indexOf(":");
+			if (fieldDelimiterPos < 0)
+			{
+				return null;
+			}
+			String currentHeaderFieldName = currentHeaderLine.substring(0, fieldDelimiterPos);
+			/* leading or trailing whitspaces can be removed from a field value */
+			String currentHeaderFieldValue = currentHeaderLine.substring(fieldDelimiterPos + 1).
+				trim();
+			if (currentHeaderFieldName.equalsIgnoreCase("Content-Length"))
+			{
+				try
+				{
+					request.m_contentLength = Integer.parseInt(currentHeaderFieldValue);
+				}
+				catch (Exception e)
+				{
+					return null;
+				}
+			}
+
+			if (currentHeaderFieldName.equalsIgnoreCase("Connection") &&
+				currentHeaderFieldValue.equalsIgnoreCase("close"))
+			{
+				request.m_bKeepAlive = false;
+			}
+
+			if (currentHeaderFieldName.toLowerCase().startsWith(InfoServiceDBEntry.HEADER_STATISTICS.toLowerCase()))
+			{
+				if (!ms_bLogAnonlibVersion &&
+					currentHeaderFieldName.equals("statistics-anonlib-version"))
+				{
+					ms_bLogAnonlibVersion = true;
+				}
+				ISRuntimeStatistics.putClientVersion(currentHeaderFieldName, currentHeaderFieldValue);
+				bStatisticsHeaderFound = true;
+			}
+
+			if ((currentHeaderFieldName.equalsIgnoreCase("Accept-Encoding") &&
+				(request.m_internalRequestMethodCode == Constants.REQUEST_METHOD_GET ||
+				 request.m_internalRequestMethodCode == Constants.REQUEST_METHOD_HEAD)) ||
+				(currentHeaderFieldName.equalsIgnoreCase("Content-Encoding") &&
+				 request.m_internalRequestMethodCode == Constants.REQUEST_METHOD_POST)) // for post
+			{
+				if (currentHeaderFieldValue != null &&
+					currentHeaderFieldValue.indexOf(
+						HTTPConnectionFactory.HTTP_ENCODING_ZLIB_STRING) >= 0)
+				{
+					request.m_supportedEncodings |= HttpResponseStructure.HTTP_ENCODING_ZLIB;
+				}
+				if (currentHeaderFieldValue != null &&
+					request.m_internalRequestMethodCode == Constants.REQUEST_METHOD_GET &&
+					currentHeaderFieldValue.indexOf(
+						HTTPConnectionFactory.HTTP_ENCODING_GZIP_STRING) >= 0)
+				{
+					request.m_supportedEncodings |= HttpResponseStructure.HTTP_ENCODING_GZIP;
+				}
+			}
+
+			if (currentHeaderFieldName.equalsIgnoreCase("If-None-Match"))
+			{
+				request.m_ifNoneMatch = currentHeaderFieldValue;
+			}
+		}
+
+		if (ms_bLogAnonlibVersion &&
+			request.m_internalRequestMethodCode == Constants.REQUEST_METHOD_GET &&
+			!bStatisticsHeaderFound)
+		{
+			ISRuntimeStatistics.putClientVersion("statistics-anonlib-version",
+				"unknown");
+		}
+		return request;
+	}
+
+	public String getRequestMethod()
+	{
+		return m_requestMethod;
+	}
+
+	/**
+	 * Returns the request method as one of the REQUEST_METHOD constants in
+	 * anon.infoservice.Constants.
+	 */
+	public int getInternalRequestMethodCode()
+	{
+		return m_internalRequestMethodCode;
+	}
+
+	public String getRequestUrl()
+	{
+		return m_requestUrl;
+	}
+
+	/**
+	 * Returns the value of the Content-Length header field or 0, if there was none.
+	 */
+	public int getContentLength()
+	{
+		return m_contentLength;
+	}
+
+	/**
+	 * Returns the HTTP encodings supported by the client. See the HTTP_ENCODING constants in
+	 * HttpResponseStructure.
+	 */
+	public int getSupportedEncodings()
+	{
+		return m_supportedEncodings;
+	}
+
+	/**
+	 * Returns whether the client wants to send further requests over the same connection.
+	 */
+	public boolean isKeepAlive()
+	{
+		return m_bKeepAlive;
+	}
+
+	/**
+	 * Returns the content of a POST request or null, if it is no POST request.
+	 */
+	public byte[] getPostData()
+	{
+		return m_postData;
+	}
+
+	public void setPostData(byte[] a_postData)
+	{
+		m_postData = a_postData;
+	}
+
+	/**
+	 * Returns the value of the If-None-Match header field or null, if there was none.
+	 */
+	public String getIfNoneMatch()
+	{
+		return m_ifNoneMatch;
+	}
+
+	/**
+	 * Checks the response for this request against the entity tags sent by the client in the
+	 * If-None-Match header field.
+	 *
+	 * @param a_response The response created for this request.
+	 *
+	 * @return a NOT MODIFIED response, if the client already has the data of the response, or the
+	 *         response itself otherwise
+	 */
+	public HttpResponseStructure createConditionalResponse(HttpResponseStructure a_response)
+	{
+		if (a_response == null || a_response.getETag() == null || m_ifNoneMatch == null ||
+			m_internalRequestMethodCode != Constants.REQUEST_METHOD_GET)
+		{
+			return a_response;
+		}
+		StringTokenizer tokenizer = new StringTokenizer(m_ifNoneMatch, ",");
+		while (tokenizer.hasMoreTokens())
+		{
+			String eTag = tokenizer.nextToken().trim();
+			if (eTag.startsWith("W/"))
+			{
+				/* weak comparison is sufficient for If-None-Match */
+				eTag = eTag.substring(2);
+			}
+			if (eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\""))
+			{
+				eTag = eTag.substring(1, eTag.length() - 1);
+			}
+			if (eTag.equals("*") || eTag.equals(a_response.getETag()))
+			{
+				return HttpResponseStructure.createNotModifiedResponse(a_response.getETag());
+			}
+		}
+		return a_response;
+	}
+}
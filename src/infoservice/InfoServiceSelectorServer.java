@@ -0,0 +1,600 @@
+/*
+ Copyright (c) 2000 - 2005, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+ - Redistributions of source code must retain the above copyright notice,
+   this list of conditions and the following disclaimer.
+
+ - Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation and/or
+  other materials provided with the distribution.
+
+ - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+   may be used to endorse or promote products derived from this software without specific
+  prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package infoservice;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Vector;
+
+import anon.infoservice.Constants;
+import anon.infoservice.HttpResponseStructure;
+import logging.LogHolder;
+import logging.LogLevel;
+import logging.LogType;
+
+/**
+ * This is a non-blocking HTTP front end for the InfoService. One selector thread accepts the
+ * connections of all listeners, reads and parses the requests and writes the responses. Only
+ * complete requests are handed to a pool of worker threads, which create the responses with the
+ * JWSInternalCommands implementation. So slow clients do not occupy a worker thread. HTTP/1.1
+ * clients may send several requests over one connection (also pipelined), the requests of one
+ * connection are processed one after another.
+ */
+final class InfoServiceSelectorServer implements Runnable
+{
+	/**
+	 * The size of the buffer used for reading requests of one connection.
+	 */
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	/**
+	 * The maximum time (in ms) an idle persistent connection is kept open.
+	 */
+	private static final long KEEP_ALIVE_TIMEOUT = 15000;
+
+	/**
+	 * The maximum number of requests processed over one connection.
+	 */
+	private static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+
+	/**
+	 * The interval (in ms) for checking the connections for timeouts.
+	 */
+	private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+
+	private static final byte[] HTTP_HEADER_CONNECTION_CLOSE = ("Connection: close" +
+		HttpResponseStructure.HTTP_CRLF_STRING).getBytes();
+
+	private JWSInternalCommands m_serverImplementation;
+
+	private Selector m_selector;
+
+	private Vector m_requestQueue;
+
+	private Vector m_completedRequests;
+
+	private Thread[] m_workerThreads;
+
+	private int m_connectionCounter;
+
+	private int m_maxContentLength;
+
+	private volatile boolean m_bShutdown;
+
+	/**
+	 * Creates a new server and starts the worker threads. Listeners have to be added with
+	 * addListener() before the server thread is started.
+	 *
+	 * @param a_serverImplementation The implementation which is used for processing the
+	 *                               requests.
+	 * @param a_workerThreads The number of threads processing requests concurrently.
+	 * @param a_maxContentLength The maximum length of the content of a POST request.
+	 */
+	public InfoServiceSelectorServer(JWSInternalCommands a_serverImplementation, int a_workerThreads,
+									 int a_maxContentLength) throws IOException
+	{
+		m_serverImplementation = a_serverImplementation;
+		m_maxContentLength = a_maxContentLength;
+		m_selector = Selector.open();
+		m_requestQueue = new Vector();
+		m_completedRequests = new Vector();
+		m_bShutdown = false;
+		m_workerThreads = new Thread[Math.max(1, a_workerThreads)];
+		for (int i = 0; i < m_workerThreads.length; i++)
+		{
+			m_workerThreads[i] = new Thread(new RequestWorker(), "ISConnection - Worker " + i);
+			m_workerThreads[i].setDaemon(true);
+			m_workerThreads[i].start();
+		}
+	}
+
+	/**
+	 * Opens a listening socket. This must be called before the server thread is started.
+	 *
+	 * @param a_address The local address to listen on.
+	 * @param a_port The local port to listen on (0 for any free port).
+	 *
+	 * @return The local port of the listening socket.
+	 */
+	public int addListener(InetAddress a_address, int a_port) throws IOException
+	{
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().bind(new InetSocketAddress(a_address, a_port), 200);
+		serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+		LogHolder.log(LogLevel.INFO, LogType.NET, "ServerSocket is listening on " +
+					  a_address + ":" + serverChannel.socket().getLocalPort() + "!");
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the server thread and the worker threads and closes all connections.
+	 */
+	public void shutdown()
+	{
+		m_bShutdown = true;
+		m_selector.wakeup();
+		synchronized (m_requestQueue)
+		{
+			m_requestQueue.notifyAll();
+		}
+	}
+
+	public void run()
+	{
+		long lastTimeoutCheck = System.currentTimeMillis();
+		try
+		{
+			while (!m_bShutdown)
+			{
+				m_selector.select(TIMEOUT_CHECK_INTERVAL);
+				sendCompletedResponses();
+				Iterator selectedKeys = m_selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext())
+				{
+					SelectionKey key = (SelectionKey) selectedKeys.next();
+					selectedKeys.remove();
+					if (!key.isValid())
+					{
+						continue;
+					}
+					if (key.isAcceptable())
+					{
+						acceptConnection((ServerSocketChannel) key.channel());
+					}
+					else
+					{
+						Connection connection = (Connection) key.attachment();
+						try
+						{
+							if (key.isReadable())
+							{
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable())
+							{
+								connection.write();
+							}
+						}
+						catch (IOException a_e)
+						{
+							LogHolder.log(LogLevel.NOTICE, LogType.NET, "InfoServiceConnection (" +
+								connection.m_connectionId + ") - has an Error - " + a_e.getMessage());
+							connection.close();
+						}
+						catch (CancelledKeyException a_e)
+						{
+							connection.close();
+						}
+					}
+				}
+				long currentTime = System.currentTimeMillis();
+				if (currentTime - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL)
+				{
+					closeTimedOutConnections(currentTime);
+					lastTimeoutCheck = currentTime;
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			LogHolder.log(LogLevel.ALERT, LogType.THREAD,
+						  "Unexcpected Exception in Run-Loop (exiting): " + t);
+		}
+		m_bShutdown = true;
+		synchronized (m_requestQueue)
+		{
+			m_requestQueue.notifyAll();
+		}
+		Iterator keys = m_selector.keys().iterator();
+		while (keys.hasNext())
+		{
+			try
+			{
+				((SelectionKey) keys.next()).channel().close();
+			}
+			catch (IOException a_e)
+			{
+			}
+		}
+		try
+		{
+			m_selector.close();
+		}
+		catch (IOException a_e)
+		{
+		}
+	}
+
+	public String toString()
+	{
+		return "InfoService Server (non-blocking)";
+	}
+
+	private void acceptConnection(ServerSocketChannel a_serverChannel)
+	{
+		SocketChannel channel = null;
+		try
+		{
+			channel = a_serverChannel.accept();
+			if (channel == null)
+			{
+				return;
+			}
+			ISRuntimeStatistics.ms_lTCPIPConnections++;
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection connection = new Connection(channel, m_connectionCounter++);
+			connection.m_key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+		}
+		catch (IOException a_e)
+		{
+			/* maybe there are too many open files -> the timeout check will close idle
+			 * connections
+			 */
+			LogHolder.log(LogLevel.EXCEPTION, LogType.NET, "Accept-Exception: " + a_e);
+			if (channel != null)
+			{
+				try
+				{
+					channel.close();
+				}
+				catch (IOException a_e2)
+				{
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes the responses created by the worker threads and starts sending them.
+	 */
+	private void sendCompletedResponses()
+	{
+		while (true)
+		{
+			Connection connection;
+			synchronized (m_completedRequests)
+			{
+				if (m_completedRequests.size() == 0)
+				{
+					return;
+				}
+				connection = (Connection) m_completedRequests.firstElement();
+				m_completedRequests.removeElementAt(0);
+			}
+			connection.m_bProcessing = false;
+			if (!connection.m_key.isValid())
+			{
+				/* connection was closed in the meantime */
+				continue;
+			}
+			try
+			{
+				connection.write();
+			}
+			catch (IOException a_e)
+			{
+				LogHolder.log(LogLevel.WARNING, LogType.NET,
+							  "Client closed our response. " + a_e.getMessage());
+				connection.close();
+			}
+		}
+	}
+
+	private void closeTimedOutConnections(long a_currentTime)
+	{
+		Iterator keys = m_selector.keys().iterator();
+		while (keys.hasNext())
+		{
+			SelectionKey key = (SelectionKey) keys.next();
+			if (key.isValid() && (key.attachment() instanceof Connection))
+			{
+				((Connection) key.attachment()).checkTimeout(a_currentTime);
+			}
+		}
+	}
+
+	/**
+	 * The state of one client connection. All methods are called by the selector thread, only the
+	 * response is set by a worker thread.
+	 */
+	private final class Connection
+	{
+		private SocketChannel m_channel;
+
+		private SelectionKey m_key;
+
+		private int m_connectionId;
+
+		private ByteBuffer m_readBuffer;
+
+		private HttpRequestParser m_parser;
+
+		private InfoServiceRequest m_request;
+
+		private ByteBuffer m_response;
+
+		/**
+		 * This is true while the current request is processed by a worker thread.
+		 */
+		private boolean m_bProcessing;
+
+		private boolean m_bCloseAfterResponse;
+
+		private int m_requests;
+
+		private long m_lastActivity;
+
+		public Connection(SocketChannel a_channel, int a_connectionId)
+		{
+			m_channel = a_channel;
+			m_connectionId = a_connectionId;
+			m_readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			m_parser = new HttpRequestParser(Constants.MAX_REQUEST_HEADER_SIZE, m_maxContentLength);
+			m_bProcessing = false;
+			m_bCloseAfterResponse = false;
+			m_requests = 0;
+			m_lastActivity = System.currentTimeMillis();
+		}
+
+		public void read() throws IOException
+		{
+			int bytesRead = m_channel.read(m_readBuffer);
+			if (bytesRead < 0)
+			{
+				if ((m_request == null) && (!m_parser.isRequestStarted()))
+				{
+					close();
+					return;
+				}
+				/* the client will not send more data -> answer the current request and close */
+				m_bCloseAfterResponse = true;
+				m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_READ);
+			}
+			if (bytesRead != 0)
+			{
+				m_lastActivity = System.currentTimeMillis();
+			}
+			processInput();
+		}
+
+		public void write() throws IOException
+		{
+			if (m_response == null)
+			{
+				return;
+			}
+			m_channel.write(m_response);
+			m_lastActivity = System.currentTimeMillis();
+			if (m_response.hasRemaining())
+			{
+				m_key.interestOps(m_key.interestOps() | SelectionKey.OP_WRITE);
+				return;
+			}
+			/* response is complete */
+			m_response = null;
+			m_request = null;
+			m_requests++;
+			if (m_bCloseAfterResponse || (m_requests >= MAX_KEEP_ALIVE_REQUESTS))
+			{
+				close();
+				return;
+			}
+			m_key.interestOps(SelectionKey.OP_READ);
+			/* maybe the client has already sent the next request */
+			processInput();
+		}
+
+		public void close()
+		{
+			m_key.cancel();
+			try
+			{
+				m_channel.close();
+			}
+			catch (IOException a_e)
+			{
+				LogHolder.log(LogLevel.DEBUG, LogType.NET, "InfoServiceConnection (" +
+							  m_connectionId + "): Error while closing connection!", a_e);
+			}
+		}
+
+		public void checkTimeout(long a_currentTime)
+		{
+			if (m_bProcessing)
+			{
+				return;
+			}
+			long timeout = KEEP_ALIVE_TIMEOUT;
+			if ((m_response != null) || m_parser.isRequestStarted())
+			{
+				timeout = Constants.COMMUNICATION_TIMEOUT;
+			}
+			if (a_currentTime - m_lastActivity > timeout)
+			{
+				LogHolder.log(LogLevel.DEBUG, LogType.NET, "InfoServiceConnection (" +
+							  m_connectionId + "): Connection timed out.");
+				close();
+			}
+		}
+
+		/**
+		 * Parses the received data and dispatches a complete request to the worker threads.
+		 * Further (pipelined) requests remain in the read buffer until the response is sent.
+		 */
+		private void processInput() throws IOException
+		{
+			if (m_request != null)
+			{
+				return;
+			}
+			m_readBuffer.flip();
+			try
+			{
+				m_request = m_parser.parse(m_readBuffer);
+			}
+			finally
+			{
+				m_readBuffer.compact();
+			}
+			if (m_request != null)
+			{
+				if ((!m_request.isKeepAlive()) || (m_requests + 1 >= MAX_KEEP_ALIVE_REQUESTS))
+				{
+					m_bCloseAfterResponse = true;
+				}
+				/* stop reading until the response is sent */
+				m_key.interestOps(0);
+				m_bProcessing = true;
+				synchronized (m_requestQueue)
+				{
+					m_requestQueue.addElement(this);
+					m_requestQueue.notify();
+				}
+			}
+		}
+
+		/**
+		 * Creates the response for the current request. This is called by a worker thread.
+		 */
+		private void processRequest()
+		{
+			HttpResponseStructure response;
+			try
+			{
+				response = m_serverImplementation.processCommand(
+					m_request.getInternalRequestMethodCode(), m_request.getSupportedEncodings(),
+					m_request.getRequestUrl(), m_request.getPostData(),
+					m_channel.socket().getInetAddress());
+				if (response == null)
+				{
+					LogHolder.log(LogLevel.WARNING, LogType.NET,
+								  "InfoServiceConnection (" + Integer.toString(m_connectionId) +
+								  "): Response could not be generated: Request: " +
+								  m_request.getRequestMethod() + " " + m_request.getRequestUrl());
+					response = new HttpResponseStructure(HttpResponseStructure.HTTP_RETURN_NOT_FOUND);
+				}
+				response = m_request.createConditionalResponse(response);
+			}
+			catch (Exception a_e)
+			{
+				LogHolder.log(LogLevel.EMERG, LogType.NET, a_e);
+				response = new HttpResponseStructure(HttpResponseStructure.HTTP_RETURN_INTERNAL_SERVER_ERROR);
+			}
+			byte[] responseData = response.getResponseData();
+			if (m_bCloseAfterResponse && m_request.isKeepAlive())
+			{
+				/* the client expects a persistent connection -> tell it that we close it */
+				responseData = addConnectionCloseHeader(responseData);
+			}
+			m_response = ByteBuffer.wrap(responseData);
+		}
+	}
+
+	/**
+	 * Inserts the header field "Connection: close" after the status line of a response.
+	 */
+	private static byte[] addConnectionCloseHeader(byte[] a_response)
+	{
+		int statusLineEnd = 0;
+		while ((statusLineEnd < a_response.length - 1) &&
+			   ((a_response[statusLineEnd] != 13) || (a_response[statusLineEnd + 1] != 10)))
+		{
+			statusLineEnd++;
+		}
+		statusLineEnd += 2;
+		if (statusLineEnd > a_response.length)
+		{
+			return a_response;
+		}
+		byte[] response = new byte[a_response.length + HTTP_HEADER_CONNECTION_CLOSE.length];
+		System.arraycopy(a_response, 0, response, 0, statusLineEnd);
+		System.arraycopy(HTTP_HEADER_CONNECTION_CLOSE, 0, response, statusLineEnd,
+						 HTTP_HEADER_CONNECTION_CLOSE.length);
+		System.arraycopy(a_response, statusLineEnd, response,
+						 statusLineEnd + HTTP_HEADER_CONNECTION_CLOSE.length,
+						 a_response.length - statusLineEnd);
+		return response;
+	}
+
+	private final class RequestWorker implements Runnable
+	{
+		public void run()
+		{
+			while (true)
+			{
+				Connection connection;
+				synchronized (m_requestQueue)
+				{
+					while ((m_requestQueue.size() == 0) && (!m_bShutdown))
+					{
+						try
+						{
+							m_requestQueue.wait();
+						}
+						catch (InterruptedException a_e)
+						{
+							return;
+						}
+					}
+					if (m_bShutdown)
+					{
+						return;
+					}
+					connection = (Connection) m_requestQueue.firstElement();
+					m_requestQueue.removeElementAt(0);
+				}
+				try
+				{
+					connection.processRequest();
+				}
+				catch (Throwable t)
+				{
+					LogHolder.log(LogLevel.EXCEPTION, LogType.NET,
+								  "Caught an unexpected connection error!", t);
+					connection.m_response = ByteBuffer.wrap(new HttpResponseStructure(
+						HttpResponseStructure.HTTP_RETURN_INTERNAL_SERVER_ERROR).getResponseData());
+				}
+				synchronized (m_completedRequests)
+				{
+					m_completedRequests.addElement(connection);
+				}
+				m_selector.wakeup();
+			}
+		}
+	}
+}
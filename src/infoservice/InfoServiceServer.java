@@ -71,7 +71,7 @@ final class InfoServiceServer implements Runnable
 					InfoServiceConnection doIt = new InfoServiceConnection(socket,
 						InfoService.getConnectionCounter(),
 						m_IS.oicHandler);
-					m_IS.m_ThreadPool.addRequest(doIt);
+					m_IS.m_ThreadPool.execute(doIt);
 					doIt = null;
 				}
 				catch (Exception e2)
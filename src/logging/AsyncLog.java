@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package logging;
+
+/**
+ * Writes the messages of another log in a background thread. Logging threads only store the
+ * level, type and text of a message in a ring buffer; the appender thread takes all messages
+ * that have been stored since its last run at once and writes them to the wrapped log. If the
+ * wrapped log is a FlushableLog, it is flushed once per batch instead of once per message.
+ * Threads that log while the buffer is full wait until the appender thread has made room, so no
+ * message is lost.
+ * <P>
+ * The ring buffer is guarded by a lock, as there are no atomic operations for several writers
+ * before Java 5. However, the lock is only held to store or take the references, while the
+ * messages are formatted before and written after that without it.
+ */
+public final class AsyncLog implements FlushableLog, Runnable
+{
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The time in milliseconds the shutdown hook waits for the remaining messages to be written.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 5000;
+
+	private Log m_log;
+
+	private int[] m_levels;
+	private int[] m_types;
+	private String[] m_messages;
+
+	/* the number of stored and taken messages; the difference is the number of buffered ones */
+	private long m_storedMessages = 0;
+	private long m_takenMessages = 0;
+	/* the number of messages that have been written to the wrapped log */
+	private long m_writtenMessages = 0;
+
+	private boolean m_bAppenderWaiting = false;
+	private int m_waitingWriters = 0;
+
+	private Object m_internalSynchronization = new Object();
+	private Thread m_appenderThread;
+
+	private volatile int m_logLevel;
+	private volatile int m_logType;
+
+	/**
+	 * Creates a log that writes to the given log in a background thread.
+	 * @param a_log the log the messages are written to
+	 */
+	public AsyncLog(Log a_log)
+	{
+		this(a_log, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a log that writes to the given log in a background thread.
+	 * @param a_log the log the messages are written to
+	 * @param a_capacity the number of messages that may wait to be written
+	 */
+	public AsyncLog(Log a_log, int a_capacity)
+	{
+		if (a_log == null)
+		{
+			throw new IllegalArgumentException("No log given!");
+		}
+		if (a_capacity <= 0)
+		{
+			throw new IllegalArgumentException("Illegal capacity: " + a_capacity);
+		}
+		m_log = a_log;
+		m_logLevel = a_log.getLogLevel();
+		m_logType = a_log.getLogType();
+		m_levels = new int[a_capacity];
+		m_types = new int[a_capacity];
+		m_messages = new String[a_capacity];
+
+		m_appenderThread = new Thread(this, "Log Appender");
+		m_appenderThread.setDaemon(true);
+		m_appenderThread.start();
+
+		try
+		{
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+			{
+				public void run()
+				{
+					waitForWrittenMessages(SHUTDOWN_TIMEOUT);
+				}
+			}, "Log Appender Shutdown"));
+		}
+		catch (Exception a_e)
+		{
+			/* the VM shuts down already, or we are not allowed to add hooks */
+		}
+	}
+
+	/**
+	 * @return the log the messages are written to
+	 */
+	public Log getLog()
+	{
+		return m_log;
+	}
+
+	public void log(int a_level, int a_type, String a_message)
+	{
+		if (Thread.currentThread() == m_appenderThread)
+		{
+			/* the wrapped log logs itself; waiting for the appender would block forever */
+			m_log.log(a_level, a_type, a_message);
+			return;
+		}
+		boolean bInterrupted = false;
+		synchronized (m_internalSynchronization)
+		{
+			while (m_storedMessages - m_takenMessages >= m_messages.length)
+			{
+				m_waitingWriters++;
+				try
+				{
+					m_internalSynchronization.wait();
+				}
+				catch (InterruptedException a_e)
+				{
+					/* do not lose the message */
+					bInterrupted = true;
+				}
+				finally
+				{
+					m_waitingWriters--;
+				}
+			}
+			int index = (int) (m_storedMessages % m_messages.length);
+			m_levels[index] = a_level;
+			m_types[index] = a_type;
+			m_messages[index] = a_message;
+			m_storedMessages++;
+			if (m_bAppenderWaiting)
+			{
+				m_internalSynchronization.notifyAll();
+			}
+		}
+		if (bInterrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Blocks until all messages logged before have been written to the wrapped log and flushes it.
+	 */
+	public void flush()
+	{
+		waitForWrittenMessages(0);
+	}
+
+	public void setLogType(int a_type)
+	{
+		m_log.setLogType(a_type);
+		m_logType = m_log.getLogType();
+	}
+
+	public int getLogType()
+	{
+		return m_logType;
+	}
+
+	public void setLogLevel(int a_level)
+	{
+		m_log.setLogLevel(a_level);
+		m_logLevel = m_log.getLogLevel();
+	}
+
+	public int getLogLevel()
+	{
+		return m_logLevel;
+	}
+
+	/**
+	 * This is the implementation for the appender thread.
+	 */
+	public void run()
+	{
+		int capacity = m_messages.length;
+		int[] levels = new int[capacity];
+		int[] types = new int[capacity];
+		String[] messages = new String[capacity];
+		int batchSize;
+
+		while (true)
+		{
+			synchronized (m_internalSynchronization)
+			{
+				while (m_storedMessages == m_takenMessages)
+				{
+					m_bAppenderWaiting = true;
+					try
+					{
+						m_internalSynchronization.wait();
+					}
+					catch (InterruptedException a_e)
+					{
+						/* go on, logging must not stop */
+					}
+					m_bAppenderWaiting = false;
+				}
+				batchSize = (int) (m_storedMessages - m_takenMessages);
+				for (int i = 0; i < batchSize; i++)
+				{
+					int index = (int) ((m_takenMessages + i) % capacity);
+					levels[i] = m_levels[index];
+					types[i] = m_types[index];
+					messages[i] = m_messages[index];
+					m_messages[index] = null;
+				}
+				m_takenMessages += batchSize;
+				if (m_waitingWriters > 0)
+				{
+					m_internalSynchronization.notifyAll();
+				}
+			}
+
+			for (int i = 0; i < batchSize; i++)
+			{
+				try
+				{
+					m_log.log(levels[i], types[i], messages[i]);
+				}
+				catch (Throwable a_e)
+				{
+					/* there is no other place to report this; keep the thread alive */
+				}
+				messages[i] = null;
+			}
+			if (m_log instanceof FlushableLog)
+			{
+				try
+				{
+					((FlushableLog) m_log).flush();
+				}
+				catch (Throwable a_e)
+				{
+				}
+			}
+
+			synchronized (m_internalSynchronization)
+			{
+				m_writtenMessages += batchSize;
+				m_internalSynchronization.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all messages that have been stored before have been written.
+	 * @param a_timeout the maximum time to wait in milliseconds or 0 to wait without limit
+	 */
+	private void waitForWrittenMessages(long a_timeout)
+	{
+		if (Thread.currentThread() == m_appenderThread)
+		{
+			return;
+		}
+		long endTime = System.currentTimeMillis() + a_timeout;
+		synchronized (m_internalSynchronization)
+		{
+			long storedMessages = m_storedMessages;
+			while (m_writtenMessages < storedMessages)
+			{
+				long waitTime = 0;
+				if (a_timeout > 0)
+				{
+					waitTime = endTime - System.currentTimeMillis();
+					if (waitTime <= 0)
+					{
+						return;
+					}
+				}
+				m_waitingWriters++;
+				try
+				{
+					m_internalSynchronization.wait(waitTime);
+				}
+				catch (InterruptedException a_e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+				finally
+				{
+					m_waitingWriters--;
+				}
+			}
+		}
+	}
+}
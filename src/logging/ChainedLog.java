@@ -28,7 +28,7 @@
 package logging;
 
 /** Writes log output to two Log instances*/
-public class ChainedLog implements Log
+public class ChainedLog implements FlushableLog
 {
 	Log m_Log1,m_Log2;
 
@@ -44,6 +44,18 @@ public class ChainedLog implements Log
 		m_Log2.log(level,type,mesg);
 	}
 
+	public void flush()
+	{
+		if (m_Log1 instanceof FlushableLog)
+		{
+			((FlushableLog) m_Log1).flush();
+		}
+		if (m_Log2 instanceof FlushableLog)
+		{
+			((FlushableLog) m_Log2).flush();
+		}
+	}
+
 	public void setLogType(int type)
 	{
 	}
@@ -29,34 +29,76 @@ package logging;
 
 import java.io.IOException;
 
+import org.apache.log4j.Layout;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
 import org.apache.log4j.RollingFileAppender;
 
 /** Write log output to a file*/
-final public class FileLog extends AbstractLog4jLog
+final public class FileLog extends AbstractLog4jLog implements FlushableLog
 {
+	private FlushableFileAppender m_appender;
+
 	public FileLog(String fileName, int maxFileSize, int maxBackups)
+	{
+		this(fileName, maxFileSize, maxBackups, false);
+	}
+
+	/**
+	 * Creates a log that writes to a file.
+	 * @param fileName the name of the log file
+	 * @param maxFileSize the size in bytes after which a new file is started
+	 * @param maxBackups the number of old log files that are kept
+	 * @param a_bBuffered if true, the messages are only written to the file when the buffer is
+	 * full or flush() is called; use this together with an AsyncLog, which flushes every batch
+	 */
+	public FileLog(String fileName, int maxFileSize, int maxBackups, boolean a_bBuffered)
 	{
 		super();
 		PatternLayout layout = new PatternLayout("[%d{ISO8601} - %p] %m%n");
 		try
 		{
-			RollingFileAppender appender = new RollingFileAppender(layout, fileName, true);
-			appender.setMaximumFileSize(maxFileSize);
-			appender.setMaxBackupIndex(maxBackups);
-			appender.setBufferedIO(false);
-			appender.activateOptions();
+			m_appender = new FlushableFileAppender(layout, fileName);
+			m_appender.setMaximumFileSize(maxFileSize);
+			m_appender.setMaxBackupIndex(maxBackups);
+			m_appender.setBufferedIO(false);
+			m_appender.setImmediateFlush(!a_bBuffered);
+			m_appender.activateOptions();
 			getLogger().removeAllAppenders();
-			getLogger().addAppender(appender);
+			getLogger().addAppender(m_appender);
 		}
 		catch (IOException ex)
 		{
 		}
 	}
 	
+	public void flush()
+	{
+		if (m_appender != null)
+		{
+			m_appender.flush();
+		}
+	}
+
 	protected Logger getLogger()
 	{
 		return Logger.getRootLogger();
 	}
+
+	private static final class FlushableFileAppender extends RollingFileAppender
+	{
+		private FlushableFileAppender(Layout a_layout, String a_fileName) throws IOException
+		{
+			super(a_layout, a_fileName, true);
+		}
+
+		/* log4j holds the lock of the appender while appending */
+		private synchronized void flush()
+		{
+			if (qw != null)
+			{
+				qw.flush();
+			}
+		}
+	}
 }
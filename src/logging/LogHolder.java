@@ -29,7 +29,9 @@ package logging;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.Method;
 import java.util.StringTokenizer;
+import java.util.Vector;
 
 import anon.util.JAPMessages;
 import anon.util.Util;
@@ -64,6 +66,7 @@ public final class LogHolder
 	private static final String LOGGED_THROWABLE = " Logged Throwable: ";
 	private static final int LINE_LENGTH_HIGH_DETAIL = 40;
 	private static final int LINE_LENGTH_HIGHEST_DETAIL = 70;
+	private static final String ARGUMENT_PLACEHOLDER = "{}";
 
 	/**
 	 * Stores the instance of LogHolder (Singleton).
@@ -75,10 +78,32 @@ public final class LogHolder
 	 */
 	private static int m_messageDetailLevel = DETAIL_LEVEL_HIGHEST;
 
+	/**
+	 * Stores whether the class and method of the caller are added to the log messages.
+	 */
+	private static volatile boolean ms_bCallerLocation = true;
+
 	/**
 	 * Stores the Log instance.
 	 */
-	private static Log ms_logInstance = new DummyLog();
+	private static volatile Log ms_logInstance = new DummyLog();
+
+	/**
+	 * Throwable.getStackTrace() (Java 1.4) or null if it is not available.
+	 */
+	private static Method ms_getStackTrace;
+
+	static
+	{
+		try
+		{
+			ms_getStackTrace = Throwable.class.getMethod("getStackTrace", new Class[0]);
+		}
+		catch (Exception a_e)
+		{
+			ms_getStackTrace = null;
+		}
+	}
 
 	/**
 	 * This creates a new instance of LogHolder. This is only used for setting some
@@ -147,6 +172,26 @@ public final class LogHolder
 		return m_messageDetailLevel;
 	}
 
+	/**
+	 * Sets whether the class, method and source line of the caller are added to the log messages
+	 * with a detail level above DETAIL_LEVEL_LOWEST. Finding them needs a stack trace for every
+	 * message, so switching this off makes logging a lot cheaper. The stack traces of logged
+	 * Throwables are still written with DETAIL_LEVEL_HIGHEST.
+	 * @param a_bEnabled true if the caller location is logged (default); false otherwise
+	 */
+	public static void setCallerLocationEnabled(boolean a_bEnabled)
+	{
+		ms_bCallerLocation = a_bEnabled;
+	}
+
+	/**
+	 * @return if the class, method and source line of the caller are added to the log messages
+	 */
+	public static boolean isCallerLocationEnabled()
+	{
+		return ms_bCallerLocation;
+	}
+
 	/**
 	 * Write the log data for a Throwable to the Log instance.
 	 *
@@ -154,7 +199,7 @@ public final class LogHolder
 	 * @param a_logType The log type (see constants in class LogType).
 	 * @param a_throwable a Throwable to log
 	 */
-	public static synchronized void log(int a_logLevel, int a_logType, Throwable a_throwable)
+	public static void log(int a_logLevel, int a_logType, Throwable a_throwable)
 	{
 		log(a_logLevel, a_logType, null, a_throwable);
 	}
@@ -167,8 +212,7 @@ public final class LogHolder
 	 * @param a_message an (optional) log message
 	 * @param a_throwable a Throwable to log
 	 */
-	public static synchronized void log(int a_logLevel, int a_logType, String a_message,
-										Throwable a_throwable)
+	public static void log(int a_logLevel, int a_logType, String a_message, Throwable a_throwable)
 	{
 		if (a_throwable == null)
 		{
@@ -213,9 +257,12 @@ public final class LogHolder
 					message += "\n" + LOGGED_THROWABLE + a_throwable.toString();
 				}
 
-				LogHolder.getLogInstance().log(a_logLevel, a_logType,
-					Util.normaliseString(getCallingClassFile(false) + ": ", LINE_LENGTH_HIGH_DETAIL) +
-					message);
+				if (ms_bCallerLocation)
+				{
+					message = Util.normaliseString(getCallingClassFile(false) + ": ",
+												   LINE_LENGTH_HIGH_DETAIL) + message;
+				}
+				LogHolder.getLogInstance().log(a_logLevel, a_logType, message);
 			}
 			else if (m_messageDetailLevel >= DETAIL_LEVEL_HIGHEST)
 			{
@@ -228,10 +275,12 @@ public final class LogHolder
 					message += "\n" + LOGGED_THROWABLE + Util.getStackTrace(a_throwable);
 				}
 
-				LogHolder.getLogInstance().log(a_logLevel, a_logType,
-					Util.normaliseString(
-						getCallingMethod(false) + ": ", LINE_LENGTH_HIGHEST_DETAIL) +
-					message);
+				if (ms_bCallerLocation)
+				{
+					message = Util.normaliseString(getCallingMethod(false) + ": ",
+												   LINE_LENGTH_HIGHEST_DETAIL) + message;
+				}
+				LogHolder.getLogInstance().log(a_logLevel, a_logType, message);
 			}
 		}
 	}
@@ -250,7 +299,7 @@ public final class LogHolder
 	{
 		if (isLogged(logLevel, logType))
 		{
-			if (m_messageDetailLevel <= DETAIL_LEVEL_LOWEST)
+			if (m_messageDetailLevel <= DETAIL_LEVEL_LOWEST || !ms_bCallerLocation)
 			{
 				ms_logInstance.log(logLevel, logType, message);
 			}
@@ -300,6 +349,101 @@ public final class LogHolder
 		log(logLevel, logType, message, false);
 	}
 
+	/**
+	 * Writes a message with one argument to the Log instance. The first occurence of {} in the
+	 * message is replaced by the argument. The message is only built if it is logged, so the
+	 * caller does not pay for it otherwise. Note that a Throwable as argument is logged with
+	 * log(int, int, String, Throwable) instead.
+	 *
+	 * @param a_logLevel The log level (see constants in class LogLevel).
+	 * @param a_logType The log type (see constants in class LogType).
+	 * @param a_message The message to log with a placeholder {} for the argument.
+	 * @param a_argument the argument of the message
+	 */
+	public static void log(int a_logLevel, int a_logType, String a_message, Object a_argument)
+	{
+		if (isLogged(a_logLevel, a_logType))
+		{
+			log(a_logLevel, a_logType, format(a_message, new Object[]{a_argument}), false);
+		}
+	}
+
+	/**
+	 * Writes a message with two arguments to the Log instance. The first two occurences of {} in
+	 * the message are replaced by the arguments. The message is only built if it is logged.
+	 *
+	 * @param a_logLevel The log level (see constants in class LogLevel).
+	 * @param a_logType The log type (see constants in class LogType).
+	 * @param a_message The message to log with placeholders {} for the arguments.
+	 * @param a_argument1 the first argument of the message
+	 * @param a_argument2 the second argument of the message
+	 */
+	public static void log(int a_logLevel, int a_logType, String a_message,
+						   Object a_argument1, Object a_argument2)
+	{
+		if (isLogged(a_logLevel, a_logType))
+		{
+			log(a_logLevel, a_logType, format(a_message, new Object[]{a_argument1, a_argument2}),
+				false);
+		}
+	}
+
+	/**
+	 * Writes a message with any number of arguments to the Log instance. The occurences of {} in
+	 * the message are replaced by the arguments in their order. The message is only built if it
+	 * is logged.
+	 *
+	 * @param a_logLevel The log level (see constants in class LogLevel).
+	 * @param a_logType The log type (see constants in class LogType).
+	 * @param a_message The message to log with placeholders {} for the arguments.
+	 * @param a_arguments the arguments of the message
+	 */
+	public static void log(int a_logLevel, int a_logType, String a_message, Object[] a_arguments)
+	{
+		if (isLogged(a_logLevel, a_logType))
+		{
+			log(a_logLevel, a_logType, format(a_message, a_arguments), false);
+		}
+	}
+
+	/**
+	 * Replaces the placeholders {} in a message by the given arguments. Placeholders without an
+	 * argument are kept, and arguments without a placeholder are ignored.
+	 * @param a_message a message with placeholders
+	 * @param a_arguments the arguments
+	 * @return the message with the arguments
+	 */
+	static String format(String a_message, Object[] a_arguments)
+	{
+		if (a_message == null || a_arguments == null || a_arguments.length == 0)
+		{
+			return a_message;
+		}
+		StringBuffer buffer = null;
+		int start = 0;
+		for (int i = 0; i < a_arguments.length; i++)
+		{
+			int index = a_message.indexOf(ARGUMENT_PLACEHOLDER, start);
+			if (index < 0)
+			{
+				break;
+			}
+			if (buffer == null)
+			{
+				buffer = new StringBuffer(a_message.length() + 16 * a_arguments.length);
+			}
+			buffer.append(a_message.substring(start, index));
+			buffer.append(String.valueOf(a_arguments[i]));
+			start = index + ARGUMENT_PLACEHOLDER.length();
+		}
+		if (buffer == null)
+		{
+			return a_message;
+		}
+		buffer.append(a_message.substring(start));
+		return buffer.toString();
+	}
+
 	/**
 	 * Sets the logInstance.
 	 *
@@ -360,35 +504,19 @@ public final class LogHolder
 	 */
 	private static String getCallingMethod(boolean a_bSkipOwnClass)
 	{
-		StringTokenizer tokenizer;
 		String strCurrentMethod = "";
-		StringWriter swriter = new StringWriter();
-		PrintWriter pwriter = new PrintWriter(swriter);
 		String strOwnClass = "   ";
 		int index;
+		String[] stackTrace = getStackTrace();
 
-		new Exception().printStackTrace(pwriter);
-
-		tokenizer = new StringTokenizer(swriter.toString());
-		tokenizer.nextToken(); // jump over the exception message
-		while (tokenizer.hasMoreTokens())
+		for (int i = 0; i < stackTrace.length; i++)
 		{
-			tokenizer.nextToken(); // jump over the "at"
-
-			/* identify the current stack trace method */
-			strCurrentMethod = tokenizer.nextToken().replace('/', '.');
-			if (strCurrentMethod.indexOf('(') > 0)
-			{
-				while (strCurrentMethod.indexOf(')') < 0)
-				{
-					strCurrentMethod += tokenizer.nextToken();
-				}
-			}
+			strCurrentMethod = stackTrace[i];
 			/* jump over all local class calls */
-			if (!strCurrentMethod.startsWith(LogHolder.class.getName()) &&
+			if (!strCurrentMethod.startsWith(LogHolder.class.getName() + ".") &&
 				!strCurrentMethod.startsWith(strOwnClass) &&
-				!strCurrentMethod.startsWith(Throwable.class.getName()) &&
-				!strCurrentMethod.startsWith(Exception.class.getName()))
+				!strCurrentMethod.startsWith(Throwable.class.getName() + ".") &&
+				!strCurrentMethod.startsWith(Exception.class.getName() + "."))
 			{
 				if (a_bSkipOwnClass && strOwnClass.trim().length() == 0)
 				{
@@ -415,4 +543,64 @@ public final class LogHolder
 		}
 		return strCurrentMethod;
 	}
+
+	/**
+	 * Returns the methods of the current stack trace in the form
+	 * <Code> package.class.method(class.java:<LineNumber>) </Code>. The stack trace elements
+	 * are used if available, as parsing a printed stack trace is much slower.
+	 * @return the methods of the current stack trace, beginning with the innermost
+	 */
+	private static String[] getStackTrace()
+	{
+		Exception stackTrace = new Exception();
+		if (ms_getStackTrace != null)
+		{
+			try
+			{
+				Object[] elements = (Object[]) ms_getStackTrace.invoke(stackTrace, new Object[0]);
+				String[] methods = new String[elements.length];
+				for (int i = 0; i < elements.length; i++)
+				{
+					methods[i] = elements[i].toString();
+				}
+				return methods;
+			}
+			catch (Exception a_e)
+			{
+				/* fall back to the printed stack trace */
+			}
+		}
+
+		StringWriter swriter = new StringWriter();
+		PrintWriter pwriter = new PrintWriter(swriter);
+		stackTrace.printStackTrace(pwriter);
+		pwriter.flush();
+
+		Vector methods = new Vector();
+		String strCurrentMethod;
+		StringTokenizer tokenizer = new StringTokenizer(swriter.toString());
+		tokenizer.nextToken(); // jump over the exception message
+		while (tokenizer.hasMoreTokens())
+		{
+			tokenizer.nextToken(); // jump over the "at"
+			if (!tokenizer.hasMoreTokens())
+			{
+				break;
+			}
+
+			/* identify the current stack trace method */
+			strCurrentMethod = tokenizer.nextToken().replace('/', '.');
+			if (strCurrentMethod.indexOf('(') > 0)
+			{
+				while (strCurrentMethod.indexOf(')') < 0 && tokenizer.hasMoreTokens())
+				{
+					strCurrentMethod += tokenizer.nextToken();
+				}
+			}
+			methods.addElement(strCurrentMethod);
+		}
+		String[] result = new String[methods.size()];
+		methods.copyInto(result);
+		return result;
+	}
 }
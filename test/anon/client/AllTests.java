@@ -0,0 +1,25 @@
+package anon.client;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+
+public class AllTests
+{
+	public static void main(String[] a_Args)
+	{
+		junit.swingui.TestRunner.run(AllTests.class);
+	}
+	
+	public static Test suite()
+	{
+		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTestSuite(MultiplexerTest.class);
+		suite.addTestSuite(MixPacketTest.class);
+		suite.addTestSuite(ChannelTableTest.class);
+		suite.addTestSuite(PacketCounterTest.class);
+		suite.addTestSuite(anon.client.crypto.SymCipherTest.class);
+		suite.addTestSuite(anon.client.crypto.ChannelCipherPipelineTest.class);
+		return suite;
+	}
+}
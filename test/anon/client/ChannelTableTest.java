@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+import java.security.SecureRandom;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the admission of data channels by the ChannelTable.
+ */
+public class ChannelTableTest extends TestCase
+{
+	private ChannelTable m_table;
+
+	private TestDataChannelFactory m_factory;
+
+	public ChannelTableTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp()
+	{
+		m_factory = new TestDataChannelFactory();
+		m_table = new ChannelTable(m_factory, new SecureRandom());
+	}
+
+	protected void tearDown()
+	{
+		m_table.closeChannelTable();
+	}
+
+	public void testInteractiveRequestsArePreferred() throws Exception
+	{
+		TestDataChain bulkChain = new TestDataChain();
+		int limit = m_table.getDataChannelLimit();
+		for (int i = 0; i < limit; i++)
+		{
+			m_table.createDataChannel(bulkChain);
+		}
+		assertEquals(limit, m_table.getOpenDataChannels());
+
+		Vector grantOrder = new Vector();
+		/* the bulk chain queues first, then four new chains */
+		startRequest(bulkChain, "bulk", grantOrder);
+		for (int i = 0; i < 4; i++)
+		{
+			startRequest(new TestDataChain(), "interactive" + i, grantOrder);
+		}
+
+		for (int i = 0; i < 5; i++)
+		{
+			m_table.removeChannel(m_factory.getChannelId(i));
+			waitForSize(grantOrder, i + 1);
+		}
+		assertEquals("interactive0", grantOrder.elementAt(0));
+		assertEquals("interactive1", grantOrder.elementAt(1));
+		assertEquals("interactive2", grantOrder.elementAt(2));
+		/* the bulk request must not starve */
+		assertEquals("bulk", grantOrder.elementAt(3));
+		assertEquals("interactive3", grantOrder.elementAt(4));
+
+		assertEquals(0, m_table.getWaitingRequests());
+		assertEquals(5, m_table.getQueuedRequests());
+		assertTrue(m_table.getMaximumQueueWait() >= m_table.getAverageQueueWait());
+	}
+
+	public void testLimitGrowsWhileRequestsWait() throws Exception
+	{
+		TestDataChain chain = new TestDataChain();
+		int limit = m_table.getDataChannelLimit();
+		for (int i = 0; i < limit; i++)
+		{
+			m_table.createDataChannel(chain);
+		}
+		Vector grantOrder = new Vector();
+		startRequest(new TestDataChain(), "waiting", grantOrder);
+		waitForWaitingRequests(1);
+
+		/* the first packet arrives quickly -> the cascade is not congested */
+		int channelId = m_factory.getChannelId(0);
+		assertSame(m_table.getChannel(channelId), m_table.getReceivingChannel(channelId));
+		waitForSize(grantOrder, 1);
+		assertEquals(limit + 1, m_table.getDataChannelLimit());
+		assertEquals(limit + 1, m_table.getOpenDataChannels());
+	}
+
+	public void testClosedTableReleasesWaitingThreads() throws Exception
+	{
+		TestDataChain chain = new TestDataChain();
+		int limit = m_table.getDataChannelLimit();
+		for (int i = 0; i < limit; i++)
+		{
+			m_table.createDataChannel(chain);
+		}
+		Vector grantOrder = new Vector();
+		startRequest(chain, "waiting", grantOrder);
+		waitForWaitingRequests(1);
+		m_table.closeChannelTable();
+		waitForSize(grantOrder, 1);
+		assertEquals(0, m_table.getOpenDataChannels());
+	}
+
+	private void startRequest(final TestDataChain a_chain, final String a_name, final Vector a_grantOrder)
+		throws InterruptedException
+	{
+		final int waitingRequests = m_table.getWaitingRequests();
+		Thread requestThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				m_table.createDataChannel(a_chain);
+				a_grantOrder.addElement(a_name);
+			}
+		});
+		requestThread.setDaemon(true);
+		requestThread.start();
+		/* ensure a deterministic order in the queue */
+		waitForWaitingRequests(waitingRequests + 1);
+	}
+
+	private void waitForWaitingRequests(int a_requests) throws InterruptedException
+	{
+		long timeout = System.currentTimeMillis() + 10000;
+		while ((m_table.getWaitingRequests() < a_requests) && (System.currentTimeMillis() < timeout))
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(a_requests, m_table.getWaitingRequests());
+	}
+
+	private static void waitForSize(Vector a_vector, int a_size) throws InterruptedException
+	{
+		long timeout = System.currentTimeMillis() + 10000;
+		while ((a_vector.size() < a_size) && (System.currentTimeMillis() < timeout))
+		{
+			Thread.sleep(5);
+		}
+		assertEquals(a_size, a_vector.size());
+	}
+
+	private static class TestDataChannelFactory implements IDataChannelFactory
+	{
+		private Vector m_channelIds = new Vector();
+
+		public int getChannelId(int a_index)
+		{
+			return ((Integer) (m_channelIds.elementAt(a_index))).intValue();
+		}
+
+		public AbstractDataChannel createDataChannel(int a_channelId, AbstractDataChain a_parentDataChain)
+		{
+			m_channelIds.addElement(new Integer(a_channelId));
+			return new UnlimitedDataChannel(a_channelId, null, a_parentDataChain, null);
+		}
+
+		public void closeFactory()
+		{
+		}
+	}
+
+	private static class TestDataChain extends AbstractDataChain
+	{
+		public TestDataChain()
+		{
+			super(null, null);
+		}
+
+		public int getOutputBlockSize()
+		{
+			return 0;
+		}
+
+		public void createPacketPayload(DataChainSendOrderStructure a_order)
+		{
+		}
+
+		public void run()
+		{
+		}
+
+		protected void orderPacket(DataChainSendOrderStructure a_order)
+		{
+		}
+
+		protected void outputStreamClosed()
+		{
+		}
+
+		protected void closeDataChain()
+		{
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the in-place header handling and the buffer pool of MixPacket.
+ */
+public class MixPacketTest extends TestCase
+{
+	private static final int PACKETS = 1000;
+
+	public MixPacketTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testHeaderFields() throws Exception
+	{
+		MixPacket packet = new MixPacket(0xCAFEBABE);
+		packet.setChannelFlags((short) 0x8010);
+
+		assertEquals(0xCAFEBABE, packet.getChannelId());
+		assertEquals((short) 0x8010, packet.getChannelFlags());
+		byte[] rawPacket = packet.getRawPacket();
+		assertEquals(MixPacket.getPacketSize(), rawPacket.length);
+		assertEquals((byte) 0xCA, rawPacket[0]);
+		assertEquals((byte) 0xBE, rawPacket[3]);
+		assertEquals((byte) 0x80, rawPacket[4]);
+		assertEquals((byte) 0x10, rawPacket[5]);
+	}
+
+	public void testReadPacket() throws Exception
+	{
+		MixPacket sentPacket = new MixPacket(-12345);
+		sentPacket.setChannelFlags((short) 77);
+		sentPacket.getRawPacket()[MixPacket.getPayloadOffset()] = 42;
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		stream.write(sentPacket.getRawPacket());
+		sentPacket.release();
+
+		MixPacket receivedPacket = new MixPacket(new ByteArrayInputStream(stream.toByteArray()), null);
+		assertEquals(-12345, receivedPacket.getChannelId());
+		assertEquals(77, receivedPacket.getChannelFlags());
+		byte[] payload = receivedPacket.getPayloadCopy();
+		assertEquals(MixPacket.getPayloadSize(), payload.length);
+		assertEquals(42, payload[0]);
+		receivedPacket.release();
+	}
+
+	public void testBufferReuse() throws Exception
+	{
+		MixPacket packet = new MixPacket(1000);
+		byte[] buffer = packet.getRawPacket();
+		packet.release();
+		assertNull(packet.getRawPacket());
+
+		packet = new MixPacket(1001);
+		assertSame(buffer, packet.getRawPacket());
+		assertEquals(1001, packet.getChannelId());
+		packet.release();
+	}
+
+	/**
+	 * Parses many packets from a stream. If every packet is released, all of them are read into
+	 * the same pooled buffer.
+	 */
+	public void testReceivedPacketsReuseBuffers() throws Exception
+	{
+		MixPacket template = new MixPacket(1000);
+		final byte[] rawPacket = (byte[]) template.getRawPacket().clone();
+		template.release();
+
+		ByteArrayInputStream packetStream = new ByteArrayInputStream(rawPacket)
+		{
+			public synchronized int read(byte[] a_buffer, int a_offset, int a_length)
+			{
+				if (pos == count)
+				{
+					reset();
+				}
+				return super.read(a_buffer, a_offset, a_length);
+			}
+		};
+		packetStream.mark(0);
+
+		byte[] buffer = null;
+		for (int i = 0; i < PACKETS; i++)
+		{
+			MixPacket packet = new MixPacket(packetStream, null);
+			assertEquals(1000, packet.getChannelId());
+			if (buffer == null)
+			{
+				buffer = packet.getRawPacket();
+			}
+			assertSame(buffer, packet.getRawPacket());
+			packet.release();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the send path of the Multiplexer against a stand-in mix on the loopback interface that
+ * simply reads and counts the packets.
+ */
+public class MultiplexerTest extends TestCase
+{
+	private static final int SENDER_THREADS = 16;
+	private static final int PACKETS_PER_THREAD = 500;
+
+	public MultiplexerTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	/**
+	 * Control channel packets must be taken from the send queue before queued data packets.
+	 */
+	public void testControlPacketsOvertakeDataPackets() throws Exception
+	{
+		MixPacketQueue queue = new MixPacketQueue(4, 4);
+		MixPacket[] batch = new MixPacket[8];
+
+		queue.put(new MixPacket(1000), false);
+		queue.put(new MixPacket(1001), false);
+		queue.put(new MixPacket(ChannelTable.CONTROL_CHANNEL_ID_PAY), true);
+
+		assertEquals(3, queue.take(batch));
+		assertEquals(ChannelTable.CONTROL_CHANNEL_ID_PAY, batch[0].getChannelId());
+		assertEquals(1000, batch[1].getChannelId());
+		assertEquals(1001, batch[2].getChannelId());
+		assertEquals(0, queue.size());
+	}
+
+	public void testClosedQueueRejectsPackets() throws Exception
+	{
+		MixPacketQueue queue = new MixPacketQueue(1, 1);
+		long ticket = queue.put(new MixPacket(1000), false);
+		queue.close(null);
+		assertEquals(-1, queue.take(new MixPacket[1]));
+		/* the sender of the dropped packet learns that it has not been written */
+		try
+		{
+			queue.waitUntilWritten(ticket, false);
+			fail();
+		}
+		catch (IOException a_e)
+		{
+		}
+		try
+		{
+			queue.put(new MixPacket(1000), false);
+			fail();
+		}
+		catch (IOException a_e)
+		{
+		}
+	}
+
+	public void testWrittenPacketsAreAcknowledged() throws Exception
+	{
+		MixPacketQueue queue = new MixPacketQueue(4, 4);
+		long dataTicket = queue.put(new MixPacket(1000), false);
+		long controlTicket = queue.put(new MixPacket(ChannelTable.CONTROL_CHANNEL_ID_PAY), true);
+		assertEquals(2, queue.take(new MixPacket[4]));
+		queue.packetsWritten(1, 1);
+		/* both return immediately */
+		queue.waitUntilWritten(dataTicket, false);
+		queue.waitUntilWritten(controlTicket, true);
+		queue.close(null);
+		/* a packet that was written before the queue was closed is still acknowledged */
+		queue.waitUntilWritten(dataTicket, false);
+	}
+
+	/**
+	 * If the send thread dies because a packet could not be finalized, the sender gets an
+	 * exception instead of waiting forever.
+	 */
+	public void testFailingCallbackClosesSendQueue() throws Exception
+	{
+		ServerSocket mixSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Socket clientSocket = new Socket(mixSocket.getInetAddress(), mixSocket.getLocalPort());
+		Socket mixConnection = mixSocket.accept();
+		mixSocket.close();
+
+		Multiplexer multiplexer = new Multiplexer(clientSocket.getInputStream(),
+			clientSocket.getOutputStream(), null, null, null, new SecureRandom());
+		MixPacket packet = new MixPacket(1000);
+		packet.getSendCallbackHandlers().addElement(new ISendCallbackHandler()
+		{
+			public void finalizePacket(MixPacket a_mixPacket)
+			{
+				throw new IllegalStateException("broken channel");
+			}
+		});
+		try
+		{
+			multiplexer.sendPacket(packet);
+			fail();
+		}
+		catch (IOException a_e)
+		{
+		}
+		try
+		{
+			multiplexer.sendPacket(new MixPacket(1000));
+			fail();
+		}
+		catch (IOException a_e)
+		{
+		}
+
+		multiplexer.close();
+		clientSocket.close();
+		mixConnection.close();
+	}
+
+	/**
+	 * Sends packets from many threads through a Multiplexer to a stand-in mix and checks that
+	 * every packet arrives and has been written when sendPacket() returns.
+	 */
+	public void testSendFromManyThreads() throws Exception
+	{
+		ServerSocket mixSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Socket clientSocket = new Socket(mixSocket.getInetAddress(), mixSocket.getLocalPort());
+		final Socket mixConnection = mixSocket.accept();
+		mixSocket.close();
+
+		final int expectedPackets = SENDER_THREADS * PACKETS_PER_THREAD;
+		final int[] receivedPackets = new int[1];
+		Thread standInMix = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				byte[] packet = new byte[MixPacket.getPacketSize()];
+				try
+				{
+					DataInputStream in = new DataInputStream(mixConnection.getInputStream());
+					while (receivedPackets[0] < expectedPackets)
+					{
+						in.readFully(packet);
+						receivedPackets[0]++;
+					}
+				}
+				catch (IOException a_e)
+				{
+				}
+			}
+		});
+		standInMix.start();
+
+		final Multiplexer multiplexer = new Multiplexer(clientSocket.getInputStream(),
+			clientSocket.getOutputStream(), null, null, null, new SecureRandom());
+		Thread[] senders = new Thread[SENDER_THREADS];
+		final MixPacket[][] packets = new MixPacket[SENDER_THREADS][PACKETS_PER_THREAD];
+		for (int i = 0; i < SENDER_THREADS; i++)
+		{
+			for (int j = 0; j < PACKETS_PER_THREAD; j++)
+			{
+				packets[i][j] = new MixPacket(1000 + i);
+			}
+		}
+
+		for (int i = 0; i < SENDER_THREADS; i++)
+		{
+			final int sender = i;
+			senders[i] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						for (int j = 0; j < PACKETS_PER_THREAD; j++)
+						{
+							multiplexer.sendPacket(packets[sender][j]);
+						}
+					}
+					catch (IOException a_e)
+					{
+					}
+				}
+			});
+			senders[i].start();
+		}
+		for (int i = 0; i < SENDER_THREADS; i++)
+		{
+			senders[i].join();
+		}
+		/* every sendPacket() has returned, so all packets have been written and counted */
+		PacketStatistics statistics = multiplexer.getPacketStatistics();
+		assertEquals(expectedPackets,
+					 statistics.getPackets(PacketProcessedEvent.CODE_DATA_PACKET_SENT));
+		assertEquals(0, statistics.getPackets(PacketProcessedEvent.CODE_CONTROL_PACKET_SENT));
+		standInMix.join(30000);
+
+		multiplexer.close();
+		clientSocket.close();
+		mixConnection.close();
+
+		assertEquals(expectedPackets, receivedPackets[0]);
+	}
+}
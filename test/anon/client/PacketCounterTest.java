@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client;
+
+import java.util.Observable;
+import java.util.Observer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the packet accounting of the PacketStatistics and the PacketCounter.
+ */
+public class PacketCounterTest extends TestCase
+{
+	public PacketCounterTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testStatisticsCountByKind()
+	{
+		PacketStatistics statistics = new PacketStatistics();
+		statistics.packetsSent(2, 3);
+		statistics.packetsSent(0, 1);
+		statistics.packetReceived(true);
+		statistics.packetReceived(false);
+		statistics.packetReceived(false);
+		statistics.packetDiscarded(false);
+
+		assertEquals(2, statistics.getPackets(PacketProcessedEvent.CODE_CONTROL_PACKET_SENT));
+		assertEquals(4, statistics.getPackets(PacketProcessedEvent.CODE_DATA_PACKET_SENT));
+		assertEquals(1, statistics.getPackets(PacketProcessedEvent.CODE_CONTROL_PACKET_RECEIVED));
+		assertEquals(2, statistics.getPackets(PacketProcessedEvent.CODE_DATA_PACKET_RECEIVED));
+		assertEquals(0, statistics.getPackets(PacketProcessedEvent.CODE_CONTROL_PACKET_DISCARDED));
+		assertEquals(1, statistics.getPackets(PacketProcessedEvent.CODE_DATA_PACKET_DISCARDED));
+		/* control channel packets are not paid */
+		assertEquals(7, statistics.getDataPackets());
+	}
+
+	/**
+	 * The payment bytes are reported once, the processed packets include previous connections.
+	 */
+	public void testPaymentBytes()
+	{
+		PacketStatistics statistics = new PacketStatistics();
+		PacketCounter counter = new PacketCounter(statistics, 10);
+		statistics.packetsSent(1, 2);
+		statistics.packetReceived(false);
+
+		assertEquals(13, counter.getProcessedPackets());
+		assertEquals(3L * MixPacket.getPacketSize(), counter.getAndResetBytesForPayment());
+		assertEquals(0, counter.getAndResetBytesForPayment());
+		statistics.packetDiscarded(false);
+		assertEquals(MixPacket.getPacketSize(), counter.getAndResetBytesForPayment());
+	}
+
+	/**
+	 * The observers are only notified if packets have been processed since the last sample.
+	 */
+	public void testSampleNotifiesOnlyOnChange()
+	{
+		PacketStatistics statistics = new PacketStatistics();
+		PacketCounter counter = new PacketCounter(statistics);
+		final int[] notifications = new int[1];
+		counter.addObserver(new Observer()
+		{
+			public void update(Observable a_observable, Object a_argument)
+			{
+				notifications[0]++;
+			}
+		});
+
+		counter.sample();
+		assertEquals(0, notifications[0]);
+		statistics.packetsSent(0, 5);
+		statistics.packetReceived(false);
+		counter.sample();
+		assertEquals(1, notifications[0]);
+		counter.sample();
+		assertEquals(1, notifications[0]);
+		/* control channel packets do not change the count */
+		statistics.packetsSent(1, 0);
+		counter.sample();
+		assertEquals(1, notifications[0]);
+	}
+
+	/**
+	 * The sampler thread notifies the observers about new packets, and stopping it reports the
+	 * packets processed since the last sample.
+	 */
+	public void testSamplerThread() throws Exception
+	{
+		PacketStatistics statistics = new PacketStatistics();
+		PacketCounter counter = new PacketCounter(statistics);
+		final long[] reportedPackets = new long[1];
+		counter.addObserver(new Observer()
+		{
+			public void update(Observable a_observable, Object a_argument)
+			{
+				synchronized (reportedPackets)
+				{
+					reportedPackets[0] = ((PacketCounter) a_observable).getProcessedPackets();
+					reportedPackets.notifyAll();
+				}
+			}
+		});
+
+		counter.start();
+		statistics.packetsSent(0, 3);
+		synchronized (reportedPackets)
+		{
+			long timeout = System.currentTimeMillis() + 10 * PacketCounter.SAMPLE_INTERVAL;
+			while (reportedPackets[0] != 3 && System.currentTimeMillis() < timeout)
+			{
+				reportedPackets.wait(PacketCounter.SAMPLE_INTERVAL);
+			}
+		}
+		assertEquals(3, reportedPackets[0]);
+
+		statistics.packetReceived(false);
+		counter.stop();
+		assertEquals(4, reportedPackets[0]);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client.crypto;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the background preparation of channel ciphers.
+ */
+public class ChannelCipherPipelineTest extends TestCase
+{
+	public ChannelCipherPipelineTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp()
+	{
+		KeyPool.start();
+	}
+
+	public void testPreparedAndOnDemandCiphers() throws Exception
+	{
+		ChannelCipherPipeline pipeline = new ChannelCipherPipeline(3, true, false, 4, 2);
+		long timeout = System.currentTimeMillis() + 10000;
+		while ((pipeline.getPreparedCipherSets() < 4) && (System.currentTimeMillis() < timeout))
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(4, pipeline.getPreparedCipherSets());
+
+		for (int i = 0; i < 4; i++)
+		{
+			assertEquals(3, pipeline.getChannelCiphers().length);
+		}
+		assertEquals(4, pipeline.getHits());
+		assertEquals(0, pipeline.getMisses());
+
+		pipeline.stop();
+		assertEquals(0, pipeline.getPreparedCipherSets());
+		assertEquals(3, pipeline.getChannelCiphers().length);
+		assertEquals(1, pipeline.getMisses());
+	}
+
+	public void testDisabledPipeline()
+	{
+		ChannelCipherPipeline pipeline = new ChannelCipherPipeline(2, false, false, 0, 1);
+		SymCipher[] channelCiphers = pipeline.getChannelCiphers();
+		assertEquals(2, channelCiphers.length);
+		assertEquals(0, pipeline.getHits());
+		assertEquals(1, pipeline.getMisses());
+		/* every mix gets its own key from the KeyPool */
+		boolean bSameKeys = true;
+		for (int i = 0; i < 16; i++)
+		{
+			bSameKeys &= channelCiphers[0].getKeys()[i] == channelCiphers[1].getKeys()[i];
+		}
+		assertFalse(bSameKeys);
+	}
+
+	/**
+	 * With enhanced channel encryption the keys are fixed, so the prepared
+	 * ciphers can be compared with ciphers set up the way the data channel
+	 * factory did it before.
+	 */
+	public void testEnhancedChannelEncryptionSetup()
+	{
+		ChannelCipherPipeline pipeline = new ChannelCipherPipeline(2, true, true, 0, 1);
+		SymCipher[] channelCiphers = pipeline.getChannelCiphers();
+
+		SymCipher firstMixCipher = new SymCipher();
+		firstMixCipher.setEncryptionKeysAES(new byte[32]);
+		byte[] iv2Buffer = new byte[16];
+		for (int i = 0; i < iv2Buffer.length; i++)
+		{
+			iv2Buffer[i] = (byte) 0xff;
+		}
+		firstMixCipher.setIV2(iv2Buffer);
+		SymCipher otherMixCipher = new SymCipher();
+		otherMixCipher.setEncryptionKeysAES(new byte[32]);
+
+		assertSameStreams(firstMixCipher, channelCiphers[0]);
+		assertSameStreams(otherMixCipher, channelCiphers[1]);
+	}
+
+	private static void assertSameStreams(SymCipher a_expected, SymCipher a_actual)
+	{
+		byte[] expected = new byte[998];
+		byte[] actual = new byte[998];
+		a_expected.encryptAES1(expected, 0, expected, 0, expected.length);
+		a_actual.encryptAES1(actual, 0, actual, 0, actual.length);
+		a_expected.encryptAES2(expected);
+		a_actual.encryptAES2(actual);
+		for (int i = 0; i < expected.length; i++)
+		{
+			assertEquals("Difference at byte " + i, expected[i], actual[i]);
+		}
+	}
+}
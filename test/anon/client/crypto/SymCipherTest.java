@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.client.crypto;
+
+import java.util.Random;
+
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the output of SymCipher with a block-by-block reference implementation of the
+ * AES output feedback stream, i.e. the way it was computed before the key stream was generated
+ * in bulk.
+ */
+public class SymCipherTest extends TestCase
+{
+	private static final int CALLS = 500;
+
+	private Random m_random;
+
+	public SymCipherTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp()
+	{
+		m_random = new Random(4711);
+	}
+
+	public void testSingleKey() throws Exception
+	{
+		byte[] key = new byte[16];
+		m_random.nextBytes(key);
+		SymCipher cipher = new SymCipher();
+		cipher.setEncryptionKeyAES(key);
+		compareStreams(cipher, new ReferenceStream(key, 0, null), new ReferenceStream(key, 0, null));
+	}
+
+	public void testKeyAndIV() throws Exception
+	{
+		byte[] key = new byte[32];
+		m_random.nextBytes(key);
+		SymCipher cipher = new SymCipher();
+		cipher.setEncryptionKeyAES(key, 0, 32);
+		compareStreams(cipher, new ReferenceStream(key, 0, key), new ReferenceStream(key, 0, key));
+	}
+
+	public void testTwoKeysAndIV2() throws Exception
+	{
+		byte[] keys = new byte[32];
+		byte[] iv2 = new byte[16];
+		m_random.nextBytes(keys);
+		m_random.nextBytes(iv2);
+		SymCipher cipher = new SymCipher();
+		cipher.setEncryptionKeysAES(keys);
+		cipher.setIV2(iv2);
+		ReferenceStream reference2 = new ReferenceStream(keys, 16, null);
+		System.arraycopy(iv2, 0, reference2.m_iv, 0, 16);
+		compareStreams(cipher, new ReferenceStream(keys, 0, null), reference2);
+	}
+
+	public void testBouncyCastleFallback() throws Exception
+	{
+		byte[] key = new byte[16];
+		byte[] iv = new byte[16];
+		m_random.nextBytes(key);
+		m_random.nextBytes(iv);
+		AESKeyStream bulkStream = new AESKeyStream.BouncyCastleAESKeyStream();
+		bulkStream.init(key, 0);
+		ReferenceStream reference = new ReferenceStream(key, 0, null);
+		System.arraycopy(iv, 0, reference.m_iv, 0, 16);
+
+		byte[] keyStream = new byte[16 * 70];
+		byte[] expected = new byte[keyStream.length];
+		bulkStream.nextBlocks(iv, keyStream, 70);
+		reference.encrypt(expected, 0, expected.length);
+		assertArrayEquals(expected, keyStream);
+	}
+
+	/**
+	 * The JCE key stream continues its cipher between calls, so it has to notice a new IV or key.
+	 */
+	public void testJCEKeyStream() throws Exception
+	{
+		byte[] key = new byte[16];
+		byte[] iv = new byte[16];
+		m_random.nextBytes(key);
+		AESKeyStream jceStream = new JCEAESKeyStream();
+		jceStream.init(key, 0);
+		ReferenceStream reference = new ReferenceStream(key, 0, null);
+
+		byte[] keyStream = new byte[16 * 70];
+		for (int i = 0; i < 20; i++)
+		{
+			int blocks = 1 + m_random.nextInt(70);
+			if (i == 10)
+			{
+				/* a new IV like SymCipher.setIV2() */
+				m_random.nextBytes(iv);
+				System.arraycopy(iv, 0, reference.m_iv, 0, 16);
+			}
+			else if (i == 15)
+			{
+				/* a new key, which restarts with a zero IV */
+				m_random.nextBytes(key);
+				jceStream.init(key, 0);
+				reference = new ReferenceStream(key, 0, null);
+				iv = new byte[16];
+			}
+			byte[] expected = new byte[blocks * 16];
+			reference.encrypt(expected, 0, expected.length);
+			jceStream.nextBlocks(iv, keyStream, blocks);
+			for (int j = 0; j < expected.length; j++)
+			{
+				assertEquals("Difference at call " + i + ", byte " + j, expected[j], keyStream[j]);
+			}
+		}
+	}
+
+	private void compareStreams(SymCipher a_cipher, ReferenceStream a_reference1,
+								ReferenceStream a_reference2)
+	{
+		for (int i = 0; i < CALLS; i++)
+		{
+			/* mix short header updates, whole packets and odd lengths */
+			int length = (i % 3 == 0) ? 16 : m_random.nextInt(1100);
+			int offset = m_random.nextInt(8);
+			byte[] plain = new byte[offset + length];
+			m_random.nextBytes(plain);
+
+			byte[] expected = (byte[]) plain.clone();
+			a_reference1.encrypt(expected, offset, length);
+			byte[] actual = new byte[plain.length];
+			System.arraycopy(plain, 0, actual, 0, offset);
+			a_cipher.encryptAES1(plain, offset, actual, offset, length);
+			assertArrayEquals(expected, actual);
+
+			expected = (byte[]) plain.clone();
+			a_reference2.encrypt(expected, 0, expected.length);
+			actual = (byte[]) plain.clone();
+			a_cipher.encryptAES2(actual);
+			assertArrayEquals(expected, actual);
+		}
+	}
+
+	private static void assertArrayEquals(byte[] a_expected, byte[] a_actual)
+	{
+		assertEquals(a_expected.length, a_actual.length);
+		for (int i = 0; i < a_expected.length; i++)
+		{
+			assertEquals("Difference at byte " + i, a_expected[i], a_actual[i]);
+		}
+	}
+
+	/**
+	 * Block-by-block output feedback stream with the same handling of partly used blocks as
+	 * SymCipher.
+	 */
+	private static class ReferenceStream
+	{
+		private AESFastEngine m_engine = new AESFastEngine();
+		private byte[] m_iv = new byte[16];
+
+		public ReferenceStream(byte[] a_key, int a_keyOffset, byte[] a_iv)
+		{
+			m_engine.init(true, new KeyParameter(a_key, a_keyOffset, 16));
+			if (a_iv != null)
+			{
+				System.arraycopy(a_iv, 16, m_iv, 0, 16);
+			}
+		}
+
+		public void encrypt(byte[] a_buffer, int a_offset, int a_length)
+		{
+			for (int i = 0; i < a_length; i++)
+			{
+				if (i % 16 == 0)
+				{
+					m_engine.processBlock(m_iv, 0, m_iv, 0);
+				}
+				a_buffer[a_offset + i] ^= m_iv[i % 16];
+			}
+		}
+	}
+}
@@ -57,6 +57,9 @@ public class AllTests
 		suite.addTestSuite(ByteSignatureTest.class);
 		suite.addTestSuite(JAPCertificateTest.class);
 		suite.addTestSuite(XMLSignatureTest.class);
+		suite.addTestSuite(SignatureVerifierTest.class);
+		suite.addTestSuite(VerifiedSignatureCacheTest.class);
+		suite.addTestSuite(XMLCanonicalizerTest.class);
 		suite.addTestSuite(PKCS12Test.class);
 		suite.addTestSuite(PKCS10CertificationRequestTest.class);
 		return suite;
@@ -0,0 +1,124 @@
+/*
+ Copyright (c) 2000 - 2004, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+  - Redistributions of source code must retain the above copyright notice,
+ this list of conditions and the following disclaimer.
+
+  - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation and/or
+ other materials provided with the distribution.
+
+  - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+ may be used to endorse or promote products derived from this software without specific
+ prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package anon.crypto.test;
+
+import java.security.SecureRandom;
+import java.util.GregorianCalendar;
+import java.util.Vector;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import junit.framework.TestCase;
+
+import anon.crypto.PKCS12;
+import anon.crypto.SignatureVerifier;
+import anon.crypto.Validity;
+import anon.crypto.VerifiedSignatureCache;
+import anon.crypto.X509DistinguishedName;
+import anon.crypto.XMLSignature;
+import anon.util.XMLUtil;
+import anon.util.test.DummyXMLEncodable;
+
+/**
+ * Tests the parallel verification of signatures by the SignatureVerifier.
+ */
+public class SignatureVerifierTest extends TestCase
+{
+	private static final int DOCUMENTS = 40;
+
+	private SecureRandom m_random;
+
+	public SignatureVerifierTest(String a_name)
+	{
+		super(a_name);
+		m_random = new SecureRandom();
+	}
+
+	/**
+	 * Verifies signed elements of the same document one by one, in parallel and from the cache.
+	 * All ways must give the same results.
+	 * @throws Exception if an error occurs
+	 */
+	public void testParallelVerification() throws Exception
+	{
+		m_random.setSeed(1376456);
+		PKCS12 pkcs12Certificate = new PKCS12(new X509DistinguishedName("CN=VerificationTest"),
+											  new RSATestKeyPairGenerator(m_random).createKeyPair(),
+											  new Validity(new GregorianCalendar(), 1));
+		SignatureVerifier verifier = SignatureVerifier.getInstance();
+
+		// all elements are children of one document, like the entries of a fetched list
+		Document doc = XMLUtil.createDocument();
+		Element list = doc.createElement(DummyXMLEncodable.XML_ELEMENT_CONTAINER_NAME);
+		doc.appendChild(list);
+		Vector elements = new Vector();
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			Element element = new DummyXMLEncodable().toXmlElement(doc);
+			list.appendChild(element);
+			assertNotNull(XMLSignature.sign(element, pkcs12Certificate));
+			if (i % 10 == 0)
+			{
+				// the signature of this element becomes invalid
+				XMLUtil.setAttribute(element, "modified", true);
+			}
+			elements.addElement(element);
+		}
+
+		// every signature must really be verified
+		VerifiedSignatureCache.getInstance().clear();
+		VerifiedSignatureCache.getInstance().setCapacity(0);
+
+		XMLSignature[] sequentialSignatures = new XMLSignature[DOCUMENTS];
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			sequentialSignatures[i] = verifier.getVerifiedXml(
+				 (Element) elements.elementAt(i), SignatureVerifier.DOCUMENT_CLASS_MIX);
+		}
+
+		XMLSignature[] parallelSignatures =
+			verifier.getVerifiedXml(elements, SignatureVerifier.DOCUMENT_CLASS_MIX);
+
+		// verify twice with the cache; the second time needs no public key operations
+		VerifiedSignatureCache.getInstance().setCapacity(VerifiedSignatureCache.DEFAULT_CAPACITY);
+		verifier.getVerifiedXml(elements, SignatureVerifier.DOCUMENT_CLASS_MIX);
+		long hits = VerifiedSignatureCache.getInstance().getHits();
+		XMLSignature[] cachedSignatures =
+			verifier.getVerifiedXml(elements, SignatureVerifier.DOCUMENT_CLASS_MIX);
+		// every valid signature is found in the cache
+		assertEquals(hits + DOCUMENTS - DOCUMENTS / 10, VerifiedSignatureCache.getInstance().getHits());
+
+		assertEquals(DOCUMENTS, parallelSignatures.length);
+		for (int i = 0; i < DOCUMENTS; i++)
+		{
+			assertEquals("" + i, i % 10 != 0, sequentialSignatures[i] != null);
+			assertEquals("" + i, sequentialSignatures[i] != null, parallelSignatures[i] != null);
+			assertEquals("" + i, sequentialSignatures[i] != null, cachedSignatures[i] != null);
+		}
+	}
+}
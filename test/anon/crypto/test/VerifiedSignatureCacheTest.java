@@ -0,0 +1,112 @@
+/*
+ Copyright (c) 2000 - 2004, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+  - Redistributions of source code must retain the above copyright notice,
+ this list of conditions and the following disclaimer.
+
+  - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation and/or
+ other materials provided with the distribution.
+
+  - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+ may be used to endorse or promote products derived from this software without specific
+ prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package anon.crypto.test;
+
+import junit.framework.TestCase;
+
+import anon.crypto.SignatureVerifier;
+import anon.crypto.VerifiedSignatureCache;
+
+/**
+ * These are the tests for the VerifiedSignatureCache class.
+ */
+public class VerifiedSignatureCacheTest extends TestCase
+{
+	private VerifiedSignatureCache m_cache;
+
+	public VerifiedSignatureCacheTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	protected void setUp()
+	{
+		m_cache = VerifiedSignatureCache.getInstance();
+		m_cache.clear();
+		m_cache.setCapacity(3);
+	}
+
+	protected void tearDown()
+	{
+		m_cache.clear();
+		m_cache.setCapacity(VerifiedSignatureCache.DEFAULT_CAPACITY);
+	}
+
+	public void testCreateKey()
+	{
+		byte[] data = new byte[]{1, 2, 3};
+		byte[] signature = new byte[]{4, 5};
+		String key = VerifiedSignatureCache.createKey(data, signature, new DummyPublicKey(7));
+		assertNotNull(key);
+		assertEquals(key, VerifiedSignatureCache.createKey(data, signature, new DummyPublicKey(7)));
+		assertFalse(key.equals(
+			 VerifiedSignatureCache.createKey(data, signature, new DummyPublicKey(8))));
+		assertFalse(key.equals(
+			 VerifiedSignatureCache.createKey(data, new byte[]{4, 6}, new DummyPublicKey(7))));
+		// the parts must not be shifted against each other
+		assertFalse(key.equals(VerifiedSignatureCache.createKey(
+			 new byte[]{1, 2}, new byte[]{3, 4, 5}, new DummyPublicKey(7))));
+	}
+
+	public void testLeastRecentlyUsed()
+	{
+		long validTo = Long.MAX_VALUE;
+		long hits = m_cache.getHits();
+		long misses = m_cache.getMisses();
+
+		assertFalse(m_cache.isVerified("a"));
+		m_cache.addVerified("a", validTo, 10);
+		m_cache.addVerified("b", validTo, 10);
+		m_cache.addVerified("c", validTo, 10);
+		assertTrue(m_cache.isVerified("a"));
+		// "b" is the least recently used signature now
+		m_cache.addVerified("d", validTo, 10);
+		assertEquals(3, m_cache.getSize());
+		assertFalse(m_cache.isVerified("b"));
+		assertTrue(m_cache.isVerified("a"));
+		assertTrue(m_cache.isVerified("c"));
+		assertTrue(m_cache.isVerified("d"));
+
+		assertEquals(hits + 4, m_cache.getHits());
+		assertEquals(misses + 2, m_cache.getMisses());
+		assertTrue(m_cache.getSavedVerificationTime() > 0);
+	}
+
+	public void testInvalidation()
+	{
+		m_cache.addVerified("expired", System.currentTimeMillis() - 1, 10);
+		m_cache.addVerified("valid", Long.MAX_VALUE, 10);
+		assertFalse(m_cache.isVerified("expired"));
+		assertTrue(m_cache.isVerified("valid"));
+
+		// any change of the trusted certificates clears the cache
+		SignatureVerifier.getInstance().getVerificationCertificateStore().reset();
+		assertFalse(m_cache.isVerified("valid"));
+		assertEquals(0, m_cache.getSize());
+	}
+}
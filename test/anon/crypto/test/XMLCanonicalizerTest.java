@@ -0,0 +1,160 @@
+/*
+ Copyright (c) 2000 - 2004, The JAP-Team
+ All rights reserved.
+ Redistribution and use in source and binary forms, with or without modification,
+ are permitted provided that the following conditions are met:
+
+  - Redistributions of source code must retain the above copyright notice,
+ this list of conditions and the following disclaimer.
+
+  - Redistributions in binary form must reproduce the above copyright notice,
+ this list of conditions and the following disclaimer in the documentation and/or
+ other materials provided with the distribution.
+
+  - Neither the name of the University of Technology Dresden, Germany nor the names of its contributors
+ may be used to endorse or promote products derived from this software without specific
+ prior written permission.
+
+
+ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ``AS IS'' AND ANY EXPRESS
+ OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY
+ AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR CONTRIBUTORS
+ BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE
+ */
+package anon.crypto.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import anon.crypto.XMLCanonicalizer;
+import anon.crypto.XMLSignature;
+import anon.util.Util;
+import anon.util.XMLParseException;
+import anon.util.XMLUtil;
+
+/**
+ * These are the tests for the XMLCanonicalizer class.
+ */
+public class XMLCanonicalizerTest extends TestCase
+{
+	private static final String XML =
+		"<Root b=\"2\" a=\"1\">  Text &amp; more &lt;x&gt; \u00e9\u20ac\ud834\udd1e <!--c-->tail " +
+		"<Child/><Sig x=\"y\">z</Sig><After>q</After></Root>";
+
+	private static final String CANONICAL =
+		"<Root a=\"1\" b=\"2\">Text &amp; more &lt;x&gt; \u00e9\u20ac\ud834\udd1etail" +
+		"<Child></Child><Sig x=\"y\">z</Sig><After>q</After></Root>";
+
+	public XMLCanonicalizerTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	public void testCanonicalElement() throws Exception
+	{
+		Document doc = XMLUtil.toXMLDocument(XML);
+
+		assertTrue(Util.arraysEqual(CANONICAL.getBytes("UTF8"), XMLSignature.toCanonical(doc)));
+		assertTrue(Util.arraysEqual(CANONICAL.getBytes("UTF8"),
+									XMLSignature.toCanonical(doc.getDocumentElement())));
+	}
+
+	public void testExcludedNodes() throws Exception
+	{
+		Document doc = XMLUtil.toXMLDocument(XML);
+		Node signature = XMLUtil.getFirstChildByName(doc.getDocumentElement(), "Sig");
+
+		// an excluded node ends the list of its siblings
+		assertEquals("<Root a=\"1\" b=\"2\">Text &amp; more &lt;x&gt; \u00e9\u20ac\ud834\udd1etail" +
+					 "<Child></Child></Root>",
+					 new String(XMLSignature.toCanonical(doc, Util.toVector(signature)), "UTF8"));
+	}
+
+	public void testEscapedText() throws Exception
+	{
+		Document doc = XMLUtil.createDocument();
+		Element root = doc.createElement("Root");
+		doc.appendChild(root);
+		root.appendChild(doc.createTextNode(" a &amp; b & c <\ud800> &gt "));
+
+		// existing entities are kept, a malformed surrogate is replaced like String.getBytes() does
+		assertTrue(Util.arraysEqual("<Root>a &amp; b &amp; c &lt;\ud800&gt; &amp;gt</Root>".getBytes("UTF8"),
+									XMLSignature.toCanonical(doc)));
+	}
+
+	public void testUnsupportedNode() throws Exception
+	{
+		Document doc = XMLUtil.createDocument();
+		Element root = doc.createElement("Root");
+		doc.appendChild(root);
+		root.appendChild(doc.createCDATASection("data"));
+
+		try
+		{
+			XMLSignature.toCanonical(doc);
+			fail("CDATA section was made canonical");
+		}
+		catch (XMLParseException a_e)
+		{
+		}
+	}
+
+	public void testDigestAndStream() throws Exception
+	{
+		Document doc = XMLUtil.toXMLDocument(XML);
+		byte[] canonical = XMLSignature.toCanonical(doc);
+		SHA1Digest sha1 = new SHA1Digest();
+		byte[] digest = new byte[sha1.getDigestSize()];
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XMLCanonicalizer canonicalizer;
+		StringBuffer longText = new StringBuffer();
+
+		sha1.update(canonical, 0, canonical.length);
+		sha1.doFinal(digest, 0);
+		assertTrue(Util.arraysEqual(digest, XMLCanonicalizer.createSHA1Digest(doc, null)));
+
+		new XMLCanonicalizer(out).canonicalize(doc, null, false);
+		assertTrue(Util.arraysEqual(canonical, out.toByteArray()));
+
+		// the buffer must grow and be reusable
+		for (int i = 0; i < 5000; i++)
+		{
+			longText.append("\u00e9x");
+		}
+		doc = XMLUtil.createDocument();
+		doc.appendChild(doc.createElement("Root"));
+		XMLUtil.setValue(doc.getDocumentElement(), longText.toString());
+		canonicalizer = new XMLCanonicalizer();
+		canonicalizer.canonicalize(doc, null, false);
+		assertEquals("<Root>" + longText + "</Root>",
+					 new String(canonicalizer.toByteArray(), "UTF8"));
+		canonicalizer.reset();
+		canonicalizer.canonicalize(XMLUtil.toXMLDocument(XML), null, false);
+		assertTrue(Util.arraysEqual(canonical, canonicalizer.toByteArray()));
+	}
+
+	public void testSAXEqualsDOM() throws Exception
+	{
+		XMLCanonicalizer canonicalizer = new XMLCanonicalizer();
+		Document doc = XMLUtil.toXMLDocument(XML);
+
+		canonicalizer.canonicalize(new InputSource(new StringReader(XML)), false);
+		assertTrue(Util.arraysEqual(XMLSignature.toCanonical(doc), canonicalizer.toByteArray()));
+
+		canonicalizer.reset();
+		canonicalizer.canonicalize(new InputSource(new StringReader(XML)), true);
+		assertTrue(Util.arraysEqual(XMLSignature.toCanonical(doc, true), canonicalizer.toByteArray()));
+	}
+}
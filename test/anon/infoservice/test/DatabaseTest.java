@@ -27,10 +27,15 @@
  */
 package anon.infoservice.test;
 
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
 import java.util.Vector;
 import junitx.framework.PrivateTestCase;
 
 import anon.infoservice.Database;
+import anon.infoservice.DatabaseDelta;
+import anon.infoservice.DatabaseMessage;
 import anon.infoservice.AbstractDatabaseEntry;
 import anon.infoservice.InfoServiceDBEntry;
 
@@ -155,4 +160,203 @@ public class DatabaseTest extends PrivateTestCase
 		m_distributor.setExpectedJobs(expectedJobs);
 		m_distributor.verify();
 	}
+
+	/**
+	 * Tests the deltas of the database.
+	 */
+	public void testGetDelta()
+	{
+		Database database = Database.getInstance(DummyDatabaseEntry.class);
+		DummyDatabaseEntry entryA = createEntry("A", 0);
+		DummyDatabaseEntry entryB = createEntry("B", 0);
+		DummyDatabaseEntry entryC = createEntry("C", 0);
+		DatabaseDelta delta;
+
+		database.update(entryA);
+		database.update(entryB);
+		// unknown epoch -> all entries
+		delta = database.getDelta(0, 0);
+		long epoch = delta.getEpoch();
+		assertTrue(delta.isComplete());
+		assertEquals(2, delta.getSequence());
+		assertEquals(2, delta.getChangedEntries().size());
+
+		// nothing changed
+		delta = database.getDelta(epoch, 2);
+		assertFalse(delta.isComplete());
+		assertEquals(2, delta.getSequence());
+		assertEquals(0, delta.getChangedEntries().size());
+		assertEquals(0, delta.getRemovedEntryIds().size());
+
+		DummyDatabaseEntry entryA1 = createEntry("A", 1);
+		database.update(entryA1);
+		database.remove(entryB);
+		database.update(entryC);
+		delta = database.getDelta(epoch, 2);
+		assertFalse(delta.isComplete());
+		assertEquals(5, delta.getSequence());
+		assertEquals(2, delta.getChangedEntries().size());
+		assertTrue(delta.getChangedEntries().contains(entryA1));
+		assertTrue(delta.getChangedEntries().contains(entryC));
+		assertEquals(1, delta.getRemovedEntryIds().size());
+		assertEquals("B", delta.getRemovedEntryIds().elementAt(0));
+
+		delta = database.getDelta(epoch, 4);
+		assertEquals(1, delta.getChangedEntries().size());
+		assertTrue(delta.getChangedEntries().contains(entryC));
+		assertEquals(0, delta.getRemovedEntryIds().size());
+
+		// a removed entry that is added again is no removal any more
+		database.update(entryB);
+		delta = database.getDelta(epoch, 2);
+		assertEquals(3, delta.getChangedEntries().size());
+		assertEquals(0, delta.getRemovedEntryIds().size());
+
+		// sequence numbers from the future or another epoch are unknown
+		assertTrue(database.getDelta(epoch, 7).isComplete());
+		assertTrue(database.getDelta(epoch + 1, 6).isComplete());
+
+		// the removals of removeAll() are not recorded
+		database.removeAll();
+		delta = database.getDelta(epoch, 6);
+		assertTrue(delta.isComplete());
+		assertEquals(0, delta.getChangedEntries().size());
+		assertFalse(database.getDelta(epoch, delta.getSequence()).isComplete());
+	}
+
+	/**
+	 * Tests if entries are removed after their expire time.
+	 * @throws Exception
+	 */
+	public void testExpiry() throws Exception
+	{
+		Database database = Database.getInstance(DummyDatabaseEntry.class);
+		long currentTime = System.currentTimeMillis();
+		DummyDatabaseEntry entryA = createEntry("A", 0, currentTime + 300);
+		DummyDatabaseEntry entryB = createEntry("B", 0, currentTime + 600);
+		DummyDatabaseEntry entryC = createEntry("C", 0, Long.MAX_VALUE);
+
+		database.update(entryB, false);
+		database.update(entryA, false);
+		database.update(entryC, false);
+		assertEquals(3, database.getTimeoutListSize());
+
+		// an expired entry is not added at all
+		assertFalse(database.update(createEntry("D", 0, currentTime - 1), false));
+		assertNull(database.getEntryById("D"));
+
+		// the renewed entry B expires later than A, although it now has the same expire time
+		DummyDatabaseEntry entryB2 = createEntry("B", 1, currentTime + 300);
+		database.update(entryB2, false);
+
+		Thread.sleep(1000);
+		assertNull(database.getEntryById("A"));
+		assertNull(database.getEntryById("B"));
+		assertNotNull(database.getEntryById("C"));
+		assertEquals(1, database.getTimeoutListSize());
+		assertFalse(database.isEntryIdInTimeoutList("A"));
+		assertTrue(database.isEntryIdInTimeoutList("C"));
+	}
+
+	/**
+	 * Updates random entries of a database with many entries that may expire. The timeout
+	 * list must keep exactly one expiry time per entry.
+	 */
+	public void testManyUpdates()
+	{
+		final int ENTRIES = 1000;
+		final int UPDATES = 10000;
+		Database database = Database.getInstance(DummyDatabaseEntry.class);
+		Random random = new Random(4711);
+		long expireTime = System.currentTimeMillis() + 3600000L;
+		for (int i = 0; i < ENTRIES; i++)
+		{
+			database.update(createEntry(Integer.toString(i), 0, expireTime + random.nextInt(600000)),
+							false);
+		}
+		assertEquals(ENTRIES, database.getTimeoutListSize());
+
+		for (int i = 0; i < UPDATES; i++)
+		{
+			database.update(createEntry(Integer.toString(random.nextInt(ENTRIES)), i + 1,
+										expireTime + random.nextInt(600000)), false);
+		}
+
+		assertEquals(ENTRIES, database.getTimeoutListSize());
+		assertEquals(ENTRIES, database.getNumberOfEntries());
+	}
+
+	/**
+	 * Tests that the observers get their messages in the order of the changes, and that an
+	 * observer gets no messages about changes older than its initial message.
+	 * @throws Exception
+	 */
+	public void testObserverMessages() throws Exception
+	{
+		final Database database = Database.getInstance(DummyDatabaseEntry.class);
+		final Vector messages = new Vector();
+		Observer observer = new Observer()
+		{
+			public void update(Observable a_database, Object a_message)
+			{
+				synchronized (messages)
+				{
+					messages.addElement(a_message);
+					messages.notify();
+				}
+				if (((DatabaseMessage) a_message).getMessageCode() == DatabaseMessage.ENTRY_ADDED)
+				{
+					// observers may change the database
+					database.remove(((AbstractDatabaseEntry)
+									 ((DatabaseMessage) a_message).getMessageData()).getId());
+				}
+			}
+		};
+
+		database.update(createEntry("A", 0), false);
+		database.addObserver(observer);
+		assertEquals(1, messages.size());
+		DatabaseMessage message = (DatabaseMessage) messages.elementAt(0);
+		assertEquals(DatabaseMessage.INITIAL_OBSERVER_MESSAGE, message.getMessageCode());
+		assertEquals(1, ((Vector) message.getMessageData()).size());
+
+		database.update(createEntry("A", 1), false);
+		database.update(createEntry("B", 0), false);
+		synchronized (messages)
+		{
+			long timeout = System.currentTimeMillis() + 5000;
+			while (messages.size() < 4 && System.currentTimeMillis() < timeout)
+			{
+				messages.wait(500);
+			}
+		}
+		assertEquals(4, messages.size());
+		assertEquals(DatabaseMessage.ENTRY_RENEWED,
+					 ((DatabaseMessage) messages.elementAt(1)).getMessageCode());
+		assertEquals(DatabaseMessage.ENTRY_ADDED,
+					 ((DatabaseMessage) messages.elementAt(2)).getMessageCode());
+		assertEquals(DatabaseMessage.ENTRY_REMOVED,
+					 ((DatabaseMessage) messages.elementAt(3)).getMessageCode());
+		assertNull(database.getEntryById("B"));
+		assertEquals(1, database.getEntryList().size());
+
+		database.deleteObserver(observer);
+		database.removeAll();
+		Thread.sleep(200);
+		assertEquals(4, messages.size());
+	}
+
+	private static DummyDatabaseEntry createEntry(String a_id, long a_versionNumber)
+	{
+		return createEntry(a_id, a_versionNumber, Long.MAX_VALUE);
+	}
+
+	private static DummyDatabaseEntry createEntry(String a_id, long a_versionNumber,
+												  long a_expireTime)
+	{
+		DummyDatabaseEntry entry = new DummyDatabaseEntry(a_expireTime);
+		entry.setId(a_id);
+		entry.setVersionNumber(a_versionNumber);
+		return entry;
+	}
 }
@@ -44,7 +44,12 @@ public class DummyDatabaseEntry extends AbstractDatabaseEntry implements IDistri
 
 	public DummyDatabaseEntry()
 	{
-		super(Long.MAX_VALUE);
+		this(Long.MAX_VALUE);
+	}
+
+	public DummyDatabaseEntry(long a_expireTime)
+	{
+		super(a_expireTime);
 		// do some initializations
 		m_id = "";
 		m_versionNumber = 0;
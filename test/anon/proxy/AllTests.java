@@ -16,6 +16,10 @@ public class AllTests
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(HTTPValidityCheckerTest.suite());
 		suite.addTest(HeaderParsingTest.suite());
+		suite.addTestSuite(HTTPProxyCallbackTest.class);
+		suite.addTestSuite(DecompressionProxyCallbackTest.class);
+		suite.addTestSuite(RequestThreadPoolTest.class);
+		suite.addTestSuite(ProxyScalingTest.class);
 		return suite;
 	}
 }
@@ -0,0 +1,143 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the DecompressionProxyCallback with compressed content that is split into chunks
+ * like the downstream data of a proxy request.
+ */
+public class DecompressionProxyCallbackTest extends TestCase
+{
+	private static final int CHUNK_SIZE = 2900;
+	private static final int LEADING_DATA_LENGTH = 10;
+
+	public DecompressionProxyCallbackTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	public void testGZip() throws Exception
+	{
+		byte[] content = createContent(200000);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(content);
+		out.close();
+
+		assertDecompressed(content, compressed.toByteArray(), JonDoFoxHeader.HTTP_ENCODING_GZIP);
+	}
+
+	public void testDeflate() throws Exception
+	{
+		byte[] content = createContent(200000);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		DeflaterOutputStream out = new DeflaterOutputStream(compressed, new Deflater(9));
+		out.write(content);
+		out.close();
+
+		assertDecompressed(content, compressed.toByteArray(), JonDoFoxHeader.HTTP_ENCODING_DEFLATE);
+	}
+
+	public void testUnsupportedEncoding() throws Exception
+	{
+		DecompressionProxyCallback callback = new DecompressionProxyCallback();
+		AnonProxyRequest request = HTTPProxyCallbackTest.createRequest();
+		request.setContentEncodings(new String[]{"compress"});
+		byte[] chunk = createContent(100);
+		ProxyCallbackBuffer buffer = new ProxyCallbackBuffer(chunk, 0, chunk.length);
+
+		assertEquals(ProxyCallback.STATUS_PROCESSABLE,
+					 callback.handleDownstreamChunk(request, buffer));
+		assertSame(chunk, buffer.getChunk());
+		assertEquals(chunk.length, buffer.getPayloadLength());
+		callback.closeRequest(request);
+	}
+
+	private static void assertDecompressed(byte[] a_content, byte[] a_compressed, String a_encoding)
+		throws Exception
+	{
+		DecompressionProxyCallback callback = new DecompressionProxyCallback();
+		AnonProxyRequest request = HTTPProxyCallbackTest.createRequest();
+		request.setContentEncodings(new String[]{a_encoding});
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		int status = ProxyCallback.STATUS_PROCESSABLE;
+
+		for (int offset = 0; offset < a_compressed.length &&
+			 status != ProxyCallback.STATUS_FINISHED; offset += CHUNK_SIZE)
+		{
+			int length = Math.min(CHUNK_SIZE, a_compressed.length - offset);
+			byte[] chunk = new byte[LEADING_DATA_LENGTH + length];
+			for (int i = 0; i < LEADING_DATA_LENGTH; i++)
+			{
+				chunk[i] = (byte) 'e';
+			}
+			System.arraycopy(a_compressed, offset, chunk, LEADING_DATA_LENGTH, length);
+			ProxyCallbackBuffer buffer =
+				new ProxyCallbackBuffer(chunk, LEADING_DATA_LENGTH, chunk.length);
+
+			status = callback.handleDownstreamChunk(request, buffer);
+			assertTrue(buffer.getChunk() != chunk);
+			for (int i = 0; i < LEADING_DATA_LENGTH; i++)
+			{
+				assertEquals((byte) 'e', buffer.getChunk()[i]);
+			}
+			result.write(buffer.getChunk(), LEADING_DATA_LENGTH,
+						 buffer.getPayloadLength() - LEADING_DATA_LENGTH);
+		}
+		callback.closeRequest(request);
+
+		assertEquals(ProxyCallback.STATUS_FINISHED, status);
+		byte[] decompressed = result.toByteArray();
+		assertEquals(a_content.length, decompressed.length);
+		for (int i = 0; i < a_content.length; i++)
+		{
+			assertEquals(a_content[i], decompressed[i]);
+		}
+	}
+
+	private static byte[] createContent(int a_length)
+	{
+		byte[] content = new byte[a_length];
+		long seed = 4711;
+		for (int i = 0; i < a_length; i++)
+		{
+			// well compressible text, so that chunks inflate to more than the initial buffer
+			seed = (seed * 25214903917L + 11) & ((1L << 48) - 1);
+			content[i] = (byte) ('a' + (int) ((seed >>> 40) % 4));
+		}
+		return content;
+	}
+}
@@ -0,0 +1,317 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+/**
+ * Tests the header parsing of the HTTPProxyCallback with recorded browser requests and
+ * server responses, split into chunks at every possible position.
+ */
+public class HTTPProxyCallbackTest extends TestCase
+{
+	private static final String[] REQUESTS = new String[]
+	{
+		"GET http://www.example.com/index.html HTTP/1.1\r\n" +
+		"Host: www.example.com\r\n" +
+		"User-Agent: Mozilla/5.0 (Windows; U; Windows NT 5.1; de; rv:1.9.0.5) Gecko/2008120122 Firefox/3.0.5\r\n" +
+		"Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+		"Accept-Language: de-de,de;q=0.8,en-us;q=0.5,en;q=0.3\r\n" +
+		"Accept-Encoding: gzip,deflate\r\n" +
+		"Accept-Charset: ISO-8859-1,utf-8;q=0.7,*;q=0.7\r\n" +
+		"Keep-Alive: 300\r\n" +
+		"Proxy-Connection: keep-alive\r\n" +
+		"Referer: http://www.example.com/\r\n" +
+		"Cookie: a=1; b=2\r\n" +
+		"Cookie: c=3\r\n\r\n",
+
+		"POST http://www.example.org/form.cgi HTTP/1.1\r\n" +
+		"Host: www.example.org\r\n" +
+		"User-Agent: Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 5.1)\r\n" +
+		"UA-CPU: x86\r\n" +
+		"Content-Type: application/x-www-form-urlencoded\r\n" +
+		"Content-Length: 9\r\n" +
+		"Pragma: no-cache\r\n\r\n" +
+		"a=b&c=d\r\n",
+
+		"CONNECT www.example.net:443 HTTP/1.0\r\n" +
+		"User-Agent: Opera/9.63 (Windows NT 5.1; U; de) Presto/2.1.1\r\n" +
+		"Host: www.example.net:443\r\n\r\n"
+	};
+
+	private static final String[] RESPONSES = new String[]
+	{
+		"HTTP/1.1 200 OK\r\n" +
+		"Date: Mon, 12 Jan 2009 10:00:00 GMT\r\n" +
+		"Server: Apache/2.2.9 (Debian)\r\n" +
+		"Last-Modified: Sun, 11 Jan 2009 09:00:00 GMT\r\n" +
+		"Content-Length: 12\r\n" +
+		"Content-Type: text/html; charset=ISO-8859-1\r\n\r\n" +
+		"<html></html>",
+
+		"HTTP/1.1 304 Not Modified\r\n" +
+		"Date: Mon, 12 Jan 2009 10:00:01 GMT\r\n" +
+		"ETag: \"3e86-410-3596fbbc\"\r\n\r\n"
+	};
+
+	private HTTPProxyCallback m_callback;
+	private AnonProxyRequest m_request;
+
+	public HTTPProxyCallbackTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	protected void setUp() throws IOException
+	{
+		m_callback = new HTTPProxyCallback();
+		m_request = createRequest();
+	}
+
+	protected void tearDown()
+	{
+		m_callback.closeRequest(m_request);
+	}
+
+	public void testSplitRequests() throws Exception
+	{
+		for (int i = 0; i < REQUESTS.length; i++)
+		{
+			byte[] message = REQUESTS[i].getBytes();
+			for (int split = 1; split < message.length; split++)
+			{
+				assertEquals(REQUESTS[i], send(message, split, true));
+			}
+		}
+	}
+
+	public void testRequestAndResponse() throws Exception
+	{
+		final String[] userAgent = new String[1];
+		m_callback.addHTTPConnectionListener(new HttpConnectionListenerAdapter(0)
+		{
+			public void requestHeadersReceived(HTTPConnectionEvent a_event)
+			{
+				userAgent[0] = a_event.getConnectionHeader().getRequestHeader(
+								HTTPProxyCallback.HTTP_USER_AGENT)[0];
+				a_event.getConnectionHeader().replaceRequestHeader(HTTPProxyCallback.HTTP_USER_AGENT, "JonDo");
+				a_event.getConnectionHeader().removeRequestHeader(HTTPProxyCallback.HTTP_IE_UA_CPU);
+			}
+
+			public void responseHeadersReceived(HTTPConnectionEvent a_event)
+			{
+				a_event.getConnectionHeader().removeResponseHeader("Server");
+			}
+		});
+
+		// no response is expected before a request was sent
+		assertEquals(RESPONSES[0], send(RESPONSES[0].getBytes(), 3, false));
+
+		String request = send(REQUESTS[1].getBytes(), 50, true);
+		assertEquals("Mozilla/4.0 (compatible; MSIE 7.0; Windows NT 5.1)", userAgent[0]);
+		assertTrue(request.startsWith("POST http://www.example.org/form.cgi HTTP/1.1\r\n" +
+									  "Host: www.example.org\r\nUser-Agent: JonDo\r\nContent-Type:"));
+		assertTrue(request.endsWith("\r\nPragma: no-cache\r\n\r\na=b&c=d\r\n"));
+		assertEquals(9, m_callback.getUpStreamContentBytes(m_request));
+
+		assertEquals("HTTP/1.1 200 OK\r\n" +
+					 "Date: Mon, 12 Jan 2009 10:00:00 GMT\r\n" +
+					 "Last-Modified: Sun, 11 Jan 2009 09:00:00 GMT\r\n" +
+					 "Content-Length: 12\r\n" +
+					 "Content-Type: text/html; charset=ISO-8859-1\r\n\r\n" +
+					 "<html></html>", send(RESPONSES[0].getBytes(), 20, false));
+
+		// the response was received, so the next one is passed without parsing
+		assertEquals(RESPONSES[1], send(RESPONSES[1].getBytes(), 20, false));
+
+		m_callback.closeRequest(m_request);
+		assertEquals(0, m_callback.getUpStreamContentBytes(m_request));
+	}
+
+	public void testInvalidLineTermination() throws Exception
+	{
+		byte[] chunk = "GET / HTTP/1.1\r\nHost: x\n\r\n".getBytes();
+		try
+		{
+			m_callback.handleUpstreamChunk(m_request, new ProxyCallbackBuffer(chunk, 0, chunk.length));
+			fail("Invalid header was accepted");
+		}
+		catch (HTTPHeaderParseException a_e)
+		{
+		}
+		// the next request is parsed again
+		assertEquals(REQUESTS[0], send(REQUESTS[0].getBytes(), 10, true));
+	}
+
+	/**
+	 * Parses the recorded headers in four threads with a request each. Every thread must get
+	 * back its own messages, although the rewritten chunks are taken from a shared pool.
+	 */
+	public void testConcurrentRequests() throws Exception
+	{
+		final int messages = 500;
+		Thread[] threads = new Thread[4];
+		final Exception[] exception = new Exception[1];
+		final AssertionFailedError[] failure = new AssertionFailedError[1];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						AnonProxyRequest request = createRequest();
+						parseMessages(m_callback, request, messages);
+						m_callback.closeRequest(request);
+					}
+					catch (AssertionFailedError a_e)
+					{
+						failure[0] = a_e;
+					}
+					catch (Exception a_e)
+					{
+						exception[0] = a_e;
+					}
+				}
+			};
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+		}
+		if (failure[0] != null)
+		{
+			throw failure[0];
+		}
+		if (exception[0] != null)
+		{
+			throw exception[0];
+		}
+	}
+
+	private static void parseMessages(HTTPProxyCallback a_callback, AnonProxyRequest a_request,
+									  int a_count) throws Exception
+	{
+		byte[][] requests = new byte[REQUESTS.length][];
+		byte[][] responses = new byte[RESPONSES.length][];
+		for (int i = 0; i < REQUESTS.length; i++)
+		{
+			requests[i] = REQUESTS[i].getBytes();
+		}
+		for (int i = 0; i < RESPONSES.length; i++)
+		{
+			responses[i] = RESPONSES[i].getBytes();
+		}
+		for (int i = 0; i < a_count; i++)
+		{
+			byte[] request = requests[i % requests.length];
+			byte[] response = responses[i % responses.length];
+			ProxyCallbackBuffer buffer = new ProxyCallbackBuffer(request, 0, request.length);
+			assertEquals(ProxyCallback.STATUS_PROCESSABLE, a_callback.handleUpstreamChunk(a_request, buffer));
+			assertEquals(REQUESTS[i % requests.length],
+						 new String(buffer.getChunk(), 0, buffer.getPayloadLength()));
+			buffer.releaseChunk();
+			buffer = new ProxyCallbackBuffer(response, 0, response.length);
+			assertEquals(ProxyCallback.STATUS_PROCESSABLE, a_callback.handleDownstreamChunk(a_request, buffer));
+			assertEquals(RESPONSES[i % responses.length],
+						 new String(buffer.getChunk(), 0, buffer.getPayloadLength()));
+			buffer.releaseChunk();
+		}
+	}
+
+	/**
+	 * Sends a message in chunks and returns what the callback passes on.
+	 */
+	private String send(byte[] a_message, int a_chunkSize, boolean a_bUpstream) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ProxyCallbackBuffer buffer;
+		int status;
+
+		for (int offset = 0; offset < a_message.length; offset += a_chunkSize)
+		{
+			int length = Math.min(a_chunkSize, a_message.length - offset);
+			byte[] chunk = new byte[length];
+			System.arraycopy(a_message, offset, chunk, 0, length);
+			buffer = new ProxyCallbackBuffer(chunk, 0, length);
+			if (a_bUpstream)
+			{
+				status = m_callback.handleUpstreamChunk(m_request, buffer);
+			}
+			else
+			{
+				status = m_callback.handleDownstreamChunk(m_request, buffer);
+			}
+			if (status != ProxyCallback.STATUS_DELAY)
+			{
+				out.write(buffer.getChunk(), 0, buffer.getPayloadLength());
+				buffer.releaseChunk();
+			}
+		}
+		return new String(out.toByteArray());
+	}
+
+	/**
+	 * Creates a request that is only used as key for the callback data; its thread ends at once.
+	 */
+	static AnonProxyRequest createRequest() throws IOException
+	{
+		return new AnonProxyRequest(null, new Socket()
+		{
+			public InputStream getInputStream()
+			{
+				return new InputStream()
+				{
+					public int read() throws IOException
+					{
+						throw new InterruptedIOException();
+					}
+				};
+			}
+
+			public OutputStream getOutputStream()
+			{
+				return new ByteArrayOutputStream();
+			}
+		}, null, null);
+	}
+}
@@ -33,7 +33,7 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 /**
- * JUnit-Testcase for the method validityCheck of the HTTPProxyCallback
+ * JUnit-Testcase for the line termination check of the HTTPHeaderParser
  */
 public class HTTPValidityCheckerTest extends TestCase 
 {
@@ -108,14 +108,18 @@ public class HTTPValidityCheckerTest extends TestCase
 	
 	public void checkValidityTest(ValidityAssertion assi)
 	{
+		HTTPHeaderParser parser = new HTTPHeaderParser();
+		byte[] headerData = assi.str.getBytes();
+		parser.start();
 		if(assi.valid)
 		{
-			assertTrue(HTTPProxyCallback.checkValidity(assi.str));
+			assertTrue(parser.parse(headerData, 0, headerData.length) != HTTPHeaderParser.HEADER_INVALID);
 		}
 		else
 		{
-			assertFalse(HTTPProxyCallback.checkValidity(assi.str));
+			assertEquals(HTTPHeaderParser.HEADER_INVALID, parser.parse(headerData, 0, headerData.length));
 		}
+		parser.reset();
 	}
 	
 	public static Test suite()
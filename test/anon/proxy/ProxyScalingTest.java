@@ -0,0 +1,408 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import anon.AnonChannel;
+import anon.AnonServerDescription;
+import anon.AnonService;
+import anon.AnonServiceEventListener;
+import anon.ErrorCodes;
+import anon.IServiceContainer;
+import anon.infoservice.IMutableProxyInterface;
+import anon.terms.TermsAndConditionConfirmation;
+import anon.transport.connection.IStreamConnection;
+import anon.util.IThreadFactory;
+import anon.util.ThreadFactory;
+import junit.framework.TestCase;
+
+/**
+ * Holds many proxied connections open at the same time. The browser connections and the
+ * cascade are in-memory stand-ins; the cascade echoes everything that is sent upstream.
+ * If the JRE supports virtual threads, 1000 connections are held, otherwise 200, as every
+ * connection needs two platform threads. The number of connections may be raised with the
+ * system property {@link #PROPERTY_CONNECTIONS} to test how far the proxy scales.
+ */
+public class ProxyScalingTest extends TestCase
+{
+	public static final String PROPERTY_CONNECTIONS = "anon.proxy.test.connections";
+
+	private static final int CONNECTIONS_VIRTUAL_THREADS = 1000;
+	private static final int CONNECTIONS_PLATFORM_THREADS = 200;
+	private static final long TIMEOUT = 120000;
+	private static final byte[] REQUEST =
+		("GET http://www.example.com/ HTTP/1.1\r\nHost: www.example.com\r\n\r\n").getBytes();
+
+	private IThreadFactory m_oldThreadFactory;
+	private ServerSocket m_listener;
+
+	public ProxyScalingTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	protected void setUp() throws Exception
+	{
+		m_oldThreadFactory = ThreadFactory.getInstance();
+		ThreadFactory.setInstance(new ThreadFactory(ThreadFactory.isVirtualThreadSupported()));
+		m_listener = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+	}
+
+	protected void tearDown() throws Exception
+	{
+		ThreadFactory.setInstance(m_oldThreadFactory);
+		m_listener.close();
+	}
+
+	public void testConcurrentConnections() throws Exception
+	{
+		int connections = Integer.getInteger(PROPERTY_CONNECTIONS,
+			ThreadFactory.isVirtualThreadSupported() ?
+			CONNECTIONS_VIRTUAL_THREADS : CONNECTIONS_PLATFORM_THREADS).intValue();
+		LoopbackService cascade = new LoopbackService();
+		AnonProxy proxy = createProxy(cascade);
+		Pipe[] upstream = new Pipe[connections];
+		Pipe[] downstream = new Pipe[connections];
+		byte[] response = new byte[REQUEST.length];
+
+		for (int i = 0; i < connections; i++)
+		{
+			upstream[i] = new Pipe();
+			downstream[i] = new Pipe();
+			new AnonProxyRequest(proxy, new BrowserSocket(upstream[i], downstream[i]),
+								 new Object(), null);
+			upstream[i].write(REQUEST, 0, REQUEST.length);
+		}
+		for (int i = 0; i < connections; i++)
+		{
+			int length = 0;
+			while (length < response.length)
+			{
+				int read = downstream[i].read(response, length, response.length - length, TIMEOUT);
+				assertTrue("Connection " + i + " was closed.", read > 0);
+				length += read;
+			}
+			for (int j = 0; j < response.length; j++)
+			{
+				assertEquals(REQUEST[j], response[j]);
+			}
+		}
+		assertEquals(connections, cascade.getOpenChannels());
+
+		for (int i = 0; i < connections; i++)
+		{
+			upstream[i].close();
+		}
+		cascade.waitForClosedChannels(TIMEOUT);
+		assertEquals(0, cascade.getOpenChannels());
+		for (int i = 0; i < connections; i++)
+		{
+			assertEquals(-1, downstream[i].read(response, 0, response.length, TIMEOUT));
+		}
+	}
+
+	/**
+	 * Creates a proxy that is not connected to a cascade and replaces its AN.ON service by the
+	 * given stand-in. The AnonProxy has no public way to set the service.
+	 */
+	private AnonProxy createProxy(AnonService a_cascade) throws Exception
+	{
+		AnonProxy proxy = new AnonProxy(m_listener, (IStreamConnection) null, -1, null);
+		Field service = AnonProxy.class.getDeclaredField("m_Anon");
+		service.setAccessible(true);
+		service.set(proxy, a_cascade);
+		return proxy;
+	}
+
+	/**
+	 * An in-memory byte stream with a small buffer; the writer blocks if it is full.
+	 */
+	private static final class Pipe
+	{
+		private final byte[] m_buffer = new byte[256];
+		private int m_readPos = 0;
+		private int m_count = 0;
+		private boolean m_bClosed = false;
+
+		private synchronized void write(byte[] a_data, int a_offset, int a_length)
+			throws IOException
+		{
+			while (a_length > 0)
+			{
+				if (m_bClosed)
+				{
+					throw new IOException("Pipe closed");
+				}
+				if (m_count == m_buffer.length)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException a_e)
+					{
+						throw new InterruptedIOException();
+					}
+					continue;
+				}
+				int writePos = (m_readPos + m_count) % m_buffer.length;
+				int length = Math.min(a_length, Math.min(m_buffer.length - m_count,
+					m_buffer.length - writePos));
+				System.arraycopy(a_data, a_offset, m_buffer, writePos, length);
+				m_count += length;
+				a_offset += length;
+				a_length -= length;
+				notifyAll();
+			}
+		}
+
+		private synchronized int read(byte[] a_data, int a_offset, int a_length, long a_timeout)
+			throws IOException
+		{
+			long timeout = System.currentTimeMillis() + a_timeout;
+			while (m_count == 0)
+			{
+				if (m_bClosed)
+				{
+					return -1;
+				}
+				long remainder = timeout - System.currentTimeMillis();
+				if (remainder <= 0)
+				{
+					throw new InterruptedIOException("Timeout while reading from pipe");
+				}
+				try
+				{
+					wait(remainder);
+				}
+				catch (InterruptedException a_e)
+				{
+					throw new InterruptedIOException();
+				}
+			}
+			int length = Math.min(a_length, Math.min(m_count, m_buffer.length - m_readPos));
+			System.arraycopy(m_buffer, m_readPos, a_data, a_offset, length);
+			m_readPos = (m_readPos + length) % m_buffer.length;
+			m_count -= length;
+			notifyAll();
+			return length;
+		}
+
+		private synchronized void close()
+		{
+			m_bClosed = true;
+			notifyAll();
+		}
+
+		private InputStream getInputStream()
+		{
+			return new InputStream()
+			{
+				public int read() throws IOException
+				{
+					byte[] data = new byte[1];
+					return (read(data, 0, 1) < 0) ? -1 : (data[0] & 0xFF);
+				}
+
+				public int read(byte[] a_data, int a_offset, int a_length) throws IOException
+				{
+					return Pipe.this.read(a_data, a_offset, a_length, Long.MAX_VALUE / 2);
+				}
+
+				public void close()
+				{
+					Pipe.this.close();
+				}
+			};
+		}
+
+		private OutputStream getOutputStream()
+		{
+			return new OutputStream()
+			{
+				public void write(int a_byte) throws IOException
+				{
+					write(new byte[]{(byte) a_byte}, 0, 1);
+				}
+
+				public void write(byte[] a_data, int a_offset, int a_length) throws IOException
+				{
+					Pipe.this.write(a_data, a_offset, a_length);
+				}
+
+				public void close()
+				{
+					Pipe.this.close();
+				}
+			};
+		}
+	}
+
+	private static final class BrowserSocket extends Socket
+	{
+		private final Pipe m_upstream;
+		private final Pipe m_downstream;
+
+		private BrowserSocket(Pipe a_upstream, Pipe a_downstream)
+		{
+			m_upstream = a_upstream;
+			m_downstream = a_downstream;
+		}
+
+		public InputStream getInputStream()
+		{
+			return m_upstream.getInputStream();
+		}
+
+		public OutputStream getOutputStream()
+		{
+			return m_downstream.getOutputStream();
+		}
+
+		public synchronized void close()
+		{
+			m_upstream.close();
+			m_downstream.close();
+		}
+	}
+
+	/**
+	 * A stand-in for a cascade whose channels send back all data.
+	 */
+	private static final class LoopbackService implements AnonService
+	{
+		private int m_openChannels = 0;
+
+		public AnonChannel createChannel(int a_type) throws ConnectException
+		{
+			synchronized (this)
+			{
+				m_openChannels++;
+			}
+			final Pipe pipe = new Pipe();
+			return new AnonChannel()
+			{
+				private boolean m_bClosed = false;
+
+				public InputStream getInputStream()
+				{
+					return pipe.getInputStream();
+				}
+
+				public OutputStream getOutputStream()
+				{
+					return pipe.getOutputStream();
+				}
+
+				public int getOutputBlockSize()
+				{
+					return 1000;
+				}
+
+				public void close()
+				{
+					synchronized (LoopbackService.this)
+					{
+						if (m_bClosed)
+						{
+							return;
+						}
+						m_bClosed = true;
+						m_openChannels--;
+						LoopbackService.this.notifyAll();
+					}
+					pipe.close();
+				}
+
+				public boolean isClosed()
+				{
+					synchronized (LoopbackService.this)
+					{
+						return m_bClosed;
+					}
+				}
+			};
+		}
+
+		private synchronized int getOpenChannels()
+		{
+			return m_openChannels;
+		}
+
+		private synchronized void waitForClosedChannels(long a_timeout) throws InterruptedException
+		{
+			long timeout = System.currentTimeMillis() + a_timeout;
+			while (m_openChannels > 0 && System.currentTimeMillis() < timeout)
+			{
+				wait(1000);
+			}
+		}
+
+		public int initialize(AnonServerDescription a_anonServer, IServiceContainer a_serviceContainer,
+							  TermsAndConditionConfirmation a_termsConfirmation)
+		{
+			return ErrorCodes.E_SUCCESS;
+		}
+
+		public int setProxy(IMutableProxyInterface a_proxy)
+		{
+			return ErrorCodes.E_SUCCESS;
+		}
+
+		public void shutdown(boolean a_bResetTransferredBytes)
+		{
+		}
+
+		public boolean isConnected()
+		{
+			return true;
+		}
+
+		public void addEventListener(AnonServiceEventListener a_listener)
+		{
+		}
+
+		public void removeEventListener(AnonServiceEventListener a_listener)
+		{
+		}
+
+		public void removeEventListeners()
+		{
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+Copyright (c) 2008 The JAP-Team, JonDos GmbH
+
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, 
+are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    * Redistributions in binary form must reproduce the above copyright notice,
+       this list of conditions and the following disclaimer in the documentation and/or
+       other materials provided with the distribution.
+    * Neither the name of the University of Technology Dresden, Germany, nor the name of
+       the JonDos GmbH, nor the names of their contributors may be used to endorse or
+       promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.proxy;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the RequestThreadPool reuses its threads and lets idle threads terminate.
+ */
+public class RequestThreadPoolTest extends TestCase
+{
+	public RequestThreadPoolTest(String a_name)
+	{
+		super(a_name);
+	}
+
+	public void testThreadsAreReused() throws Exception
+	{
+		RequestThreadPool pool = new RequestThreadPool("idle", 4, 10000);
+		Vector threads = new Vector();
+		for (int i = 0; i < 100; i++)
+		{
+			RecordingTask task = new RecordingTask(null);
+			pool.execute(task, "task " + i);
+			task.waitUntilFinished();
+			waitForIdleThreads(pool, 1);
+			if (!threads.contains(task.m_thread))
+			{
+				threads.addElement(task.m_thread);
+			}
+			assertEquals("task " + i, task.m_threadName);
+		}
+		assertEquals(1, threads.size());
+		assertEquals(1, pool.getThreadCount());
+	}
+
+	public void testIdleThreadsAreLimited() throws Exception
+	{
+		RequestThreadPool pool = new RequestThreadPool("idle", 2, 10000);
+		Object lock = new Object();
+		RecordingTask[] tasks = new RecordingTask[5];
+		synchronized (lock)
+		{
+			for (int i = 0; i < tasks.length; i++)
+			{
+				tasks[i] = new RecordingTask(lock);
+				pool.execute(tasks[i], "task " + i);
+			}
+			assertEquals(tasks.length, pool.getThreadCount());
+		}
+		for (int i = 0; i < tasks.length; i++)
+		{
+			tasks[i].waitUntilFinished();
+		}
+		waitForIdleThreads(pool, 2);
+		for (int i = 0; i < 100 && pool.getThreadCount() > 2; i++)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(2, pool.getThreadCount());
+	}
+
+	public void testIdleThreadsTerminate() throws Exception
+	{
+		RequestThreadPool pool = new RequestThreadPool("idle", 2, 100);
+		RecordingTask task = new RecordingTask(null);
+		pool.execute(task, "task");
+		task.waitUntilFinished();
+		task.m_thread.join(5000);
+		assertFalse(task.m_thread.isAlive());
+		assertEquals(0, pool.getThreadCount());
+		assertEquals(0, pool.getIdleThreadCount());
+	}
+
+	public void testInterruptionIsCleared() throws Exception
+	{
+		RequestThreadPool pool = new RequestThreadPool("idle", 2, 10000);
+		RecordingTask task = new RecordingTask(null)
+		{
+			public void run()
+			{
+				Thread.currentThread().interrupt();
+				super.run();
+			}
+		};
+		pool.execute(task, "task");
+		task.waitUntilFinished();
+		waitForIdleThreads(pool, 1);
+
+		final boolean[] interrupted = new boolean[]{true};
+		RecordingTask next = new RecordingTask(null)
+		{
+			public void run()
+			{
+				interrupted[0] = Thread.currentThread().isInterrupted();
+				super.run();
+			}
+		};
+		pool.execute(next, "next");
+		next.waitUntilFinished();
+		assertSame(task.m_thread, next.m_thread);
+		assertFalse(interrupted[0]);
+	}
+
+	private static void waitForIdleThreads(RequestThreadPool a_pool, int a_count) throws Exception
+	{
+		for (int i = 0; i < 500 && a_pool.getIdleThreadCount() < a_count; i++)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(a_count, a_pool.getIdleThreadCount());
+	}
+
+	private static class RecordingTask implements Runnable
+	{
+		private final Object m_lock;
+		private Thread m_thread;
+		private String m_threadName;
+		private boolean m_bFinished;
+
+		private RecordingTask(Object a_lock)
+		{
+			m_lock = a_lock;
+		}
+
+		public void run()
+		{
+			if (m_lock != null)
+			{
+				// wait until all tasks have been started
+				synchronized (m_lock)
+				{
+				}
+			}
+			synchronized (this)
+			{
+				m_thread = Thread.currentThread();
+				m_threadName = m_thread.getName();
+				m_bFinished = true;
+				notifyAll();
+			}
+		}
+
+		private synchronized void waitUntilFinished() throws InterruptedException
+		{
+			long timeout = System.currentTimeMillis() + 5000;
+			while (!m_bFinished && System.currentTimeMillis() < timeout)
+			{
+				wait(100);
+			}
+			assertTrue(m_bFinished);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package anon.shared;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+
+public class AllTests
+{
+	public static void main(String[] a_Args)
+	{
+		junit.swingui.TestRunner.run(AllTests.class);
+	}
+	
+	public static Test suite()
+	{
+		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTestSuite(IOQueueTest.class);
+		return suite;
+	}
+}
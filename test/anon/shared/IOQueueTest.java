@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.shared;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the IOQueue and measures its throughput with one writing and one reading thread.
+ */
+public class IOQueueTest extends TestCase
+{
+	public IOQueueTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testReadWrite() throws Exception
+	{
+		IOQueue queue = new IOQueue(10);
+		byte[] data = new byte[10];
+
+		assertEquals(10, queue.getCapacity());
+		queue.write(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, 7);
+		assertEquals(7, queue.available());
+		assertEquals(1, queue.read());
+		assertEquals(5, queue.read(data, 0, 5));
+		assertEquals(6, data[4]);
+		// wraps around the end of the buffer
+		queue.write(new byte[]{8, 9, 10, 11, 12, 13}, 0, 6);
+		assertEquals(7, queue.available());
+		assertEquals(7, queue.read(data, 0, data.length));
+		for (int i = 0; i < 7; i++)
+		{
+			assertEquals(7 + i, data[i]);
+		}
+		queue.closeWrite();
+		assertEquals(-1, queue.read());
+		assertEquals(-1, queue.read(data, 0, data.length));
+		try
+		{
+			queue.write(data, 0, 1);
+			fail("Wrote to closed queue.");
+		}
+		catch (IOException a_e)
+		{
+		}
+	}
+
+	public void testDataIsReadAfterCloseWrite() throws Exception
+	{
+		IOQueue queue = new IOQueue();
+		queue.write(new byte[]{42}, 0, 1);
+		queue.closeWrite();
+		assertEquals(42, queue.read());
+		assertEquals(-1, queue.read());
+	}
+
+	public void testCloseReadWakesUpWriter() throws Exception
+	{
+		final IOQueue queue = new IOQueue(4);
+		final Exception[] exception = new Exception[1];
+		Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					queue.write(new byte[8], 0, 8);
+				}
+				catch (IOException a_e)
+				{
+					exception[0] = a_e;
+				}
+			}
+		});
+		writer.start();
+		while (queue.available() < 4)
+		{
+			Thread.sleep(10);
+		}
+		queue.closeRead();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertNotNull(exception[0]);
+		try
+		{
+			queue.read();
+			fail("Read from closed queue.");
+		}
+		catch (IOException a_e)
+		{
+		}
+	}
+
+	public void testAccessInPlace() throws Exception
+	{
+		IOQueue queue = new IOQueue(8);
+		byte[] buffer = queue.getBuffer();
+
+		queue.write(new byte[6], 0, 6);
+		assertEquals(6, queue.read(new byte[6], 0, 6));
+		// only the bytes up to the end of the buffer are returned
+		assertEquals(2, queue.awaitWritable());
+		buffer[queue.getWriteOffset()] = 1;
+		buffer[queue.getWriteOffset() + 1] = 2;
+		queue.commitWrite(2);
+		assertEquals(6, queue.awaitWritable());
+		assertEquals(0, queue.getWriteOffset());
+		buffer[0] = 3;
+		queue.commitWrite(1);
+
+		assertEquals(3, queue.available());
+		assertEquals(2, queue.awaitReadable());
+		assertEquals(1, buffer[queue.getReadOffset()]);
+		queue.commitRead(2);
+		assertEquals(1, queue.awaitReadable());
+		assertEquals(3, buffer[queue.getReadOffset()]);
+		try
+		{
+			queue.commitRead(2);
+			fail("Committed more bytes than available.");
+		}
+		catch (IllegalArgumentException a_e)
+		{
+		}
+		queue.commitRead(1);
+		assertEquals(0, queue.available());
+	}
+
+	public void testTransferBetweenThreads() throws Exception
+	{
+		final IOQueue queue = new IOQueue(1000);
+		final int total = 1 << 20;
+		Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				byte[] data = new byte[3000];
+				int written = 0;
+				int length = 1;
+				try
+				{
+					while (written < total)
+					{
+						length = Math.min(total - written, (length * 7 + 3) % data.length + 1);
+						for (int i = 0; i < length; i++)
+						{
+							data[i] = (byte) (written + i);
+						}
+						queue.write(data, 0, length);
+						written += length;
+					}
+				}
+				catch (IOException a_e)
+				{
+				}
+				queue.closeWrite();
+			}
+		});
+		writer.start();
+		byte[] data = new byte[777];
+		int read = 0;
+		int length;
+		while ((length = queue.read(data, 0, (read % data.length) + 1)) >= 0)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				assertEquals((byte) (read + i), data[i]);
+			}
+			read += length;
+		}
+		writer.join();
+		assertEquals(total, read);
+	}
+
+	/**
+	 * Transfers single bytes, blocks smaller than the queue and blocks bigger than the queue.
+	 */
+	public void testTransferSizes() throws Exception
+	{
+		transfer(1, 64 << 10);
+		transfer(1024, 1 << 20);
+		transfer(65536, 4 << 20);
+	}
+
+	/**
+	 * Transfers the given number of bytes from a writing to a reading thread.
+	 * @param a_transferSize the number of bytes per write and read call; single bytes are
+	 * read with read()
+	 * @param a_totalBytes the number of bytes to transfer
+	 */
+	private static void transfer(final int a_transferSize, final int a_totalBytes)
+		throws Exception
+	{
+		final IOQueue queue = new IOQueue();
+		final Exception[] exception = new Exception[1];
+		Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				byte[] data = new byte[a_transferSize];
+				for (int i = 0; i < data.length; i++)
+				{
+					data[i] = (byte) i;
+				}
+				try
+				{
+					for (int written = 0; written < a_totalBytes; written += a_transferSize)
+					{
+						queue.write(data, 0, a_transferSize);
+					}
+				}
+				catch (IOException a_e)
+				{
+					exception[0] = a_e;
+				}
+				queue.closeWrite();
+			}
+		});
+		byte[] data = new byte[a_transferSize];
+		long read = 0;
+		writer.start();
+		if (a_transferSize == 1)
+		{
+			int value;
+			while ((value = queue.read()) >= 0)
+			{
+				assertEquals(0, value);
+				read++;
+			}
+		}
+		else
+		{
+			int length;
+			while ((length = queue.read(data, 0, data.length)) >= 0)
+			{
+				for (int i = 0; i < length; i++)
+				{
+					assertEquals((byte) ((read + i) % a_transferSize), data[i]);
+				}
+				read += length;
+			}
+		}
+		writer.join();
+		if (exception[0] != null)
+		{
+			throw exception[0];
+		}
+		assertEquals(a_totalBytes, read);
+	}
+}
@@ -55,6 +55,9 @@ public class AllTests
 		suite.addTest(anon.crypto.test.AllTests.suite());
 		suite.addTest(anon.proxy.AllTests.suite());
 		suite.addTest(anon.pay.AllTests.suite());
+		suite.addTest(anon.client.AllTests.suite());
+		suite.addTest(anon.shared.AllTests.suite());
+		suite.addTest(anon.tor.AllTests.suite());
 		return suite;
 	}
 
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import anon.tor.cells.Cell;
+import anon.tor.ordescription.ORAcl;
+import anon.tor.ordescription.ORDescriptor;
+import anon.tor.ordescription.ORList;
+
+/**
+ * Tests the circuit pool of Tor against stand-in onion routers. The stand-in first onion router
+ * connections do not speak the Tor protocol but need HANDSHAKE_TIME milliseconds to build a
+ * circuit, so it can be checked without a network whether circuits are built in parallel and
+ * whether warm circuits save the handshake.
+ */
+public class CircuitPoolTest extends TestCase
+{
+	private static final long HANDSHAKE_TIME = 300;
+	private static final int DESTINATIONS = 4;
+
+	private Tor m_tor;
+	private StandInConnectionFactory m_factory;
+
+	public CircuitPoolTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void tearDown()
+	{
+		if (m_tor != null)
+		{
+			m_tor.shutdown(true);
+		}
+	}
+
+	/**
+	 * Circuits for different destinations are built at the same time.
+	 */
+	public void testParallelBuilds() throws Exception
+	{
+		/* every destination has its own exit nodes, so no circuit can be shared */
+		String[] exitPolicies = new String[2 * DESTINATIONS];
+		for (int i = 0; i < exitPolicies.length; i++)
+		{
+			exitPolicies[i] = "accept " + getDestination(i % DESTINATIONS) + ":80";
+		}
+		startTor(createORList(exitPolicies), false, 0, Tor.DEFAULT_MAX_CIRCUIT_AGE);
+
+		final Circuit[] circuits = new Circuit[DESTINATIONS];
+		Thread[] requests = new Thread[DESTINATIONS];
+		long startTime = System.currentTimeMillis();
+		for (int i = 0; i < DESTINATIONS; i++)
+		{
+			final int destination = i;
+			requests[i] = new Thread()
+			{
+				public void run()
+				{
+					circuits[destination] =
+						m_tor.getCircuitForDestination(getDestination(destination), 80, null);
+				}
+			};
+			requests[i].start();
+		}
+		for (int i = 0; i < DESTINATIONS; i++)
+		{
+			requests[i].join();
+		}
+		long duration = System.currentTimeMillis() - startTime;
+
+		for (int i = 0; i < DESTINATIONS; i++)
+		{
+			assertNotNull(circuits[i]);
+			assertTrue(circuits[i].isAllowed(getDestination(i), 80));
+			for (int j = 0; j < i; j++)
+			{
+				assertNotSame(circuits[j], circuits[i]);
+			}
+		}
+		assertTrue(m_factory.getMaxParallelHandshakes() > 1);
+		assertTrue("Circuits were built one after another: " + duration + " ms",
+				   duration < DESTINATIONS * HANDSHAKE_TIME);
+	}
+
+	/**
+	 * A warm circuit is available without waiting for a handshake, and it is replaced in the
+	 * background as soon as it has been used.
+	 */
+	public void testWarmCircuitIsUsedFirst() throws Exception
+	{
+		String[] exitPolicies = new String[] {"accept *:*", "accept *:*", "accept *:*"};
+
+		startTor(createORList(exitPolicies), false, 0, Tor.DEFAULT_MAX_CIRCUIT_AGE);
+		long startTime = System.currentTimeMillis();
+		assertNotNull(m_tor.getCircuitForDestination("10.1.2.3", 80, null));
+		long coldTime = System.currentTimeMillis() - startTime;
+		m_tor.shutdown(true);
+
+		/* one warm circuit for web traffic and one for anything else */
+		startTor(createORList(exitPolicies), true, 1, Tor.DEFAULT_MAX_CIRCUIT_AGE);
+		waitForCircuits(2);
+		startTime = System.currentTimeMillis();
+		Circuit circuit = m_tor.getCircuitForDestination("10.1.2.3", 80, null);
+		long warmTime = System.currentTimeMillis() - startTime;
+		assertNotNull(circuit);
+		assertSame(circuit, m_tor.getCircuitForDestination("10.1.2.3", 80, null));
+		waitForCircuits(3);
+
+		assertTrue(coldTime >= HANDSHAKE_TIME);
+		assertTrue("No warm circuit was used: " + warmTime + " ms", warmTime < HANDSHAKE_TIME / 2);
+	}
+
+	/**
+	 * Old circuits are shut down and replaced by new ones.
+	 */
+	public void testRetireByAge() throws Exception
+	{
+		startTor(createORList(new String[] {"accept *:*", "accept *:*"}), false, 0, 200);
+		Circuit circuit = m_tor.getCircuitForDestination("10.1.2.3", 80, null);
+		assertNotNull(circuit);
+		assertSame(circuit, m_tor.getCircuitForDestination("10.1.2.3", 80, null));
+
+		Thread.sleep(400);
+		Circuit newCircuit = m_tor.getCircuitForDestination("10.1.2.3", 80, null);
+		assertNotNull(newCircuit);
+		assertNotSame(circuit, newCircuit);
+		assertTrue(circuit.isShutdown());
+		assertFalse(newCircuit.isShutdown());
+	}
+
+	private static String getDestination(int a_index)
+	{
+		return "10.0.0." + (a_index + 1);
+	}
+
+	private void startTor(ORList a_orList, boolean a_bStartCircuits, int a_warmCircuitsPerClass,
+						  long a_maxCircuitAge)
+	{
+		m_factory = new StandInConnectionFactory();
+		m_tor = new Tor(a_orList, m_factory);
+		TorAnonServerDescription description = new TorAnonServerDescription(false, a_bStartCircuits);
+		description.setMaxRouteLen(3);
+		description.setWarmCircuitsPerClass(a_warmCircuitsPerClass);
+		description.setMaxCircuitAge(a_maxCircuitAge);
+		m_tor.initialize(description, null, null);
+	}
+
+	private void waitForCircuits(int a_count) throws InterruptedException
+	{
+		for (int i = 0; i < 100 && m_factory.getNrOfCircuits() < a_count; i++)
+		{
+			Thread.sleep(50);
+		}
+		assertEquals(a_count, m_factory.getNrOfCircuits());
+		/* let the builder add the last circuit to the pool */
+		Thread.sleep(50);
+	}
+
+	/**
+	 * Creates a list with an exit node for every exit policy and four middle nodes.
+	 */
+	private static ORList createORList(String[] a_exitPolicies) throws Exception
+	{
+		ORList list = new ORList(null);
+		for (int i = 0; i < a_exitPolicies.length; i++)
+		{
+			ORDescriptor ord = new ORDescriptor("127.0.0.1", "exit" + i, 9001 + i, "Tor 0.1.0.17");
+			ORAcl acl = new ORAcl();
+			acl.add(a_exitPolicies[i]);
+			acl.add("reject *:*");
+			ord.setAcl(acl);
+			ord.setExitNode(true);
+			list.add(ord);
+		}
+		for (int i = 0; i < 4; i++)
+		{
+			list.add(new ORDescriptor("127.0.0.1", "middle" + i, 9101 + i, "Tor 0.1.0.17"));
+		}
+		return list;
+	}
+
+	/**
+	 * Creates stand-in connections and counts the circuits they build.
+	 */
+	private static class StandInConnectionFactory extends FirstOnionRouterConnectionFactory
+	{
+		private Vector m_circuits = new Vector();
+		private int m_runningHandshakes = 0;
+		private int m_maxParallelHandshakes = 0;
+		private int m_nextCircuitID = 1;
+
+		public StandInConnectionFactory()
+		{
+			super(null);
+		}
+
+		public FirstOnionRouterConnection createFirstOnionRouterConnection(ORDescriptor a_description)
+		{
+			return new StandInConnection(a_description, this);
+		}
+
+		public synchronized void closeAll()
+		{
+			for (int i = 0; i < m_circuits.size(); i++)
+			{
+				( (Circuit) m_circuits.elementAt(i)).close();
+			}
+		}
+
+		public synchronized int getNrOfCircuits()
+		{
+			return m_circuits.size();
+		}
+
+		public synchronized int getMaxParallelHandshakes()
+		{
+			return m_maxParallelHandshakes;
+		}
+
+		private Circuit createCircuit(StandInConnection a_connection, Vector a_onionRouters)
+			throws Exception
+		{
+			int circuitID;
+			synchronized (this)
+			{
+				circuitID = m_nextCircuitID++;
+				m_runningHandshakes++;
+				m_maxParallelHandshakes = Math.max(m_maxParallelHandshakes, m_runningHandshakes);
+			}
+			try
+			{
+				Thread.sleep(HANDSHAKE_TIME);
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					m_runningHandshakes--;
+				}
+			}
+			Circuit circuit = new Circuit(circuitID, a_connection, a_onionRouters);
+			synchronized (this)
+			{
+				m_circuits.addElement(circuit);
+			}
+			return circuit;
+		}
+	}
+
+	/**
+	 * A connection to a first onion router that sends nothing and creates circuits slowly.
+	 */
+	private static class StandInConnection extends FirstOnionRouterConnection
+	{
+		private StandInConnectionFactory m_factory;
+
+		public StandInConnection(ORDescriptor a_description, StandInConnectionFactory a_factory)
+		{
+			super(a_description, null);
+			m_factory = a_factory;
+		}
+
+		public boolean isClosed()
+		{
+			return false;
+		}
+
+		public void send(Cell a_cell)
+		{
+		}
+
+		public Circuit createCircuit(Vector a_onionRouters)
+		{
+			try
+			{
+				return m_factory.createCircuit(this, a_onionRouters);
+			}
+			catch (Exception a_e)
+			{
+				return null;
+			}
+		}
+
+		protected void notifyCircuitClosed(Circuit a_circuit)
+		{
+		}
+	}
+}
@@ -15,6 +15,8 @@ public class AllTests
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTestSuite(ORListTest.class);
 		suite.addTestSuite(PlainORListFetcherTest.class);
+		suite.addTestSuite(ORSelectionTest.class);
+		suite.addTestSuite(ORListParserTest.class);
 		return suite;
 	}
 }
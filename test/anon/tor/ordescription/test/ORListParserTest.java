@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor.ordescription.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import anon.tor.ordescription.ORDescriptor;
+import anon.tor.ordescription.ORList;
+import anon.tor.ordescription.ORListFetcher;
+import anon.util.Base64;
+
+/**
+ * Tests the parsing of directory documents by ORList against a recorded directory and against
+ * parsing every descriptor by ORDescriptor.parse().
+ */
+public class ORListParserTest extends TestCase
+{
+	private static final String DIRECTORY = "res/directory.txt";
+	private static final int ROUTERS = 40;
+	private static final int ITERATIONS = 5;
+
+	private byte[] m_directory;
+
+	public ORListParserTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void setUp() throws IOException
+	{
+		m_directory = readResource(DIRECTORY);
+	}
+
+	public void testParseLikeDescriptorParser() throws IOException
+	{
+		Vector expected = parseDescriptors(m_directory);
+		assertEquals(ROUTERS, expected.size());
+
+		/* read the directory in small pieces to make the parser refill its buffer */
+		ORList list = new ORList(null);
+		assertTrue(list.updateList(new SlowInputStream(m_directory)));
+		assertEquals(ROUTERS, list.size());
+		assertEquals(ROUTERS - 1, list.active());
+		assertNotNull(list.getPublished());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			ORDescriptor expectedOrd = (ORDescriptor) expected.elementAt(i);
+			assertDescriptorEquals(expectedOrd, list.getByName(expectedOrd.getName()));
+		}
+
+		/* the digests do not depend on the line terminators */
+		ORList crlfList = new ORList(null);
+		assertTrue(crlfList.updateList(new ByteArrayInputStream(toCRLF(m_directory))));
+		assertEquals(ROUTERS, crlfList.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			ORDescriptor expectedOrd = (ORDescriptor) expected.elementAt(i);
+			assertDescriptorEquals(expectedOrd, crlfList.getByName(expectedOrd.getName()));
+		}
+
+		assertFalse(new ORList(null).updateList(new ByteArrayInputStream(new byte[0])));
+	}
+
+	public void testIncrementalUpdate() throws IOException
+	{
+		DirectoryFetcher fetcher = new DirectoryFetcher();
+		fetcher.m_descriptors = m_directory;
+		ORList list = new ORList(fetcher);
+		assertTrue(list.updateList());
+		Vector routers = list.getList();
+		assertEquals(ROUTERS, routers.size());
+
+		/* a new directory where only tor26 has changed its bandwidth */
+		String directory = new String(m_directory, "ISO-8859-1");
+		int start = directory.indexOf("bandwidth ", directory.indexOf("router tor26 "));
+		directory = directory.substring(0, start) + "bandwidth 300000 600000 250000" +
+			directory.substring(directory.indexOf('\n', start));
+		fetcher.m_descriptors = directory.getBytes("ISO-8859-1");
+		assertTrue(list.updateList());
+		assertEquals(ROUTERS, list.size());
+		for (int i = 0; i < routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) routers.elementAt(i);
+			if (ord.getName().equals("tor26"))
+			{
+				assertNotSame(ord, list.getByName("tor26"));
+				assertEquals(250000, list.getByName("tor26").getBandwidth());
+				assertFalse(ord.getHash().equals(list.getByName("tor26").getHash()));
+			}
+			else
+			{
+				assertSame(ord, list.getByName(ord.getName()));
+			}
+		}
+
+		/* a network status with a new descriptor for moria2 */
+		routers = list.getList();
+		start = directory.indexOf("router moria2 ");
+		String descriptor = directory.substring(start, directory.indexOf("router ", start + 1));
+		start = descriptor.indexOf("bandwidth ");
+		descriptor = descriptor.substring(0, start) + "bandwidth 40000 80000 40000" +
+			descriptor.substring(descriptor.indexOf('\n', start));
+		StringBuffer status = new StringBuffer("network-status-version 2\n");
+		status.append("published 2006-11-02 12:10:00\n");
+		for (int i = 0; i < routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) routers.elementAt(i);
+			String digest = ord.getName().equals("moria2") ? "00112233445566778899AABBCCDDEEFF00112233" :
+				ord.getHash();
+			status.append("r " + ord.getName() + " AAAAAAAAAAAAAAAAAAAAAAAAAAA " +
+						  Base64.encode(fromHex(digest), false).substring(0, 27) +
+						  " 2006-11-02 11:00:00 " + ord.getAddress() + " " + ord.getPort() + " 0\n");
+			status.append("s Fast Running Stable Valid\n");
+		}
+		fetcher.m_status = status.toString().getBytes("ISO-8859-1");
+		fetcher.m_descriptors = null;
+		fetcher.m_changedDescriptor = descriptor.getBytes("ISO-8859-1");
+		assertTrue(list.updateList());
+		assertEquals(1, fetcher.m_descriptorRequests);
+		assertEquals("00112233445566778899AABBCCDDEEFF00112233", fetcher.m_requestedDigest);
+		assertEquals(ROUTERS, list.size());
+		assertEquals(40000, list.getByName("moria2").getBandwidth());
+		for (int i = 0; i < routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) routers.elementAt(i);
+			if (!ord.getName().equals("moria2"))
+			{
+				assertSame(ord, list.getByName(ord.getName()));
+			}
+		}
+	}
+
+	/**
+	 * A router whose onion key is not an RSA key is dropped, so it is never used for a circuit.
+	 */
+	public void testCorruptOnionKey() throws IOException
+	{
+		String directory = new String(m_directory, "ISO-8859-1");
+		int start = directory.indexOf("-----BEGIN RSA PUBLIC KEY-----\n",
+									  directory.indexOf("router moria2 ")) +
+			"-----BEGIN RSA PUBLIC KEY-----\n".length();
+		int end = directory.indexOf("-----END RSA PUBLIC KEY-----", start);
+		directory = directory.substring(0, start) + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\n" +
+			directory.substring(end);
+
+		ORList list = new ORList(null);
+		assertTrue(list.updateList(new ByteArrayInputStream(directory.getBytes("ISO-8859-1"))));
+		assertEquals(ROUTERS - 1, list.size());
+		assertNull(list.getByName("moria2"));
+		Vector routers = list.getList();
+		for (int i = 0; i < routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) routers.elementAt(i);
+			assertNotNull(ord.getOnionKey());
+			assertNotNull(ord.getSigningKey());
+		}
+	}
+
+	/**
+	 * Parsing the same directory again gives the same routers, and an unchanged directory keeps
+	 * the descriptors of the list.
+	 */
+	public void testRepeatedParsing() throws IOException
+	{
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			assertEquals(ROUTERS, parseDescriptors(m_directory).size());
+		}
+
+		ORList list = null;
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			list = new ORList(null);
+			assertTrue(list.updateList(new ByteArrayInputStream(m_directory)));
+			assertEquals(ROUTERS, list.size());
+		}
+
+		Vector routers = list.getList();
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			assertTrue(list.updateList(new ByteArrayInputStream(m_directory)));
+		}
+		assertEquals(ROUTERS, list.size());
+		for (int i = 0; i < routers.size(); i++)
+		{
+			ORDescriptor ord = (ORDescriptor) routers.elementAt(i);
+			assertSame(ord, list.getByName(ord.getName()));
+		}
+	}
+
+	/**
+	 * parses the descriptors of a directory like ORList did before it had its own parser
+	 */
+	private static Vector parseDescriptors(byte[] a_directory) throws IOException
+	{
+		LineNumberReader reader = new LineNumberReader(new InputStreamReader(
+			new ByteArrayInputStream(a_directory)));
+		Vector routers = new Vector();
+		reader.mark(200);
+		String line = reader.readLine();
+		while (line != null)
+		{
+			if (line.startsWith("router "))
+			{
+				reader.reset();
+				ORDescriptor ord = ORDescriptor.parse(reader);
+				if (ord != null)
+				{
+					routers.addElement(ord);
+				}
+			}
+			reader.mark(200);
+			line = reader.readLine();
+		}
+		return routers;
+	}
+
+	private static void assertDescriptorEquals(ORDescriptor a_expected, ORDescriptor a_ord)
+	{
+		assertNotNull(a_expected.getName(), a_ord);
+		assertEquals(a_expected.getHash(), a_ord.getHash());
+		assertEquals(a_expected.getAddress(), a_ord.getAddress());
+		assertEquals(a_expected.getPort(), a_ord.getPort());
+		assertEquals(a_expected.getDirPort(), a_ord.getDirPort());
+		assertEquals(a_expected.getSoftware(), a_ord.getSoftware());
+		assertEquals(a_expected.getPublished(), a_ord.getPublished());
+		assertEquals(a_expected.getFingerprint(), a_ord.getFingerprint());
+		assertEquals(a_expected.getBandwidthAverage(), a_ord.getBandwidthAverage());
+		assertEquals(a_expected.getBandwidthBurst(), a_ord.getBandwidthBurst());
+		assertEquals(a_expected.getBandwidthObserved(), a_ord.getBandwidthObserved());
+		assertEquals(a_expected.getHibernate(), a_ord.getHibernate());
+		assertEquals(a_expected.isExitNode(), a_ord.isExitNode());
+		assertEquals(a_expected.getFamily(), a_ord.getFamily());
+		assertEquals(a_expected.getOnionKey().getModulus(), a_ord.getOnionKey().getModulus());
+		assertEquals(a_expected.getSigningKey().getModulus(), a_ord.getSigningKey().getModulus());
+		int[] ports = {25, 80, 443, 6881, 9001};
+		for (int i = 0; i < ports.length; i++)
+		{
+			assertEquals(a_expected.getAcl().isAllowed("141.76.46.1", ports[i]),
+						 a_ord.getAcl().isAllowed("141.76.46.1", ports[i]));
+			assertEquals(a_expected.getAcl().isAllowed("10.0.0.1", ports[i]),
+						 a_ord.getAcl().isAllowed("10.0.0.1", ports[i]));
+		}
+	}
+
+	private byte[] readResource(String a_name) throws IOException
+	{
+		InputStream in = getClass().getResourceAsStream(a_name);
+		assertNotNull(a_name, in);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int len;
+		while ( (len = in.read(buffer)) > 0)
+		{
+			out.write(buffer, 0, len);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] toCRLF(byte[] a_document)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < a_document.length; i++)
+		{
+			if (a_document[i] == '\n')
+			{
+				out.write('\r');
+			}
+			out.write(a_document[i]);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] fromHex(String a_hex)
+	{
+		byte[] bytes = new byte[a_hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = (byte) Integer.parseInt(a_hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+
+	/**
+	 * returns at most a few bytes with every read
+	 */
+	private static class SlowInputStream extends ByteArrayInputStream
+	{
+		public SlowInputStream(byte[] a_data)
+		{
+			super(a_data);
+		}
+
+		public synchronized int read(byte[] a_buffer, int a_offset, int a_length)
+		{
+			return super.read(a_buffer, a_offset, Math.min(a_length, 97));
+		}
+	}
+
+	private static class DirectoryFetcher implements ORListFetcher
+	{
+		private byte[] m_descriptors;
+		private byte[] m_status;
+		private byte[] m_changedDescriptor;
+		private int m_descriptorRequests;
+		private String m_requestedDigest;
+
+		public byte[] getRouterStatus()
+		{
+			return m_status;
+		}
+
+		public byte[] getDescriptor(String a_digest)
+		{
+			m_descriptorRequests++;
+			m_requestedDigest = a_digest;
+			return m_changedDescriptor;
+		}
+
+		public byte[] getDescriptorByFingerprint(String a_fingerprint)
+		{
+			return null;
+		}
+
+		public byte[] getAllDescriptors()
+		{
+			return m_descriptors;
+		}
+
+		public byte[] getStatus(String a_fingerprint)
+		{
+			return null;
+		}
+	}
+}
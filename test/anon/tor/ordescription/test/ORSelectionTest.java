@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.tor.ordescription.test;
+
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import anon.tor.ordescription.ORDescriptor;
+import anon.tor.ordescription.ORList;
+
+/**
+ * Tests the bandwidth-weighted selection of onion routers and the demotion of slow routers.
+ */
+public class ORSelectionTest extends TestCase
+{
+	private static final int SELECTIONS = 10000;
+
+	private static final String KEY =
+		"-----BEGIN RSA PUBLIC KEY-----\n" +
+		"MIGJAoGBANhXr+ZVreOLm5RC2uk/aqHX0CvvS+te0TmaUl+JPLq9bTIgdQnVFjb6\n" +
+		"F2sfNXkWSxsOL1pEPqAfDyX8F3MxPWKYZG+LcuHnThMXe4UmXLig2MjJ6ux1lqmR\n" +
+		"NoM03xGfiS0zFqUzNRNsGDJzatRNq+XlqUNo9nxG9XAyTuumaiNdAgMBAAE=\n" +
+		"-----END RSA PUBLIC KEY-----\n";
+
+	public ORSelectionTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testParseBandwidth()
+	{
+		String descriptor =
+			"router fast 10.0.0.1 9001 0 9030\n" +
+			"platform Tor 0.1.1.26 on Linux i686\n" +
+			"published 2006-11-02 12:00:00\n" +
+			"opt fingerprint 4A0C 2E2E 3E3E 4F4F 5A5A 6B6B 7C7C 8D8D 9E9E AFAF\n" +
+			"uptime 86400\n" +
+			"bandwidth 5242880 10485760 1654393\n" +
+			"onion-key\n" + KEY +
+			"signing-key\n" + KEY +
+			"accept *:80\n" +
+			"reject *:*\n" +
+			"router-signature\n" +
+			"-----BEGIN SIGNATURE-----\n" +
+			"c2lnbmF0dXJl\n" +
+			"-----END SIGNATURE-----\n";
+
+		ORDescriptor ord = ORDescriptor.parse(new LineNumberReader(new StringReader(descriptor)));
+		assertNotNull(ord);
+		assertEquals(5242880, ord.getBandwidthAverage());
+		assertEquals(10485760, ord.getBandwidthBurst());
+		assertEquals(1654393, ord.getBandwidthObserved());
+		/* the observed bandwidth is lower than the advertised one */
+		assertEquals(1654393, ord.getBandwidth());
+		assertTrue(ord.isExitNode());
+
+		ord = new ORDescriptor("10.0.0.2", "unknown", 9001, "Tor 0.1.1.26");
+		assertEquals(-1, ord.getBandwidth());
+	}
+
+	public void testBandwidthWeightedSelection()
+	{
+		ORList list = new ORList(null);
+		ORDescriptor fast = createRouter("fast", 1000 * 1024);
+		ORDescriptor slow = createRouter("slow", 10 * 1024);
+		ORDescriptor hibernating = createRouter("hibernating", 1000 * 1024);
+		hibernating.setHibernate(true);
+		list.add(fast);
+		list.add(slow);
+		list.add(hibernating);
+
+		int fastCount = 0;
+		for (int i = 0; i < SELECTIONS; i++)
+		{
+			ORDescriptor ord = list.getByRandom();
+			assertNotSame(hibernating, ord);
+			if (ord == fast)
+			{
+				fastCount++;
+			}
+		}
+		/* the fast router has 100 times the bandwidth of the slow one */
+		assertTrue("Fast router selected " + fastCount + " times", fastCount > SELECTIONS * 95 / 100);
+		assertTrue(fastCount < SELECTIONS);
+
+		Vector candidates = new Vector();
+		candidates.addElement(hibernating);
+		assertNull(list.getByRandomWeighted(candidates));
+		candidates.addElement(slow);
+		assertSame(slow, list.getByRandomWeighted(candidates));
+	}
+
+	public void testSlowRoutersAreDemoted()
+	{
+		ORList list = new ORList(null);
+		ORDescriptor[] routers = new ORDescriptor[4];
+		for (int i = 0; i < routers.length; i++)
+		{
+			routers[i] = createRouter("router" + i, 100 * 1024);
+			list.add(routers[i]);
+		}
+		int weight = list.getWeight(routers[0]);
+		assertEquals(100, weight);
+
+		for (int i = 0; i < ORList.MIN_MEASUREMENTS; i++)
+		{
+			list.addCircuitBuildTime(routers[0], 200);
+			list.addCircuitBuildTime(routers[1], 250);
+			list.addCircuitBuildTime(routers[2], 300);
+			list.addCircuitBuildTime(routers[3], 5000);
+		}
+		assertFalse(list.isSlow(routers[0]));
+		assertTrue(list.isSlow(routers[3]));
+		assertEquals(weight / ORList.SLOW_ROUTER_DEMOTION, list.getWeight(routers[3]));
+
+		for (int i = 0; i < ORList.MIN_MEASUREMENTS; i++)
+		{
+			list.addThroughput(routers[0], 50 * 1024);
+			list.addThroughput(routers[1], 60 * 1024);
+			list.addThroughput(routers[2], 2 * 1024);
+		}
+		assertTrue(list.isSlow(routers[2]));
+		assertFalse(list.isSlow(routers[1]));
+
+		int[] counts = new int[routers.length];
+		for (int i = 0; i < SELECTIONS; i++)
+		{
+			ORDescriptor ord = list.getByRandom();
+			for (int j = 0; j < routers.length; j++)
+			{
+				if (ord == routers[j])
+				{
+					counts[j]++;
+				}
+			}
+		}
+		assertTrue(counts[3] < counts[0] / 3);
+		assertTrue(counts[2] < counts[1] / 3);
+
+		/* a router that has become fast again is not demoted any more */
+		for (int i = 0; i < 20; i++)
+		{
+			list.addCircuitBuildTime(routers[3], 200);
+		}
+		assertFalse(list.isSlow(routers[3]));
+		assertEquals(weight, list.getWeight(routers[3]));
+	}
+
+	private static ORDescriptor createRouter(String a_name, int a_bandwidth)
+	{
+		ORDescriptor ord = new ORDescriptor("10.0.0.1", a_name, 9001, "Tor 0.1.1.26");
+		ord.setBandwidth(a_bandwidth, 2 * a_bandwidth, a_bandwidth);
+		return ord;
+	}
+}
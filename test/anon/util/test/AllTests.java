@@ -58,6 +58,11 @@ public class AllTests
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTestSuite(XMLUtilTest.class);
 		suite.addTestSuite(XMLDurationTest.class);
+		suite.addTestSuite(IntObjectHashtableTest.class);
+		suite.addTestSuite(ExpiryIndexTest.class);
+		suite.addTestSuite(ZLibToolsTest.class);
+		suite.addTestSuite(ThreadFactoryTest.class);
+		suite.addTestSuite(TaskPoolTest.class);
 		return suite;
 	}
 }
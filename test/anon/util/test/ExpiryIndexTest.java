@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util.test;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import anon.util.ExpiryIndex;
+
+/**
+ * Compares ExpiryIndex with a java.util.Hashtable that is searched linearly.
+ */
+public class ExpiryIndexTest extends TestCase
+{
+	public ExpiryIndexTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testPutRemove()
+	{
+		ExpiryIndex index = new ExpiryIndex(1);
+		assertNull(index.getFirstKey());
+		assertEquals(Long.MAX_VALUE, index.getFirstExpireTime());
+
+		index.put("a", 30);
+		index.put("b", 10);
+		index.put("c", 20);
+		assertEquals(3, index.size());
+		assertEquals("b", index.getFirstKey());
+		assertEquals(10, index.getFirstExpireTime());
+
+		// reschedule an existing key
+		index.put("b", 40);
+		assertEquals(3, index.size());
+		assertEquals("c", index.getFirstKey());
+		assertEquals(40, index.getExpireTime("b"));
+
+		assertTrue(index.remove("c"));
+		assertFalse(index.remove("c"));
+		assertFalse(index.contains("c"));
+		assertEquals("a", index.getFirstKey());
+		assertEquals(Long.MAX_VALUE, index.getExpireTime("c"));
+
+		index.clear();
+		assertTrue(index.isEmpty());
+		assertNull(index.getFirstKey());
+	}
+
+	public void testRandomOperations()
+	{
+		Random random = new Random(4711);
+		ExpiryIndex index = new ExpiryIndex();
+		Hashtable reference = new Hashtable();
+		for (int i = 0; i < 20000; i++)
+		{
+			Integer key = new Integer(random.nextInt(256));
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(reference.remove(key) != null, index.remove(key));
+			}
+			else
+			{
+				// use a small range of times, so that there are many equal expire times
+				long expireTime = random.nextInt(1000);
+				reference.put(key, new Long(expireTime));
+				index.put(key, expireTime);
+			}
+			assertEquals(reference.size(), index.size());
+			assertEquals(getFirstExpireTime(reference), index.getFirstExpireTime());
+			if (!index.isEmpty())
+			{
+				assertEquals(reference.get(index.getFirstKey()), new Long(index.getFirstExpireTime()));
+			}
+		}
+
+		// every key has exactly one position
+		Hashtable keys = new Hashtable();
+		for (int i = 0; i < index.size(); i++)
+		{
+			assertNull(keys.put(index.getKeyAt(i), index.getKeyAt(i)));
+			assertTrue(reference.containsKey(index.getKeyAt(i)));
+		}
+
+		// remove the keys in the order of their expire times
+		long lastExpireTime = Long.MIN_VALUE;
+		while (!index.isEmpty())
+		{
+			assertTrue(lastExpireTime <= index.getFirstExpireTime());
+			lastExpireTime = index.getFirstExpireTime();
+			assertTrue(index.remove(index.getFirstKey()));
+		}
+	}
+
+	private static long getFirstExpireTime(Hashtable a_reference)
+	{
+		long firstExpireTime = Long.MAX_VALUE;
+		Enumeration expireTimes = a_reference.elements();
+		while (expireTimes.hasMoreElements())
+		{
+			firstExpireTime = Math.min(firstExpireTime, ((Long) expireTimes.nextElement()).longValue());
+		}
+		return firstExpireTime;
+	}
+}
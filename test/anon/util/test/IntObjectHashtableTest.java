@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util.test;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import anon.util.IntObjectHashtable;
+
+/**
+ * Compares IntObjectHashtable with java.util.Hashtable.
+ */
+public class IntObjectHashtableTest extends TestCase
+{
+	public IntObjectHashtableTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testPutGetRemove()
+	{
+		IntObjectHashtable table = new IntObjectHashtable();
+		assertNull(table.put(-7, "a"));
+		assertNull(table.put(0, "b"));
+		assertEquals("a", table.put(-7, "c"));
+		assertEquals(2, table.size());
+		assertEquals("c", table.get(-7));
+		assertEquals("b", table.get(0));
+		assertNull(table.get(1));
+		assertEquals("c", table.remove(-7));
+		assertNull(table.remove(-7));
+		assertFalse(table.containsKey(-7));
+		assertEquals(1, table.size());
+		table.clear();
+		assertTrue(table.isEmpty());
+	}
+
+	public void testRandomOperations()
+	{
+		Random random = new Random(4711);
+		IntObjectHashtable table = new IntObjectHashtable(2);
+		Hashtable reference = new Hashtable();
+		for (int i = 0; i < 100000; i++)
+		{
+			/* use a small key range, so removals hit existing entries and
+			 * probe sequences overlap
+			 */
+			int key = random.nextInt(512) - 256;
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(reference.remove(new Integer(key)), table.remove(key));
+			}
+			else
+			{
+				Integer value = new Integer(i);
+				assertEquals(reference.put(new Integer(key), value), table.put(key, value));
+			}
+			assertEquals(reference.size(), table.size());
+		}
+		for (int key = -256; key < 256; key++)
+		{
+			assertEquals(reference.get(new Integer(key)), table.get(key));
+		}
+		int count = 0;
+		Enumeration values = table.elements();
+		while (values.hasMoreElements())
+		{
+			assertTrue(reference.contains(values.nextElement()));
+			count++;
+		}
+		assertEquals(reference.size(), count);
+	}
+}
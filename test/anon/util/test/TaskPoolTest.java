@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util.test;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import anon.util.JobQueue;
+import anon.util.Scheduler;
+import anon.util.TaskPool;
+
+/**
+ * These are the tests for the TaskPool class and the JobQueue that is built on it.
+ */
+public class TaskPoolTest extends TestCase
+{
+	private static final long TIMEOUT = 10000;
+
+	private TaskPool m_pool;
+
+	public TaskPoolTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void tearDown()
+	{
+		if (m_pool != null)
+		{
+			m_pool.shutdown();
+			m_pool = null;
+		}
+	}
+
+	/**
+	 * The pool never runs more tasks at once than it has threads.
+	 */
+	public void testThreadLimit() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 3);
+		final int[] running = new int[2];
+		Runnable task = new Runnable()
+		{
+			public void run()
+			{
+				synchronized (running)
+				{
+					running[0]++;
+					running[1] = Math.max(running[0], running[1]);
+				}
+				sleep(20);
+				synchronized (running)
+				{
+					running[0]--;
+				}
+			}
+		};
+		for (int i = 0; i < 20; i++)
+		{
+			assertTrue(m_pool.execute(task));
+		}
+		waitForCompletedTasks(20);
+
+		assertEquals(3, running[1]);
+		assertEquals(3, m_pool.getThreadCount());
+		assertEquals(0, m_pool.getActiveThreadCount());
+		assertEquals(0, m_pool.getQueueSize());
+		long[] histogram = m_pool.getLatencyHistogram();
+		long total = 0;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			total += histogram[i];
+		}
+		assertEquals(20, total);
+		assertTrue(m_pool.getLatencyPercentile(99) >= 20);
+	}
+
+	public void testExecuteAndWait() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 1, Thread.NORM_PRIORITY, 0);
+		final boolean[] done = new boolean[1];
+		m_pool.executeAndWait(new Runnable()
+		{
+			public void run()
+			{
+				sleep(20);
+				done[0] = true;
+			}
+		});
+		assertTrue(done[0]);
+	}
+
+	/**
+	 * Tasks with the same key run one after another, and a waiting task is replaced by a newer
+	 * one unless both may be skipped.
+	 */
+	public void testKeyedTasksAreCoalesced() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 4);
+		Object key = new Object();
+		final Vector executed = new Vector();
+		final Object blocker = new Object();
+		final boolean[] released = new boolean[1];
+
+		m_pool.execute(key, new Runnable()
+		{
+			public void run()
+			{
+				executed.addElement("first");
+				synchronized (blocker)
+				{
+					while (!released[0])
+					{
+						try
+						{
+							blocker.wait();
+						}
+						catch (InterruptedException a_e)
+						{
+						}
+					}
+				}
+			}
+		}, false);
+		waitFor(executed, 1);
+
+		assertTrue(m_pool.execute(key, new RecordingTask(executed, "second"), true));
+		/* the waiting task may be skipped, so this one is dropped */
+		assertFalse(m_pool.execute(key, new RecordingTask(executed, "third"), true));
+		/* this one replaces the waiting task */
+		assertTrue(m_pool.execute(key, new RecordingTask(executed, "fourth"), false));
+		assertEquals(1, executed.size());
+
+		synchronized (blocker)
+		{
+			released[0] = true;
+			blocker.notifyAll();
+		}
+		waitFor(executed, 2);
+		sleep(50);
+
+		assertEquals(2, executed.size());
+		assertEquals("first", executed.elementAt(0));
+		assertEquals("fourth", executed.elementAt(1));
+	}
+
+	public void testInvokeAll() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 2);
+		final int[] results = new int[50];
+		Runnable[] tasks = new Runnable[results.length];
+		for (int i = 0; i < tasks.length; i++)
+		{
+			final int index = i;
+			tasks[i] = new Runnable()
+			{
+				public void run()
+				{
+					results[index] = index * index;
+				}
+			};
+		}
+		m_pool.invokeAll(tasks);
+		for (int i = 0; i < results.length; i++)
+		{
+			assertEquals(i * i, results[i]);
+		}
+	}
+
+	/**
+	 * A task may call invokeAll() on its own pool even if all threads are busy, as the calling
+	 * thread executes the tasks that no other thread has taken.
+	 */
+	public void testNestedInvokeAllDoesNotBlock() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 1, Thread.NORM_PRIORITY, 0);
+		final int[] count = new int[1];
+		final Runnable[] innerTasks = new Runnable[10];
+		for (int i = 0; i < innerTasks.length; i++)
+		{
+			innerTasks[i] = new Runnable()
+			{
+				public void run()
+				{
+					synchronized (count)
+					{
+						count[0]++;
+					}
+				}
+			};
+		}
+		m_pool.executeAndWait(new Runnable()
+		{
+			public void run()
+			{
+				m_pool.invokeAll(innerTasks);
+			}
+		});
+		assertEquals(innerTasks.length, count[0]);
+	}
+
+	public void testShutdown() throws Exception
+	{
+		m_pool = new TaskPool("TaskPoolTest", 1);
+		assertTrue(Scheduler.getPools().contains(m_pool));
+		m_pool.shutdown();
+		assertFalse(Scheduler.getPools().contains(m_pool));
+		assertFalse(m_pool.execute(new RecordingTask(new Vector(), "rejected")));
+	}
+
+	/**
+	 * The job queue skips a job if the last one may be skipped, too.
+	 */
+	public void testJobQueueSkipsDuplicates() throws Exception
+	{
+		JobQueue queue = new JobQueue("TaskPoolTest");
+		final Vector executed = new Vector();
+		final Object blocker = new Object();
+		final boolean[] released = new boolean[1];
+		queue.addJob(new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("blocking");
+				synchronized (blocker)
+				{
+					while (!released[0])
+					{
+						try
+						{
+							blocker.wait();
+						}
+						catch (InterruptedException a_e)
+						{
+						}
+					}
+				}
+			}
+		});
+		waitFor(executed, 1);
+		for (int i = 0; i < 5; i++)
+		{
+			final String name = "job " + i;
+			queue.addJob(new JobQueue.Job(true)
+			{
+				public void runJob()
+				{
+					executed.addElement(name);
+				}
+			});
+		}
+		synchronized (blocker)
+		{
+			released[0] = true;
+			blocker.notifyAll();
+		}
+		waitFor(executed, 2);
+		sleep(50);
+		queue.stop();
+
+		assertEquals(2, executed.size());
+		assertEquals("job 0", executed.elementAt(1));
+	}
+
+	public void testJobMayBeAddedAgainAfterItHasRun() throws Exception
+	{
+		JobQueue queue = new JobQueue("TaskPoolTest");
+		final Vector executed = new Vector();
+		JobQueue.Job job = new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("run");
+			}
+		};
+		queue.addJob(job);
+		waitFor(executed, 1);
+		sleep(50);
+		queue.addJob(job);
+		waitFor(executed, 2);
+		queue.stop();
+
+		assertEquals(2, executed.size());
+	}
+
+	/**
+	 * A waiting job that has been replaced by a newer one may be added again.
+	 */
+	public void testReplacedJobMayBeAddedAgain() throws Exception
+	{
+		JobQueue queue = new JobQueue("TaskPoolTest");
+		final Vector executed = new Vector();
+		final Object blocker = new Object();
+		final boolean[] released = new boolean[1];
+		queue.addJob(new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("blocking");
+				synchronized (blocker)
+				{
+					while (!released[0])
+					{
+						try
+						{
+							blocker.wait();
+						}
+						catch (InterruptedException a_e)
+						{
+						}
+					}
+				}
+			}
+		});
+		waitFor(executed, 1);
+		JobQueue.Job replacedJob = new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("replaced");
+			}
+		};
+		queue.addJob(replacedJob);
+		/* replaces the waiting job */
+		queue.addJob(new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("newer");
+			}
+		});
+		/* replaces the newer job, so the replaced job runs after the blocking one */
+		queue.addJob(replacedJob);
+		synchronized (blocker)
+		{
+			released[0] = true;
+			blocker.notifyAll();
+		}
+		waitFor(executed, 2);
+		sleep(50);
+		queue.stop();
+
+		assertEquals(2, executed.size());
+		assertEquals("replaced", executed.elementAt(1));
+	}
+
+	public void testJobQueueStopWaitsForRunningJob() throws Exception
+	{
+		JobQueue queue = new JobQueue("TaskPoolTest");
+		final Vector executed = new Vector();
+		queue.addJob(new JobQueue.Job()
+		{
+			public void runJob()
+			{
+				executed.addElement("started");
+				try
+				{
+					Thread.sleep(TIMEOUT);
+				}
+				catch (InterruptedException a_e)
+				{
+				}
+				// the job needs some time to clean up after it has been interrupted
+				sleep(100);
+				executed.addElement("finished");
+			}
+		});
+		waitFor(executed, 1);
+		queue.stop();
+
+		assertEquals(2, executed.size());
+	}
+
+	private void waitForCompletedTasks(long a_tasks)
+	{
+		long timeout = System.currentTimeMillis() + TIMEOUT;
+		while (m_pool.getCompletedTaskCount() < a_tasks && System.currentTimeMillis() < timeout)
+		{
+			sleep(10);
+		}
+		assertEquals(a_tasks, m_pool.getCompletedTaskCount());
+	}
+
+	private static void waitFor(Vector a_executed, int a_size)
+	{
+		long timeout = System.currentTimeMillis() + TIMEOUT;
+		while (a_executed.size() < a_size && System.currentTimeMillis() < timeout)
+		{
+			sleep(10);
+		}
+		assertTrue(a_executed.size() >= a_size);
+	}
+
+	private static void sleep(long a_time)
+	{
+		try
+		{
+			Thread.sleep(a_time);
+		}
+		catch (InterruptedException a_e)
+		{
+		}
+	}
+
+	private static final class RecordingTask implements Runnable
+	{
+		private Vector m_executed;
+		private String m_name;
+
+		private RecordingTask(Vector a_executed, String a_name)
+		{
+			m_executed = a_executed;
+			m_name = a_name;
+		}
+
+		public void run()
+		{
+			m_executed.addElement(m_name);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util.test;
+
+import junit.framework.TestCase;
+
+import anon.util.IThreadFactory;
+import anon.util.ThreadFactory;
+
+/**
+ * These are the tests for the ThreadFactory class.
+ */
+public class ThreadFactoryTest extends TestCase
+{
+	public ThreadFactoryTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	public void testPlatformThreads() throws Exception
+	{
+		ThreadFactory factory = new ThreadFactory(false);
+		assertFalse(factory.isCreatingVirtualThreads());
+		assertThreadRuns(factory);
+	}
+
+	public void testVirtualThreads() throws Exception
+	{
+		ThreadFactory factory = new ThreadFactory(true);
+		/* falls back to platform threads on older JREs */
+		assertEquals(ThreadFactory.isVirtualThreadSupported(), factory.isCreatingVirtualThreads());
+		assertThreadRuns(factory);
+	}
+
+	public void testSetInstance()
+	{
+		IThreadFactory oldFactory = ThreadFactory.getInstance();
+		try
+		{
+			IThreadFactory factory = new ThreadFactory(false);
+			ThreadFactory.setInstance(factory);
+			assertSame(factory, ThreadFactory.getInstance());
+			ThreadFactory.setInstance(null);
+			assertNotNull(ThreadFactory.getInstance());
+			assertFalse(((ThreadFactory) ThreadFactory.getInstance()).isCreatingVirtualThreads());
+		}
+		finally
+		{
+			ThreadFactory.setInstance(oldFactory);
+		}
+	}
+
+	private static void assertThreadRuns(IThreadFactory a_factory) throws Exception
+	{
+		final Thread[] runningThread = new Thread[1];
+		Thread thread = a_factory.createThread(new Runnable()
+		{
+			public void run()
+			{
+				runningThread[0] = Thread.currentThread();
+			}
+		}, "test thread");
+		assertEquals("test thread", thread.getName());
+		assertFalse(thread.isAlive());
+		thread.setDaemon(true);
+		thread.start();
+		thread.join(5000);
+		assertSame(thread, runningThread[0]);
+	}
+}
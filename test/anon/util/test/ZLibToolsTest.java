@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package anon.util.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import anon.util.Util;
+import anon.util.ZLibTools;
+
+/**
+ * These are the tests for the ZLibTools class.
+ */
+public class ZLibToolsTest extends TestCase
+{
+	private byte[] m_data;
+
+	public ZLibToolsTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp()
+	{
+		Random random = new Random(1);
+		StringBuffer text = new StringBuffer();
+
+		for (int i = 0; i < 5000; i++)
+		{
+			text.append("<Mix id=\"" + random.nextInt(100) + "\">");
+		}
+		m_data = text.toString().getBytes();
+	}
+
+	public void testCompressLevels()
+	{
+		byte[] best = ZLibTools.compress(m_data);
+		assertTrue(Util.arraysEqual(m_data, ZLibTools.decompress(best)));
+		for (int level = Deflater.DEFAULT_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++)
+		{
+			// use the pooled objects twice
+			for (int i = 0; i < 2; i++)
+			{
+				assertTrue(Util.arraysEqual(m_data,
+											ZLibTools.decompress(ZLibTools.compress(m_data, level))));
+			}
+		}
+		assertTrue(ZLibTools.compress(m_data, Deflater.BEST_SPEED).length > best.length);
+		assertTrue(Util.arraysEqual(new byte[0], ZLibTools.decompress(ZLibTools.compress(new byte[0]))));
+		assertNull(ZLibTools.compress(m_data, 10));
+		assertNull(ZLibTools.decompress(new byte[] {1, 2, 3}));
+	}
+
+	public void testGZip() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+		gzipOut.write(m_data);
+		gzipOut.close();
+		byte[] expected = out.toByteArray();
+		byte[] gzipData = ZLibTools.compressGZip(m_data);
+		// the operating system in the header depends on the Java version
+		expected[9] = gzipData[9];
+		assertTrue(Util.arraysEqual(expected, gzipData));
+
+		GZIPInputStream gzipIn =
+			new GZIPInputStream(new ByteArrayInputStream(ZLibTools.compressGZip(m_data, 1)));
+		out.reset();
+		byte[] buffer = new byte[1000];
+		int len;
+		while ( (len = gzipIn.read(buffer)) > 0)
+		{
+			out.write(buffer, 0, len);
+		}
+		assertTrue(Util.arraysEqual(m_data, out.toByteArray()));
+	}
+
+	public void testStreams() throws Exception
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+
+		ZLibTools.compress(new ByteArrayInputStream(m_data), compressed, Deflater.BEST_COMPRESSION);
+		assertTrue(Util.arraysEqual(ZLibTools.compress(m_data), compressed.toByteArray()));
+
+		ZLibTools.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+		assertTrue(Util.arraysEqual(m_data, decompressed.toByteArray()));
+
+		try
+		{
+			ZLibTools.decompress(new ByteArrayInputStream(m_data), decompressed);
+			fail("Uncompressed data was decompressed");
+		}
+		catch (java.io.IOException a_e)
+		{
+		}
+	}
+
+	/**
+	 * Compresses and decompresses small documents many times. The same Deflater and Inflater must
+	 * be reused for every call, as the native zlib memory of new ones is only freed late.
+	 */
+	public void testPooledObjectsAreReused()
+	{
+		byte[] data = new byte[500];
+
+		System.arraycopy(m_data, 0, data, 0, data.length);
+		ZLibTools.clearPool();
+		assertEquals(0, ZLibTools.getPooledObjects());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertTrue(Util.arraysEqual(data,
+				ZLibTools.decompress(ZLibTools.compress(data, Deflater.BEST_SPEED))));
+		}
+		// one Deflater and one Inflater
+		assertEquals(2, ZLibTools.getPooledObjects());
+		ZLibTools.clearPool();
+		assertEquals(0, ZLibTools.getPooledObjects());
+	}
+}
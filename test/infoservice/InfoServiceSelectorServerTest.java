@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package infoservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import anon.infoservice.Constants;
+import anon.infoservice.HttpResponseStructure;
+
+/**
+ * Tests the incremental request parser and the non-blocking InfoService front end.
+ */
+public class InfoServiceSelectorServerTest extends TestCase
+{
+	private static final int TEST_CLIENTS = 20;
+
+	private static final int TEST_REQUESTS = 10;
+
+	private InfoServiceSelectorServer m_server;
+
+	private int m_port;
+
+	public InfoServiceSelectorServerTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp() throws Exception
+	{
+		m_server = new InfoServiceSelectorServer(new EchoCommands(), 4, 10000);
+		m_port = m_server.addListener(InetAddress.getByName("127.0.0.1"), 0);
+		Thread serverThread = new Thread(m_server, m_server.toString());
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	protected void tearDown()
+	{
+		m_server.shutdown();
+	}
+
+	public void testParseSplitAndPipelinedRequests() throws Exception
+	{
+		byte[] data = ("GET /cascades HTTP/1.1\r\nHost: x\r\nAccept-Encoding: \r\n deflate\r\n\r\n" +
+					   "POST /status HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc" +
+					   "GET /infoservices HTTP/1.0\r\n\r\n").getBytes();
+		HttpRequestParser parser = new HttpRequestParser(Constants.MAX_REQUEST_HEADER_SIZE, 100);
+		Vector requests = new Vector();
+		/* feed the data byte by byte */
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		for (int i = 0; i < data.length; i++)
+		{
+			buffer.put(data[i]);
+			buffer.flip();
+			InfoServiceRequest request = parser.parse(buffer);
+			while (request != null)
+			{
+				requests.addElement(request);
+				request = parser.parse(buffer);
+			}
+			buffer.compact();
+		}
+		assertFalse(parser.isRequestStarted());
+		assertEquals(3, requests.size());
+
+		InfoServiceRequest request = (InfoServiceRequest) requests.elementAt(0);
+		assertEquals(Constants.REQUEST_METHOD_GET, request.getInternalRequestMethodCode());
+		assertEquals("/cascades", request.getRequestUrl());
+		assertTrue(request.isKeepAlive());
+		/* folded header line */
+		assertEquals(HttpResponseStructure.HTTP_ENCODING_ZLIB, request.getSupportedEncodings());
+		assertNull(request.getPostData());
+
+		request = (InfoServiceRequest) requests.elementAt(1);
+		assertEquals(Constants.REQUEST_METHOD_POST, request.getInternalRequestMethodCode());
+		assertEquals("abc", new String(request.getPostData()));
+
+		request = (InfoServiceRequest) requests.elementAt(2);
+		assertEquals("/infoservices", request.getRequestUrl());
+		assertFalse(request.isKeepAlive());
+	}
+
+	public void testParseInvalidRequests() throws Exception
+	{
+		assertInvalid("GET /a HTTP/1.1\r\nHost:\u0001x\r\n\r\n", 1000, 100);
+		assertInvalid("GET /a HTTP/1.1\r\nHost x\r\n\r\n", 1000, 100);
+		assertInvalid("DELETE /a HTTP/1.1\r\n\r\n", 1000, 100);
+		assertInvalid("GET /a HTTP/1.1\r\nHost: " + "x" + "\rx\r\n\r\n", 1000, 100);
+		assertInvalid("GET /a HTTP/1.1\r\nHost: xxxxxxxxxxxxxxxxxxxxxxxxxxxx\r\n\r\n", 30, 100);
+		assertInvalid("POST /a HTTP/1.1\r\nContent-Length: 101\r\n\r\n", 1000, 100);
+	}
+
+	public void testPersistentConnection() throws Exception
+	{
+		Socket socket = new Socket("127.0.0.1", m_port);
+		OutputStream out = socket.getOutputStream();
+		InputStream in = socket.getInputStream();
+		/* pipelined requests */
+		out.write(("GET /first HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\n\r\n").getBytes());
+		out.flush();
+		assertEquals("/first", readResponse(in));
+		assertEquals("/second", readResponse(in));
+
+		out.write(("POST /third HTTP/1.1\r\nContent-Length: 2\r\nConnection: close\r\n\r\nxy").getBytes());
+		out.flush();
+		assertEquals("/third:xy", readResponse(in));
+		/* server closes the connection after the response */
+		assertEquals(-1, in.read());
+		socket.close();
+	}
+
+	public void testConditionalRequest() throws Exception
+	{
+		Socket socket = new Socket("127.0.0.1", m_port);
+		OutputStream out = socket.getOutputStream();
+		InputStream in = socket.getInputStream();
+		StringBuffer header = new StringBuffer();
+
+		out.write(("GET /etag HTTP/1.1\r\nIf-None-Match: \"v0\"\r\n\r\n").getBytes());
+		out.flush();
+		assertEquals("/etag", readResponse(in, header));
+		assertTrue(header.toString().indexOf(HttpResponseStructure.HTTP_HEADER_ETAG_STRING +
+			"\"v1\"\r\n") >= 0);
+
+		out.write(("GET /etag HTTP/1.1\r\nIf-None-Match: W/\"v0\", \"v1\"\r\n\r\n").getBytes());
+		out.flush();
+		String notModified = readHeader(in);
+		assertTrue(notModified, notModified.startsWith("HTTP/1.1 " +
+			HttpResponseStructure.HTTP_RETURN_NOT_MODIFIED_STRING));
+		assertTrue(notModified.indexOf(HttpResponseStructure.HTTP_HEADER_LENGTH_STRING) < 0);
+
+		/* the 304 response has no body -> the next response follows directly */
+		out.write(("GET /second HTTP/1.1\r\nIf-None-Match: \"v1\"\r\n\r\n").getBytes());
+		out.flush();
+		assertEquals("/second", readResponse(in));
+		socket.close();
+	}
+
+	public void testAcceptEncoding()
+	{
+		Vector headerLines = new Vector();
+		headerLines.addElement("Accept-Encoding: gzip, deflate");
+		InfoServiceRequest request = InfoServiceRequest.createRequest("GET /a HTTP/1.1", headerLines);
+		assertEquals(HttpResponseStructure.HTTP_ENCODING_ZLIB | HttpResponseStructure.HTTP_ENCODING_GZIP,
+					 request.getSupportedEncodings());
+
+		headerLines.removeAllElements();
+		headerLines.addElement("Content-Encoding: gzip");
+		request = InfoServiceRequest.createRequest("POST /a HTTP/1.1", headerLines);
+		assertEquals(HttpResponseStructure.HTTP_ENCODING_PLAIN, request.getSupportedEncodings());
+	}
+
+	public void testConcurrentClients() throws Exception
+	{
+		runClients("127.0.0.1", m_port, TEST_CLIENTS, TEST_REQUESTS, "/cascades");
+	}
+
+	private static void assertInvalid(String a_request, int a_maxHeaderSize, int a_maxContentLength)
+	{
+		HttpRequestParser parser = new HttpRequestParser(a_maxHeaderSize, a_maxContentLength);
+		try
+		{
+			parser.parse(ByteBuffer.wrap(a_request.getBytes()));
+			fail("Invalid request accepted: " + a_request);
+		}
+		catch (IOException a_e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * Drives a server with many concurrent clients, each sending its requests over one persistent
+	 * connection, and checks that every client gets the echoed path as response.
+	 */
+	private static void runClients(final String a_host, final int a_port, int a_clients,
+								   final int a_requests, final String a_path) throws Exception
+	{
+		final Vector errors = new Vector();
+		Thread[] clients = new Thread[a_clients];
+		for (int i = 0; i < clients.length; i++)
+		{
+			clients[i] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						byte[] request = ("GET " + a_path + " HTTP/1.1\r\nHost: " + a_host +
+										  "\r\n\r\n").getBytes();
+						Socket socket = null;
+						for (int j = 0; j < a_requests; j++)
+						{
+							if (socket == null)
+							{
+								socket = new Socket(a_host, a_port);
+								socket.setTcpNoDelay(true);
+							}
+							socket.getOutputStream().write(request);
+							socket.getOutputStream().flush();
+							StringBuffer header = new StringBuffer();
+							String content = readResponse(socket.getInputStream(), header);
+							if (!a_path.equals(content))
+							{
+								throw new IOException("Unexpected content: " + content);
+							}
+							if (header.toString().indexOf("Connection: close") >= 0)
+							{
+								/* the server limits the requests per connection */
+								socket.close();
+								socket = null;
+							}
+						}
+						if (socket != null)
+						{
+							socket.close();
+						}
+					}
+					catch (Exception a_e)
+					{
+						errors.addElement(a_e);
+					}
+				}
+			});
+			clients[i].start();
+		}
+		for (int i = 0; i < clients.length; i++)
+		{
+			clients[i].join();
+		}
+		if (errors.size() > 0)
+		{
+			throw (Exception) errors.firstElement();
+		}
+	}
+
+	private static String readResponse(InputStream a_in) throws IOException
+	{
+		return readResponse(a_in, new StringBuffer());
+	}
+
+	/**
+	 * Reads one response with Content-length header and returns its content.
+	 */
+	private static String readResponse(InputStream a_in, StringBuffer a_header) throws IOException
+	{
+		String headerString = readHeader(a_in);
+		a_header.append(headerString);
+		if (!headerString.startsWith("HTTP/1.1 200"))
+		{
+			throw new IOException("Unexpected response: " + headerString);
+		}
+		int lengthStart = headerString.indexOf(HttpResponseStructure.HTTP_HEADER_LENGTH_STRING) +
+			HttpResponseStructure.HTTP_HEADER_LENGTH_STRING.length();
+		int length = Integer.parseInt(headerString.substring(lengthStart,
+			headerString.indexOf("\r\n", lengthStart)));
+		byte[] content = new byte[length];
+		int read = 0;
+		while (read < length)
+		{
+			int count = a_in.read(content, read, length - read);
+			if (count < 0)
+			{
+				throw new IOException("Connection closed before end of response content.");
+			}
+			read += count;
+		}
+		return new String(content);
+	}
+
+	/**
+	 * Reads the header of a response including the empty line at its end.
+	 */
+	private static String readHeader(InputStream a_in) throws IOException
+	{
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		int headerEndMatched = 0;
+		while (headerEndMatched < 4)
+		{
+			int currentByte = a_in.read();
+			if (currentByte < 0)
+			{
+				throw new IOException("Connection closed before end of response header.");
+			}
+			header.write(currentByte);
+			headerEndMatched = (currentByte == "\r\n\r\n".charAt(headerEndMatched)) ?
+				headerEndMatched + 1 : ((currentByte == 13) ? 1 : 0);
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Answers every request with the requested URL (and the POST data). The response for /etag
+	 * has the entity tag "v1".
+	 */
+	private static class EchoCommands implements JWSInternalCommands
+	{
+		public HttpResponseStructure processCommand(int method, int a_supportedEncodings,
+			String command, byte[] postData, InetAddress a_sourceAddress)
+		{
+			String content = command;
+			if (postData != null)
+			{
+				content = content + ":" + new String(postData);
+			}
+			if (command.equals("/etag"))
+			{
+				return new HttpResponseStructure(HttpResponseStructure.HTTP_TYPE_TEXT_PLAIN,
+					HttpResponseStructure.HTTP_ENCODING_PLAIN, content.getBytes(), "v1");
+			}
+			return new HttpResponseStructure(HttpResponseStructure.HTTP_TYPE_TEXT_PLAIN,
+											 HttpResponseStructure.HTTP_ENCODING_PLAIN, content);
+		}
+	}
+}
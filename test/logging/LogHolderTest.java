@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2006, The JAP-Team
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *   - Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *
+ *   - Neither the name of the University of Technology Dresden, Germany nor
+ *     the names of its contributors may be used to endorse or promote
+ *     products derived from this software without specific prior written
+ *     permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package logging;
+
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parameterized messages of the LogHolder and the AsyncLog, and that DEBUG messages
+ * are logged only at DEBUG level.
+ */
+public class LogHolderTest extends TestCase
+{
+	private static final int MESSAGES = 2000;
+
+	private int m_detailLevel;
+
+	public LogHolderTest(String a_strName)
+	{
+		super(a_strName);
+	}
+
+	protected void setUp()
+	{
+		m_detailLevel = LogHolder.getDetailLevel();
+	}
+
+	protected void tearDown()
+	{
+		LogHolder.setLogInstance(null);
+		LogHolder.setDetailLevel(m_detailLevel);
+		LogHolder.setCallerLocationEnabled(true);
+	}
+
+	public void testFormat()
+	{
+		assertEquals("a 1 b 2", LogHolder.format("a {} b {}", new Object[]{new Integer(1), "2"}));
+		assertEquals("a null b {}", LogHolder.format("a {} b {}", new Object[]{null}));
+		assertEquals("no placeholder", LogHolder.format("no placeholder", new Object[]{"x"}));
+		assertEquals("{}", LogHolder.format("{}", null));
+	}
+
+	/**
+	 * The arguments of a message are only formatted if the message is logged.
+	 */
+	public void testParameterizedMessageIsFormattedLazily()
+	{
+		RecordingLog log = new RecordingLog(LogLevel.INFO);
+		LogHolder.setLogInstance(log);
+		LogHolder.setDetailLevel(LogHolder.DETAIL_LEVEL_LOWEST);
+		final int[] formatted = new int[1];
+		Object argument = new Object()
+		{
+			public String toString()
+			{
+				formatted[0]++;
+				return "argument";
+			}
+		};
+
+		LogHolder.log(LogLevel.DEBUG, LogType.MISC, "Message with {}", argument);
+		assertEquals(0, formatted[0]);
+		assertEquals(0, log.m_messages.size());
+
+		LogHolder.log(LogLevel.INFO, LogType.MISC, "Message with {}", argument);
+		assertEquals(1, formatted[0]);
+		assertEquals("Message with argument", log.m_messages.elementAt(0));
+	}
+
+	public void testCallerLocation()
+	{
+		RecordingLog log = new RecordingLog(LogLevel.DEBUG);
+		LogHolder.setLogInstance(log);
+		LogHolder.setDetailLevel(LogHolder.DETAIL_LEVEL_HIGH);
+
+		LogHolder.log(LogLevel.INFO, LogType.MISC, "located");
+		String message = (String) log.m_messages.elementAt(0);
+		assertTrue(message, message.indexOf(LogHolderTest.class.getName() + ".testCallerLocation(") >= 0);
+		assertTrue(message.endsWith("located"));
+
+		LogHolder.setCallerLocationEnabled(false);
+		LogHolder.log(LogLevel.INFO, LogType.MISC, "not located");
+		assertEquals("not located", log.m_messages.elementAt(1));
+	}
+
+	/**
+	 * The AsyncLog writes all messages in the order they were logged, and flush() waits for them.
+	 */
+	public void testAsyncLogKeepsOrder() throws Exception
+	{
+		RecordingLog log = new RecordingLog(LogLevel.DEBUG);
+		final AsyncLog asyncLog = new AsyncLog(log, 16);
+		assertEquals(LogLevel.DEBUG, asyncLog.getLogLevel());
+
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			final int thread = i;
+			threads[i] = new Thread()
+			{
+				public void run()
+				{
+					for (int j = 0; j < 1000; j++)
+					{
+						asyncLog.log(LogLevel.INFO, LogType.MISC, thread + ":" + j);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i].join();
+		}
+		asyncLog.flush();
+
+		assertEquals(4000, log.m_messages.size());
+		assertTrue(log.m_flushes > 0);
+		int[] next = new int[threads.length];
+		for (int i = 0; i < log.m_messages.size(); i++)
+		{
+			String message = (String) log.m_messages.elementAt(i);
+			int thread = Integer.parseInt(message.substring(0, message.indexOf(':')));
+			assertEquals(next[thread], Integer.parseInt(message.substring(message.indexOf(':') + 1)));
+			next[thread]++;
+		}
+	}
+
+	/**
+	 * Logs DEBUG messages like those of the database with the log level set to INFO and to DEBUG,
+	 * directly and asynchronously.
+	 */
+	public void testManyMessages() throws Exception
+	{
+		LogHolder.setDetailLevel(LogHolder.DETAIL_LEVEL_HIGH);
+
+		RecordingLog log = new RecordingLog(LogLevel.INFO, false);
+		LogHolder.setLogInstance(log);
+		logMessages();
+		assertEquals(0, log.m_count);
+
+		log = new RecordingLog(LogLevel.DEBUG, false);
+		LogHolder.setLogInstance(log);
+		logMessages();
+		assertEquals(MESSAGES, log.m_count);
+
+		log = new RecordingLog(LogLevel.DEBUG, false);
+		AsyncLog asyncLog = new AsyncLog(log);
+		LogHolder.setLogInstance(asyncLog);
+		logMessages();
+		asyncLog.flush();
+		assertEquals(MESSAGES, log.m_count);
+
+		LogHolder.setCallerLocationEnabled(false);
+		log = new RecordingLog(LogLevel.DEBUG, false);
+		asyncLog = new AsyncLog(log);
+		LogHolder.setLogInstance(asyncLog);
+		logMessages();
+		asyncLog.flush();
+		assertEquals(MESSAGES, log.m_count);
+	}
+
+	private static void logMessages()
+	{
+		Object entryClass = LogHolderTest.class;
+		for (int i = 0; i < MESSAGES; i++)
+		{
+			LogHolder.log(LogLevel.DEBUG, LogType.MISC, "Added / updated entry '{}' in the {} database.",
+						  "entry", entryClass);
+		}
+	}
+
+	private static final class RecordingLog implements FlushableLog
+	{
+		private int m_level;
+		private boolean m_bRecord;
+		private Vector m_messages = new Vector();
+		private volatile int m_count = 0;
+		private int m_flushes = 0;
+
+		private RecordingLog(int a_level)
+		{
+			this(a_level, true);
+		}
+
+		private RecordingLog(int a_level, boolean a_bRecord)
+		{
+			m_level = a_level;
+			m_bRecord = a_bRecord;
+		}
+
+		public void log(int a_level, int a_type, String a_message)
+		{
+			m_count++;
+			if (m_bRecord)
+			{
+				m_messages.addElement(a_message);
+			}
+		}
+
+		public void flush()
+		{
+			m_flushes++;
+		}
+
+		public void setLogType(int a_type)
+		{
+		}
+
+		public int getLogType()
+		{
+			return LogType.ALL;
+		}
+
+		public void setLogLevel(int a_level)
+		{
+			m_level = a_level;
+		}
+
+		public int getLogLevel()
+		{
+			return m_level;
+		}
+	}
+}
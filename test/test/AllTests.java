@@ -57,6 +57,7 @@ public class AllTests
 	{
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(anon.test.AllTests.suite());
+		suite.addTest(logging.AllTests.suite());
 		return suite;
 	}
 }